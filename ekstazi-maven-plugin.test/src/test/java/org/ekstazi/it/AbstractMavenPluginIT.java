@@ -25,23 +25,35 @@ import java.util.ArrayList;
 import java.util.List;
 
 import org.ekstazi.Names;
+import org.ekstazi.util.FileUtil;
 
 /**
  * Integration tests with Maven plugin.
  */
 public abstract class AbstractMavenPluginIT extends AbstractIT {
 
-    private void executeStep(String testName, int expectedExitStatus, int expectedNumOfTests, MavenCmd.Phase[] phases, String... options) throws Exception {
+    private String[] executeStep(String testName, int expectedExitStatus, int expectedNumOfTests, MavenCmd.Phase[] phases, String... options) throws Exception {
         MavenCmd maven = new MavenCmd(getTestDir(testName), phases, options);
         maven.execute();
         Assert.assertEquals(expectedExitStatus, maven.getExitStatus());
         int actualNumOfTests = getNumOfTests(maven.getOutput());
         Assert.assertEquals(expectedNumOfTests, actualNumOfTests);
+        return maven.getOutput();
     }
 
-    protected void executeCleanTestStep(String testName, int expectedExitStatus, int expectedNumOfTests, String... options) throws Exception {
+    protected String[] executeCleanTestStep(String testName, int expectedExitStatus, int expectedNumOfTests, String... options) throws Exception {
         MavenCmd.Phase[] phases = new MavenCmd.Phase[] { MavenCmd.Phase.CLEAN, MavenCmd.Phase.TEST };
-        executeStep(testName, expectedExitStatus, expectedNumOfTests, phases, options);
+        return executeStep(testName, expectedExitStatus, expectedNumOfTests, phases, options);
+    }
+
+    protected void executeCleanTestCompileStep(String testName, String... options) throws Exception {
+        MavenCmd.Phase[] phases = new MavenCmd.Phase[] { MavenCmd.Phase.CLEAN, MavenCmd.Phase.TESTCOMPILE };
+        executeStep(testName, 0, 0, phases, options);
+    }
+
+    protected String[] executeTestStep(String testName, int expectedExitStatus, int expectedNumOfTests, String... options) throws Exception {
+        MavenCmd.Phase[] phases = new MavenCmd.Phase[] { MavenCmd.Phase.TEST };
+        return executeStep(testName, expectedExitStatus, expectedNumOfTests, phases, options);
     }
 
     protected void executeCleanVerifyStep(String testName, int expectedExitStatus, int expectedNumOfTests, String... options) throws Exception {
@@ -53,4 +65,33 @@ public abstract class AbstractMavenPluginIT extends AbstractIT {
         MavenCmd.Phase[] phases = new MavenCmd.Phase[] { MavenCmd.Phase.CLEAN };
         executeStep(testName, 0, 0, phases, options);
     }
+
+    protected void executeBaselineStep(String testName, String... options) throws Exception {
+        MavenCmd.Phase[] phases = new MavenCmd.Phase[] { MavenCmd.Phase.EKSTAZIBASELINE };
+        executeStep(testName, 0, 0, phases, options);
+    }
+
+    /**
+     * Replaces target in the given file (relative to the directory of
+     * the test project); returns the original content of the file,
+     * which can be restored with writeFile.
+     */
+    protected String replaceInFile(String testName, String path, String target, String replacement) throws Exception {
+        File file = new File(getTestDir(testName), path);
+        String content = new String(FileUtil.readFile(file), "UTF-8");
+        Assert.assertTrue(content.contains(target));
+        writeFile(testName, path, content.replace(target, replacement));
+        return content;
+    }
+
+    /**
+     * Writes content to the given file (relative to the directory of the
+     * test project).
+     */
+    protected void writeFile(String testName, String path, String content) throws Exception {
+        File file = new File(getTestDir(testName), path);
+        FileUtil.writeFile(file, content.getBytes("UTF-8"));
+        // Ensure that the change is visible even with coarse timestamps.
+        file.setLastModified(System.currentTimeMillis() + 2000);
+    }
 }
@@ -16,14 +16,22 @@
 
 package org.ekstazi.it;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.regex.Pattern;
 import java.util.regex.Matcher;
 
+import org.junit.Assert;
+
 public abstract class AbstractSurefireIT extends AbstractMavenPluginIT {
 
     /** Pattern for the number of tests */
     protected static final Pattern TESTS_RUN_LINE = Pattern.compile(".*Tests run: (\\d+), Failures: \\d+, Errors: \\d+, Skipped: \\d+");
 
+    /** Pattern for the test class that starts (newer Surefire adds log level) */
+    private static final Pattern RUNNING_LINE = Pattern.compile("(?:\\[INFO\\] )?Running (.*)");
+
     /**
      * Returns the number of tests based on the maven output.
      */
@@ -38,4 +46,18 @@ public abstract class AbstractSurefireIT extends AbstractMavenPluginIT {
         }
         return numOfTests;
     }
+
+    /**
+     * Checks that (only) the given test classes ran, in the given order.
+     */
+    protected static void assertRunOrder(String[] lines, String... classNames) {
+        List<String> running = new ArrayList<String>();
+        for (String line : lines) {
+            Matcher matcher = RUNNING_LINE.matcher(line);
+            if (matcher.matches()) {
+                running.add(matcher.group(1));
+            }
+        }
+        Assert.assertEquals(Arrays.asList(classNames), running);
+    }
 }
@@ -0,0 +1,194 @@
+/*
+ * Copyright 2015-present Milos Gligoric
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ekstazi.it;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.util.Arrays;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import org.ekstazi.Names;
+import org.ekstazi.it.util.EkstaziPaths;
+import org.ekstazi.util.FileUtil;
+
+/**
+ * Checks that only tests affected by a change run, for several
+ * selection modes.
+ */
+public class AffectedSurefireIT extends AbstractSurefireIT {
+
+    /** Project in which ATest uses A and BTest uses B */
+    private static final String TEST_NAME = "affected";
+
+    /** Path of A (in the project) */
+    private static final String A_PATH = "src/main/java/p/A.java";
+
+    /** Path of the file with changes (in the project) */
+    private static final String CHANGES_PATH = "changes.txt";
+
+    @Test
+    public void testStaticDeps() throws Exception {
+        checkOnlyATestAffectedByA("-Dekstazi.staticdeps=true");
+    }
+
+    @Test
+    public void testStaticDepsFailing() throws Exception {
+        String staticDeps = "-Dekstazi.staticdeps=true";
+        EkstaziPaths.removeEkstaziDirectories(getClass(), TEST_NAME);
+        executeCleanTestStep(TEST_NAME, 0, 2, staticDeps);
+        String original = replaceInFile(TEST_NAME, A_PATH, "return 1;", "return 0;");
+        try {
+            executeCleanTestStep(TEST_NAME, 1, 1, staticDeps);
+            // ATest is selected until it passes, even if failures are
+            // ignored (and static dependencies are saved).
+            executeCleanTestStep(TEST_NAME, 1, 1, staticDeps);
+            executeCleanTestStep(TEST_NAME, 0, 1, staticDeps, "-Dmaven.test.failure.ignore=true");
+            executeCleanTestStep(TEST_NAME, 0, 1, staticDeps, "-Dmaven.test.failure.ignore=true");
+        } finally {
+            writeFile(TEST_NAME, A_PATH, original);
+        }
+        executeCleanTestStep(TEST_NAME, 0, 1, staticDeps);
+        executeCleanTestStep(TEST_NAME, 0, 0, staticDeps);
+    }
+
+    @Test
+    public void testStaticDepsBudget() throws Exception {
+        String staticDeps = "-Dekstazi.staticdeps=true";
+        String budget = "-Dekstazi.budget=1";
+        EkstaziPaths.removeEkstaziDirectories(getClass(), TEST_NAME);
+        executeCleanTestStep(TEST_NAME, 0, 2, staticDeps, budget);
+        // Tests run without agent, so the duration of ATest is set to be
+        // longer than the budget.
+        File statsDir = new File(new File(getTestDir(TEST_NAME), Names.EKSTAZI_ROOT_DIR_NAME), Names.TEST_STATS_DIR_NAME);
+        statsDir.mkdirs();
+        FileUtil.writeFile(new File(statsDir, "p.ATest"), "5000 P".getBytes("UTF-8"));
+        String original = replaceInFile(TEST_NAME, A_PATH, "return 1;", "return 2;");
+        try {
+            executeCleanTestStep(TEST_NAME, 0, 0, staticDeps, budget);
+            // Deferred ATest is still affected.
+            executeCleanTestStep(TEST_NAME, 0, 0, staticDeps, budget);
+            executeCleanTestStep(TEST_NAME, 0, 1, staticDeps);
+            executeCleanTestStep(TEST_NAME, 0, 0, staticDeps);
+        } finally {
+            writeFile(TEST_NAME, A_PATH, original);
+        }
+    }
+
+    @Test
+    public void testRelocatable() throws Exception {
+        checkOnlyATestAffectedByA("-Dekstazi.relocatable=true");
+        // Dependencies are saved relative to the project.
+        File deps = new File(new File(getTestDir(TEST_NAME), Names.EKSTAZI_ROOT_DIR_NAME), "p.ATest.clz");
+        Assert.assertTrue(new String(FileUtil.readFile(deps), "UTF-8").contains("${project}/target/classes/p/A.class"));
+    }
+
+    @Test
+    public void testChangesList() throws Exception {
+        // A is not listed, but it is modified after dependencies are saved.
+        writeFile(TEST_NAME, CHANGES_PATH, "# No changes\n");
+        try {
+            checkOnlyATestAffectedByA("-Dekstazi.changes=list",
+                    "-Dekstazi.changesfile=" + new File(getTestDir(TEST_NAME), CHANGES_PATH).getAbsolutePath());
+        } finally {
+            new File(getTestDir(TEST_NAME), CHANGES_PATH).delete();
+        }
+    }
+
+    @Test
+    public void testChangesCompiler() throws Exception {
+        checkOnlyATestAffectedByA("-Dekstazi.changes=compiler");
+    }
+
+    @Test
+    public void testDeferHashing() throws Exception {
+        String[] lines = checkOnlyATestAffectedByA("-Dekstazi.deferhashing=true");
+        Assert.assertTrue(Arrays.asList(lines).contains("[INFO] Ekstazi saved dependencies of 2 tests from journals"));
+        // Journals are merged after each run.
+        File journalDir = new File(new File(getTestDir(TEST_NAME), Names.EKSTAZI_ROOT_DIR_NAME),
+                Names.JOURNAL_DIR_NAME);
+        String[] journals = journalDir.list();
+        Assert.assertTrue(journals == null || journals.length == 0);
+        Assert.assertTrue(dependencyExists(TEST_NAME, "p.ATest.clz", "p/A.class"));
+        Assert.assertFalse(dependencyExists(TEST_NAME, "p.ATest.clz", "p/B.class"));
+    }
+
+    @Test
+    public void testSharedHashCache() throws Exception {
+        String[] options = { "-Dekstazi.sharedhashcache=true", "-DforkCount=2", "-Dekstazi.xargs=metrics=true" };
+        EkstaziPaths.removeEkstaziDirectories(getClass(), TEST_NAME);
+        executeCleanTestStep(TEST_NAME, 0, 2, options);
+        File rootDir = new File(getTestDir(TEST_NAME), Names.EKSTAZI_ROOT_DIR_NAME);
+        Assert.assertTrue(new File(rootDir, Names.SHARED_HASH_CACHE_FILE_NAME).isFile());
+        // Classes are not compiled again, so selection reads hashes that
+        // forks put in the shared cache.
+        File metricsDir = new File(rootDir, Names.METRICS_DIR_NAME);
+        FileUtil.deleteDirectory(metricsDir);
+        executeTestStep(TEST_NAME, 0, 0, options);
+        Assert.assertTrue(getSelectionCounter(metricsDir, "hashSharedCacheHits") > 0);
+        // An edit of A keeps its length, so only its modification time
+        // invalidates the shared entry (otherwise, ATest would not run).
+        String original = replaceInFile(TEST_NAME, A_PATH, "return 1;", "return 2;");
+        try {
+            executeTestStep(TEST_NAME, 0, 1, options);
+        } finally {
+            writeFile(TEST_NAME, A_PATH, original);
+        }
+    }
+
+    // INTERNAL
+
+    /**
+     * Returns value of the given counter in the summary of selection
+     * saved in the given metrics directory.
+     */
+    private long getSelectionCounter(File metricsDir, String counterName) throws Exception {
+        File[] summaries = metricsDir.listFiles(new FilenameFilter() {
+            public boolean accept(File dir, String name) {
+                return name.startsWith("selection-");
+            }
+        });
+        Assert.assertEquals(1, summaries.length);
+        Matcher matcher = Pattern.compile("\"" + counterName + "\": (\\d+)")
+                .matcher(new String(FileUtil.readFile(summaries[0]), "UTF-8"));
+        Assert.assertTrue(matcher.find());
+        return Long.parseLong(matcher.group(1));
+    }
+
+    /**
+     * Runs all tests, then no test, then only ATest after A changes (and
+     * no test again), and finally only ATest after A is restored; returns
+     * output of the first run.
+     */
+    private String[] checkOnlyATestAffectedByA(String... options) throws Exception {
+        EkstaziPaths.removeEkstaziDirectories(getClass(), TEST_NAME);
+        String[] lines = executeCleanTestStep(TEST_NAME, 0, 2, options);
+        executeCleanTestStep(TEST_NAME, 0, 0, options);
+        String original = replaceInFile(TEST_NAME, A_PATH, "return 1;", "return 2;");
+        try {
+            executeCleanTestStep(TEST_NAME, 0, 1, options);
+            executeCleanTestStep(TEST_NAME, 0, 0, options);
+        } finally {
+            writeFile(TEST_NAME, A_PATH, original);
+        }
+        executeCleanTestStep(TEST_NAME, 0, 1, options);
+        return lines;
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright 2014-present Milos Gligoric
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ekstazi.it;
+
+import org.junit.Test;
+
+import org.ekstazi.it.util.EkstaziPaths;
+
+/**
+ * Checks that tests are selected against a saved baseline rather than
+ * against the latest run.
+ */
+public class BaselineSurefireIT extends AbstractSurefireIT {
+
+    /** Project in which ATest uses A and BTest uses B */
+    private static final String TEST_NAME = "affected";
+
+    /** Path of A (in the project) */
+    private static final String A_PATH = "src/main/java/p/A.java";
+
+    private static final String BASELINE = "-Dekstazi.baseline=r1";
+
+    @Test
+    public void testBaseline() throws Exception {
+        EkstaziPaths.removeEkstaziDirectories(getClass(), TEST_NAME);
+        executeCleanTestStep(TEST_NAME, 0, 2);
+        executeBaselineStep(TEST_NAME, "-Dekstazi.revision=r1");
+        String original = replaceInFile(TEST_NAME, A_PATH, "return 1;", "return 2;");
+        try {
+            executeCleanTestStep(TEST_NAME, 0, 1);
+            executeCleanTestStep(TEST_NAME, 0, 0);
+            // A still differs from the baseline, so ATest is selected again.
+            assertRunOrder(executeCleanTestStep(TEST_NAME, 0, 1, BASELINE), "p.ATest");
+            assertRunOrder(executeCleanTestStep(TEST_NAME, 0, 1, BASELINE), "p.ATest");
+        } finally {
+            writeFile(TEST_NAME, A_PATH, original);
+        }
+        // A is the same as in the baseline.
+        executeCleanTestStep(TEST_NAME, 0, 0, BASELINE);
+        // Unknown baseline falls back to the latest run.
+        executeCleanTestStep(TEST_NAME, 0, 0, "-Dekstazi.baseline=r2");
+    }
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright 2015-present Milos Gligoric
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ekstazi.it;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import org.ekstazi.it.util.EkstaziPaths;
+
+public class IsolatedSurefireIT extends AbstractSurefireIT {
+
+    @Test
+    public void testIsolated() throws Exception {
+        String testName = "isolated";
+        String isolated = "-Dekstazi.xargs=dependencies.isolated=true";
+        String counterPath = "src/main/java/p/Counter.java";
+
+        // Test classes share the static field of Counter in a reused
+        // fork unless they are isolated.
+        EkstaziPaths.removeEkstaziDirectories(getClass(), testName);
+        executeCleanTestStep(testName, 1, 2);
+
+        EkstaziPaths.removeEkstaziDirectories(getClass(), testName);
+        executeCleanTestStep(testName, 0, 2, isolated);
+        Assert.assertTrue(dependencyExists(testName, "p.ATest.clz", "p/Counter.class"));
+        Assert.assertTrue(dependencyExists(testName, "p.CTest.clz", "p/Counter.class"));
+        executeCleanTestStep(testName, 0, 0, isolated);
+        String original = replaceInFile(testName, counterPath, "int sCount;", "int sCount = 0;");
+        try {
+            executeCleanTestStep(testName, 0, 2, isolated);
+        } finally {
+            writeFile(testName, counterPath, original);
+        }
+    }
+}
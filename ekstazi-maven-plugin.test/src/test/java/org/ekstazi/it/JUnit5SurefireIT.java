@@ -0,0 +1,51 @@
+/*
+ * Copyright 2014-present Milos Gligoric
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ekstazi.it;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import org.ekstazi.it.util.EkstaziPaths;
+
+/**
+ * Checks that dependencies of JUnit Jupiter tests are collected (by the
+ * listener registered in the agent jar) and used to select tests.
+ */
+public class JUnit5SurefireIT extends AbstractSurefireIT {
+
+    /** Project in which ATest uses A and BTest uses B */
+    private static final String TEST_NAME = "junit5";
+
+    /** Path of A (in the project) */
+    private static final String A_PATH = "src/main/java/p/A.java";
+
+    @Test
+    public void testJUnit5() throws Exception {
+        EkstaziPaths.removeEkstaziDirectories(getClass(), TEST_NAME);
+        executeCleanTestStep(TEST_NAME, 0, 2);
+        Assert.assertTrue(dependencyExists(TEST_NAME, "p.ATest.clz", "p/A.class"));
+        Assert.assertFalse(dependencyExists(TEST_NAME, "p.ATest.clz", "p/B.class"));
+        executeCleanTestStep(TEST_NAME, 0, 0);
+        String original = replaceInFile(TEST_NAME, A_PATH, "return 1;", "return 2;");
+        try {
+            assertRunOrder(executeCleanTestStep(TEST_NAME, 0, 1), "p.ATest");
+            executeCleanTestStep(TEST_NAME, 0, 0);
+        } finally {
+            writeFile(TEST_NAME, A_PATH, original);
+        }
+    }
+}
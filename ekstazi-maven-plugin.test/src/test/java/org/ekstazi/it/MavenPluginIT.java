@@ -16,11 +16,14 @@
 
 package org.ekstazi.it;
 
+import java.io.File;
+
 import org.junit.Assert;
 import org.junit.Test;
 
 import org.ekstazi.Names;
 import org.ekstazi.it.util.EkstaziPaths;
+import org.ekstazi.util.FileUtil;
 
 /**
  * Integration tests with Maven plugin.
@@ -67,9 +70,13 @@ public class MavenPluginIT extends AbstractSurefireIT {
         String testName = "parallelparam";
         EkstaziPaths.removeEkstaziDirectories(getClass(), testName);
         executeCleanTestStep(testName, 0, 4);
+        // Test classes run at the same time; check that each class
+        // depends only on classes it uses.
+        Assert.assertTrue(dependencyExists(testName, "p.ATest.clz", "p/A.class"));
+        Assert.assertFalse(dependencyExists(testName, "p.ATest.clz", "p/C.class"));
+        Assert.assertTrue(dependencyExists(testName, "p.CTest.clz", "p/C.class"));
+        Assert.assertFalse(dependencyExists(testName, "p.CTest.clz", "p/A.class"));
         executeCleanTestStep(testName, 0, 0);
-        // TODO: Check warning
-        // TODO: Check threads
     }
 
     @Test
@@ -194,4 +201,24 @@ public class MavenPluginIT extends AbstractSurefireIT {
         executeCleanTestStep(testName, 0, 4);
         executeCleanTestStep(testName, 0, 0);
     }
+
+    // Tests that tests to run are passed through includesFile (if
+    // that list is shorter) and that the file is restored.
+    @Test
+    public void testIncludesfile() throws Exception {
+        String testName = "includesfile";
+        String aPath = "src/main/java/p/A.java";
+        EkstaziPaths.removeEkstaziDirectories(getClass(), testName);
+        executeCleanTestStep(testName, 0, 3);
+        executeCleanTestStep(testName, 0, 0);
+        String original = replaceInFile(testName, aPath, "return 1;", "return 2;");
+        try {
+            executeCleanTestStep(testName, 0, 1);
+        } finally {
+            writeFile(testName, aPath, original);
+        }
+        executeCleanTestStep(testName, 0, 1);
+        File includesFile = new File(getTestDir(testName), "includes.txt");
+        Assert.assertFalse(new String(FileUtil.readFile(includesFile), "UTF-8").contains("Ekstazi included"));
+    }
 }
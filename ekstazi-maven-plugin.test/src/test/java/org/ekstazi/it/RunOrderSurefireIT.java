@@ -0,0 +1,105 @@
+/*
+ * Copyright 2014-present Milos Gligoric
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ekstazi.it;
+
+import java.io.File;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import org.ekstazi.Names;
+import org.ekstazi.data.TestStats;
+import org.ekstazi.it.util.EkstaziPaths;
+
+/**
+ * Checks that durations of test classes are recorded and that affected
+ * test classes run in the prioritized order.
+ */
+public class RunOrderSurefireIT extends AbstractSurefireIT {
+
+    /** Project in which ATest (uses A and C) takes longer than BTest (uses B) */
+    private static final String TEST_NAME = "durations";
+
+    /** Duration of ATest (in milliseconds) */
+    private static final long A_TEST_DURATION = 1000;
+
+    private static final String A_PATH = "src/main/java/p/A.java";
+    private static final String B_PATH = "src/main/java/p/B.java";
+    private static final String C_PATH = "src/main/java/p/C.java";
+
+    private static final String A_CLASS_PATH = "target/classes/p/A.class";
+    private static final String B_CLASS_PATH = "target/classes/p/B.class";
+
+    private static final String PRIORITIZE = "-Dekstazi.xargs=tests.prioritize=true";
+
+    @Test
+    public void testRunOrder() throws Exception {
+        EkstaziPaths.removeEkstaziDirectories(getClass(), TEST_NAME);
+        executeCleanTestStep(TEST_NAME, 0, 2, PRIORITIZE);
+        String rootDir = new File(getTestDir(TEST_NAME), Names.EKSTAZI_ROOT_DIR_NAME).getAbsolutePath();
+        Assert.assertTrue(TestStats.load(rootDir, "p.ATest").getDuration() >= A_TEST_DURATION);
+        Assert.assertTrue(TestStats.load(rootDir, "p.BTest").getDuration() < A_TEST_DURATION);
+
+        String a = replaceInFile(TEST_NAME, A_PATH, "return 1;", "return 2;");
+        String b = replaceInFile(TEST_NAME, B_PATH, "return 1;", "return 2;");
+        String c = null;
+        try {
+            // Each test has one changed dependency, changed at the same
+            // time, so the shorter runs first.
+            long time = System.currentTimeMillis() + 60000;
+            executeCleanTestCompileStep(TEST_NAME);
+            setLastModified(A_CLASS_PATH, time);
+            setLastModified(B_CLASS_PATH, time);
+            assertRunOrder(executeTestStep(TEST_NAME, 0, 2, PRIORITIZE), "p.BTest", "p.ATest");
+            // The dependency of ATest changed more recently, so it runs
+            // first.
+            writeFile(TEST_NAME, A_PATH, a);
+            writeFile(TEST_NAME, B_PATH, b);
+            executeCleanTestCompileStep(TEST_NAME);
+            setLastModified(A_CLASS_PATH, time + 20000);
+            setLastModified(B_CLASS_PATH, time + 10000);
+            assertRunOrder(executeTestStep(TEST_NAME, 0, 2, PRIORITIZE), "p.ATest", "p.BTest");
+            // ATest has more changed dependencies (A and C), so it runs
+            // first even if B changed more recently.
+            replaceInFile(TEST_NAME, A_PATH, "return 1;", "return 2;");
+            replaceInFile(TEST_NAME, B_PATH, "return 1;", "return 2;");
+            c = replaceInFile(TEST_NAME, C_PATH, "return 1;", "return 2;");
+            executeCleanTestCompileStep(TEST_NAME);
+            setLastModified(A_CLASS_PATH, time + 30000);
+            setLastModified(B_CLASS_PATH, time + 40000);
+            assertRunOrder(executeTestStep(TEST_NAME, 0, 2, PRIORITIZE), "p.ATest", "p.BTest");
+        } finally {
+            writeFile(TEST_NAME, A_PATH, a);
+            writeFile(TEST_NAME, B_PATH, b);
+            if (c != null) {
+                writeFile(TEST_NAME, C_PATH, c);
+            }
+        }
+    }
+
+    // INTERNAL
+
+    /**
+     * Sets modification time of the given file (relative to the directory
+     * of the test project), e.g., of a class compiled by a previous step;
+     * the time has to be after the source file was written, so that the
+     * class is not compiled again.
+     */
+    private void setLastModified(String path, long time) throws Exception {
+        Assert.assertTrue(new File(getTestDir(TEST_NAME), path).setLastModified(time));
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright 2014-present Milos Gligoric
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ekstazi.it;
+
+import java.util.Arrays;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import org.ekstazi.it.util.EkstaziPaths;
+
+/**
+ * Checks that affected test classes are split into shards balanced by
+ * duration, and that each affected test class runs in one shard.
+ */
+public class ShardsSurefireIT extends AbstractSurefireIT {
+
+    /** Project in which ATest (uses A and C) takes longer than BTest (uses B) */
+    private static final String TEST_NAME = "durations";
+
+    private static final String A_PATH = "src/main/java/p/A.java";
+    private static final String B_PATH = "src/main/java/p/B.java";
+
+    private static final String SHARD_COUNT = "-Dekstazi.shard.count=2";
+
+    @Test
+    public void testShards() throws Exception {
+        EkstaziPaths.removeEkstaziDirectories(getClass(), TEST_NAME);
+        executeCleanTestStep(TEST_NAME, 0, 2);
+        String a = replaceInFile(TEST_NAME, A_PATH, "return 1;", "return 2;");
+        String b = replaceInFile(TEST_NAME, B_PATH, "return 1;", "return 2;");
+        try {
+            // The longer ATest is in the first shard and BTest in the second.
+            assertRunOrder(executeCleanTestStep(TEST_NAME, 0, 1, SHARD_COUNT, "-Dekstazi.shard.index=1"), "p.BTest");
+            // ATest is still affected (and the only one to split, as
+            // helper Delay is not a test).
+            String[] lines = executeCleanTestStep(TEST_NAME, 0, 1, SHARD_COUNT, "-Dekstazi.shard.index=0");
+            assertRunOrder(lines, "p.ATest");
+            Assert.assertTrue(Arrays.asList(lines).contains("[INFO] Ekstazi shard 0 of 2 excludes 0 test classes"));
+            executeCleanTestStep(TEST_NAME, 0, 0, SHARD_COUNT, "-Dekstazi.shard.index=0");
+            executeCleanTestStep(TEST_NAME, 0, 0, SHARD_COUNT, "-Dekstazi.shard.index=1");
+        } finally {
+            writeFile(TEST_NAME, A_PATH, a);
+            writeFile(TEST_NAME, B_PATH, b);
+        }
+    }
+}
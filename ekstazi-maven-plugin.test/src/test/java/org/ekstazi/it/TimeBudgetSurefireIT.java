@@ -0,0 +1,63 @@
+/*
+ * Copyright 2014-present Milos Gligoric
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ekstazi.it;
+
+import java.io.File;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import org.ekstazi.Names;
+import org.ekstazi.it.util.EkstaziPaths;
+import org.ekstazi.util.FileUtil;
+
+/**
+ * Checks that affected test classes that do not fit in the time budget
+ * are deferred, and that they run in a later build without a budget.
+ */
+public class TimeBudgetSurefireIT extends AbstractSurefireIT {
+
+    /** Project in which ATest (uses A and C) takes longer than BTest (uses B) */
+    private static final String TEST_NAME = "durations";
+
+    private static final String A_PATH = "src/main/java/p/A.java";
+    private static final String B_PATH = "src/main/java/p/B.java";
+
+    /** Budget (in seconds) that is shorter than duration of ATest */
+    private static final String BUDGET = "-Dekstazi.budget=1";
+
+    @Test
+    public void testTimeBudget() throws Exception {
+        EkstaziPaths.removeEkstaziDirectories(getClass(), TEST_NAME);
+        executeCleanTestStep(TEST_NAME, 0, 2, BUDGET);
+        File deferred = new File(new File(getTestDir(TEST_NAME), Names.EKSTAZI_ROOT_DIR_NAME), Names.DEFERRED_FILE_NAME);
+        String a = replaceInFile(TEST_NAME, A_PATH, "return 1;", "return 2;");
+        String b = replaceInFile(TEST_NAME, B_PATH, "return 1;", "return 2;");
+        try {
+            // Only the shorter BTest fits in the budget.
+            assertRunOrder(executeCleanTestStep(TEST_NAME, 0, 1, BUDGET), "p.BTest");
+            Assert.assertTrue(new String(FileUtil.readFile(deferred), "UTF-8").contains("p.ATest"));
+            // Deferred ATest is still affected.
+            assertRunOrder(executeCleanTestStep(TEST_NAME, 0, 1), "p.ATest");
+            Assert.assertFalse(deferred.exists());
+            executeCleanTestStep(TEST_NAME, 0, 0);
+        } finally {
+            writeFile(TEST_NAME, A_PATH, a);
+            writeFile(TEST_NAME, B_PATH, b);
+        }
+    }
+}
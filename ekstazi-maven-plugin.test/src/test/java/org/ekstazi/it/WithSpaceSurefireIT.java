@@ -32,4 +32,28 @@ public class WithSpaceSurefireIT extends AbstractSurefireIT {
         executeCleanTestStep(testName, 0, 4, surefireVersion);
         executeCleanTestStep(testName, 0, 0, surefireVersion);
     }
+
+    @Test
+    public void testWithSpaceInOptions() throws Exception {
+        String testName = "with space";
+        String surefireVersion = "-DsurefireVersion=2.17";
+        // Paths of the snapshot, roots, and changes file contain a space.
+        String[] options = new String[] { surefireVersion, "-Dekstazi.hashsnapshot=true",
+                "-Dekstazi.changes=list", "-Dekstazi.changesfile=changes.txt" };
+
+        EkstaziPaths.removeEkstaziDirectories(getClass(), testName);
+        executeCleanTestStep(testName, 0, 4, options);
+        executeCleanTestStep(testName, 0, 0, options);
+    }
+
+    @Test
+    public void testWithSpaceStaticDeps() throws Exception {
+        String testName = "with space";
+        String surefireVersion = "-DsurefireVersion=2.17";
+        String staticDeps = "-Dekstazi.staticdeps=true";
+
+        EkstaziPaths.removeEkstaziDirectories(getClass(), testName);
+        executeCleanTestStep(testName, 0, 4, surefireVersion, staticDeps);
+        executeCleanTestStep(testName, 0, 0, surefireVersion, staticDeps);
+    }
 }
@@ -0,0 +1,7 @@
+package p;
+
+public class B {
+    public int get() {
+        return 1;
+    }
+}
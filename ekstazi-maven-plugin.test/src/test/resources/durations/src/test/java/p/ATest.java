@@ -0,0 +1,12 @@
+package p;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ATest {
+    @Test
+    public void test1() throws Exception {
+        Delay.sleep();
+        Assert.assertTrue(new A().get() + new C().get() > 0);
+    }
+}
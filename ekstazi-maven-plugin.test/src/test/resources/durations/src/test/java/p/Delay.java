@@ -0,0 +1,7 @@
+package p;
+
+public class Delay {
+    public static void sleep() throws Exception {
+        Thread.sleep(1000);
+    }
+}
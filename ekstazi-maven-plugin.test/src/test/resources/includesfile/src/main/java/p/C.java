@@ -0,0 +1,7 @@
+package p;
+
+public class C {
+    public int get() {
+        return 1;
+    }
+}
@@ -0,0 +1,11 @@
+package p;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ATest {
+    @Test
+    public void test1() {
+        Assert.assertTrue(new A().get() > 0);
+    }
+}
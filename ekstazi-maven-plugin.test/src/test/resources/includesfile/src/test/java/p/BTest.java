@@ -0,0 +1,11 @@
+package p;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class BTest {
+    @Test
+    public void test1() {
+        Assert.assertTrue(new B().get() > 0);
+    }
+}
@@ -0,0 +1,9 @@
+package p;
+
+public class Counter {
+    public static int sCount;
+
+    public static int inc() {
+        return ++sCount;
+    }
+}
@@ -0,0 +1,15 @@
+package p;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ATest {
+    @Test
+    public void test1() throws Exception {
+        // Classes of the project are loaded (child-first) by the
+        // loader of the test class, which is also the context loader.
+        Assert.assertSame(ATest.class.getClassLoader(), Counter.class.getClassLoader());
+        Assert.assertSame(Counter.class, Thread.currentThread().getContextClassLoader().loadClass("p.Counter"));
+        Assert.assertEquals(1, Counter.inc());
+    }
+}
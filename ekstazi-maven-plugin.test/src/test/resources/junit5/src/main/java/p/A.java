@@ -0,0 +1,7 @@
+package p;
+
+public class A {
+    public int get() {
+        return 1;
+    }
+}
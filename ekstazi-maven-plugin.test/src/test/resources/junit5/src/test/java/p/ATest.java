@@ -0,0 +1,11 @@
+package p;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class ATest {
+    @Test
+    public void test1() {
+        Assertions.assertTrue(new A().get() > 0);
+    }
+}
@@ -0,0 +1,11 @@
+package p;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class BTest {
+    @Test
+    public void test1() {
+        Assertions.assertTrue(new B().get() > 0);
+    }
+}
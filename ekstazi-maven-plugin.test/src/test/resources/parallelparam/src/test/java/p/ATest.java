@@ -1,10 +1,13 @@
 package p;
 
+import org.junit.Assert;
 import org.junit.Test;
 
 public class ATest {
     @Test
-    public void test1() {
+    public void test1() throws Exception {
+        Rendezvous.await();
+        Assert.assertTrue(new A().get() > 0);
     }
 
     @Test
@@ -1,10 +1,13 @@
 package p;
 
+import org.junit.Assert;
 import org.junit.Test;
 
 public class CTest {
     @Test
-    public void test1() {
+    public void test1() throws Exception {
+        Rendezvous.await();
+        Assert.assertTrue(new C().get() > 0);
     }
 
     @Test
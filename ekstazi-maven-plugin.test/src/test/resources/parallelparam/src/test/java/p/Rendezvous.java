@@ -0,0 +1,20 @@
+package p;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+
+/**
+ * Makes test classes wait for each other, so that they run at the
+ * same time.
+ */
+public class Rendezvous {
+
+    private static final CountDownLatch sLatch = new CountDownLatch(2);
+
+    public static void await() throws Exception {
+        sLatch.countDown();
+        Assert.assertTrue("Test classes do not run in parallel", sLatch.await(30, TimeUnit.SECONDS));
+    }
+}
@@ -43,6 +43,9 @@ public abstract class AbstractEkstaziMojo extends AbstractMojo {
     /** Marker printed to excludesFile to set boundaries */
     protected static final String EKSTAZI_LINE_MARKER = "# Ekstazi excluded";
 
+    /** Marker printed to includesFile to set boundaries */
+    protected static final String EKSTAZI_INCLUDES_LINE_MARKER = "# Ekstazi included";
+
     /** Name of surefire plugin */
     protected static final String SUREFIRE_PLUGIN_KEY = "org.apache.maven.plugins:maven-surefire-plugin";
 
@@ -58,6 +61,12 @@ public abstract class AbstractEkstaziMojo extends AbstractMojo {
     /** Name of 'excludesFile' parmeter in surefire */
     protected static final String EXCLUDES_FILE_PARAM_NAME = "excludesFile";
 
+    /** Name of 'includesFile' parmeter in surefire */
+    protected static final String INCLUDES_FILE_PARAM_NAME = "includesFile";
+
+    /** Name of 'includes' parameter in surefire */
+    protected static final String INCLUDES_PARAM_NAME = "includes";
+
     /** Name of 'parallel' parameter in surefire */
     protected static final String PARALLEL_PARAM_NAME = "parallel";
 
@@ -195,33 +204,45 @@ public abstract class AbstractEkstaziMojo extends AbstractMojo {
     }
 
     /**
-     * Removes lines from excludesFile that are added by Ekstazi.
+     * Removes lines from excludesFile (or includesFile) that are added
+     * by Ekstazi, i.e., lines after the given marker.
      */
-    private void restoreExcludesFile(File excludesFileFile) throws MojoExecutionException {
-        if (!excludesFileFile.exists()) {
+    private void restoreListFile(File listFile, String marker, String paramName) throws MojoExecutionException {
+        if (!listFile.exists()) {
             return;
         }
 
         try {
-            String[] lines = FileUtil.readLines(excludesFileFile);
+            String[] lines = FileUtil.readLines(listFile);
             List<String> newLines = new ArrayList<String>();
             for (String line : lines) {
-                if (line.equals(EKSTAZI_LINE_MARKER)) break;
+                if (line.equals(marker)) break;
                 newLines.add(line);
             }
-            FileUtil.writeLines(excludesFileFile, newLines);
+            FileUtil.writeLines(listFile, newLines);
         } catch (IOException ex) {
-            throw new MojoExecutionException("Could not restore 'excludesFile'", ex);
+            throw new MojoExecutionException("Could not restore '" + paramName + "'", ex);
         }
     }
 
     protected void restoreExcludesFile(Plugin plugin) throws MojoExecutionException {
         String excludesFileName = extractParamValue(plugin, EXCLUDES_FILE_PARAM_NAME);
         File excludesFileFile = new File(excludesFileName);
-        restoreExcludesFile(excludesFileFile);
+        restoreListFile(excludesFileFile, EKSTAZI_LINE_MARKER, EXCLUDES_FILE_PARAM_NAME);
         removeExcludesFileIfEmpty(excludesFileFile);
     }
 
+    /**
+     * Removes lines from includesFile (if set) that are added by
+     * Ekstazi. Unlike excludesFile, the file is kept even if empty.
+     */
+    protected void restoreIncludesFile(Plugin plugin) throws MojoExecutionException {
+        String includesFileName = extractParamValue(plugin, INCLUDES_FILE_PARAM_NAME);
+        if (includesFileName != null) {
+            restoreListFile(new File(includesFileName), EKSTAZI_INCLUDES_LINE_MARKER, INCLUDES_FILE_PARAM_NAME);
+        }
+    }
+
     private void removeExcludesFileIfEmpty(File excludesFileFile) throws MojoExecutionException {
         if (!excludesFileFile.exists()) {
             return;
@@ -0,0 +1,68 @@
+/*
+ * Copyright 2014-present Milos Gligoric
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ekstazi.maven;
+
+import org.apache.maven.plugin.MojoExecutionException;
+
+import org.apache.maven.plugins.annotations.LifecyclePhase;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+
+import java.io.File;
+
+import org.ekstazi.Names;
+import org.ekstazi.data.Baselines;
+
+/**
+ * Saves dependencies of the latest run as the baseline for a revision,
+ * so that later builds (e.g., of pull requests) can select tests against
+ * that revision (see "baseline" parameter of "select" goal).
+ */
+@Mojo(name = "baseline", defaultPhase = LifecyclePhase.TEST)
+public class BaselineEkstaziMojo extends AbstractEkstaziMojo {
+
+    /**
+     * Revision id (e.g., commit id or branch name) of the baseline.
+     *
+     * @since 5.3.1
+     */
+    @Parameter(property = "ekstazi.revision", required = true)
+    private String revision;
+
+    /**
+     * Max number of baselines to keep; the least recently saved (or
+     * used) baselines are removed first.
+     *
+     * @since 5.3.1
+     */
+    @Parameter(property = "ekstazi.baseline.history", defaultValue = "10")
+    private int history;
+
+    public void execute() throws MojoExecutionException {
+        if (getSkipme()) {
+            getLog().info("Ekstazi is skipped.");
+            return;
+        }
+        File dotEkstazi = new File(parentdir, Names.EKSTAZI_ROOT_DIR_NAME);
+        if (!dotEkstazi.exists()) {
+            getLog().info("No dependencies to save as baseline.");
+            return;
+        }
+        Baselines.save(dotEkstazi.getAbsolutePath(), revision, history);
+        getLog().info("Ekstazi saved baseline " + revision);
+    }
+}
@@ -23,12 +23,15 @@ import org.apache.maven.plugins.annotations.Mojo;
 import org.apache.maven.model.Plugin;
 
 import java.io.File;
-import java.util.Arrays;
+import java.io.IOException;
 import java.util.List;
 
 import org.ekstazi.Config;
+import org.ekstazi.Names;
 import org.ekstazi.agent.AgentLoader;
 import org.ekstazi.agent.EkstaziAgent;
+import org.ekstazi.check.AffectedChecker;
+import org.ekstazi.util.FileUtil;
 
 /**
  * Implements selection process and integrates with Surefire.  This
@@ -81,25 +84,51 @@ public class DynamicSelectEkstaziMojo extends StaticSelectEkstaziMojo {
     private void executeThis() throws MojoExecutionException {
         // Try to attach agent that will modify Surefire.
         if (AgentLoader.loadEkstaziAgent()) {
-            // Prepare initial list of options and set property.
-            System.setProperty(AbstractMojoInterceptor.ARGLINE_INTERNAL_PROP, prepareEkstaziOptions());
-            // Find non affected classes and set property.
+            // Prepare initial list of options and set property (no
+            // agent is used if dependencies are extracted statically).
+            File basedir = project.getBasedir();
+            AbstractMojoInterceptor.setInternalProperty(AbstractMojoInterceptor.ARGLINE_INTERNAL_PROP, basedir, getStaticdeps() ? null : prepareEkstaziOptions());
+            // Find non affected classes and pass them, as well as
+            // classes to run, through files (the interceptor uses
+            // whichever list is shorter).
             List<String> nonAffectedClasses = computeNonAffectedClasses();
-            System.setProperty(AbstractMojoInterceptor.EXCLUDES_INTERNAL_PROP, Arrays.toString(nonAffectedClasses.toArray(new String[0])));
+            List<String> classesToRun = AffectedChecker.findClassesToRun(new File(testClassesDir), nonAffectedClasses);
+            AbstractMojoInterceptor.setInternalProperty(AbstractMojoInterceptor.EXCLUDES_INTERNAL_PROP, basedir, writeList(Names.EXCLUDES_FILE_NAME, nonAffectedClasses));
+            AbstractMojoInterceptor.setInternalProperty(AbstractMojoInterceptor.INCLUDES_INTERNAL_PROP, basedir, writeList(Names.INCLUDES_FILE_NAME, classesToRun));
         } else {
             throw new MojoExecutionException("Ekstazi cannot attach to the JVM, please specify Ekstazi 'restore' explicitly.");
         }
     }
 
+    /**
+     * Writes the given list of classes (one per line) to the file with
+     * the given name in Ekstazi directory, and returns path to the file.
+     */
+    private String writeList(String fileName, List<String> classes) throws MojoExecutionException {
+        File ekstaziDir = Config.createRootDir(parentdir);
+        ekstaziDir.mkdirs();
+        File file = new File(ekstaziDir, fileName);
+        try {
+            FileUtil.writeLines(file, classes);
+        } catch (IOException ex) {
+            throw new MojoExecutionException("Unable to write " + file, ex);
+        }
+        return file.getAbsolutePath();
+    }
+
     /**
      * Prepares option for Ekstazi (mostly from pom configuration).
      * Note that some other options (e.g., "mode" or path to the
      * agent) are prepared when Surefire starts execution.
      */
-    private String prepareEkstaziOptions() {
+    private String prepareEkstaziOptions() throws MojoExecutionException {
         return "force.all=" + getForceall() +
             ",force.failing=" + getForcefailing() +
             "," + getRootDirOption() +
+            getHashSnapshotOption() +
+            getRelocatableOption() +
+            getSharedHashCacheOption() +
+            getChangesOption() +
             (getXargs() == null || getXargs().equals("") ? "" : "," + getXargs());
     }
 }
@@ -37,7 +37,7 @@ public class PredictEkstaziMojo extends StaticSelectEkstaziMojo {
 
     public void execute() throws MojoExecutionException {
         // Prepare initial list of options and set property.
-        System.setProperty(AbstractMojoInterceptor.ARGLINE_INTERNAL_PROP, prepareEkstaziOptions());
+        AbstractMojoInterceptor.setInternalProperty(AbstractMojoInterceptor.ARGLINE_INTERNAL_PROP, project.getBasedir(), prepareEkstaziOptions());
         // Find non affected classes and print.
         List<String> nonAffectedClasses = computeNonAffectedClasses();
         for (String name : nonAffectedClasses) {
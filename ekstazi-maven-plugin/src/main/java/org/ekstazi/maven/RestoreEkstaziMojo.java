@@ -30,13 +30,32 @@ import java.io.File;
 import java.io.IOException;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
+import org.ekstazi.Config;
 import org.ekstazi.agent.EkstaziAgent;
+import org.ekstazi.check.StaticDependencyGraph;
+import org.ekstazi.check.TimeBudget;
+import org.ekstazi.data.Journal;
 import org.ekstazi.util.FileUtil;
 
 @Mojo(name = "restore", defaultPhase = LifecyclePhase.TEST)
 public class RestoreEkstaziMojo extends AbstractEkstaziMojo {
 
+    /** Name of 'reportsDirectory' parameter in surefire */
+    private static final String REPORTS_DIRECTORY_PARAM_NAME = "reportsDirectory";
+
+    /** Default 'reportsDirectory' (in build directory) */
+    private static final String DEFAULT_REPORTS_DIR_NAME = "surefire-reports";
+
+    /** Prefix and extension of XML reports */
+    private static final String REPORT_PREFIX = "TEST-";
+    private static final String REPORT_EXT = ".xml";
+
+    /** Errors and failures of a test class in XML report */
+    private static final Pattern FAILURES_PATTERN = Pattern.compile("<testsuite\\b(?=[^>]*\\berrors=\"(\\d+)\")(?=[^>]*\\bfailures=\"(\\d+)\")");
+
     public void execute() throws MojoExecutionException {
         if (getSkipme()) {
             getLog().info("Ekstazi is skipped.");
@@ -49,5 +68,53 @@ public class RestoreEkstaziMojo extends AbstractEkstaziMojo {
 
         Plugin plugin = lookupPlugin(SUREFIRE_PLUGIN_KEY);
         restoreExcludesFile(plugin);
+        restoreIncludesFile(plugin);
+
+        // Save dependencies collected by VMs that deferred hashing.
+        String rootDirName = Config.createRootDir(parentdir).getAbsolutePath();
+        int numOfTests = Journal.merge(rootDirName);
+        if (numOfTests > 0) {
+            getLog().info("Ekstazi saved dependencies of " + numOfTests + " tests from journals");
+        }
+
+        // Save static dependencies now that tests ran; tests that
+        // failed (if failures are ignored) or were deferred (as they
+        // did not fit in time budget) stay affected.
+        List<String> notPassedClasses = findFailingClasses(plugin);
+        notPassedClasses.addAll(TimeBudget.load(rootDirName));
+        if (StaticDependencyGraph.savePending(rootDirName, notPassedClasses)) {
+            getLog().info("Ekstazi saved static dependencies");
+        }
+    }
+
+    // INTERNAL
+
+    /**
+     * Finds test classes that have at least one failure/error in
+     * Surefire XML reports.
+     */
+    private List<String> findFailingClasses(Plugin plugin) throws MojoExecutionException {
+        String reportsDirName = extractParamValue(plugin, REPORTS_DIRECTORY_PARAM_NAME);
+        File reportsDir = reportsDirName == null ? new File(projectBuildDir, DEFAULT_REPORTS_DIR_NAME) : new File(reportsDirName);
+        List<String> failingClasses = new ArrayList<String>();
+        File[] files = reportsDir.listFiles();
+        if (files == null) {
+            return failingClasses;
+        }
+        for (File file : files) {
+            String name = file.getName();
+            if (!name.startsWith(REPORT_PREFIX) || !name.endsWith(REPORT_EXT)) {
+                continue;
+            }
+            try {
+                Matcher matcher = FAILURES_PATTERN.matcher(new String(FileUtil.readFile(file), "UTF-8"));
+                if (matcher.find() && (!matcher.group(1).equals("0") || !matcher.group(2).equals("0"))) {
+                    failingClasses.add(name.substring(REPORT_PREFIX.length(), name.length() - REPORT_EXT.length()));
+                }
+            } catch (IOException ex) {
+                throw new MojoExecutionException("Could not read " + file, ex);
+            }
+        }
+        return failingClasses;
     }
 }
@@ -16,6 +16,7 @@
 
 package org.ekstazi.maven;
 
+import org.apache.maven.artifact.repository.ArtifactRepository;
 import org.apache.maven.plugin.AbstractMojo;
 import org.apache.maven.plugin.MojoExecutionException;
 
@@ -45,10 +46,12 @@ import java.net.URISyntaxException;
 import org.ekstazi.Config;
 import org.ekstazi.agent.EkstaziAgent;
 import org.ekstazi.check.AffectedChecker;
+import org.ekstazi.hash.HashSnapshot;
 import org.ekstazi.Names;
 import org.ekstazi.util.Types;
 import org.ekstazi.util.FileUtil;
 
+import org.codehaus.plexus.util.SelectorUtils;
 import org.codehaus.plexus.util.xml.Xpp3Dom;
 
 /**
@@ -58,6 +61,12 @@ import org.codehaus.plexus.util.xml.Xpp3Dom;
  */
 public class StaticSelectEkstaziMojo extends AbstractEkstaziMojo {
 
+    /** Default includes (of surefire) that are the same in all versions */
+    private static final String[] DEFAULT_INCLUDES = { "**/Test*.java", "**/*Test.java", "**/*TestCase.java" };
+
+    /** Default includes that differ among versions */
+    private static final String[] VERSION_DEPENDENT_INCLUDES = { "**/*Tests.java" };
+
     /** List of surefire versions that are not supported */
     private static final String[] sNonSupportedVersions = {"2.0-beta-1", "2.0", "2.1", "2.1.1", "2.1.2", "2.1.3", "2.2", "2.3", "2.3.1", "2.4", "2.4.1", "2.4.2", "2.4.3", "2.5", "2.6", "2.7", "2.7.1", "2.7.2", "2.8", "2.8.1", "2.9", "2.10", "2.11", "2.12", "2.12.1", "2.12.2", "2.12.3", "2.12.4"};
 
@@ -86,6 +95,161 @@ public class StaticSelectEkstaziMojo extends AbstractEkstaziMojo {
     @Parameter(property = "ekstazi.xargs", defaultValue = "")
     protected String xargs;
 
+    /**
+     * Enable/disable selection based on dependencies among classes
+     * extracted from classfiles.  Tests run without Ekstazi agent,
+     * i.e., no dependencies are collected while tests run.  If
+     * "restore" goal is present, it saves dependencies after tests
+     * run, so that affected tests that fail are selected again.
+     *
+     * @since 5.3.1
+     */
+    @Parameter(property = "ekstazi.staticdeps", defaultValue = "false")
+    private boolean staticdeps;
+
+    /**
+     * Time budget (in seconds) for running affected tests; 0 means
+     * no budget.  Affected tests that do not fit in the budget (based
+     * on durations recorded in previous runs) are deferred and listed
+     * in .ekstazi/deferred.
+     *
+     * @since 5.3.1
+     */
+    @Parameter(property = "ekstazi.budget", defaultValue = "0")
+    private int budget;
+
+    /**
+     * Index (starting from 0) of the shard of affected tests to run;
+     * used only if shard count is greater than 1.
+     *
+     * @since 5.3.1
+     */
+    @Parameter(property = "ekstazi.shard.index", defaultValue = "0")
+    private int shardindex;
+
+    /**
+     * Number of shards that affected tests are split into, e.g., to
+     * run affected tests on several machines.  Shards are balanced
+     * based on durations recorded in previous runs.
+     *
+     * @since 5.3.1
+     */
+    @Parameter(property = "ekstazi.shard.count", defaultValue = "1")
+    private int shardcount;
+
+    /**
+     * Enable/disable sharing hashes among all modules in the build
+     * and VMs that run tests; each file is then hashed (about) once
+     * per build.
+     *
+     * @since 5.3.1
+     */
+    @Parameter(property = "ekstazi.hashsnapshot", defaultValue = "false")
+    private boolean hashsnapshot;
+
+    /**
+     * Enable/disable selecting tests in a long-lived daemon that
+     * keeps dependencies and hashes in memory between builds.  The
+     * daemon is started by the first build that needs it (tests are
+     * selected without the daemon until it is up), and it stops
+     * after being idle for several hours.
+     *
+     * @since 5.3.1
+     */
+    @Parameter(property = "ekstazi.daemon", defaultValue = "false")
+    private boolean daemon;
+
+    /**
+     * Revision id of the baseline (saved by "baseline" goal) to
+     * select tests against, e.g., the id of the target branch of a
+     * pull request; tests are selected against the latest run if the
+     * baseline is not available.
+     *
+     * @since 5.3.1
+     */
+    @Parameter(property = "ekstazi.baseline", defaultValue = "")
+    private String baseline;
+
+    /**
+     * Enable/disable saving dependencies relative to the project, the
+     * local Maven repository, and Java home, so that dependencies stay
+     * valid when these directories move (e.g., when Ekstazi directory
+     * is restored from a CI cache into another workspace).
+     *
+     * @since 5.3.1
+     */
+    @Parameter(property = "ekstazi.relocatable", defaultValue = "false")
+    private boolean relocatable;
+
+    /**
+     * Local repository of the build; location of the Maven repository
+     * that relocatable dependencies are relative to.
+     *
+     * @since 5.3.1
+     */
+    @Parameter(defaultValue = "${localRepository}", readonly = true)
+    private ArtifactRepository localRepository;
+
+    /**
+     * Enable/disable deferring hashing of dependencies: VMs that run
+     * tests only append URLs of dependencies to journals, and
+     * "restore" goal (which has to be present) hashes each URL once
+     * and saves dependencies after tests finish.
+     *
+     * @since 5.3.1
+     */
+    @Parameter(property = "ekstazi.deferhashing", defaultValue = "false")
+    private boolean deferhashing;
+
+    /**
+     * Enable/disable sharing hashes among VMs that run tests at the
+     * same time (e.g., with forkCount greater than 1) through a
+     * memory-mapped file in Ekstazi directory.
+     *
+     * @since 5.3.1
+     */
+    @Parameter(property = "ekstazi.sharedhashcache", defaultValue = "false")
+    private boolean sharedhashcache;
+
+    /**
+     * Provider of files changed since dependencies were collected:
+     * "git", "compiler", "list", or name of a class that implements
+     * org.ekstazi.change.ChangeSetProvider. Classes and resources of
+     * the project that are not changed are not hashed; empty to hash
+     * all dependencies.
+     *
+     * @since 5.3.1
+     */
+    @Parameter(property = "ekstazi.changes", defaultValue = "")
+    private String changes;
+
+    /**
+     * Git revision at which dependencies were collected (used if
+     * changes is "git").
+     *
+     * @since 5.3.1
+     */
+    @Parameter(property = "ekstazi.changesrevision", defaultValue = "HEAD")
+    private String changesrevision;
+
+    /**
+     * File that lists changed files, one per line (used if changes is
+     * "list").
+     *
+     * @since 5.3.1
+     */
+    @Parameter(property = "ekstazi.changesfile", defaultValue = "")
+    private String changesfile;
+
+    /** File with hashes shared in the current build */
+    private static File sHashSnapshotFile;
+
+    @Parameter(defaultValue = "${project.build.outputDirectory}")
+    protected String classesDir;
+
+    @Parameter(defaultValue = "${project.build.testOutputDirectory}")
+    protected String testClassesDir;
+
     public boolean getForcefailing() {
         return forcefailing;
     }
@@ -98,6 +262,62 @@ public class StaticSelectEkstaziMojo extends AbstractEkstaziMojo {
         return xargs;
     }
 
+    public boolean getStaticdeps() {
+        return staticdeps;
+    }
+
+    public int getBudget() {
+        return budget;
+    }
+
+    public int getShardindex() {
+        return shardindex;
+    }
+
+    public int getShardcount() {
+        return shardcount;
+    }
+
+    public boolean getHashsnapshot() {
+        return hashsnapshot;
+    }
+
+    public boolean getDaemon() {
+        return daemon;
+    }
+
+    public String getBaseline() {
+        return baseline;
+    }
+
+    public boolean getRelocatable() {
+        return relocatable;
+    }
+
+    public ArtifactRepository getLocalRepository() {
+        return localRepository;
+    }
+
+    public boolean getDeferhashing() {
+        return deferhashing;
+    }
+
+    public boolean getSharedhashcache() {
+        return sharedhashcache;
+    }
+
+    public String getChanges() {
+        return changes;
+    }
+
+    public String getChangesrevision() {
+        return changesrevision;
+    }
+
+    public String getChangesfile() {
+        return changesfile;
+    }
+
     public void execute() throws MojoExecutionException {
         // Check if user explicitly requested to not use Ekstazi in
         // this run.
@@ -121,24 +341,37 @@ public class StaticSelectEkstaziMojo extends AbstractEkstaziMojo {
         // TODO: check executions in case if we cannot dynamically
         // instrument Surefire.
 
-        boolean isForkMode = isForkMode(surefirePlugin);
-        // Include agent to be used during test run.
-        addJavaAgent(isForkMode ? Config.AgentMode.JUNITFORK : Config.AgentMode.JUNIT);
+        // Include agent to be used during test run (unless
+        // dependencies are extracted statically).
+        if (!getStaticdeps()) {
+            boolean isForkMode = isForkMode(surefirePlugin);
+            addJavaAgent(isForkMode ? Config.AgentMode.JUNITFORK : Config.AgentMode.JUNIT, isParallelOn(surefirePlugin));
+        } else if (!isRestoreGoalPresent()) {
+            getLog().warn("Ekstazi saves static dependencies before tests run as 'restore' goal is not present");
+        }
 
         List<String> nonAffectedClasses = computeNonAffectedClasses();
-        // Append excludes list to "excludesFile".
         checkParametersInFileMode(surefirePlugin);
-        appendExcludesListToExcludesFile(surefirePlugin, nonAffectedClasses);
+        // Append tests to run to "includesFile" if that list is
+        // shorter (Surefire matches each class against each pattern);
+        // otherwise, append excludes list to "excludesFile".
+        List<String> classesToRun = findIncludes(surefirePlugin, nonAffectedClasses);
+        if (classesToRun != null && !classesToRun.isEmpty() && classesToRun.size() < nonAffectedClasses.size()) {
+            appendListToFile(surefirePlugin, INCLUDES_FILE_PARAM_NAME, EKSTAZI_INCLUDES_LINE_MARKER, classesToRun);
+            appendExcludesListToExcludesFile(surefirePlugin, new ArrayList<String>());
+        } else {
+            appendExcludesListToExcludesFile(surefirePlugin, nonAffectedClasses);
+        }
     }
 
     // INTERNAL
 
-    protected List<String> computeNonAffectedClasses() {
+    protected List<String> computeNonAffectedClasses() throws MojoExecutionException {
         List<String> nonAffectedClasses = new ArrayList();
         if (!getForceall()) {
             // Create excludes list; we assume that all files are in
             // the parentdir.
-            nonAffectedClasses = AffectedChecker.findNonAffectedClasses(parentdir, getRootDirOption());
+            nonAffectedClasses.addAll(AffectedChecker.findNonAffectedClasses(parentdir, getSelectionOptions()));
 
             // Do not exclude recently failing tests if appropriate
             // argument is provided.
@@ -146,6 +379,25 @@ public class StaticSelectEkstaziMojo extends AbstractEkstaziMojo {
                 List<String> recentlyFailingClasses = AffectedChecker.findRecentlyFailingClasses(parentdir, getRootDirOption());
                 nonAffectedClasses.removeAll(recentlyFailingClasses);
             }
+            if (getBudget() > 0) {
+                List<String> deferredClasses = AffectedChecker.findDeferredClasses(parentdir, getSelectionOptions());
+                getLog().info("Ekstazi deferred " + deferredClasses.size() + " affected test classes (time budget)");
+            }
+        }
+        // Exclude tests that run in other shards (after the set of
+        // tests to run is known).
+        if (getShardcount() > 1) {
+            if (getShardindex() < 0 || getShardindex() >= getShardcount()) {
+                throw new MojoExecutionException("Shard index has to be between 0 and " + (getShardcount() - 1));
+            }
+            List<String> otherShardsClasses = AffectedChecker.findOtherShardsClasses(parentdir, getSelectionOptions(), new File(testClassesDir), nonAffectedClasses);
+            getLog().info("Ekstazi shard " + getShardindex() + " of " + getShardcount() + " excludes " + otherShardsClasses.size() + " test classes");
+            nonAffectedClasses.addAll(otherShardsClasses);
+        }
+        // Share hashes computed during selection with VMs that run
+        // tests (and later modules).
+        if (getHashsnapshot()) {
+            HashSnapshot.get(getHashSnapshotFile()).save();
         }
         return nonAffectedClasses;
     }
@@ -154,7 +406,7 @@ public class StaticSelectEkstaziMojo extends AbstractEkstaziMojo {
     /**
      * Sets property to pass Ekstazi agent to surefire plugin.
      */
-    private void addJavaAgent(Config.AgentMode junitMode) throws MojoExecutionException {
+    private void addJavaAgent(Config.AgentMode junitMode, boolean isParallel) throws MojoExecutionException {
         try {
             URL agentJarURL = Types.extractJarURL(EkstaziAgent.class);
             if (agentJarURL == null) {
@@ -162,7 +414,7 @@ public class StaticSelectEkstaziMojo extends AbstractEkstaziMojo {
             }
             Properties properties = project.getProperties();
             String oldValue = properties.getProperty(ARG_LINE_PARAM_NAME);
-            properties.setProperty(ARG_LINE_PARAM_NAME, prepareEkstaziOptions(agentJarURL, junitMode) + " " + (oldValue == null ? "" : oldValue));
+            properties.setProperty(ARG_LINE_PARAM_NAME, prepareEkstaziOptions(agentJarURL, junitMode, isParallel) + " " + (oldValue == null ? "" : oldValue));
         } catch (IOException ex) {
             throw new MojoExecutionException("Unable to set path to agent", ex);
         } catch (URISyntaxException ex) {
@@ -170,19 +422,207 @@ public class StaticSelectEkstaziMojo extends AbstractEkstaziMojo {
         }
     }
 
-    private String prepareEkstaziOptions(URL agentJarURL, Config.AgentMode junitMode) throws URISyntaxException {
+    private String prepareEkstaziOptions(URL agentJarURL, Config.AgentMode junitMode, boolean isParallel) throws URISyntaxException, MojoExecutionException {
         String agentAbsolutePath = new File(agentJarURL.toURI().getSchemeSpecificPart()).getAbsolutePath();
         return "-javaagent:" + agentAbsolutePath + "=mode=" + junitMode +
+            (isParallel ? "," + Config.DEPENDENCIES_PARALLEL_N + "=true" : "") +
             ",force.all=" + getForceall() +
             ",force.failing=" + getForcefailing() +
-            "," + getRootDirOption() +
-            (getXargs() == null || getXargs().equals("") ? "" : "," + getXargs());
+            getDeferHashingOption() +
+            "," + getSelectionOptions();
+    }
+
+    /**
+     * Option that defers hashing to "restore" goal; the option is
+     * empty if hashing is not deferred or if the goal is not present
+     * (as journals would not be merged).
+     */
+    private String getDeferHashingOption() {
+        if (!getDeferhashing()) {
+            return "";
+        }
+        if (!isRestoreGoalPresent()) {
+            getLog().warn("Ekstazi does not defer hashing as 'restore' goal is not present");
+            return "";
+        }
+        return "," + Config.HASH_DEFERRED_N + "=true";
+    }
+
+    /**
+     * Options used for selection; these include xargs, so that
+     * selection sees the same configuration as the agent.
+     */
+    protected String getSelectionOptions() throws MojoExecutionException {
+        return getRootDirOption() + (getStaticdeps() ? "," + getStaticOptions() : "")
+            + "," + Config.TESTS_BUDGET_N + "=" + getBudget()
+            + "," + Config.SHARD_INDEX_N + "=" + getShardindex()
+            + "," + Config.SHARD_COUNT_N + "=" + getShardcount()
+            + getHashSnapshotOption()
+            + (getDaemon() ? "," + Config.DAEMON_N + "=true" : "")
+            + getRelocatableOption()
+            + getSharedHashCacheOption()
+            + getChangesOption()
+            + (getBaseline() == null || getBaseline().equals("") ? "" : "," + Config.BASELINE_N + "=" + getBaseline())
+            + (getXargs() == null || getXargs().equals("") ? "" : "," + getXargs());
+    }
+
+    /**
+     * Options used to select tests based on static dependencies; the
+     * dependencies are saved by "restore" goal (if present) once tests
+     * run.
+     */
+    private String getStaticOptions() {
+        return Config.DEPENDENCIES_STATIC_N + "=true" +
+            "," + Config.DEPENDENCIES_STATIC_CLASSES_N + "=" + Config.getURIString(new File(classesDir)) +
+            "," + Config.DEPENDENCIES_STATIC_TESTCLASSES_N + "=" + Config.getURIString(new File(testClassesDir)) +
+            (isRestoreGoalPresent() ? "," + Config.DEPENDENCIES_STATIC_DEFERRED_N + "=true" : "");
+    }
+
+    /**
+     * Option that sets file with hashes shared in the current build;
+     * the option is empty if hashes are not shared.
+     */
+    protected String getHashSnapshotOption() throws MojoExecutionException {
+        return getHashsnapshot() ? "," + Config.HASH_SNAPSHOT_N + "=" + Config.getURIString(getHashSnapshotFile()) : "";
+    }
+
+    /**
+     * Option that saves dependencies relative to symbolic roots; the
+     * option is empty if dependencies are not relocatable.
+     */
+    protected String getRelocatableOption() {
+        if (!getRelocatable()) {
+            return "";
+        }
+        return "," + Config.DEPENDENCIES_RELOCATABLE_N + "=true"
+            + (getLocalRepository() == null ? "" : "," + Config.DEPENDENCIES_RELOCATABLE_M2_N + "="
+                    + Config.getURIString(new File(getLocalRepository().getBasedir())));
+    }
+
+    /**
+     * Option that shares hashes among VMs that run tests at the same
+     * time; the option is empty if hashes are not shared.
+     */
+    protected String getSharedHashCacheOption() {
+        return getSharedhashcache() ? "," + Config.HASH_SHARED_CACHE_N + "=true" : "";
+    }
+
+    /**
+     * Options that set provider of changes for classes and test classes
+     * of the project; the option is empty if no provider is set.
+     */
+    protected String getChangesOption() {
+        if (getChanges() == null || getChanges().equals("")) {
+            return "";
+        }
+        return "," + Config.CHANGES_PROVIDER_N + "=" + getChanges()
+            + "," + Config.CHANGES_ROOTS_N + "=" + Config.getURIString(new File(classesDir))
+                + Config.CHANGES_ROOTS_SEPARATOR + Config.getURIString(new File(testClassesDir))
+            + (getChangesrevision() == null ? "" : "," + Config.CHANGES_REVISION_N + "=" + getChangesrevision())
+            + (getChangesfile() == null || getChangesfile().equals("") ? "" : "," + Config.CHANGES_FILE_N + "="
+                    + Config.getURIString(new File(getChangesfile())));
+    }
+
+    /**
+     * Returns file with hashes shared in the current build (i.e., in
+     * this VM); the file is created the first time it is requested.
+     */
+    private static synchronized File getHashSnapshotFile() throws MojoExecutionException {
+        if (sHashSnapshotFile == null) {
+            try {
+                sHashSnapshotFile = File.createTempFile("ekstazi", ".hashes");
+                sHashSnapshotFile.deleteOnExit();
+            } catch (IOException ex) {
+                throw new MojoExecutionException("Unable to create file for hashes", ex);
+            }
+        }
+        return sHashSnapshotFile;
     }
 
     protected String getRootDirOption() {
         return "root.dir=" + Config.getRootDirURI(parentdir);
     }
 
+    /**
+     * Returns test classes to run if they can be passed through
+     * "includesFile", i.e., if the file is set and has no patterns
+     * (other than ones added by Ekstazi), if neither "includes" nor
+     * "test" is set, and if each class to run matches default includes
+     * of all Surefire versions; returns null otherwise. (Surefire takes
+     * the union of includesFile and includes, and uses default includes
+     * only if both are empty.)
+     */
+    private List<String> findIncludes(Plugin plugin, List<String> nonAffectedClasses) throws MojoExecutionException {
+        // Remove lines added before (if 'restore' was not run).
+        restoreIncludesFile(plugin);
+        String includesFileName = extractParamValue(plugin, INCLUDES_FILE_PARAM_NAME);
+        String test = System.getProperty("test");
+        if (includesFileName == null || isParamPresent(plugin, INCLUDES_PARAM_NAME) || (test != null && !test.equals(""))
+                || hasPatterns(new File(includesFileName))) {
+            return null;
+        }
+        List<String> includes = new ArrayList<String>();
+        for (String className : AffectedChecker.findClassesToRun(new File(testClassesDir), nonAffectedClasses)) {
+            if (matchesAny(DEFAULT_INCLUDES, className)) {
+                includes.add(className);
+            } else if (matchesAny(VERSION_DEPENDENT_INCLUDES, className)) {
+                return null;
+            }
+        }
+        return includes;
+    }
+
+    private static boolean matchesAny(String[] patterns, String className) {
+        for (String pattern : patterns) {
+            if (SelectorUtils.matchPath(pattern, className)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns true if the given list file has at least one pattern.
+     */
+    private static boolean hasPatterns(File listFile) throws MojoExecutionException {
+        if (!listFile.exists()) {
+            return false;
+        }
+        try {
+            for (String line : FileUtil.readLines(listFile)) {
+                if (!line.trim().equals("") && !line.trim().startsWith("#")) {
+                    return true;
+                }
+            }
+            return false;
+        } catch (IOException ex) {
+            throw new MojoExecutionException("Could not access " + listFile, ex);
+        }
+    }
+
+    /**
+     * Appends the given classes (after the given marker) to the file
+     * set by the given parameter; lines after the marker are removed
+     * by 'restore'.
+     */
+    private void appendListToFile(Plugin plugin, String paramName, String marker, List<String> classes) throws MojoExecutionException {
+        File file = new File(extractParamValue(plugin, paramName));
+        PrintWriter pw = null;
+        try {
+            pw = new PrintWriter(new FileOutputStream(file, true), true);
+            pw.println(marker);
+            for (String className : classes) {
+                pw.println(className);
+            }
+        } catch (IOException ex) {
+            throw new MojoExecutionException("Could not access " + paramName, ex);
+        } finally {
+            if (pw != null) {
+                pw.close();
+            }
+        }
+    }
+
     /**
      * Appends list of classes that should be excluded to the given
      * file.
@@ -263,6 +703,14 @@ public class StaticSelectEkstaziMojo extends AbstractEkstaziMojo {
             (forkModeValue != null && forkModeValue.equals("never"));
     }
 
+    /**
+     * Returns true if the given parameter is set in configuration.
+     */
+    private boolean isParamPresent(Plugin plugin, String paramName) {
+        Xpp3Dom configuration = (Xpp3Dom) plugin.getConfiguration();
+        return configuration != null && configuration.getChild(paramName) != null;
+    }
+
     private boolean isExcludesFilePresent(Plugin plugin) throws MojoExecutionException {
         String excludesFileValue = extractParamValue(plugin, EXCLUDES_FILE_PARAM_NAME);
         return excludesFileValue != null;
@@ -288,10 +736,6 @@ public class StaticSelectEkstaziMojo extends AbstractEkstaziMojo {
      * Checks that all parameters are set as expected.
      */
     private void checkParameters(Plugin plugin) throws MojoExecutionException {
-        // Fail if 'parallel' parameter is used.
-        if (isParallelOn(plugin)) {
-            throw new MojoExecutionException("Ekstazi currently does not support parallel parameter");
-        }
         // Fail if fork is disabled.
         if (isForkDisabled(plugin)) {
             throw new MojoExecutionException("forkCount has to be at least 1");
@@ -0,0 +1,147 @@
+/*
+ * Copyright 2014-present Milos Gligoric
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ekstazi.maven;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugins.annotations.Execute;
+import org.apache.maven.plugins.annotations.LifecyclePhase;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+import org.apache.maven.plugins.annotations.ResolutionScope;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.ekstazi.Config;
+import org.ekstazi.agent.EkstaziAgent;
+import org.ekstazi.junit.WatchRunner;
+import org.ekstazi.util.Types;
+
+/**
+ * Runs affected tests every time classes change (e.g., when they are
+ * compiled by an IDE or by "mvn test-compile" in another terminal).
+ * Tests run in a VM that stays up between runs (with Ekstazi agent and
+ * JUnit loaded); only classes of the project are loaded again for each
+ * run.  Only JUnit tests with names that Surefire includes by default
+ * are run.
+ */
+@Mojo(name = "watch", requiresDependencyResolution = ResolutionScope.TEST)
+@Execute(phase = LifecyclePhase.TEST_COMPILE)
+public class WatchEkstaziMojo extends StaticSelectEkstaziMojo {
+
+    /** Name of the file (in build directory) with hashes kept between runs */
+    private static final String HASHES_FILE_NAME = "ekstazi-watch.hashes";
+
+    @Parameter(defaultValue = "${project.testClasspathElements}", readonly = true)
+    private List<String> testClasspathElements;
+
+    public void execute() throws MojoExecutionException {
+        if (getSkipme()) {
+            getLog().info("Ekstazi is skipped.");
+            return;
+        }
+        if (getStaticdeps()) {
+            throw new MojoExecutionException("Ekstazi 'watch' collects dependencies while tests run, so 'staticdeps' cannot be used");
+        }
+        final Process process;
+        try {
+            ProcessBuilder pb = new ProcessBuilder(prepareCommand());
+            pb.directory(basedir);
+            pb.inheritIO();
+            process = pb.start();
+        } catch (IOException ex) {
+            throw new MojoExecutionException("Unable to start VM to run tests", ex);
+        }
+        // Stop the VM if Maven is stopped.
+        Runtime.getRuntime().addShutdownHook(new Thread() {
+            @Override
+            public void run() {
+                process.destroy();
+            }
+        });
+        try {
+            process.waitFor();
+        } catch (InterruptedException ex) {
+            process.destroy();
+        }
+    }
+
+    // INTERNAL
+
+    /**
+     * Prepares command that starts VM with the agent and runs affected
+     * tests on each change.
+     */
+    private List<String> prepareCommand() throws MojoExecutionException {
+        try {
+            URL agentJarURL = Types.extractJarURL(EkstaziAgent.class);
+            if (agentJarURL == null) {
+                throw new MojoExecutionException("Unable to locate Ekstazi agent");
+            }
+            String agentPath = new File(agentJarURL.toURI().getSchemeSpecificPart()).getAbsolutePath();
+
+            StringBuilder classpath = new StringBuilder(agentPath);
+            for (String element : testClasspathElements) {
+                classpath.append(File.pathSeparator).append(element);
+            }
+
+            List<String> command = new ArrayList<String>();
+            command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+            command.add("-javaagent:" + agentPath + "=" + prepareEkstaziOptions());
+            command.add("-cp");
+            command.add(classpath.toString());
+            command.add(WatchRunner.class.getName());
+            command.add(parentdir.getAbsolutePath());
+            command.add(testClassesDir);
+            command.add(classesDir + File.pathSeparator + testClassesDir);
+            return command;
+        } catch (IOException ex) {
+            throw new MojoExecutionException("Unable to locate Ekstazi agent", ex);
+        } catch (URISyntaxException ex) {
+            throw new MojoExecutionException("Unable to locate Ekstazi agent", ex);
+        }
+    }
+
+    /**
+     * Prepares options for Ekstazi; selection options are the same as
+     * for "select" goal.  Test classes are isolated, so that classes of
+     * the project are loaded again for each run, and caches are off, so
+     * that each run sees current hashes (hashes are kept with file
+     * stamps instead).  Failing tests run on each change until they
+     * pass.
+     */
+    private String prepareEkstaziOptions() throws MojoExecutionException {
+        return "mode=" + Config.AgentMode.JUNIT +
+            ",dependencies.isolated=true" +
+            ",cache.sizes=0" +
+            ",force.failing=true" +
+            "," + getSelectionOptions();
+    }
+
+    /**
+     * Option that sets file (in build directory) with hashes kept
+     * between runs; hashes are always kept in watch mode.
+     */
+    @Override
+    protected String getHashSnapshotOption() {
+        return "," + Config.HASH_SNAPSHOT_N + "=" + Config.getURIString(new File(projectBuildDir, HASHES_FILE_NAME));
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright 2014-present Milos Gligoric
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ekstazi.bench;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.ekstazi.hash.BytecodeCleaner;
+import org.ekstazi.util.FileUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Removing debug info from a class file before semantic hashing
+ * ({@link BytecodeCleaner#removeDebugInfo}).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CleanerBenchmark {
+
+    /** Content of class file */
+    private byte[] mBytes;
+
+    @Setup
+    public void setup() throws IOException {
+        mBytes = FileUtil.loadBytes(CleanerBenchmark.class.getClassLoader().getResourceAsStream(
+                HashBenchmark.CLASS_RESOURCE));
+    }
+
+    @Benchmark
+    public byte[] removeDebugInfo() {
+        return BytecodeCleaner.removeDebugInfo(mBytes);
+    }
+}
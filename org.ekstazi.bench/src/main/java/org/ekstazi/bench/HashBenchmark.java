@@ -0,0 +1,112 @@
+/*
+ * Copyright 2014-present Milos Gligoric
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ekstazi.bench;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+import org.ekstazi.hash.BytecodeCleaner;
+import org.ekstazi.hash.Hasher;
+import org.ekstazi.util.FileUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Hashing of class files ({@link Hasher#hashURL}) in a directory and in a
+ * jar, with and without semantic hashing (i.e., removing debug info
+ * before hashing, see {@link BytecodeCleaner#removeDebugInfo}). Caches
+ * are off, so each invocation reads and hashes the class file.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HashBenchmark {
+
+    /** Class file that is hashed (a large class of the agent) */
+    static final String CLASS_RESOURCE = "org/ekstazi/hash/BytecodeCleaner.class";
+
+    @Param({ "true", "false" })
+    public boolean semantic;
+
+    /** Temporary directory with class file and jar */
+    private File mDir;
+
+    /** External form of class file in directory */
+    private String mFileURL;
+
+    /** External form of class file in jar */
+    private String mJarURL;
+
+    /** Hasher without caches */
+    private Hasher mHasher;
+
+    @Setup
+    public void setup() throws IOException {
+        byte[] bytes = FileUtil.loadBytes(HashBenchmark.class.getClassLoader().getResourceAsStream(CLASS_RESOURCE));
+        mDir = File.createTempFile("ekstazi", "bench");
+        mDir.delete();
+        File classFile = new File(mDir, CLASS_RESOURCE);
+        classFile.getParentFile().mkdirs();
+        FileUtil.writeFile(classFile, bytes);
+        mFileURL = classFile.toURI().toURL().toExternalForm();
+
+        File jarFile = new File(mDir, "bench.jar");
+        JarOutputStream jos = new JarOutputStream(new FileOutputStream(jarFile));
+        try {
+            jos.putNextEntry(new JarEntry(CLASS_RESOURCE));
+            jos.write(bytes);
+            jos.closeEntry();
+        } finally {
+            jos.close();
+        }
+        mJarURL = "jar:" + jarFile.toURI().toURL().toExternalForm() + "!/" + CLASS_RESOURCE;
+
+        mHasher = new Hasher(Hasher.Algorithm.CRC32, 0, semantic);
+    }
+
+    @TearDown
+    public void tearDown() {
+        FileUtil.deleteDirectory(mDir);
+    }
+
+    @Benchmark
+    public String hashFileURL() {
+        return mHasher.hashURL(mFileURL);
+    }
+
+    @Benchmark
+    public String hashJarURL() {
+        return mHasher.hashURL(mJarURL);
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2014-present Milos Gligoric
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ekstazi.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.ekstazi.monitor.ClassesCache;
+import org.ekstazi.monitor.CoverageMonitor;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Touch methods invoked by instrumented code ({@link CoverageMonitor#t},
+ * {@link CoverageMonitor#f}) and the cache they check first
+ * ({@link ClassesCache#check}). A hit touches a class that is already
+ * collected for the current test; a miss touches classes after
+ * dependencies of the previous test are cleaned.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MonitorBenchmark {
+
+    /** Classes touched by miss benchmarks */
+    private static final Class<?>[] CLASSES = { Samples.S0.class, Samples.S1.class, Samples.S2.class,
+            Samples.S3.class, Samples.S4.class, Samples.S5.class, Samples.S6.class, Samples.S7.class, };
+
+    /** Object whose class is touched by field benchmarks */
+    private final Object mObject = new Samples.S0();
+
+    @Setup
+    public void setup() {
+        CoverageMonitor.clean();
+        for (Class<?> clz : CLASSES) {
+            CoverageMonitor.t(clz);
+        }
+    }
+
+    @Benchmark
+    public void tHit() {
+        CoverageMonitor.t(Samples.S0.class);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void tHitThreads() {
+        CoverageMonitor.t(Samples.S0.class);
+    }
+
+    @Benchmark
+    public void tProbeHit() {
+        CoverageMonitor.t(Samples.S0.class, 1);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void tProbeHitThreads() {
+        CoverageMonitor.t(Samples.S0.class, 1);
+    }
+
+    @Benchmark
+    public void fHit() {
+        CoverageMonitor.f(mObject);
+    }
+
+    /**
+     * Cleans dependencies and touches several classes (as at the
+     * beginning of each test class).
+     */
+    @Benchmark
+    public void tMiss() {
+        CoverageMonitor.clean();
+        for (Class<?> clz : CLASSES) {
+            CoverageMonitor.t(clz);
+        }
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void tMissThreads() {
+        CoverageMonitor.clean();
+        for (Class<?> clz : CLASSES) {
+            CoverageMonitor.t(clz);
+        }
+    }
+
+    @Benchmark
+    public boolean cacheCheck() {
+        return ClassesCache.check(Samples.S0.class);
+    }
+}
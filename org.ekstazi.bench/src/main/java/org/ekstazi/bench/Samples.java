@@ -0,0 +1,78 @@
+/*
+ * Copyright 2014-present Milos Gligoric
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ekstazi.bench;
+
+/**
+ * Classes used as dependencies in benchmarks.
+ */
+public final class Samples {
+
+    public static class S0 {
+        public int value() {
+            return 0;
+        }
+    }
+
+    public static class S1 extends S0 {
+        @Override
+        public int value() {
+            return 1;
+        }
+    }
+
+    public static class S2 extends S0 {
+        @Override
+        public int value() {
+            return 2;
+        }
+    }
+
+    public static class S3 extends S0 {
+        @Override
+        public int value() {
+            return 3;
+        }
+    }
+
+    public static class S4 extends S0 {
+        @Override
+        public int value() {
+            return 4;
+        }
+    }
+
+    public static class S5 extends S0 {
+        @Override
+        public int value() {
+            return 5;
+        }
+    }
+
+    public static class S6 extends S0 {
+        @Override
+        public int value() {
+            return 6;
+        }
+    }
+
+    public static class S7 extends S0 {
+        @Override
+        public int value() {
+            return 7;
+        }
+    }
+}
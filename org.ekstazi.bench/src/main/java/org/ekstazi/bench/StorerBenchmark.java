@@ -0,0 +1,107 @@
+/*
+ * Copyright 2014-present Milos Gligoric
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ekstazi.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+import org.ekstazi.data.PrefixTxtStorer;
+import org.ekstazi.data.RegData;
+import org.ekstazi.data.Storer;
+import org.ekstazi.data.TxtStorer;
+import org.ekstazi.util.FileUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Saving and loading dependencies of one test class in each format
+ * ({@link TxtStorer}, {@link PrefixTxtStorer}).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StorerBenchmark {
+
+    /** Name of the test class */
+    private static final String CLASS_NAME = "org.ekstazi.bench.SomeTest";
+
+    /** Extension of the dependency file */
+    private static final String EXT = "clz";
+
+    @Param({ "TXT", "PREFIX_TXT" })
+    public Storer.Mode mode;
+
+    @Param({ "500" })
+    public int dependencies;
+
+    /** Directory with dependencies */
+    private File mDir;
+
+    /** Storer in the given mode */
+    private Storer mStorer;
+
+    /** Dependencies that are saved */
+    private Set<RegData> mRegData;
+
+    @Setup
+    public void setup() throws IOException {
+        mDir = File.createTempFile("ekstazi", "bench");
+        mDir.delete();
+        mDir.mkdirs();
+        mStorer = mode == Storer.Mode.TXT ? new TxtStorer() : new PrefixTxtStorer();
+        mRegData = new TreeSet<RegData>(new RegData.RegComparator());
+        for (int i = 0; i < dependencies; i++) {
+            String externalForm = i % 2 == 0
+                ? "file:/home/user/project/target/classes/org/example/pkg" + (i % 10) + "/Class" + i + ".class"
+                : "jar:file:/home/user/.m2/repository/org/example/lib/1.0/lib-1.0.jar!/org/example/lib/Class" + i
+                        + ".class";
+            mRegData.add(new RegData(externalForm, Long.toString(1000000000L + i * 7919L)));
+        }
+        mStorer.save(mDir.getAbsolutePath(), CLASS_NAME, EXT, mRegData);
+    }
+
+    @TearDown
+    public void tearDown() {
+        FileUtil.deleteDirectory(mDir);
+    }
+
+    @Benchmark
+    public void save() {
+        mStorer.save(mDir.getAbsolutePath(), CLASS_NAME, EXT, mRegData);
+    }
+
+    @Benchmark
+    public Set<RegData> load() {
+        return mStorer.load(mDir.getAbsolutePath(), CLASS_NAME, EXT);
+    }
+}
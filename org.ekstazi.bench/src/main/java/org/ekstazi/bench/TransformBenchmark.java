@@ -0,0 +1,71 @@
+/*
+ * Copyright 2014-present Milos Gligoric
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ekstazi.bench;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.ekstazi.agent.EkstaziCFT;
+import org.ekstazi.util.FileUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Instrumentation of class files as they are loaded
+ * ({@link EkstaziCFT#transform}), for a small and a large class.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TransformBenchmark {
+
+    @Param({ "org/ekstazi/bench/Samples$S1", "org/ekstazi/hash/BytecodeCleaner" })
+    public String className;
+
+    /** Transformer used by the agent */
+    private EkstaziCFT mTransformer;
+
+    /** Loader that can access the monitor */
+    private ClassLoader mLoader;
+
+    /** Original class file */
+    private byte[] mBytes;
+
+    @Setup
+    public void setup() throws IOException {
+        mTransformer = new EkstaziCFT();
+        mLoader = TransformBenchmark.class.getClassLoader();
+        mBytes = FileUtil.loadBytes(mLoader.getResourceAsStream(className + ".class"));
+    }
+
+    @Benchmark
+    public byte[] transform() {
+        return mTransformer.transform(mLoader, className, null, null, mBytes);
+    }
+}
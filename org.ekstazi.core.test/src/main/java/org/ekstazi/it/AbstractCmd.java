@@ -36,6 +36,9 @@ public abstract class AbstractCmd {
     /** Exit code of the command */
     private int mExitCode = -1;
 
+    /** Time (in nanoseconds) of the *latest* run */
+    private long mTime;
+
     public AbstractCmd(File cwd) {
         this.mCwd = cwd;
     }
@@ -44,6 +47,7 @@ public abstract class AbstractCmd {
      * Executes the command and collect output.
      */
     public final void execute() {
+        long start = System.nanoTime();
         try {
             String[] command = getCommand();
             ProcessBuilder pb = new ProcessBuilder(command);
@@ -63,6 +67,7 @@ public abstract class AbstractCmd {
         } catch (Exception ex) {
             mException = ex;
         }
+        mTime = System.nanoTime() - start;
     }
 
     public final boolean isSuccess() {
@@ -73,6 +78,10 @@ public abstract class AbstractCmd {
         return mExitCode;
     }
 
+    public final long getTime() {
+        return mTime;
+    }
+
     public final String getExceptionMessage() {
         return (mException != null) ? mException.getMessage() : null;
     }
@@ -40,7 +40,7 @@ public class JavaCmd extends AbstractCmd {
     private final String mEkstaziOptions;
 
     /**
-     * Constructor.
+     * Constructor. The agent is not attached if mode is null.
      */
     public JavaCmd(File cwd, String[] classpath, String main, Config.AgentMode ekstaziMode, String ekstaziOptions) {
         super(cwd);
@@ -53,11 +53,13 @@ public class JavaCmd extends AbstractCmd {
     protected String[] getCommand() {
         List<String> command = new ArrayList<String>();
         command.add(JAVA);
-        String ekstaziOptions = mEkstaziOptions;
-        if (!ekstaziOptions.equals("")) {
-            ekstaziOptions = Config.OPTION_SEPARATOR + ekstaziOptions;
+        if (mEkstaziMode != null) {
+            String ekstaziOptions = mEkstaziOptions;
+            if (!ekstaziOptions.equals("")) {
+                ekstaziOptions = Config.OPTION_SEPARATOR + ekstaziOptions;
+            }
+            command.add("-javaagent:" + EkstaziPaths.getEkstaziCoreJarPath() + "=mode=" + mEkstaziMode + ekstaziOptions);
         }
-        command.add("-javaagent:" + EkstaziPaths.getEkstaziCoreJarPath() + "=mode=" + mEkstaziMode + ekstaziOptions);
         if (mClasspath != null) {
             command.add("-cp");
             command.add(join(mClasspath, System.getProperty("path.separator")));
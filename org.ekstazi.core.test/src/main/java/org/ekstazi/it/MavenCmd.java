@@ -27,6 +27,7 @@ public class MavenCmd extends AbstractCmd {
 
     public static enum Phase {
         CLEAN("clean"),
+        EKSTAZIBASELINE("ekstazi:baseline"),
         EKSTAZIEKSTAZI("ekstazi:ekstazi"),
         EKSTAZIPREDICT("ekstazi:predict"),
         TEST("test"),
@@ -0,0 +1,240 @@
+/*
+ * Copyright 2014-present Milos Gligoric
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ekstazi.it;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+import org.ekstazi.util.FileUtil;
+
+/**
+ * Generated project used to measure Ekstazi on projects of different
+ * shapes. The project has source classes (each class depends on up to
+ * fan-out classes with lower index and on one class from a jar), test
+ * classes (each test class depends on up to fan-out source classes), and
+ * a suite (AllTests) that includes all test classes. A commit changes
+ * the given number of source classes.
+ *
+ * Classes of the project are compiled next to their sources (as in other
+ * tests in this module); jars are in lib directory.
+ */
+public class SyntheticProject {
+
+    /** Package of source and test classes */
+    private static final String PACKAGE = "p";
+
+    /** Name of the suite that includes all test classes */
+    public static final String SUITE = PACKAGE + ".AllTests";
+
+    /** Project directory */
+    private final File mDir;
+
+    /** Classpath of JUnit */
+    private final String mJUnitJar;
+
+    /** Number of jars */
+    private final int mNumOfJars;
+
+    /** Constant in each source class (changed by commits) */
+    private final int[] mConstants;
+
+    /** Dependencies of each source class (on lower indexes) */
+    private final int[][] mClassDeps;
+
+    /** Dependencies of each test class */
+    private final int[][] mTestDeps;
+
+    /** Jar used by each source class (-1 if none) */
+    private final int[] mJarDeps;
+
+    private final Random mRandom;
+
+    /**
+     * Constructor.
+     */
+    public SyntheticProject(File dir, String junitJar, int numOfClasses, int numOfTests, int fanOut, int numOfJars,
+            long seed) {
+        this.mDir = dir;
+        this.mJUnitJar = junitJar;
+        this.mNumOfJars = numOfJars;
+        this.mRandom = new Random(seed);
+        this.mConstants = new int[numOfClasses];
+        this.mClassDeps = new int[numOfClasses][];
+        this.mJarDeps = new int[numOfClasses];
+        for (int i = 0; i < numOfClasses; i++) {
+            mConstants[i] = i;
+            mClassDeps[i] = pick(Math.min(fanOut, i), i);
+            mJarDeps[i] = numOfJars == 0 ? -1 : mRandom.nextInt(numOfJars);
+        }
+        this.mTestDeps = new int[numOfTests][];
+        for (int i = 0; i < numOfTests; i++) {
+            mTestDeps[i] = pick(Math.min(Math.max(fanOut, 1), numOfClasses), numOfClasses);
+        }
+    }
+
+    /**
+     * Generates (and compiles) the project; existing directory is
+     * removed.
+     */
+    public void generate() throws IOException {
+        if (mDir.exists()) {
+            FileUtil.deleteDirectory(mDir);
+        }
+        File libDir = new File(mDir, "lib");
+        File libSrcDir = new File(mDir, "libsrc");
+        for (int j = 0; j < mNumOfJars; j++) {
+            String name = "lib" + j + "/L" + j;
+            write(new File(libSrcDir, name + ".java"), "package lib" + j + ";\n\npublic class L" + j
+                    + " {\n    public static int V = " + j + ";\n}\n");
+            compile(libSrcDir, new String[] { "." }, new String[] { name + ".java" });
+            jar(new File(libDir, "lib" + j + ".jar"), new File(libSrcDir, name + ".class"), name + ".class");
+        }
+        List<String> files = new ArrayList<String>();
+        for (int i = 0; i < mConstants.length; i++) {
+            files.add(writeClass(i));
+        }
+        StringBuilder suite = new StringBuilder();
+        for (int i = 0; i < mTestDeps.length; i++) {
+            StringBuilder sb = new StringBuilder();
+            sb.append("package ").append(PACKAGE).append(";\n\n");
+            sb.append("import org.junit.Assert;\nimport org.junit.Test;\n\n");
+            sb.append("public class T").append(i).append("Test {\n");
+            sb.append("    @Test\n    public void test() {\n        Assert.assertNotNull(Integer.valueOf(0");
+            for (int dep : mTestDeps[i]) {
+                sb.append(" + C").append(dep).append(".V");
+            }
+            sb.append("));\n    }\n}\n");
+            String fileName = PACKAGE + "/T" + i + "Test.java";
+            write(new File(mDir, fileName), sb.toString());
+            files.add(fileName);
+            suite.append(i == 0 ? "" : ", ").append("T").append(i).append("Test.class");
+        }
+        String suiteFileName = PACKAGE + "/AllTests.java";
+        write(new File(mDir, suiteFileName), "package " + PACKAGE + ";\n\nimport org.junit.runner.RunWith;\n"
+                + "import org.junit.runners.Suite;\n\n@RunWith(Suite.class)\n@Suite.SuiteClasses({ " + suite
+                + " })\npublic class AllTests {\n}\n");
+        files.add(suiteFileName);
+        compile(mDir, getClasspath(), files.toArray(new String[0]));
+    }
+
+    /**
+     * Changes constants in the given number of (distinct) source classes
+     * and compiles changed classes.
+     *
+     * @return Number of changed classes
+     */
+    public int commit(int numOfChanges) throws IOException {
+        int[] changed = pick(Math.min(numOfChanges, mConstants.length), mConstants.length);
+        String[] files = new String[changed.length];
+        for (int k = 0; k < changed.length; k++) {
+            mConstants[changed[k]] += mConstants.length;
+            files[k] = writeClass(changed[k]);
+        }
+        compile(mDir, getClasspath(), files);
+        return changed.length;
+    }
+
+    /**
+     * Returns classpath (relative to project directory) needed to run
+     * tests.
+     */
+    public String[] getClasspath() {
+        String[] classpath = new String[mNumOfJars + 2];
+        classpath[0] = mJUnitJar;
+        classpath[1] = ".";
+        for (int j = 0; j < mNumOfJars; j++) {
+            classpath[j + 2] = "lib" + File.separator + "lib" + j + ".jar";
+        }
+        return classpath;
+    }
+
+    public File getDir() {
+        return mDir;
+    }
+
+    public int getNumOfTests() {
+        return mTestDeps.length;
+    }
+
+    // INTERNAL
+
+    /**
+     * Picks (up to) n distinct random numbers from [0, bound).
+     */
+    private int[] pick(int n, int bound) {
+        List<Integer> picked = new ArrayList<Integer>();
+        while (picked.size() < n) {
+            Integer k = mRandom.nextInt(bound);
+            if (!picked.contains(k)) {
+                picked.add(k);
+            }
+        }
+        int[] result = new int[n];
+        for (int k = 0; k < n; k++) {
+            result[k] = picked.get(k);
+        }
+        return result;
+    }
+
+    private String writeClass(int i) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        sb.append("package ").append(PACKAGE).append(";\n\n");
+        sb.append("public class C").append(i).append(" {\n");
+        sb.append("    public static int V = ").append(mConstants[i]);
+        for (int dep : mClassDeps[i]) {
+            sb.append(" + C").append(dep).append(".V");
+        }
+        if (mJarDeps[i] != -1) {
+            sb.append(" + lib").append(mJarDeps[i]).append(".L").append(mJarDeps[i]).append(".V");
+        }
+        sb.append(";\n}\n");
+        String fileName = PACKAGE + "/C" + i + ".java";
+        write(new File(mDir, fileName), sb.toString());
+        return fileName;
+    }
+
+    private static void write(File file, String content) throws IOException {
+        file.getParentFile().mkdirs();
+        FileUtil.writeFile(file, content.getBytes());
+    }
+
+    private static void compile(File dir, String[] classpath, String[] files) throws IOException {
+        JavacCmd javac = new JavacCmd(dir, classpath, files);
+        javac.execute();
+        if (!javac.isSuccess()) {
+            throw new IOException("Unsuccessful compilation: " + javac.getOutputAsString());
+        }
+    }
+
+    private static void jar(File jar, File classFile, String entryName) throws IOException {
+        jar.getParentFile().mkdirs();
+        JarOutputStream jos = new JarOutputStream(new FileOutputStream(jar));
+        try {
+            jos.putNextEntry(new JarEntry(entryName));
+            jos.write(FileUtil.readFile(classFile));
+            jos.closeEntry();
+        } finally {
+            jos.close();
+        }
+    }
+}
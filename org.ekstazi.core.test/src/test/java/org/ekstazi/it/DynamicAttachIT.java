@@ -0,0 +1,83 @@
+/*
+ * Copyright 2014-present Milos Gligoric
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ekstazi.it;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import org.ekstazi.it.util.EkstaziPaths;
+
+public class DynamicAttachIT extends AbstractIT {
+
+    /** Line printed by each affected run */
+    private static final String AFFECTED_LINE = "Affected: 10";
+
+    @Override
+    protected int getNumOfTests(String[] lines) {
+        int numOfRuns = 0;
+        for (String line : lines) {
+            if (line.equals(AFFECTED_LINE)) {
+                numOfRuns++;
+            }
+        }
+        return numOfRuns;
+    }
+
+    @Test
+    public void testDynamicattach() throws Exception {
+        String testName = "dynamicattach";
+        EkstaziPaths.removeEkstaziDirectories(getClass(), testName);
+        run(testName, 1, "D1.java");
+        Assert.assertTrue(dependencyExists(testName, "Main.cov", "C.class"));
+        // D is loaded before the agent is attached.
+        Assert.assertTrue(dependencyExists(testName, "Main.cov", "D.class"));
+        run(testName, 0, "D1.java");
+        run(testName, 1, "D2.java");
+        run(testName, 0, "D2.java");
+    }
+
+    // INTERNAL
+
+    private void run(String testName, int expectedNumOfRuns, String codeUnderTest) throws Exception {
+        File testDir = getTestDir(testName);
+        String[] classpath = new String[] { EkstaziPaths.getEkstaziCoreJarPath(), "." };
+
+        JavacCmd javac = new JavacCmd(testDir, classpath, new String[] { codeUnderTest, "C.java", "Main.java" });
+        javac.execute();
+        Assert.assertTrue("Unsuccessful compilation: " + javac.getCommandAsString() + " | "
+                + javac.getOutputAsString(), javac.isSuccess());
+
+        // The agent is not given on the command line.
+        JavaCmd java = new JavaCmd(testDir, classpath, "Main", null, "") {
+            @Override
+            protected String[] getCommand() {
+                List<String> command = new ArrayList<String>(Arrays.asList(super.getCommand()));
+                command.add(1, "-Djdk.attach.allowAttachSelf=true");
+                return command.toArray(new String[command.size()]);
+            }
+        };
+        java.execute();
+        Assert.assertTrue("Unsuccessful run: " + java.getCommandAsString() + " | " + java.getOutputAsString(),
+                java.isSuccess());
+        Assert.assertEquals(java.getOutputAsString(), expectedNumOfRuns, getNumOfTests(java.getOutput()));
+    }
+}
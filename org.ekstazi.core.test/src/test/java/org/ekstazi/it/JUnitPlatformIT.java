@@ -0,0 +1,104 @@
+/*
+ * Copyright 2014-present Milos Gligoric
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ekstazi.it;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import org.ekstazi.Config;
+import org.ekstazi.it.util.EkstaziPaths;
+
+public class JUnitPlatformIT extends AbstractIT {
+
+    /** Pattern for the number of tests reported by the launcher */
+    private static final Pattern TESTS_RUN_LINE = Pattern.compile("Tests run: (\\d+), Failures: 0");
+
+    /** Classes from jars needed to compile and run Jupiter tests */
+    private static final Class<?>[] PLATFORM_CLASSES = { org.junit.platform.launcher.Launcher.class,
+            org.junit.platform.engine.TestEngine.class, org.junit.platform.commons.util.ReflectionUtils.class,
+            org.junit.jupiter.engine.JupiterTestEngine.class, org.junit.jupiter.api.Test.class,
+            org.opentest4j.AssertionFailedError.class, org.apiguardian.api.API.class };
+
+    @Override
+    protected int getNumOfTests(String[] lines) {
+        int numOfTests = -1;
+        for (String line : lines) {
+            Matcher matcher = TESTS_RUN_LINE.matcher(line);
+            if (matcher.matches()) {
+                numOfTests = Integer.parseInt(matcher.group(1));
+            }
+        }
+        return numOfTests;
+    }
+
+    @Test
+    public void testJunitplatform() throws Exception {
+        String testName = "junitplatform";
+        EkstaziPaths.removeEkstaziDirectories(getClass(), testName);
+        launch(testName, 2, "A1.java");
+        Assert.assertTrue(dependencyExists(testName, "ATest.clz", "A.class"));
+        Assert.assertFalse(dependencyExists(testName, "ATest.clz", "B.class"));
+        Assert.assertTrue(dependencyExists(testName, "BTest.clz", "B.class"));
+        // Non-affected classes are filtered out of the test plan.
+        launch(testName, 0, "A1.java");
+        launch(testName, 1, "A2.java");
+        launch(testName, 0, "A2.java");
+    }
+
+    // INTERNAL
+
+    private void launch(String testName, int expectedNumOfTests, String codeUnderTest) throws Exception {
+        File testDir = getTestDir(testName);
+        String[] classpath = getClasspath();
+
+        JavacCmd javac = new JavacCmd(testDir, classpath, new String[] { codeUnderTest, "B.java", "ATest.java",
+                "BTest.java", "Launch.java" });
+        javac.execute();
+        Assert.assertTrue("Unsuccessful compilation: " + javac.getCommandAsString() + " | "
+                + javac.getOutputAsString(), javac.isSuccess());
+
+        JavaCmd java = new JavaCmd(testDir, classpath, "Launch", Config.AgentMode.JUNIT, "") {
+            @Override
+            protected String[] getCommand() {
+                List<String> command = new ArrayList<String>(Arrays.asList(super.getCommand()));
+                command.add("ATest");
+                command.add("BTest");
+                return command.toArray(new String[command.size()]);
+            }
+        };
+        java.execute();
+        Assert.assertTrue("Unsuccessful run: " + java.getCommandAsString() + " | " + java.getOutputAsString(),
+                java.isSuccess());
+        Assert.assertEquals(java.getOutputAsString(), expectedNumOfTests, getNumOfTests(java.getOutput()));
+    }
+
+    private static String[] getClasspath() throws Exception {
+        List<String> classpath = new ArrayList<String>();
+        for (Class<?> clz : PLATFORM_CLASSES) {
+            classpath.add(new File(clz.getProtectionDomain().getCodeSource().getLocation().toURI()).getAbsolutePath());
+        }
+        classpath.add(".");
+        return classpath.toArray(new String[classpath.size()]);
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright 2014-present Milos Gligoric
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ekstazi.it;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import org.ekstazi.Config;
+import org.ekstazi.Names;
+import org.ekstazi.check.AffectedChecker;
+import org.ekstazi.util.FileUtil;
+
+/**
+ * Measures end-to-end cost and savings of Ekstazi on a synthetic project
+ * over a sequence of commits: for each commit, affected tests are
+ * selected (as build plugins do), and then tests are run with Ekstazi
+ * and without Ekstazi (clean run). Not run with other tests; run with:
+ *
+ * mvn verify -pl org.ekstazi.core.test -Pmacrobench
+ *     [-Dbench.classes=200] [-Dbench.tests=50] [-Dbench.fanout=3]
+ *     [-Dbench.jars=5] [-Dbench.changes=1] [-Dbench.commits=5]
+ *     [-Dbench.seed=42]
+ *
+ * The report is printed and saved in target/macrobench.csv.
+ */
+public class MacroBenchmark extends AbstractJUnitIT {
+
+    /** Number of runs of an empty VM to measure startup */
+    private static final int STARTUP_RUNS = 5;
+
+    @Test
+    public void testMacroBenchmark() throws Exception {
+        int numOfClasses = Integer.getInteger("bench.classes", 200);
+        int numOfTests = Integer.getInteger("bench.tests", 50);
+        int fanOut = Integer.getInteger("bench.fanout", 3);
+        int numOfJars = Integer.getInteger("bench.jars", 5);
+        int numOfChanges = Integer.getInteger("bench.changes", 1);
+        int numOfCommits = Integer.getInteger("bench.commits", 5);
+        long seed = Long.getLong("bench.seed", 42);
+
+        String junitJar = new File(getClass().getResource("/junit-4.10.jar").toURI()).getAbsolutePath();
+        SyntheticProject project = new SyntheticProject(new File("target", "macrobench"), junitJar, numOfClasses,
+                numOfTests, fanOut, numOfJars, seed);
+        project.generate();
+
+        List<String> report = new ArrayList<String>();
+        report.add("commit,changed,selection_ms,ekstazi_ms,clean_ms,tests_run,tests_skipped,ekstazi_dir_bytes");
+        long startupDelta = measureStartup(project, Config.AgentMode.JUNIT) - measureStartup(project, null);
+        long agentOverhead = 0;
+        for (int commit = 0; commit <= numOfCommits; commit++) {
+            int changed = commit == 0 ? numOfClasses : project.commit(numOfChanges);
+
+            long start = System.nanoTime();
+            AffectedChecker.findNonAffectedClasses(project.getDir(), null);
+            long selectionTime = System.nanoTime() - start;
+
+            JUnitCmd ekstazi = runTests(project, Config.AgentMode.JUNIT);
+            JUnitCmd clean = runTests(project, null);
+            long ekstaziTime = ekstazi.getTime();
+            long cleanTime = clean.getTime();
+            if (commit == 0) {
+                // All tests run (and collect dependencies) in the first run.
+                agentOverhead = ekstaziTime - cleanTime;
+            }
+            int testsRun = getNumOfTests(ekstazi.getOutput());
+            report.add(commit + "," + changed + "," + toMillis(selectionTime) + "," + toMillis(ekstaziTime) + ","
+                    + toMillis(cleanTime) + "," + testsRun + "," + (project.getNumOfTests() - testsRun) + ","
+                    + size(new File(project.getDir(), Names.EKSTAZI_ROOT_DIR_NAME)));
+        }
+        report.add("# startup_delta_ms=" + toMillis(startupDelta) + " agent_overhead_ms=" + toMillis(agentOverhead)
+                + " classes=" + numOfClasses + " tests=" + numOfTests + " fanout=" + fanOut + " jars=" + numOfJars
+                + " changes=" + numOfChanges);
+        for (String line : report) {
+            System.out.println(line);
+        }
+        FileUtil.writeLines(new File("target", "macrobench.csv"), report);
+    }
+
+    // INTERNAL
+
+    private JUnitCmd runTests(SyntheticProject project, Config.AgentMode mode) {
+        JUnitCmd junit = new JUnitCmd(project.getDir(), project.getClasspath(), SyntheticProject.SUITE, mode, "");
+        junit.execute();
+        Assert.assertTrue("Unsuccessful JUnit run: " + junit.getOutputAsString(), junit.isSuccess());
+        return junit;
+    }
+
+    /**
+     * Returns the shortest time to start (and stop) JUnit without tests.
+     */
+    private long measureStartup(SyntheticProject project, Config.AgentMode mode) {
+        long min = Long.MAX_VALUE;
+        for (int i = 0; i < STARTUP_RUNS; i++) {
+            JavaCmd java = new JavaCmd(project.getDir(), project.getClasspath(), "org.junit.runner.JUnitCore", mode,
+                    "");
+            java.execute();
+            min = Math.min(min, java.getTime());
+        }
+        return min;
+    }
+
+    private static long size(File file) {
+        if (file.isFile()) {
+            return file.length();
+        }
+        long size = 0;
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                size += size(child);
+            }
+        }
+        return size;
+    }
+
+    private static long toMillis(long nanos) {
+        return nanos / 1000000;
+    }
+}
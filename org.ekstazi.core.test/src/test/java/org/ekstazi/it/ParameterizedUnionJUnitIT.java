@@ -0,0 +1,53 @@
+/*
+ * Copyright 2014-present Milos Gligoric
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ekstazi.it;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import org.ekstazi.it.util.EkstaziPaths;
+
+public class ParameterizedUnionJUnitIT extends AbstractJUnitIT {
+
+    @Test
+    public void testParameterizedunion() throws Exception {
+        checkEachEditAffects("");
+    }
+
+    @Test
+    public void testParameterizedunionNoCache() throws Exception {
+        // Sessions are not cached between tests.
+        checkEachEditAffects("cache.sizes=0");
+    }
+
+    // INTERNAL
+
+    private void checkEachEditAffects(String ekstaziOptions) throws Exception {
+        String testName = "parameterizedunion";
+        EkstaziPaths.removeEkstaziDirectories(getClass(), testName);
+
+        javacJUnit(testName, 2, "CTest.java", new String[] { "C1.java", "D1.java" }, ekstaziOptions);
+        Assert.assertTrue(dependencyExists(testName, "CTest.clz", "C.class"));
+        Assert.assertTrue(dependencyExists(testName, "CTest.clz", "D.class"));
+        javacJUnit(testName, 0, "CTest.java", new String[] { "C1.java", "D1.java" }, ekstaziOptions);
+        // Each edit affects the test, whichever parameter uses the class.
+        javacJUnit(testName, 2, "CTest.java", new String[] { "C2.java", "D1.java" }, ekstaziOptions);
+        javacJUnit(testName, 2, "CTest.java", new String[] { "C2.java", "D2.java" }, ekstaziOptions);
+        javacJUnit(testName, 0, "CTest.java", new String[] { "C2.java", "D2.java" }, ekstaziOptions);
+        javacJUnit(testName, 2, "CTest.java", new String[] { "C1.java", "D2.java" }, ekstaziOptions);
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright 2014-present Milos Gligoric
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ekstazi.it;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import javax.tools.ToolProvider;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import org.ekstazi.Config;
+import org.ekstazi.Names;
+import org.ekstazi.it.util.EkstaziPaths;
+import org.ekstazi.junit.WatchRunner;
+
+public class WatchRunnerIT extends AbstractIT {
+
+    private static final String JUNIT_JAR = "../junit-4.10.jar";
+
+    /** Time (in seconds) to wait for a run */
+    private static final long RUN_TIMEOUT = 60;
+
+    @Override
+    protected int getNumOfTests(String[] lines) {
+        // Runs are checked by summaries printed by the runner.
+        return 0;
+    }
+
+    @Test
+    public void testWatch() throws Exception {
+        String testName = "watch";
+        EkstaziPaths.removeEkstaziDirectories(getClass(), testName);
+        File testDir = getTestDir(testName);
+        File classesDir = new File(testDir, "classes");
+        javac(testDir, classesDir, "C1.java", "D.java", "CTest.java", "DTest.java");
+
+        String classpath = EkstaziPaths.getEkstaziCoreJarPath() + File.pathSeparator + JUNIT_JAR + File.pathSeparator
+                + classesDir.getName();
+        // Ekstazi directory is not in the parent directory given to the
+        // runner, so selection has to use options of the agent.
+        File rootDir = new File(new File(testDir, "root"), Names.EKSTAZI_ROOT_DIR_NAME);
+        ProcessBuilder pb = new ProcessBuilder(JavaCmd.JAVA, "-javaagent:" + EkstaziPaths.getEkstaziCoreJarPath()
+                + "=mode=" + Config.AgentMode.JUNIT + ",dependencies.isolated=true,cache.sizes=0,force.failing=true"
+                + ",root.dir=" + Config.getURIString(rootDir),
+                "-cp", classpath, WatchRunner.class.getName(), ".", classesDir.getName(), classesDir.getName());
+        pb.directory(testDir);
+        pb.redirectErrorStream(true);
+        Process process = pb.start();
+        BlockingQueue<String> lines = readLines(process);
+        try {
+            awaitRun(lines, "Ekstazi ran 2 affected test classes (2 tests, 0 failures)");
+            // The new version of C is loaded in the same VM.
+            javac(testDir, classesDir, "C2.java");
+            awaitRun(lines, "Ekstazi ran 1 affected test classes (1 tests, 1 failures)");
+            javac(testDir, classesDir, "C1.java");
+            awaitRun(lines, "Ekstazi ran 1 affected test classes (1 tests, 0 failures)");
+        } finally {
+            process.destroy();
+        }
+    }
+
+    // INTERNAL
+
+    private static void javac(File testDir, File classesDir, String... files) {
+        classesDir.mkdirs();
+        List<String> args = new ArrayList<String>(Arrays.asList("-d", classesDir.getAbsolutePath(), "-cp",
+                new File(testDir, JUNIT_JAR).getAbsolutePath() + File.pathSeparator + classesDir.getAbsolutePath()));
+        for (String file : files) {
+            args.add(new File(testDir, file).getAbsolutePath());
+        }
+        Assert.assertEquals(0, ToolProvider.getSystemJavaCompiler().run(null, null, null, args.toArray(new String[0])));
+    }
+
+    /**
+     * Waits for the given summary of a run (followed by waiting for
+     * changes); fails if any other summary is printed first.
+     */
+    private static void awaitRun(BlockingQueue<String> lines, String summary) throws Exception {
+        boolean isRun = false;
+        while (true) {
+            String line = lines.poll(RUN_TIMEOUT, TimeUnit.SECONDS);
+            Assert.assertNotNull("Timeout waiting for: " + summary, line);
+            if (line.startsWith("Ekstazi ran")) {
+                Assert.assertEquals(summary, line);
+                isRun = true;
+            } else if (isRun && line.startsWith("Waiting for changes")) {
+                return;
+            }
+        }
+    }
+
+    private static BlockingQueue<String> readLines(final Process process) {
+        final BlockingQueue<String> lines = new LinkedBlockingQueue<String>();
+        Thread reader = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    BufferedReader br = new BufferedReader(new InputStreamReader(process.getInputStream()));
+                    for (String line = br.readLine(); line != null; line = br.readLine()) {
+                        lines.add(line);
+                    }
+                } catch (Exception ex) {
+                    // Process is destroyed.
+                }
+            }
+        };
+        reader.setDaemon(true);
+        reader.start();
+        return lines;
+    }
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright 2014-present Milos Gligoric
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ekstazi.it;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import org.ekstazi.it.util.EkstaziPaths;
+
+public class WellKnownJUnitIT extends AbstractJUnitIT {
+
+    /** Part of URLs of JUnit classes */
+    private static final String JUNIT_CLASS = "org/junit/Assert.class";
+
+    @Test
+    public void testWellknown() throws Exception {
+        checkCTestAffectedByC("");
+        // Dependencies on JUnit classes are not collected.
+        Assert.assertFalse(dependencyExists("wellknown", "CTest.clz", JUNIT_CLASS));
+    }
+
+    @Test
+    public void testWellknownIncluded() throws Exception {
+        checkCTestAffectedByC("dependencies.include.wellknown=true");
+        Assert.assertTrue(dependencyExists("wellknown", "CTest.clz", JUNIT_CLASS));
+    }
+
+    // INTERNAL
+
+    private void checkCTestAffectedByC(String ekstaziOptions) throws Exception {
+        String testName = "wellknown";
+        EkstaziPaths.removeEkstaziDirectories(getClass(), testName);
+        javacJUnit(testName, 1, "CTest.java", "C1.java", ekstaziOptions);
+        Assert.assertTrue(dependencyExists(testName, "CTest.clz", "C.class"));
+        javacJUnit(testName, 0, "CTest.java", "C1.java", ekstaziOptions);
+        javacJUnit(testName, 1, "CTest.java", "C2.java", ekstaziOptions);
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright 2014-present Milos Gligoric
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ekstazi.it;
+
+import java.io.File;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import org.ekstazi.Names;
+import org.ekstazi.data.Journal;
+import org.ekstazi.it.util.EkstaziPaths;
+
+public class WriteSkipJUnitIT extends AbstractJUnitIT {
+
+    /** Time set on dependencies to find if they are written again */
+    private static final long OLD_TIME = 1000000000000L;
+
+    @Test
+    public void testWriteskip() throws Exception {
+        // Sessions are not cached (as in watch mode).
+        checkWriteSkip("cache.sizes=0", false);
+    }
+
+    @Test
+    public void testWriteskipJournal() throws Exception {
+        checkWriteSkip("hash.deferred=true", true);
+    }
+
+    // INTERNAL
+
+    /**
+     * Runs CTest, then forces CTest to run (dependencies are the same),
+     * and finally runs CTest after C changes.
+     */
+    private void checkWriteSkip(String options, boolean isJournal) throws Exception {
+        String testName = "writeskip";
+        EkstaziPaths.removeEkstaziDirectories(getClass(), testName);
+        File rootDir = new File(getTestDir(testName), Names.EKSTAZI_ROOT_DIR_NAME);
+        File deps = new File(rootDir, "CTest.clz");
+
+        javacJUnit(testName, 1, "CTest.java", "C1.java", options);
+        merge(rootDir, isJournal);
+        Assert.assertTrue(deps.exists());
+        deps.setLastModified(OLD_TIME);
+
+        javacJUnit(testName, 1, "CTest.java", "C1.java", options + ",force.all=true");
+        merge(rootDir, isJournal);
+        Assert.assertEquals(OLD_TIME, deps.lastModified());
+
+        javacJUnit(testName, 1, "CTest.java", "C2.java", options);
+        merge(rootDir, isJournal);
+        Assert.assertTrue(deps.lastModified() > OLD_TIME);
+    }
+
+    private static void merge(File rootDir, boolean isJournal) {
+        if (isJournal) {
+            // Done by the build after tests finish.
+            Assert.assertEquals(1, Journal.merge(rootDir.getAbsolutePath()));
+        }
+    }
+}
@@ -0,0 +1,6 @@
+
+class D {
+    public static int sub(int a, int b) {
+        return a - b;
+    }
+}
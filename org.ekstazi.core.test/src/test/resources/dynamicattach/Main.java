@@ -0,0 +1,21 @@
+import org.ekstazi.Ekstazi;
+
+/**
+ * Collects dependencies of a run, if affected, with the agent attached
+ * at runtime.
+ */
+public class Main {
+
+    public static void main(String[] args) {
+        // D is loaded before the agent is attached.
+        D.sub(5, 4);
+        Ekstazi ekstazi = Ekstazi.inst();
+        if (ekstazi.checkIfAffected("Main")) {
+            ekstazi.startCollectingDependencies("Main");
+            System.out.println("Affected: " + (new C().sum(5, 4) + D.sub(5, 4)));
+            ekstazi.finishCollectingDependencies("Main");
+        } else {
+            System.out.println("Not affected");
+        }
+    }
+}
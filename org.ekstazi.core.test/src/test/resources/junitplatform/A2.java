@@ -0,0 +1,6 @@
+
+class A {
+    public int m(int a, int b) {
+        return a - b;
+    }
+}
@@ -0,0 +1,10 @@
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class ATest {
+
+    @Test
+    public void test() {
+        Assertions.assertTrue(new A().m(5, 4) > 0);
+    }
+}
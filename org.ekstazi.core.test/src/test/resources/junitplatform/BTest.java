@@ -0,0 +1,10 @@
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class BTest {
+
+    @Test
+    public void test() {
+        Assertions.assertTrue(new B().m(5, 4) > 0);
+    }
+}
@@ -0,0 +1,24 @@
+import org.junit.platform.engine.discovery.DiscoverySelectors;
+import org.junit.platform.launcher.LauncherDiscoveryRequest;
+import org.junit.platform.launcher.core.LauncherDiscoveryRequestBuilder;
+import org.junit.platform.launcher.core.LauncherFactory;
+import org.junit.platform.launcher.listeners.SummaryGeneratingListener;
+
+/**
+ * Runs the given test classes on JUnit Platform and prints the number
+ * of tests that ran.
+ */
+public class Launch {
+
+    public static void main(String[] args) {
+        LauncherDiscoveryRequestBuilder builder = LauncherDiscoveryRequestBuilder.request();
+        for (String className : args) {
+            builder.selectors(DiscoverySelectors.selectClass(className));
+        }
+        LauncherDiscoveryRequest request = builder.build();
+        SummaryGeneratingListener listener = new SummaryGeneratingListener();
+        LauncherFactory.create().execute(request, listener);
+        System.out.println("Tests run: " + listener.getSummary().getTestsStartedCount() + ", Failures: "
+                + listener.getSummary().getTotalFailureCount());
+    }
+}
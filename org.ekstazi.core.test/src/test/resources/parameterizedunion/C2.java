@@ -0,0 +1,6 @@
+
+class C {
+    public int sum(int a, int b) {
+        return b + a;
+    }
+}
@@ -0,0 +1,31 @@
+import org.junit.Test;
+import org.junit.Assert;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+
+import java.util.Collection;
+import java.util.Arrays;
+
+@RunWith(Parameterized.class)
+public class CTest {
+
+    private boolean isC;
+
+    @Parameters
+    public static Collection<Object[]> data() {
+        return Arrays.asList(new Object [][]{
+                {true},
+                {false},});
+    }
+
+    public CTest(boolean isC) {
+        this.isC = isC;
+    }
+
+    @Test
+    public void test() {
+        int result = isC ? new C().sum(5, 4) : new D().sub(5, 4);
+        Assert.assertTrue(result > 0);
+    }
+}
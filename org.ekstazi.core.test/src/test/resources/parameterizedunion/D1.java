@@ -0,0 +1,6 @@
+
+class D {
+    public int sub(int a, int b) {
+        return a - b;
+    }
+}
@@ -0,0 +1,9 @@
+import org.junit.Assert;
+import org.junit.Test;
+
+public class CTest {
+    @Test
+    public void test() {
+        Assert.assertEquals(9, new C().m(5, 4));
+    }
+}
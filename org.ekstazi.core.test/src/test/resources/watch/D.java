@@ -0,0 +1,6 @@
+
+class D {
+    public int m(int a, int b) {
+        return a * b;
+    }
+}
@@ -0,0 +1,9 @@
+import org.junit.Assert;
+import org.junit.Test;
+
+public class DTest {
+    @Test
+    public void test() {
+        Assert.assertEquals(20, new D().m(5, 4));
+    }
+}
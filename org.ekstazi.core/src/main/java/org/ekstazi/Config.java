@@ -29,13 +29,21 @@ import java.util.Properties;
 import java.util.Set;
 import java.util.regex.Pattern;
 
+import org.ekstazi.change.ChangeSet;
+import org.ekstazi.change.ChangeSetProvider;
+import org.ekstazi.change.CompilerChangeSetProvider;
+import org.ekstazi.change.GitChangeSetProvider;
+import org.ekstazi.change.ListChangeSetProvider;
 import org.ekstazi.data.DependencyAnalyzer;
 import org.ekstazi.data.PrefixTxtStorer;
 import org.ekstazi.data.Storer;
 import org.ekstazi.data.TxtStorer;
 import org.ekstazi.hash.FileCachingHasher;
+import org.ekstazi.hash.HashSnapshot;
+import org.ekstazi.hash.SharedHashCache;
 import org.ekstazi.hash.Hasher;
 import org.ekstazi.log.Log;
+import org.ekstazi.log.Metrics;
 
 /**
  * Basic Tool configuration.
@@ -48,9 +56,15 @@ public final class Config {
     /** Array separator */
     private static final String ARRAY_SEPARATOR = ":";
 
+    /** Separator of directories in changes.roots */
+    public static final String CHANGES_ROOTS_SEPARATOR = ";";
+
     /** Ensures that we initialize this class only once */
     private static boolean sIsInitialized;
 
+    /** Options (separated by comma) given when configuration was loaded */
+    private static String sOptions;
+
     // GENERAL
     
     @Opt(desc = "Name of the directory that keeps coverage data.")
@@ -83,7 +97,25 @@ public final class Config {
      */
     public static String getRootDirURI(File parentDir) {
         String pathAsString = parentDir.getAbsolutePath() + System.getProperty("file.separator") + Names.EKSTAZI_ROOT_DIR_NAME;
-        return new File(pathAsString).toURI().toString();
+        return getURIString(new File(pathAsString));
+    }
+
+    /**
+     * Returns URI (as string) of the given file to be used as a value of
+     * an option. Spaces, commas, and semicolons are escaped, so that the
+     * value does not split options (or argLine) even if the path contains
+     * these characters.
+     */
+    public static String getURIString(File file) {
+        return file.getAbsoluteFile().toURI().toString().replace(",", "%2C").replace(";", "%3B");
+    }
+
+    /**
+     * Returns directory (in user home) that keeps files of the selection
+     * daemon.
+     */
+    public static File getDaemonDir() {
+        return new File(getUserHome(), Names.DAEMON_DIR_NAME);
     }
 
     // AGENT
@@ -130,6 +162,14 @@ public final class Config {
     public static boolean DEPENDENCIES_APPEND_V = false;
     protected static final String DEPENDENCIES_APPEND_N = "dependencies.append";
 
+    @Opt(desc = "Save URLs of files in project, local Maven repository, and Java home relative to these directories (so that dependencies stay valid when directories move).")
+    public static boolean DEPENDENCIES_RELOCATABLE_V = false;
+    public static final String DEPENDENCIES_RELOCATABLE_N = "dependencies.relocatable";
+
+    @Opt(desc = "Local Maven repository that relocatable dependencies are relative to; maven.repo.local (or ~/.m2/repository) if not set.")
+    public static String DEPENDENCIES_RELOCATABLE_M2_V = "";
+    public static final String DEPENDENCIES_RELOCATABLE_M2_N = "dependencies.relocatable.m2";
+
     @Opt(desc = "Parts of paths to dependencies that should not be collected.")
     public static Pattern DEPENDENCIES_IGNORED_PATHS_V = null;
     protected static final String DEPENDENCIES_IGNORED_PATHS_N = "dependencies.ignored.paths";
@@ -150,6 +190,34 @@ public final class Config {
     public static Pattern DEPENDENCIES_NIO_INCLUDES_V = null;
     protected static final String DEPENDENCIES_NIO_INCLUDES_N = "dependencies.nio.includes";
 
+    @Opt(desc = "Share of test classes (0..1] that have to depend on a class to record it once as a global dependency (0 disables).")
+    public static double DEPENDENCIES_GLOBAL_THRESHOLD_V = 0;
+    protected static final String DEPENDENCIES_GLOBAL_THRESHOLD_N = "dependencies.global.threshold";
+
+    @Opt(desc = "Attribute dependencies to the test class run by the current thread (needed if tests run in parallel).")
+    public static boolean DEPENDENCIES_PARALLEL_V = false;
+    public static final String DEPENDENCIES_PARALLEL_N = "dependencies.parallel";
+
+    @Opt(desc = "Load each test class in a new class loader and collect classes loaded by that loader instead of instrumenting them (junit mode).")
+    public static boolean DEPENDENCIES_ISOLATED_V = false;
+    public static final String DEPENDENCIES_ISOLATED_N = "dependencies.isolated";
+
+    @Opt(desc = "Select tests using dependencies among classes extracted from classfiles (no agent needed).")
+    public static boolean DEPENDENCIES_STATIC_V = false;
+    public static final String DEPENDENCIES_STATIC_N = "dependencies.static";
+
+    @Opt(desc = "Directories with classes (separated by path separator) used to extract static dependencies.")
+    public static String DEPENDENCIES_STATIC_CLASSES_V = "";
+    public static final String DEPENDENCIES_STATIC_CLASSES_N = "dependencies.static.classes";
+
+    @Opt(desc = "Directories with test classes (separated by path separator) used to extract static dependencies.")
+    public static String DEPENDENCIES_STATIC_TESTCLASSES_V = "";
+    public static final String DEPENDENCIES_STATIC_TESTCLASSES_N = "dependencies.static.testclasses";
+
+    @Opt(desc = "Keep static dependencies updated during selection pending until the build saves them after tests finish, so that affected tests that do not run or fail stay affected.")
+    public static boolean DEPENDENCIES_STATIC_DEFERRED_V = false;
+    public static final String DEPENDENCIES_STATIC_DEFERRED_N = "dependencies.static.deferred";
+
     // OPTIMIZATIONS
 
     @Opt(desc = "Algorithm to use to hash class data (only if semantic hashing is on), e.g., CRC32, MD5, etc.")
@@ -160,6 +228,42 @@ public final class Config {
     private static boolean HASH_WITHOUT_DEBUGINFO_V = true;
     protected static final String HASH_WITHOUT_DEBUGINFO_N = "hash.without.debuginfo";
 
+    @Opt(desc = "File with hashes shared among VMs, e.g., hashes computed once per build (empty to not share hashes).")
+    public static String HASH_SNAPSHOT_V = "";
+    public static final String HASH_SNAPSHOT_N = "hash.snapshot";
+
+    @Opt(desc = "Share hashes among VMs that run at the same time (e.g., forks that run tests in parallel) through a memory-mapped file in Ekstazi directory.")
+    public static boolean HASH_SHARED_CACHE_V = false;
+    public static final String HASH_SHARED_CACHE_N = "hash.shared.cache";
+
+    @Opt(desc = "Append URLs of dependencies to a journal rather than hashing them in VMs that run tests; the build hashes each URL once when it merges journals after tests finish.")
+    public static boolean HASH_DEFERRED_V = false;
+    public static final String HASH_DEFERRED_N = "hash.deferred";
+
+    @Opt(desc = "Select tests in a long-lived daemon that keeps dependencies and hashes in memory (started on first use).")
+    public static boolean DAEMON_V = false;
+    public static final String DAEMON_N = "daemon";
+
+    @Opt(desc = "Revision id of the baseline (saved dependencies) to select tests against (empty to use the latest run).")
+    public static String BASELINE_V = "";
+    public static final String BASELINE_N = "baseline";
+
+    @Opt(desc = "Provider of files changed since dependencies were collected: git, compiler, list, or name of a class that implements ChangeSetProvider (empty to hash all dependencies). Dependencies in changes.roots that are not changed are not hashed.")
+    public static String CHANGES_PROVIDER_V = "";
+    public static final String CHANGES_PROVIDER_N = "changes.provider";
+
+    @Opt(desc = "Directories (e.g., with classes of the project) whose files are checked against the change set; separated by ';'.")
+    public static String CHANGES_ROOTS_V = "";
+    public static final String CHANGES_ROOTS_N = "changes.roots";
+
+    @Opt(desc = "Git revision at which dependencies were collected (used by git provider).")
+    public static String CHANGES_REVISION_V = "HEAD";
+    public static final String CHANGES_REVISION_N = "changes.revision";
+
+    @Opt(desc = "File that lists changed files, one per line (used by list provider).")
+    public static String CHANGES_FILE_V = "";
+    public static final String CHANGES_FILE_N = "changes.file";
+
     @Opt(desc = "Sizes of several caches.")
     public static int CACHE_SIZES_V = 1000;
     protected static final String CACHE_SIZES_N = "cache.sizes";
@@ -204,6 +308,10 @@ public final class Config {
     public static boolean DEBUG_V = false;
     protected static final String DEBUG_N = "debug";
 
+    @Opt(desc = "Collect counters and timers (agent, hashing, storing, selection), save a summary per VM in metrics directory (the latest 100 are kept), and emit JFR events.")
+    public static boolean METRICS_V = false;
+    public static final String METRICS_N = "metrics";
+
     public static boolean X_LOG_RUNS_V = false;
     protected static final String X_LOG_RUNS_N = "x.log.runs";
 
@@ -220,6 +328,22 @@ public final class Config {
     public static boolean FORCE_FAILING_V;
     protected static final String FORCE_FAILING_N = "force.failing";
 
+    @Opt(desc = "Run recently failing, most affected, recently affected, and short tests first.")
+    public static boolean TESTS_PRIORITIZE_V = false;
+    public static final String TESTS_PRIORITIZE_N = "tests.prioritize";
+
+    @Opt(desc = "Time budget (in seconds) for running affected tests; tests that do not fit are deferred (0 for no budget).")
+    public static int TESTS_BUDGET_V = 0;
+    public static final String TESTS_BUDGET_N = "tests.budget";
+
+    @Opt(desc = "Index (starting from 0) of the shard of affected tests to run.")
+    public static int SHARD_INDEX_V = 0;
+    public static final String SHARD_INDEX_N = "shard.index";
+
+    @Opt(desc = "Number of shards that affected tests are split into (balanced on recorded durations).")
+    public static int SHARD_COUNT_V = 1;
+    public static final String SHARD_COUNT_N = "shard.count";
+
     @Opt(desc = "Tests that are never run with Tool (as a list of strings separated by ':').")
     private static String[] SELECTION_EXCLUDES_V = null;
     protected static final String SELECTION_EXCLUDES_N = "selection.excludes";
@@ -258,6 +382,7 @@ public final class Config {
     public static void loadConfig(String options, boolean force) {
         if (sIsInitialized && !force) return;
         sIsInitialized = true;
+        sOptions = options;
 
         Properties commandProperties = unpackOptions(options);
         String userHome = getUserHome();
@@ -277,6 +402,14 @@ public final class Config {
         printVerbose(userHomeDir, userDir);
     }
 
+    /**
+     * Returns options (separated by comma) given when configuration was
+     * loaded, e.g., options of the agent.
+     */
+    public static String getOptions() {
+        return sOptions == null ? "" : sOptions;
+    }
+
     /**
      * Returns path to user home directory. This method is needed for
      * experiments when we assume that /home/name/ (or similar) is home. Note
@@ -356,6 +489,7 @@ public final class Config {
         X_DEPENDENCIES_SAVE_V = getBoolean(props, X_DEPENDENCIES_SAVE_N, X_DEPENDENCIES_SAVE_V);
         DEBUG_V = getBoolean(props, DEBUG_N, DEBUG_V);
         DEBUG_MODE_V = DebugMode.fromString(getString(props, DEBUG_MODE_N, DEBUG_MODE_V.toString()));
+        METRICS_V = getBoolean(props, METRICS_N, METRICS_V);
         CACHE_SIZES_V = getInteger(props, CACHE_SIZES_N, CACHE_SIZES_V);
         DEPENDENCIES_IGNORED_PATHS_V = getPattern(props, DEPENDENCIES_IGNORED_PATHS_N, DEPENDENCIES_IGNORED_PATHS_V);
         DEPENDENCIES_CLASSES_INSTRUMENT_V = getPattern(props, DEPENDENCIES_CLASSES_INSTRUMENT_N, DEPENDENCIES_CLASSES_INSTRUMENT_V);
@@ -363,15 +497,37 @@ public final class Config {
         SELECTION_INCLUDES_V = getArray(props, SELECTION_INCLUDES_N, SELECTION_INCLUDES_V);
         FORCE_ALL_V = getBoolean(props, FORCE_ALL_N, FORCE_ALL_V);
         FORCE_FAILING_V = getBoolean(props, FORCE_FAILING_N, FORCE_FAILING_V);
+        TESTS_PRIORITIZE_V = getBoolean(props, TESTS_PRIORITIZE_N, TESTS_PRIORITIZE_V);
+        TESTS_BUDGET_V = getInteger(props, TESTS_BUDGET_N, TESTS_BUDGET_V);
+        SHARD_INDEX_V = getInteger(props, SHARD_INDEX_N, SHARD_INDEX_V);
+        SHARD_COUNT_V = getInteger(props, SHARD_COUNT_N, SHARD_COUNT_V);
         HASH_WITHOUT_DEBUGINFO_V = getBoolean(props, HASH_WITHOUT_DEBUGINFO_N, HASH_WITHOUT_DEBUGINFO_V);
+        HASH_SNAPSHOT_V = getURIString(props, HASH_SNAPSHOT_N, HASH_SNAPSHOT_V);
+        HASH_SHARED_CACHE_V = getBoolean(props, HASH_SHARED_CACHE_N, HASH_SHARED_CACHE_V);
+        HASH_DEFERRED_V = getBoolean(props, HASH_DEFERRED_N, HASH_DEFERRED_V);
+        DAEMON_V = getBoolean(props, DAEMON_N, DAEMON_V);
+        BASELINE_V = getString(props, BASELINE_N, BASELINE_V);
+        CHANGES_PROVIDER_V = getString(props, CHANGES_PROVIDER_N, CHANGES_PROVIDER_V);
+        CHANGES_ROOTS_V = getString(props, CHANGES_ROOTS_N, CHANGES_ROOTS_V);
+        CHANGES_REVISION_V = getString(props, CHANGES_REVISION_N, CHANGES_REVISION_V);
+        CHANGES_FILE_V = getURIString(props, CHANGES_FILE_N, CHANGES_FILE_V);
         CACHE_SEEN_CLASSES_V = getBoolean(props, CACHE_SEEN_CLASSES_N, CACHE_SEEN_CLASSES_V);
         X_IGNORE_ALL_TESTS_V = getBoolean(props, X_IGNORE_ALL_TESTS_N, X_IGNORE_ALL_TESTS_V);
         DEPENDENCIES_APPEND_V = getBoolean(props, DEPENDENCIES_APPEND_N, DEPENDENCIES_APPEND_V);
+        DEPENDENCIES_RELOCATABLE_V = getBoolean(props, DEPENDENCIES_RELOCATABLE_N, DEPENDENCIES_RELOCATABLE_V);
+        DEPENDENCIES_RELOCATABLE_M2_V = getURIString(props, DEPENDENCIES_RELOCATABLE_M2_N, DEPENDENCIES_RELOCATABLE_M2_V);
         X_SAVE_INSTRUMENTED_CODE_V = getBoolean(props, X_SAVE_INSTRUMENTED_CODE_N, X_SAVE_INSTRUMENTED_CODE_V);
         X_SAVE_HASHER_CACHE_V = getBoolean(props, X_SAVE_HASHER_CACHE_N, X_SAVE_HASHER_CACHE_V);
         DEPENDENCIES_NIO_V = getBoolean(props, DEPENDENCIES_NIO_N, DEPENDENCIES_NIO_V);
         DEPENDENCIES_NIO_INCLUDES_V = getPattern(props, DEPENDENCIES_NIO_INCLUDES_N, DEPENDENCIES_NIO_INCLUDES_V);
         DEPENDENCIES_NIO_EXCLUDES_V = getPattern(props, DEPENDENCIES_NIO_EXCLUDES_N, DEPENDENCIES_NIO_EXCLUDES_V);
+        DEPENDENCIES_GLOBAL_THRESHOLD_V = getDouble(props, DEPENDENCIES_GLOBAL_THRESHOLD_N, DEPENDENCIES_GLOBAL_THRESHOLD_V);
+        DEPENDENCIES_PARALLEL_V = getBoolean(props, DEPENDENCIES_PARALLEL_N, DEPENDENCIES_PARALLEL_V);
+        DEPENDENCIES_ISOLATED_V = getBoolean(props, DEPENDENCIES_ISOLATED_N, DEPENDENCIES_ISOLATED_V);
+        DEPENDENCIES_STATIC_V = getBoolean(props, DEPENDENCIES_STATIC_N, DEPENDENCIES_STATIC_V);
+        DEPENDENCIES_STATIC_CLASSES_V = getURIString(props, DEPENDENCIES_STATIC_CLASSES_N, DEPENDENCIES_STATIC_CLASSES_V);
+        DEPENDENCIES_STATIC_TESTCLASSES_V = getURIString(props, DEPENDENCIES_STATIC_TESTCLASSES_N, DEPENDENCIES_STATIC_TESTCLASSES_V);
+        DEPENDENCIES_STATIC_DEFERRED_V = getBoolean(props, DEPENDENCIES_STATIC_DEFERRED_N, DEPENDENCIES_STATIC_DEFERRED_V);
     }
 
     /**
@@ -415,11 +571,18 @@ public final class Config {
      * support paths (given to javaagent) even if they contain spaces.
      */
     private static String getURIString(Properties props, String key, String def) {
+        return toPath(getString(props, key, def));
+    }
+
+    /**
+     * Returns path for the given URI string, or the given string if it
+     * is not a URI of a file (e.g., if it is a path).
+     */
+    private static String toPath(String uriString) {
         try {
-            URI uri = new URI(props.getProperty(key, def));
-            return new File(uri).getAbsolutePath();
+            return new File(new URI(uriString)).getAbsolutePath();
         } catch (Exception ex) {
-            return getString(props, key, def);
+            return uriString;
         }
     }
 
@@ -435,6 +598,10 @@ public final class Config {
         return Integer.parseInt(getString(props, key, Integer.toString(def)));
     }
 
+    private static double getDouble(Properties props, String key, double def) {
+        return Double.parseDouble(getString(props, key, Double.toString(def)));
+    }
+
     protected static Pattern getPattern(Properties props, String key, Pattern def) {
         String val = props.getProperty(key, null);
         if (val == null) {
@@ -539,29 +706,349 @@ public final class Config {
         return properties;
     }
 
+    // CONTEXT
+
+    /**
+     * Immutable configuration of one project (e.g., one module in a
+     * build). Unlike static options, which describe the current VM (i.e.,
+     * the VM that runs tests), contexts are passed explicitly, so that
+     * tests for several projects can be selected at the same time in one
+     * VM. Options that are not set for the project take values of static
+     * options.
+     */
+    public static final class Context {
+
+        /** root.dir */
+        private final String mRootDir;
+        /** dependencies.format */
+        private final String mDependenciesFormat;
+        /** dependencies.append */
+        private final boolean mDependenciesAppend;
+        /** dependencies.relocatable */
+        private final boolean mDependenciesRelocatable;
+        /** dependencies.relocatable.m2 */
+        private final String mDependenciesRelocatableM2;
+        /** dependencies.parallel */
+        private final boolean mDependenciesParallel;
+        /** dependencies.global.threshold */
+        private final double mDependenciesGlobalThreshold;
+        /** dependencies.static */
+        private final boolean mDependenciesStatic;
+        /** dependencies.static.classes */
+        private final String mDependenciesStaticClasses;
+        /** dependencies.static.testclasses */
+        private final String mDependenciesStaticTestClasses;
+        /** dependencies.static.deferred */
+        private final boolean mDependenciesStaticDeferred;
+        /** hash.algorithm */
+        private final Hasher.Algorithm mHashAlgorithm;
+        /** hash.without.debuginfo */
+        private final boolean mHashWithoutDebugInfo;
+        /** hash.snapshot */
+        private final String mHashSnapshot;
+        /** hash.shared.cache */
+        private final boolean mHashSharedCache;
+        /** hash.deferred */
+        private final boolean mHashDeferred;
+        /** daemon */
+        private final boolean mDaemon;
+        /** baseline */
+        private final String mBaseline;
+        /** changes.provider */
+        private final String mChangesProvider;
+        /** changes.roots */
+        private final String mChangesRoots;
+        /** changes.revision */
+        private final String mChangesRevision;
+        /** changes.file */
+        private final String mChangesFile;
+        /** cache.sizes */
+        private final int mCacheSizes;
+        /** x.save.hasher.cache */
+        private final boolean mSaveHasherCache;
+        /** debug.mode */
+        private final DebugMode mDebugMode;
+        /** metrics (null if metrics are not collected) */
+        private final Metrics mMetrics;
+        /** tests.prioritize */
+        private final boolean mTestsPrioritize;
+        /** tests.budget */
+        private final int mTestsBudget;
+        /** shard.index */
+        private final int mShardIndex;
+        /** shard.count */
+        private final int mShardCount;
+        /** selection.excludes */
+        private final String[] mSelectionExcludes;
+        /** selection.includes */
+        private final String[] mSelectionIncludes;
+
+        /**
+         * Constructor.
+         */
+        private Context(Properties props, String rootDir, Metrics metrics) {
+            this.mRootDir = getURIString(props, ROOT_DIR_N, rootDir);
+            this.mDependenciesFormat = getString(props, DEPENDENCIES_FORMAT_N, DEPENDENCIES_FORMAT_V);
+            this.mDependenciesAppend = getBoolean(props, DEPENDENCIES_APPEND_N, DEPENDENCIES_APPEND_V);
+            this.mDependenciesRelocatable = getBoolean(props, DEPENDENCIES_RELOCATABLE_N,
+                    DEPENDENCIES_RELOCATABLE_V);
+            this.mDependenciesRelocatableM2 = getURIString(props, DEPENDENCIES_RELOCATABLE_M2_N,
+                    DEPENDENCIES_RELOCATABLE_M2_V);
+            this.mDependenciesParallel = getBoolean(props, DEPENDENCIES_PARALLEL_N, DEPENDENCIES_PARALLEL_V);
+            this.mDependenciesGlobalThreshold = getDouble(props, DEPENDENCIES_GLOBAL_THRESHOLD_N,
+                    DEPENDENCIES_GLOBAL_THRESHOLD_V);
+            this.mDependenciesStatic = getBoolean(props, DEPENDENCIES_STATIC_N, DEPENDENCIES_STATIC_V);
+            this.mDependenciesStaticClasses = getURIString(props, DEPENDENCIES_STATIC_CLASSES_N,
+                    DEPENDENCIES_STATIC_CLASSES_V);
+            this.mDependenciesStaticTestClasses = getURIString(props, DEPENDENCIES_STATIC_TESTCLASSES_N,
+                    DEPENDENCIES_STATIC_TESTCLASSES_V);
+            this.mDependenciesStaticDeferred = getBoolean(props, DEPENDENCIES_STATIC_DEFERRED_N,
+                    DEPENDENCIES_STATIC_DEFERRED_V);
+            this.mHashAlgorithm = Hasher.Algorithm.fromString(getString(props, HASH_ALGORITHM_N,
+                    HASH_ALGORITHM_V.toString()));
+            this.mHashWithoutDebugInfo = getBoolean(props, HASH_WITHOUT_DEBUGINFO_N, HASH_WITHOUT_DEBUGINFO_V);
+            this.mHashSnapshot = getURIString(props, HASH_SNAPSHOT_N, HASH_SNAPSHOT_V);
+            this.mHashSharedCache = getBoolean(props, HASH_SHARED_CACHE_N, HASH_SHARED_CACHE_V);
+            this.mHashDeferred = getBoolean(props, HASH_DEFERRED_N, HASH_DEFERRED_V);
+            this.mDaemon = getBoolean(props, DAEMON_N, DAEMON_V);
+            this.mBaseline = getString(props, BASELINE_N, BASELINE_V);
+            this.mChangesProvider = getString(props, CHANGES_PROVIDER_N, CHANGES_PROVIDER_V);
+            this.mChangesRoots = getString(props, CHANGES_ROOTS_N, CHANGES_ROOTS_V);
+            this.mChangesRevision = getString(props, CHANGES_REVISION_N, CHANGES_REVISION_V);
+            this.mChangesFile = getURIString(props, CHANGES_FILE_N, CHANGES_FILE_V);
+            this.mCacheSizes = getInteger(props, CACHE_SIZES_N, CACHE_SIZES_V);
+            this.mSaveHasherCache = getBoolean(props, X_SAVE_HASHER_CACHE_N, X_SAVE_HASHER_CACHE_V);
+            this.mDebugMode = DebugMode.fromString(getString(props, DEBUG_MODE_N, DEBUG_MODE_V.toString()));
+            this.mMetrics = getBoolean(props, METRICS_N, METRICS_V) ? metrics : null;
+            this.mTestsPrioritize = getBoolean(props, TESTS_PRIORITIZE_N, TESTS_PRIORITIZE_V);
+            this.mTestsBudget = getInteger(props, TESTS_BUDGET_N, TESTS_BUDGET_V);
+            this.mShardIndex = getInteger(props, SHARD_INDEX_N, SHARD_INDEX_V);
+            this.mShardCount = getInteger(props, SHARD_COUNT_N, SHARD_COUNT_V);
+            this.mSelectionExcludes = getArray(props, SELECTION_EXCLUDES_N, SELECTION_EXCLUDES_V);
+            this.mSelectionIncludes = getArray(props, SELECTION_INCLUDES_N, SELECTION_INCLUDES_V);
+        }
+
+        /**
+         * Returns context that describes the current VM, i.e., values of
+         * static options; metrics are collected in metrics of the VM.
+         */
+        public static Context current() {
+            return new Context(new Properties(), ROOT_DIR_V, METRICS_V ? Metrics.getVMMetrics() : null);
+        }
+
+        /**
+         * Loads context for the project in the given directory.
+         * Configuration files (in user home and in the given directory) and
+         * the given options are used in that order; static options are not
+         * modified.
+         * 
+         * @param parentDir
+         *            Parent directory for .ekstazi directory
+         * @param options
+         *            Options (separated by comma)
+         */
+        public static Context load(File parentDir, String options) {
+            Properties props = new Properties();
+            props.putAll(getProperties(new File(getUserHome(), Names.EKSTAZI_CONFIG_FILE)));
+            props.putAll(getProperties(new File(parentDir, Names.EKSTAZI_CONFIG_FILE)));
+            props.putAll(unpackOptions(options));
+            boolean isMetrics = getBoolean(props, METRICS_N, METRICS_V);
+            return new Context(props, createRootDir(parentDir).getAbsolutePath(), isMetrics ? new Metrics() : null);
+        }
+
+        public String getRootDir() {
+            return mRootDir;
+        }
+
+        public boolean isDependenciesAppend() {
+            return mDependenciesAppend;
+        }
+
+        public boolean isDependenciesRelocatable() {
+            return mDependenciesRelocatable;
+        }
+
+        public String getDependenciesRelocatableM2() {
+            return mDependenciesRelocatableM2;
+        }
+
+        public boolean isDependenciesParallel() {
+            return mDependenciesParallel;
+        }
+
+        public double getDependenciesGlobalThreshold() {
+            return mDependenciesGlobalThreshold;
+        }
+
+        public boolean isDependenciesStatic() {
+            return mDependenciesStatic;
+        }
+
+        public String getDependenciesStaticClasses() {
+            return mDependenciesStaticClasses;
+        }
+
+        public String getDependenciesStaticTestClasses() {
+            return mDependenciesStaticTestClasses;
+        }
+
+        public boolean isDependenciesStaticDeferred() {
+            return mDependenciesStaticDeferred;
+        }
+
+        public String getHashSnapshot() {
+            return mHashSnapshot;
+        }
+
+        public boolean isHashSharedCache() {
+            return mHashSharedCache;
+        }
+
+        public boolean isHashDeferred() {
+            return mHashDeferred;
+        }
+
+        public boolean isDaemon() {
+            return mDaemon;
+        }
+
+        public String getBaseline() {
+            return mBaseline;
+        }
+
+        public String[] getChangesRoots() {
+            if (mChangesRoots.equals("")) {
+                return new String[0];
+            }
+            String[] roots = mChangesRoots.split(CHANGES_ROOTS_SEPARATOR);
+            for (int i = 0; i < roots.length; i++) {
+                roots[i] = toPath(roots[i]);
+            }
+            return roots;
+        }
+
+        public String getChangesRevision() {
+            return mChangesRevision;
+        }
+
+        public String getChangesFile() {
+            return mChangesFile;
+        }
+
+        public int getCacheSizes() {
+            return mCacheSizes;
+        }
+
+        public DebugMode getDebugMode() {
+            return mDebugMode;
+        }
+
+        public boolean isMetrics() {
+            return mMetrics != null;
+        }
+
+        /**
+         * Returns metrics of this context (e.g., of a selection), or null
+         * if metrics are not collected.
+         */
+        public Metrics getMetrics() {
+            return mMetrics;
+        }
+
+        public boolean isTestsPrioritize() {
+            return mTestsPrioritize;
+        }
+
+        public int getTestsBudget() {
+            return mTestsBudget;
+        }
+
+        public int getShardIndex() {
+            return mShardIndex;
+        }
+
+        public int getShardCount() {
+            return mShardCount;
+        }
+
+        public Storer createStorer() {
+            Storer.Mode mode = Storer.Mode.fromString(mDependenciesFormat);
+            Storer storer;
+            if (mode == Storer.Mode.TXT) {
+                storer = new TxtStorer();
+            } else if (mode == Storer.Mode.PREFIX_TXT) {
+                storer = new PrefixTxtStorer();
+            } else {
+                Log.e("Storer must have default value.");
+                throw new RuntimeException();
+            }
+            storer.setRelocatable(mDependenciesRelocatable);
+            storer.setLocalRepository(mDependenciesRelocatableM2);
+            storer.setMetrics(mMetrics);
+            return storer;
+        }
+
+        public Hasher createHasher() {
+            Hasher hasher = mSaveHasherCache ? new FileCachingHasher(mHashAlgorithm, mCacheSizes,
+                    mHashWithoutDebugInfo, new File(mRootDir, Names.HASHER_CACHE_FILE_NAME)) : new Hasher(
+                    mHashAlgorithm, mCacheSizes, mHashWithoutDebugInfo);
+            if (!mHashSnapshot.equals("")) {
+                hasher.setSnapshot(HashSnapshot.get(new File(mHashSnapshot)));
+            }
+            if (mHashSharedCache) {
+                hasher.setSharedCache(SharedHashCache.get(new File(mRootDir, Names.SHARED_HASH_CACHE_FILE_NAME)));
+            }
+            hasher.setMetrics(mMetrics);
+            return hasher;
+        }
+
+        /**
+         * Returns files changed since dependencies were collected, or null
+         * if no provider is set or changes are unknown.
+         */
+        public ChangeSet createChangeSet() {
+            ChangeSetProvider provider;
+            if (mChangesProvider.equals("")) {
+                return null;
+            } else if (mChangesProvider.equals(GitChangeSetProvider.NAME)) {
+                provider = new GitChangeSetProvider();
+            } else if (mChangesProvider.equals(CompilerChangeSetProvider.NAME)) {
+                provider = new CompilerChangeSetProvider();
+            } else if (mChangesProvider.equals(ListChangeSetProvider.NAME)) {
+                provider = new ListChangeSetProvider();
+            } else {
+                try {
+                    provider = (ChangeSetProvider) Class.forName(mChangesProvider).newInstance();
+                } catch (Exception ex) {
+                    Log.w("Unable to create change set provider " + mChangesProvider);
+                    return null;
+                }
+            }
+            ChangeSet changeSet = provider.getChangeSet(this);
+            if (changeSet == null) {
+                Log.d("Changes are unknown; all dependencies are hashed", mChangesProvider);
+            }
+            return changeSet;
+        }
+
+        public DependencyAnalyzer createDependencyAnalyzer() {
+            return new DependencyAnalyzer(this, createHasher(), createStorer(), mSelectionExcludes,
+                    mSelectionIncludes);
+        }
+    }
+
     // FACTORIES
 
     public static Storer createStorer() {
-        Storer.Mode mode = Storer.Mode.fromString(DEPENDENCIES_FORMAT_V);
-        if (mode == Storer.Mode.TXT) {
-            return new TxtStorer();
-        } else if (mode == Storer.Mode.PREFIX_TXT) {
-            return new PrefixTxtStorer();
-        } else {
-            Log.e("Storer must have default value.");
-            throw new RuntimeException();
-        }
+        return Context.current().createStorer();
     }
 
     public static Hasher createHasher() {
-        return X_SAVE_HASHER_CACHE_V ? new FileCachingHasher(Config.HASH_ALGORITHM_V, Config.CACHE_SIZES_V,
-                Config.HASH_WITHOUT_DEBUGINFO_V, new File(Config.ROOT_DIR_V, "hasher-cache.txt")) : new Hasher(
-                Config.HASH_ALGORITHM_V, Config.CACHE_SIZES_V, Config.HASH_WITHOUT_DEBUGINFO_V);
+        return Context.current().createHasher();
     }
 
     public static DependencyAnalyzer createDepenencyAnalyzer() {
-        return new DependencyAnalyzer(CACHE_SIZES_V, createHasher(), createStorer(),
-                SELECTION_EXCLUDES_V, SELECTION_INCLUDES_V);
+        return Context.current().createDependencyAnalyzer();
     }
 
     // MAIN
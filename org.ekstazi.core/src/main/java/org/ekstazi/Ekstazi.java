@@ -20,10 +20,13 @@ import java.io.File;
 import java.io.IOException;
 import java.lang.instrument.Instrumentation;
 import java.lang.instrument.UnmodifiableClassException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.locks.ReentrantLock;
 
 import org.ekstazi.agent.EkstaziAgent;
 import org.ekstazi.data.DependencyAnalyzer;
+import org.ekstazi.data.TestStats;
 import org.ekstazi.dynamic.DynamicEkstazi;
 import org.ekstazi.log.Log;
 import org.ekstazi.monitor.CoverageMonitor;
@@ -59,6 +62,9 @@ public final class Ekstazi {
     /** Enable/disable run of failing tests */
     private final boolean mIsForcefailing;
 
+    /** Start time (in milliseconds) of each running test class */
+    private final Map<String, Long> mStartTimes;
+
     /**
      * Constructor.
      */
@@ -68,6 +74,7 @@ public final class Ekstazi {
         this.mTestLock = new ReentrantLock();
         this.mIsForceall = Config.FORCE_ALL_V;
         this.mIsForcefailing = Config.FORCE_FAILING_V;
+        this.mStartTimes = new ConcurrentHashMap<String, Long>();
     }
     
     /**
@@ -120,6 +127,7 @@ public final class Ekstazi {
 
     public void beginClassCoverage(String className, boolean checkGranularity) {
         Log.d("Begin measuring coverage: ", className);
+        mStartTimes.put(className, System.currentTimeMillis());
         if (mIsEnabled) {
             mDependencyAnalyzer.beginClassCoverage(className);
         }
@@ -155,6 +163,11 @@ public final class Ekstazi {
         } else {
             outcomeFile.delete();
         }
+        // Duration and outcome are used to prioritize tests.
+        Long startTime = mStartTimes.remove(className);
+        if (startTime != null) {
+            TestStats.save(Config.ROOT_DIR_V, className, System.currentTimeMillis() - startTime, isFailOrError);
+        }
         endClassCoverage(className);
     }
 
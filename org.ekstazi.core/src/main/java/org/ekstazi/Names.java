@@ -27,10 +27,24 @@ public final class Names {
     /** Configuration file name (in home/user directory) */
     public static final String EKSTAZI_CONFIG_FILE = ".ekstazirc";
     public static final String EKSTAZI_ROOT_DIR_NAME = ".ekstazi";
+    /** Directory (in home directory) for files of the selection daemon */
+    public static final String DAEMON_DIR_NAME = ".ekstazidaemon";
 
     /** Directory (inside root directory) for test results */
     public static final String TEST_RESULTS_DIR_NAME = "test-results";
 
+    /** Directory (inside root directory) for test durations and outcomes */
+    public static final String TEST_STATS_DIR_NAME = "test-stats";
+
+    /** Directory (inside root directory) for dependencies of earlier revisions */
+    public static final String BASELINES_DIR_NAME = "baselines";
+
+    /** Directory (inside root directory) for metrics of VMs */
+    public static final String METRICS_DIR_NAME = "metrics";
+
+    /** Directory (inside root directory) for journals of VMs that defer hashing */
+    public static final String JOURNAL_DIR_NAME = "journal";
+
     /** Directory (inside root directory) for instrumented files */
     public static final String INSTRUMENTED_CLASSES_DIR_NAME = "bank";
 
@@ -53,7 +67,6 @@ public final class Names {
     public static final String CONFIG_BIN = EKSTAZI_PACKAGE_BIN + "." + "Config";
     public static final String COVERAGE_MONITOR_BIN = "org.ekstazi.monitor.CoverageMonitor";
     public static final String COVERAGE_MONITOR_VM = "org/ekstazi/monitor/CoverageMonitor";
-    public static final String DYNAMIC_AGENT_BIN = "org.ekstazi.instrument.DynamicAgent";
     public static final String EKSTAZI_CLASSLOADER_BIN ="org.ekstazi.cl.EkstaziClassLoader";
 
     // Maven classes.
@@ -65,12 +78,28 @@ public final class Names {
     public static final String RUN_INFO_FILE_NAME = "run.info";
     public static final String VERBOSE_FILE_NAME = "verbose.output";
     public static final String HASHER_CACHE_FILE_NAME = "hasher-cache.txt";
+    public static final String SHARED_HASH_CACHE_FILE_NAME = "hash-cache";
     public static final String META_FILE_NAME = "META";
+    public static final String GLOBAL_DEPENDENCIES_FILE_NAME = "global-dependencies";
+    public static final String STATIC_GRAPH_FILE_NAME = "static-graph";
+    public static final String STATIC_GRAPH_PENDING_FILE_NAME = "static-graph-pending";
+    public static final String RUN_ORDER_FILE_NAME = "run-order";
+    public static final String DEFERRED_FILE_NAME = "deferred";
+    public static final String INCLUDES_FILE_NAME = "includes";
+    public static final String EXCLUDES_FILE_NAME = "excludes";
 
     /** Names of all files used by the tool */
     public static final String[] ALL_FILE_NAMES = {
         RUN_INFO_FILE_NAME,
         VERBOSE_FILE_NAME,
         HASHER_CACHE_FILE_NAME,
-        META_FILE_NAME, };
+        SHARED_HASH_CACHE_FILE_NAME,
+        META_FILE_NAME,
+        GLOBAL_DEPENDENCIES_FILE_NAME,
+        STATIC_GRAPH_FILE_NAME,
+        STATIC_GRAPH_PENDING_FILE_NAME,
+        RUN_ORDER_FILE_NAME,
+        DEFERRED_FILE_NAME,
+        INCLUDES_FILE_NAME,
+        EXCLUDES_FILE_NAME, };
 }
@@ -50,25 +50,13 @@ public final class AgentLoader {
      * @return True if the agent is successfully attached, false otherwise.
      */
     public static boolean loadEkstaziAgent() {
-        // TODO: need to synchronize globally, as we may end up running
-        // initialization multiple times, which would lead to:
-        // "libattach.so already loaded in another classloader".
-        try {
-            // Note that this class can be loaded by different classloaders, so
-            // we cannot simply use static field to check if the class has been
-            // initialized.
-            if (System.getProperty(AGENT_LOADER_INIT) != null) {
-                return true;
-            }
-            System.setProperty(AGENT_LOADER_INIT, "");
-
-            URL agentJarURL = Types.extractJarURL(EkstaziAgent.class);
-            return loadAgent(agentJarURL);
-        } catch (Exception ex) {
-            if (System.getProperty("java.version").startsWith("9")) {
-                throw new RuntimeException("Running with Java 9 requires -Djdk.attach.allowAttachSelf=true");
-            }
-            return false;
+        // Synchronize globally (on interned string), as this class can be
+        // loaded by different classloaders, e.g., in parallel builds.
+        // Otherwise we may end up running initialization multiple times,
+        // which would lead to: "libattach.so already loaded in another
+        // classloader", or report that the agent is loaded before it is.
+        synchronized (AGENT_LOADER_INIT.intern()) {
+            return loadEkstaziAgentOnce();
         }
     }
 
@@ -82,6 +70,22 @@ public final class AgentLoader {
      *             If unexpected behavior
      */
     public static boolean loadAgent(URL agentJarURL) throws Exception {
+        return loadAgent(agentJarURL, null);
+    }
+
+    /**
+     * Loads agent from the given URL and passes the given options to the
+     * agent.
+     * 
+     * @param agentJarURL
+     *            Agent location
+     * @param options
+     *            Options for the agent (can be null)
+     * @return True if loading was successful, false otherwise
+     * @throws Exception
+     *             If unexpected behavior
+     */
+    public static boolean loadAgent(URL agentJarURL, String options) throws Exception {
         File toolsJarFile = findToolsJar();
         Class<?> vmClass = null;
 
@@ -98,27 +102,49 @@ public final class AgentLoader {
             return false;
         }
 
-        attachAgent(vmClass, agentJarURL);
+        attachAgent(vmClass, agentJarURL, options);
         return true;
     }
 
     // INTERNAL
 
+    private static boolean loadEkstaziAgentOnce() {
+        try {
+            // Note that this class can be loaded by different classloaders, so
+            // we cannot simply use static field to check if the class has been
+            // initialized.
+            if (System.getProperty(AGENT_LOADER_INIT) != null) {
+                return true;
+            }
+            System.setProperty(AGENT_LOADER_INIT, "");
+
+            URL agentJarURL = Types.extractJarURL(EkstaziAgent.class);
+            return loadAgent(agentJarURL);
+        } catch (Exception ex) {
+            if (System.getProperty("java.version").startsWith("9")) {
+                throw new RuntimeException("Running with Java 9 requires -Djdk.attach.allowAttachSelf=true");
+            }
+            return false;
+        }
+    }
+
     /**
      * Attaches jar where this class belongs to the current VirtualMachine as an
      * agent.
      * 
      * @param vmClass
      *            VirtualMachine
+     * @param options
+     *            Options for the agent (can be null)
      * @throws Exception
      *             If unexpected behavior
      */
-    private static void attachAgent(Class<?> vmClass, URL agentJarURL) throws Exception {
+    private static void attachAgent(Class<?> vmClass, URL agentJarURL, String options) throws Exception {
         String pid = getPID();
         String agentAbsolutePath = new File(agentJarURL.toURI().getSchemeSpecificPart()).getAbsolutePath();
 
         Object vm = getAttachMethod(vmClass).invoke(null, new Object[] { pid });
-        getLoadAgentMethod(vmClass).invoke(vm, new Object[] { agentAbsolutePath });
+        getLoadAgentMethod(vmClass).invoke(vm, new Object[] { agentAbsolutePath, options });
         getDetachMethod(vmClass).invoke(vm);
     }
 
@@ -149,7 +175,7 @@ public final class AgentLoader {
      *             If no such method is found
      */
     private static Method getLoadAgentMethod(Class<?> vmClass) throws SecurityException, NoSuchMethodException {
-        return vmClass.getMethod("loadAgent", new Class[] { String.class });
+        return vmClass.getMethod("loadAgent", new Class[] { String.class, String.class });
     }
 
     /**
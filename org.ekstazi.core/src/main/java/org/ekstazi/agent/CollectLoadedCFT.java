@@ -57,7 +57,7 @@ public class CollectLoadedCFT implements ClassFileTransformer {
         return null;
     }
 
-    private static boolean isWellKnownUrl(String externalForm) {
+    static boolean isWellKnownUrl(String externalForm) {
         return externalForm.contains(ORG_JUNIT_URL_PART) || externalForm.contains(JUNIT_FRAMEWORK_URL_PART)
                 || externalForm.contains(ORG_HAMCREST_URL_PART) || externalForm.contains(ORG_APACHE_MAVEN_URL_PART);
     }
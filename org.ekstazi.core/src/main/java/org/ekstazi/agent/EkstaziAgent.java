@@ -28,11 +28,15 @@ import org.ekstazi.Names;
 import org.ekstazi.data.DependencyAnalyzer;
 import org.ekstazi.io.FileRecorder;
 import org.ekstazi.junit.JUnitCFT;
+import org.ekstazi.log.Metrics;
 import org.ekstazi.maven.MavenCFT;
 import org.ekstazi.monitor.CoverageMonitor;
 
 public class EkstaziAgent {
 
+    /** Options used when agent is attached at runtime from a test VM */
+    public static final String DYNAMIC_OPTIONS = "dynamic";
+
     /** Name of the Agent */
     private static Instrumentation sInstrumentation;
 
@@ -56,6 +60,9 @@ public class EkstaziAgent {
         Config.loadConfig(options, false);
 
         if (Config.X_ENABLED_V) {
+            if (Config.METRICS_V) {
+                Metrics.getVMMetrics().saveOnExit(Config.ROOT_DIR_V);
+            }
             // Initialize instrumentation instance according to the
             // given mode.
             initializeMode(instrumentation);
@@ -78,7 +85,11 @@ public class EkstaziAgent {
                 instrumentation.addTransformer(new CollectLoadedCFT(), false);
             }
         } else if (Config.MODE_V == Config.AgentMode.JUNIT) {
-            instrumentation.addTransformer(new EkstaziCFT(), true);
+            if (Config.DEPENDENCIES_ISOLATED_V) {
+                instrumentation.addTransformer(new IsolatedCFT(), true);
+            } else {
+                instrumentation.addTransformer(new EkstaziCFT(), true);
+            }
             initJUnitMode(instrumentation);
         } else if (Config.MODE_V == Config.AgentMode.JUNITFORK) {
             initJUnitForkMode(instrumentation);
@@ -86,17 +97,25 @@ public class EkstaziAgent {
             System.err.println("ERROR: Incorrect options to agent. Mode is set to: " + Config.MODE_V);
             System.exit(1);
         }
-        Ekstazi.inst();
+        // Ekstazi facade (and its storer and hasher) is initialized on the
+        // first use, i.e., when the first test starts.
     }
 
     /**
-     * Invoked for/from Maven.
+     * Invoked for/from Maven, or from a test VM (with
+     * {@link #DYNAMIC_OPTIONS}) when agent was not set on command line.
      * 
      * @param options
      * @param instrumentation
      */
     public static void agentmain(String options, Instrumentation instrumentation) {
-        if (Config.X_ENABLED_V) {
+        if (DYNAMIC_OPTIONS.equals(options)) {
+            Config.loadConfig();
+            if (Config.X_ENABLED_V && sInstrumentation == null) {
+                init(instrumentation);
+                instrumentation.addTransformer(new EkstaziCFT(), true);
+            }
+        } else if (Config.X_ENABLED_V) {
             init(instrumentation);
             instrumentation.addTransformer(new MavenCFT(), true);
             instrumentMaven(instrumentation);
@@ -26,7 +26,9 @@ import org.ekstazi.Config;
 import org.ekstazi.Names;
 import org.ekstazi.asm.ClassReader;
 import org.ekstazi.asm.ClassWriter;
+import org.ekstazi.data.GlobalDependencies;
 import org.ekstazi.instrument.CoverageClassVisitor;
+import org.ekstazi.log.Metrics;
 import org.ekstazi.research.Research;
 import org.ekstazi.util.FileUtil;
 import org.ekstazi.util.LRUMap;
@@ -37,7 +39,9 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.Collections;
+import java.util.Map;
 import java.util.Set;
+import java.util.WeakHashMap;
 import java.util.zip.Checksum;
 import java.util.zip.Adler32;
 import java.util.zip.ZipEntry;
@@ -62,6 +66,12 @@ public final class EkstaziCFT implements ClassFileTransformer {
     /** Pattern that describes classes to be included */
     private final Pattern mClassesInclude;
 
+    /** Dependencies of all tests; these classes are not instrumented (loaded on first use) */
+    private volatile GlobalDependencies mGlobalDependencies;
+
+    /** Class loaders checked for access to monitor */
+    private final Map<ClassLoader, Boolean> mMonitorAccessible;
+
     /**
      * Constructor.
      */
@@ -69,14 +79,30 @@ public final class EkstaziCFT implements ClassFileTransformer {
         this.mCacheRedefinedClasses = Collections.newSetFromMap(new LRUMap<String, Boolean>(1000));
         this.mIsSaveInstrumentedHash = Config.X_SAVE_INSTRUMENTED_CODE_V;
         this.mClassesInclude = Config.DEPENDENCIES_CLASSES_INSTRUMENT_V;
+        this.mMonitorAccessible = Collections.synchronizedMap(new WeakHashMap<ClassLoader, Boolean>());
     }
 
     @Override
     public byte[] transform(ClassLoader loader, String className, Class<?> classBeingRedefined,
             ProtectionDomain protectionDomain, byte[] classfileBuffer) {
+        if (!Config.METRICS_V) {
+            return transform0(loader, className, classBeingRedefined, protectionDomain, classfileBuffer);
+        }
+        Metrics metrics = Metrics.getVMMetrics();
+        long start = metrics.start();
+        try {
+            return transform0(loader, className, classBeingRedefined, protectionDomain, classfileBuffer);
+        } finally {
+            metrics.stop(Metrics.Timer.TRANSFORM, start, className);
+        }
+    }
 
-        // Ensure that monitor is accessible from the ClassLoader.
-        if (!isMonitorAccessibleFromClassLoader(loader)) {
+    private byte[] transform0(ClassLoader loader, String className, Class<?> classBeingRedefined,
+            ProtectionDomain protectionDomain, byte[] classfileBuffer) {
+        // Checks are ordered from the cheapest, so that classes that are
+        // not instrumented (e.g., from JDK) cost little, and ASM and global
+        // dependencies are loaded only for the first relevant class.
+        if (loader == null || className == null) {
             return null;
         }
 
@@ -89,6 +115,24 @@ public final class EkstaziCFT implements ClassFileTransformer {
             return null;
         }
 
+        // Dependencies on JUnit, Hamcrest, and Maven classes from jars are
+        // not collected (see CoverageMonitor), so these classes are not
+        // instrumented.
+        if (!Config.DEPENDENCIES_INCLUDE_WELLKNOWN_V && Types.isWellKnownInternalName(className)
+                && isFromJar(protectionDomain)) {
+            return null;
+        }
+
+        // Ensure that monitor is accessible from the ClassLoader.
+        if (!isMonitorAccessibleFromClassLoader(loader)) {
+            return null;
+        }
+
+        // Global dependencies are recorded for each test anyway.
+        if (getGlobalDependencies().isGlobal(loader, className)) {
+            return null;
+        }
+
         StorageResult storageResult = loadInstrumentedClassfile(loader, className, classfileBuffer);
         if (storageResult != null && storageResult.mClassfile != null) {
             return storageResult.mClassfile;
@@ -130,6 +174,9 @@ public final class EkstaziCFT implements ClassFileTransformer {
         classReader.accept(visitor, 0);
         if (visitor.isModifiable()) {
             byte[] modifiedClassfileBuffer = classWriter.toByteArray();
+            if (Config.METRICS_V) {
+                Metrics.getVMMetrics().inc(Metrics.Counter.CLASSES_INSTRUMENTED);
+            }
             storeInstrumentedClassfile(loader, className, storageResult, classfileBuffer, modifiedClassfileBuffer);
             classfileBuffer = modifiedClassfileBuffer;
         }
@@ -215,6 +262,21 @@ public final class EkstaziCFT implements ClassFileTransformer {
     }
 
     // INTERNAL
+
+    private GlobalDependencies getGlobalDependencies() {
+        if (mGlobalDependencies == null) {
+            mGlobalDependencies = GlobalDependencies.get(Config.Context.current());
+        }
+        return mGlobalDependencies;
+    }
+
+    private static boolean isFromJar(ProtectionDomain protectionDomain) {
+        if (protectionDomain == null || protectionDomain.getCodeSource() == null) {
+            return false;
+        }
+        URL location = protectionDomain.getCodeSource().getLocation();
+        return location != null && location.getPath().endsWith(".jar");
+    }
     
     /**
      * Creates class visitor to instrument for coverage based on configuration
@@ -233,6 +295,15 @@ public final class EkstaziCFT implements ClassFileTransformer {
         if (loader == null) {
             return false;
         }
+        Boolean isAccessible = mMonitorAccessible.get(loader);
+        if (isAccessible == null) {
+            isAccessible = checkIfMonitorAccessibleFromClassLoader(loader);
+            mMonitorAccessible.put(loader, isAccessible);
+        }
+        return isAccessible;
+    }
+
+    private boolean checkIfMonitorAccessibleFromClassLoader(ClassLoader loader) {
         boolean isMonitorAccessible = true;
         InputStream monitorInputStream = null;
         try {
@@ -0,0 +1,74 @@
+/*
+ * Copyright 2014-present Milos Gligoric
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ekstazi.agent;
+
+import java.lang.instrument.ClassFileTransformer;
+import java.net.URL;
+import java.security.ProtectionDomain;
+
+import org.ekstazi.junit.TestClassLoader;
+import org.ekstazi.monitor.CoverageMonitor;
+import org.ekstazi.util.Types;
+
+/**
+ * {@link ClassFileTransformer} used when each test class is loaded by its
+ * own {@link TestClassLoader}. Classes loaded by such a loader are not
+ * instrumented; they are collected (for the current test class) when
+ * loaded. Classes from libraries are loaded once for all test classes,
+ * so they are collected for all test classes that run after the class is
+ * loaded (as in junitfork mode). Remaining classes (e.g., classes of the
+ * project loaded by the parent loader) are instrumented as usual.
+ */
+public final class IsolatedCFT implements ClassFileTransformer {
+
+    /** Protocol of urls for classes in directories */
+    private static final String FILE_PROTOCOL = "file";
+
+    /** Transformer for classes that are not isolated */
+    private final EkstaziCFT mEkstaziCFT;
+
+    /**
+     * Constructor.
+     */
+    public IsolatedCFT() {
+        this.mEkstaziCFT = new EkstaziCFT();
+    }
+
+    @Override
+    public byte[] transform(ClassLoader loader, String className, Class<?> classBeingRedefined,
+            ProtectionDomain protectionDomain, byte[] classfileBuffer) {
+        if (loader == null || Types.isIgnorableInternalName(className)) {
+            return null;
+        }
+        URL url = loader.getResource(className + ".class");
+        if (url != null) {
+            String externalForm = url.toExternalForm();
+            if (loader instanceof TestClassLoader) {
+                if (!CollectLoadedCFT.isWellKnownUrl(externalForm)) {
+                    CoverageMonitor.addURLs(externalForm);
+                }
+                return null;
+            } else if (!url.getProtocol().equals(FILE_PROTOCOL)) {
+                if (!CollectLoadedCFT.isWellKnownUrl(externalForm)) {
+                    CoverageMonitor.addUncleanableURLs(externalForm);
+                }
+                return null;
+            }
+        }
+        return mEkstaziCFT.transform(loader, className, classBeingRedefined, protectionDomain, classfileBuffer);
+    }
+}
@@ -0,0 +1,185 @@
+/*
+ * Copyright 2014-present Milos Gligoric
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ekstazi.change;
+
+import java.io.File;
+import java.net.URI;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Files changed since dependencies were collected. A change set covers
+ * files in several root directories (e.g., directories with classes of
+ * a project); a covered file is changed if its path relative to the root
+ * is a suffix of path of a changed file (e.g., a resource copied from a
+ * source directory), or if it is a classfile in a package (directory) in
+ * which a source file changed. Other covered files are unchanged and are
+ * not hashed, unless they were modified after dependencies were saved
+ * (e.g., reverted, or committed after dependencies were collected);
+ * files that are not covered are always hashed.
+ */
+public final class ChangeSet {
+
+    /** Prefix of local files */
+    private static final String FILE_PROTOCOL = "file:";
+
+    /** Classfile extension */
+    private static final String CLASS_EXT = ".class";
+
+    /** Extensions of source files that are compiled to classfiles */
+    private static final String[] SOURCE_EXTS = { ".java", ".kt", ".groovy", ".scala" };
+
+    /** Roots (with '/' as separator and trailing '/') covered by this change set */
+    private final String[] mRoots;
+
+    /** Are only classfiles in roots covered */
+    private final boolean mClassesOnly;
+
+    /** Suffixes (one or more last segments) of paths of changed files */
+    private final Set<String> mChangedSuffixes;
+
+    /** Suffixes of directories that contain changed source files */
+    private final Set<String> mSourceDirSuffixes;
+
+    /** Number of changed files */
+    private final int mSize;
+
+    /**
+     * Constructor.
+     *
+     * @param roots
+     *            Directories covered by this change set
+     * @param classesOnly
+     *            If true, only classfiles in roots are covered (e.g., if
+     *            changes are known only for compiled classes)
+     * @param changedPaths
+     *            Paths (absolute or relative) of changed files
+     */
+    public ChangeSet(String[] roots, boolean classesOnly, Collection<String> changedPaths) {
+        this.mRoots = new String[roots.length];
+        for (int i = 0; i < roots.length; i++) {
+            String root = toSlashes(new File(roots[i]).getAbsolutePath());
+            mRoots[i] = root.endsWith("/") ? root : root + "/";
+        }
+        this.mClassesOnly = classesOnly;
+        this.mChangedSuffixes = new HashSet<String>();
+        this.mSourceDirSuffixes = new HashSet<String>();
+        for (String path : changedPaths) {
+            String[] segments = toSlashes(path).split("/");
+            addSuffixes(segments, segments.length, mChangedSuffixes);
+            if (isSource(path)) {
+                addSuffixes(segments, segments.length - 1, mSourceDirSuffixes);
+                // Source file may be in the default package.
+                mSourceDirSuffixes.add("");
+            }
+        }
+        this.mSize = changedPaths.size();
+    }
+
+    /**
+     * Returns true if the resource at the given URL is covered by this
+     * change set, has not changed, and was last modified before the given
+     * time (when dependencies were saved); false otherwise.
+     */
+    public boolean isUnchanged(String externalForm, long since) {
+        if (!externalForm.startsWith(FILE_PROTOCOL) || externalForm.endsWith("/")) {
+            return false;
+        }
+        String path = toPath(externalForm);
+        if (path == null) {
+            return false;
+        }
+        for (String root : mRoots) {
+            if (path.startsWith(root)) {
+                return isUnchangedInRoot(path.substring(root.length())) && isModifiedBefore(path, since);
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the number of changed files.
+     */
+    public int size() {
+        return mSize;
+    }
+
+    // INTERNAL
+
+    private boolean isUnchangedInRoot(String relativePath) {
+        boolean isClass = relativePath.endsWith(CLASS_EXT);
+        if (relativePath.equals("") || (mClassesOnly && !isClass)) {
+            return false;
+        }
+        if (mChangedSuffixes.contains(relativePath)) {
+            return false;
+        }
+        if (isClass) {
+            int index = relativePath.lastIndexOf('/');
+            String dir = index == -1 ? "" : relativePath.substring(0, index);
+            if (mSourceDirSuffixes.contains(dir)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns true if the file exists and was modified before the given
+     * time; a file modified in the same time unit is not trusted.
+     */
+    private static boolean isModifiedBefore(String path, long since) {
+        long modified = new File(path).lastModified();
+        return modified != 0L && modified < since;
+    }
+
+    /**
+     * Adds suffixes of the first n segments (empty segments are skipped).
+     */
+    private static void addSuffixes(String[] segments, int n, Set<String> suffixes) {
+        String suffix = null;
+        for (int i = n - 1; i >= 0; i--) {
+            if (segments[i].equals("") || segments[i].equals(".")) {
+                continue;
+            }
+            suffix = suffix == null ? segments[i] : segments[i] + "/" + suffix;
+            suffixes.add(suffix);
+        }
+    }
+
+    private static boolean isSource(String path) {
+        for (String ext : SOURCE_EXTS) {
+            if (path.endsWith(ext)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String toPath(String externalForm) {
+        try {
+            return toSlashes(new File(URI.create(externalForm)).getAbsolutePath());
+        } catch (IllegalArgumentException ex) {
+            return null;
+        }
+    }
+
+    private static String toSlashes(String path) {
+        return path.replace('\\', '/');
+    }
+}
@@ -0,0 +1,35 @@
+/*
+ * Copyright 2014-present Milos Gligoric
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ekstazi.change;
+
+import org.ekstazi.Config;
+
+/**
+ * Finds files changed since dependencies were collected, e.g., from a
+ * version control system or from a compiler. Dependencies that are not in
+ * the change set (but are covered by it) are not hashed. Implementations
+ * (other than the ones in this package) are set by class name and need a
+ * public constructor without arguments.
+ */
+public interface ChangeSetProvider {
+
+    /**
+     * Returns change set for the given context, or null if changes are
+     * unknown (then all dependencies are hashed).
+     */
+    ChangeSet getChangeSet(Config.Context context);
+}
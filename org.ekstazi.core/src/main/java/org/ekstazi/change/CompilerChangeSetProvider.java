@@ -0,0 +1,87 @@
+/*
+ * Copyright 2014-present Milos Gligoric
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ekstazi.change;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.ekstazi.Config;
+import org.ekstazi.log.Log;
+import org.ekstazi.util.FileUtil;
+
+/**
+ * Finds classfiles written by maven-compiler-plugin in the latest
+ * compilation, as listed in maven-status directory next to each root
+ * (e.g., target/maven-status for target/classes). Only classfiles are
+ * covered; other files (e.g., resources) are hashed.
+ */
+public final class CompilerChangeSetProvider implements ChangeSetProvider {
+
+    /** Name of this provider (value of changes.provider) */
+    public static final String NAME = "compiler";
+
+    /** Directory (in build directory) with status of the compiler */
+    private static final String STATUS_DIR_NAME = "maven-status" + File.separator + "maven-compiler-plugin";
+
+    /** Name of files that list classfiles written by the compiler */
+    private static final String CREATED_FILES_NAME = "createdFiles.lst";
+
+    public ChangeSet getChangeSet(Config.Context context) {
+        String[] roots = context.getChangesRoots();
+        Set<File> statusDirs = new LinkedHashSet<File>();
+        for (String root : roots) {
+            File buildDir = new File(root).getAbsoluteFile().getParentFile();
+            if (buildDir != null) {
+                statusDirs.add(new File(buildDir, STATUS_DIR_NAME));
+            }
+        }
+        List<String> changedPaths = new ArrayList<String>();
+        boolean isListFound = false;
+        for (File statusDir : statusDirs) {
+            // Lists are in <goal>/<execution> directories.
+            File[] goalDirs = statusDir.listFiles();
+            if (goalDirs == null) {
+                continue;
+            }
+            for (File goalDir : goalDirs) {
+                File[] executionDirs = goalDir.listFiles();
+                if (executionDirs == null) {
+                    continue;
+                }
+                for (File executionDir : executionDirs) {
+                    File list = new File(executionDir, CREATED_FILES_NAME);
+                    if (!list.isFile()) {
+                        continue;
+                    }
+                    try {
+                        changedPaths.addAll(Arrays.asList(FileUtil.readLines(list)));
+                        isListFound = true;
+                    } catch (IOException ex) {
+                        Log.w("Unable to read " + list);
+                        return null;
+                    }
+                }
+            }
+        }
+        return isListFound ? new ChangeSet(roots, true, changedPaths) : null;
+    }
+}
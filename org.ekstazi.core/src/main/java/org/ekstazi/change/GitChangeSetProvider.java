@@ -0,0 +1,114 @@
+/*
+ * Copyright 2014-present Milos Gligoric
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ekstazi.change;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.ekstazi.Config;
+import org.ekstazi.log.Log;
+import org.ekstazi.util.FileUtil;
+
+/**
+ * Finds files that differ (in the working tree) from the given revision
+ * of a local git repository, including untracked files. The revision
+ * has to be the one at which dependencies were collected. Changes are
+ * unknown if a build file changed, as it can change any class. Note that
+ * a class is not hashed if its package has no changed source, even if it
+ * inlines a constant from a changed class in another package.
+ */
+public final class GitChangeSetProvider implements ChangeSetProvider {
+
+    /** Name of this provider (value of changes.provider) */
+    public static final String NAME = "git";
+
+    /** Names of build files */
+    private static final String[] BUILD_FILE_NAMES = { "pom.xml", "build.gradle", "build.gradle.kts",
+            "settings.gradle", "settings.gradle.kts", "build.xml" };
+
+    public ChangeSet getChangeSet(Config.Context context) {
+        File projectDir = new File(context.getRootDir()).getAbsoluteFile().getParentFile();
+        List<String> topLevel = git(projectDir, "rev-parse", "--show-toplevel");
+        if (topLevel == null || topLevel.size() != 1) {
+            return null;
+        }
+        File workTree = new File(topLevel.get(0));
+        List<String> changed = git(workTree, "diff", "--name-only", "-z", context.getChangesRevision(), "--");
+        List<String> untracked = git(workTree, "ls-files", "-z", "--others", "--exclude-standard");
+        if (changed == null || untracked == null) {
+            return null;
+        }
+        changed.addAll(untracked);
+        List<String> changedPaths = new ArrayList<String>();
+        for (String path : changed) {
+            if (isBuildFile(path)) {
+                Log.d("Build file changed", path);
+                return null;
+            }
+            changedPaths.add(new File(workTree, path).getAbsolutePath());
+        }
+        return new ChangeSet(context.getChangesRoots(), false, changedPaths);
+    }
+
+    // INTERNAL
+
+    private static boolean isBuildFile(String path) {
+        String name = new File(path).getName();
+        for (String buildFileName : BUILD_FILE_NAMES) {
+            if (name.equals(buildFileName)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Runs git with the given arguments in the given directory; returns
+     * lines (or NUL-separated names) of the output, or null if git failed.
+     */
+    private static List<String> git(File dir, String... args) {
+        List<String> command = new ArrayList<String>();
+        command.add("git");
+        for (String arg : args) {
+            command.add(arg);
+        }
+        try {
+            Process process = new ProcessBuilder(command).directory(dir).redirectErrorStream(true).start();
+            process.getOutputStream().close();
+            String output = new String(FileUtil.loadBytes(process.getInputStream()), "UTF-8");
+            if (process.waitFor() != 0) {
+                Log.w("Unable to find changes with git " + args[0] + ": " + output.trim());
+                return null;
+            }
+            List<String> lines = new ArrayList<String>();
+            for (String line : output.split("[\\n\\x00]")) {
+                if (!line.equals("")) {
+                    lines.add(line);
+                }
+            }
+            return lines;
+        } catch (IOException ex) {
+            Log.w("Unable to run git: " + ex.getMessage());
+            return null;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+}
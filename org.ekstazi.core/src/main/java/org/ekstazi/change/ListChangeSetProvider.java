@@ -0,0 +1,60 @@
+/*
+ * Copyright 2014-present Milos Gligoric
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ekstazi.change;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.ekstazi.Config;
+import org.ekstazi.log.Log;
+import org.ekstazi.util.FileUtil;
+
+/**
+ * Reads changed files from a file given by the user (one path per line;
+ * empty lines and lines that start with '#' are ignored), e.g., a list
+ * produced by a CI system.
+ */
+public final class ListChangeSetProvider implements ChangeSetProvider {
+
+    /** Name of this provider (value of changes.provider) */
+    public static final String NAME = "list";
+
+    public ChangeSet getChangeSet(Config.Context context) {
+        if (context.getChangesFile().equals("")) {
+            Log.w("File with changes is not set");
+            return null;
+        }
+        File file = new File(context.getChangesFile());
+        String[] lines;
+        try {
+            lines = FileUtil.readLines(file);
+        } catch (IOException ex) {
+            Log.w("Unable to read changes from " + file);
+            return null;
+        }
+        List<String> changedPaths = new ArrayList<String>();
+        for (String line : lines) {
+            line = line.trim();
+            if (!line.equals("") && !line.startsWith("#")) {
+                changedPaths.add(line);
+            }
+        }
+        return new ChangeSet(context.getChangesRoots(), false, changedPaths);
+    }
+}
@@ -16,8 +16,11 @@
 
 package org.ekstazi.check;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Set;
 
+import org.ekstazi.change.ChangeSet;
 import org.ekstazi.data.RegData;
 import org.ekstazi.data.Storer;
 import org.ekstazi.hash.Hasher;
@@ -30,12 +33,19 @@ abstract class AbstractCheck {
     /** Hasher */
     protected final Hasher mHasher;
 
+    /** Files changed since dependencies were collected; null if unknown */
+    private final ChangeSet mChangeSet;
+
+    /** Time when the checked dependencies were saved */
+    private long mSince;
+
     /**
      * Constructor.
      */
-    public AbstractCheck(Storer storer, Hasher hasher) {
+    public AbstractCheck(Storer storer, Hasher hasher, ChangeSet changeSet) {
         this.mStorer = storer;
         this.mHasher = hasher;
+        this.mChangeSet = changeSet;
     }
 
     public abstract String includeAll(String fileName, String fileDir);
@@ -43,6 +53,7 @@ abstract class AbstractCheck {
     public abstract void includeAffected(Set<String> affectedClasses);
 
     protected boolean isAffected(String dirName, String className, String methodName) {
+        mSince = mStorer.lastModified(dirName, className, methodName);
         return isAffected(mStorer.load(dirName, className, methodName));
     }
 
@@ -50,6 +61,20 @@ abstract class AbstractCheck {
         return regData == null || regData.size() == 0 || hasHashChanged(regData);
     }
 
+    /**
+     * Returns dependencies (of the given class/method) that changed.
+     */
+    protected List<RegData> findChanged(String dirName, String className, String methodName) {
+        List<RegData> changed = new ArrayList<RegData>();
+        mSince = mStorer.lastModified(dirName, className, methodName);
+        for (RegData el : mStorer.load(dirName, className, methodName)) {
+            if (hasHashChanged(mHasher, el)) {
+                changed.add(el);
+            }
+        }
+        return changed;
+    }
+
     /**
      * Check if any element of the given set has changed.
      */
@@ -67,6 +92,10 @@ abstract class AbstractCheck {
      */
     protected final boolean hasHashChanged(Hasher hasher, RegData regDatum) {
         String urlExternalForm = regDatum.getURLExternalForm();
+        // Files that are not in the change set are not hashed.
+        if (mChangeSet != null && mChangeSet.isUnchanged(urlExternalForm, mSince)) {
+            return false;
+        }
         // Check hash.
         String newHash = hasher.hashURL(urlExternalForm);
         boolean anyDiff = !newHash.equals(regDatum.getHash());
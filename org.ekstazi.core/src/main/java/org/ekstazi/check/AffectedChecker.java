@@ -22,15 +22,26 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import org.ekstazi.Config;
 import org.ekstazi.Names;
+import org.ekstazi.change.ChangeSet;
+import org.ekstazi.daemon.DaemonClient;
+import org.ekstazi.data.Baselines;
 import org.ekstazi.data.DependencyAnalyzer;
+import org.ekstazi.data.GlobalDependencies;
+import org.ekstazi.data.Journal;
 import org.ekstazi.data.Storer;
+import org.ekstazi.hash.HashSnapshot;
 import org.ekstazi.hash.Hasher;
+import org.ekstazi.log.Log;
+import org.ekstazi.log.Metrics;
+import org.ekstazi.util.Types;
 
 /**
  * Checks all files in coverage directory based on configuration and print the
@@ -61,6 +72,15 @@ public class AffectedChecker {
     /** Forces cache use */
     private static final String FORCE_CACHE_USE = "--force-cache-use";
 
+    /** Classfile extension */
+    private static final String CLASS_FILE_EXT = ".class";
+
+    /** Option that sets Ekstazi directory (followed by URI) */
+    private static final String ROOT_DIR_OPTION = "root.dir=";
+
+    /** Option that disables caches */
+    private static final String NO_CACHE_OPTION = "cache.sizes=0";
+
     /**
      * The user has to specify directory that keep coverage and optionally
      * mode that should be used to print non affected classes.
@@ -84,14 +104,14 @@ public class AffectedChecker {
 
         Set<String> allClasses = new HashSet<String>();
         Set<String> affectedClasses = new HashSet<String>();
-        if (args.length > 3) {
-            String options = args[3];
-            Config.loadConfig(options, true);
-        } else {
-            Config.loadConfig();
-        }
+        String options = args.length > 3 ? args[3] : null;
+        // Static options are loaded only to initialize logging.
+        Config.loadConfig(options, true);
+        options = (options == null ? "" : options + Config.OPTION_SEPARATOR) + ROOT_DIR_OPTION
+                + new File(coverageDirName).toURI() + (forceCacheUse ? "" : Config.OPTION_SEPARATOR + NO_CACHE_OPTION);
+        Config.Context context = Config.Context.load(new File(System.getProperty(USER_DIR)), options);
 
-        List<String> nonAffectedClasses = findNonAffectedClasses(coverageDirName, forceCacheUse, allClasses, affectedClasses);
+        List<String> nonAffectedClasses = findNonAffectedClasses(context, allClasses, affectedClasses);
         
         // Print non affected classes.
         printNonAffectedClasses(allClasses, affectedClasses, nonAffectedClasses, mode);
@@ -108,25 +128,48 @@ public class AffectedChecker {
      * @return List of non-affected test classes.
      */
     public static List<String> findNonAffectedClasses(File parentDir, String options) {
-        // Return if Ekstazi directory does not exist.
-        if (!Config.createRootDir(parentDir).exists()) {
-            return Collections.<String>emptyList();
+        Config.Context context = Config.Context.load(parentDir, options);
+        Metrics metrics = context.getMetrics();
+        if (metrics == null) {
+            return findNonAffectedClasses(parentDir, options, context);
         }
-        Config.loadConfig(options, true);
-        return findNonAffectedClasses(parentDir.getAbsolutePath());
+        // Each selection (i.e., project) has its own metrics.
+        long start = metrics.start();
+        List<String> nonAffectedClasses = findNonAffectedClasses(parentDir, options, context);
+        metrics.stop(Metrics.Timer.SELECTION, start, context.getRootDir());
+        metrics.save(context.getRootDir(), "selection");
+        return nonAffectedClasses;
     }
 
-    /**
-     * Returns list of non affected classes as discovered from the given
-     * directory with dependencies.
-     */
-    private static List<String> findNonAffectedClasses(String workingDirectory) {
+    private static List<String> findNonAffectedClasses(File parentDir, String options, Config.Context context) {
+        // Journals that were not merged after the previous run are
+        // discarded (files may have changed since then).
+        Journal.discard(context);
+        // Select in the daemon if requested and available.
+        if (context.isDaemon()) {
+            List<String> nonAffectedClasses = DaemonClient.findNonAffectedClasses(parentDir, options);
+            if (nonAffectedClasses != null) {
+                // The daemon saved hashes in the snapshot (if any).
+                if (!context.getHashSnapshot().equals("")) {
+                    HashSnapshot.get(new File(context.getHashSnapshot())).load();
+                }
+                return nonAffectedClasses;
+            }
+        }
+        // Select against the baseline (if requested) rather than the
+        // latest run.
+        if (!context.getBaseline().equals("") && !Baselines.restore(context.getRootDir(), context.getBaseline())) {
+            Log.w("No baseline for " + context.getBaseline() + "; tests are selected against the latest run");
+        }
+        // Return if Ekstazi directory does not exist (static
+        // dependencies are extracted even on the first run).
+        if (!context.isDependenciesStatic() && !new File(context.getRootDir()).exists()) {
+            return Collections.<String>emptyList();
+        }
         Set<String> allClasses = new HashSet<String>();
         Set<String> affectedClasses = new HashSet<String>();
-        loadConfig(workingDirectory);
         // Find non affected classes.
-        List<String> nonAffectedClasses = findNonAffectedClasses(Config.ROOT_DIR_V, true, allClasses,
-                affectedClasses);
+        List<String> nonAffectedClasses = findNonAffectedClasses(context, allClasses, affectedClasses);
         // Format list to include class names in expected format for Ant and Maven.
         return formatNonAffectedClassesForAntAndMaven(nonAffectedClasses);
     }
@@ -147,13 +190,8 @@ public class AffectedChecker {
         if (!Config.createRootDir(parentDir).exists()) {
             return Collections.<String>emptyList();
         }
-        Config.loadConfig(options, true);
-        return findRecentlyFailingClasses(parentDir.getAbsolutePath());
-    }
-
-    private static List<String> findRecentlyFailingClasses(String workingDirectory) {
-        loadConfig(workingDirectory);
-        File testResultsDir = new File(Config.ROOT_DIR_V, Names.TEST_RESULTS_DIR_NAME);
+        Config.Context context = Config.Context.load(parentDir, options);
+        File testResultsDir = new File(context.getRootDir(), Names.TEST_RESULTS_DIR_NAME);
         // All files correspond to classes that have been failing.
         List<String> allFailing = new ArrayList<String>();
         if (testResultsDir.exists()) {
@@ -163,20 +201,101 @@ public class AffectedChecker {
         }
         return formatNonAffectedClassesForAntAndMaven(allFailing);
     }
-    
-    // INTERNAL
 
-    private static void loadConfig(String workingDirectory) {
-        String oldWorkingDirectory = System.getProperty(USER_DIR);
-        if (workingDirectory != null) {
-            System.setProperty(USER_DIR, workingDirectory);
+    /**
+     * Finds test classes in the given directory that are not excluded,
+     * i.e., classes that should run. Classes that are not tests may be in
+     * the list, as well as new test classes (without dependencies). This
+     * method is intended to be invoked from build plugins/tasks once
+     * non-affected classes are found.
+     * 
+     * @param testClassesDir
+     *            Directory with test classes
+     * @param excludedClasses
+     *            Test classes that are excluded (in the same format as
+     *            non-affected classes)
+     * @return List of test classes (in the same format as non-affected
+     *         classes) that are not excluded
+     */
+    public static List<String> findClassesToRun(File testClassesDir, List<String> excludedClasses) {
+        Set<String> classes = new HashSet<String>();
+        collectTestClasses(testClassesDir, "", classes);
+        List<String> classesToRun = formatNonAffectedClassesForAntAndMaven(new ArrayList<String>(classes));
+        classesToRun.removeAll(new HashSet<String>(excludedClasses));
+        Collections.sort(classesToRun);
+        return classesToRun;
+    }
+
+    /**
+     * Finds test classes that belong to shards other than the shard given
+     * in options (see {@link Shards}). Test classes that are not already
+     * excluded are split into shards; test classes are classes whose names
+     * match names that Surefire runs by default, and classes that have
+     * dependencies or stats (e.g., tests run with custom includes). This
+     * method is intended to be invoked from build plugins/tasks once
+     * non-affected classes are found.
+     * 
+     * @param parentDir
+     *            Parent directory of .ekstazi
+     * @param options
+     *            Ekstazi options
+     * @param testClassesDir
+     *            Directory with test classes (can be null)
+     * @param excludedClasses
+     *            Test classes that are excluded (in the same format as
+     *            non-affected classes)
+     * @return List of test classes that belong to other shards
+     */
+    public static List<String> findOtherShardsClasses(File parentDir, String options, File testClassesDir,
+            List<String> excludedClasses) {
+        Config.Context context = Config.Context.load(parentDir, options);
+        if (context.getShardCount() <= 1) {
+            return Collections.<String>emptyList();
         }
-        try {
-            Config.loadConfig();
-        } finally {
-            System.setProperty(USER_DIR, oldWorkingDirectory);
+        // Other classes in test directory (e.g., helpers and abstract
+        // classes) are not split, so they do not take place of tests in
+        // shards.
+        Set<String> classes = new HashSet<String>();
+        Set<String> testDirClasses = new HashSet<String>();
+        collectTestClasses(testClassesDir, "", testDirClasses);
+        for (String className : testDirClasses) {
+            if (Types.isDefaultTestBinName(className)) {
+                classes.add(className);
+            }
+        }
+        collectClassesWithDependencies(new File(context.getRootDir()), classes);
+        collectClassesWithStats(new File(context.getRootDir(), Names.TEST_STATS_DIR_NAME), classes);
+        for (String excludedClass : excludedClasses) {
+            classes.remove(excludedClass.replaceAll("\\.java$", "").replace('/', '.'));
         }
+        List<String> shardClasses = Shards.findShardClasses(context.getRootDir(), classes,
+                context.getShardIndex(), context.getShardCount());
+        classes.removeAll(shardClasses);
+        List<String> otherShardsClasses = new ArrayList<String>(classes);
+        Collections.sort(otherShardsClasses);
+        return formatNonAffectedClassesForAntAndMaven(otherShardsClasses);
     }
+
+    /**
+     * Finds the list of affected test classes that were deferred, as they
+     * did not fit in time budget, when tests were last selected. This
+     * method is intended to be invoked from build plugins/tasks.
+     * 
+     * @param parentDir
+     *            Parent directory of .ekstazi
+     * @param options
+     *            Ekstazi options
+     * @return List of deferred test classes
+     */
+    public static List<String> findDeferredClasses(File parentDir, String options) {
+        if (!Config.createRootDir(parentDir).exists()) {
+            return Collections.<String>emptyList();
+        }
+        Config.Context context = Config.Context.load(parentDir, options);
+        return formatNonAffectedClassesForAntAndMaven(TimeBudget.load(context.getRootDir()));
+    }
+
+    // INTERNAL
     
     private static List<String> formatNonAffectedClassesForAntAndMaven(List<String> nonAffectedClasses) {
         List<String> formatted = new ArrayList<String>();
@@ -186,29 +305,143 @@ public class AffectedChecker {
         return formatted;
     }
 
-    private static List<String> findNonAffectedClasses(String depsDirName, boolean forceCacheUse, Set<String> allClasses,
+    /**
+     * Collects names (in binary form) of top level classes in the given
+     * directory.
+     */
+    private static void collectTestClasses(File dir, String prefix, Set<String> classes) {
+        File[] files = dir == null ? null : dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            String name = file.getName();
+            if (file.isDirectory()) {
+                collectTestClasses(file, prefix + name + ".", classes);
+            } else if (name.endsWith(CLASS_FILE_EXT) && !name.contains("$")) {
+                classes.add(prefix + name.substring(0, name.length() - CLASS_FILE_EXT.length()));
+            }
+        }
+    }
+
+    /**
+     * Collects names of test classes that have dependencies in the given
+     * directory.
+     */
+    private static void collectClassesWithDependencies(File depsDir, Set<String> classes) {
+        for (File file : getSortedFiles(depsDir)) {
+            String name = file.getName();
+            for (String ext : new String[] { DependencyAnalyzer.CLASS_EXT, DependencyAnalyzer.COV_EXT }) {
+                if (file.isFile() && name.endsWith("." + ext)) {
+                    classes.add(name.substring(0, name.length() - ext.length() - 1));
+                }
+            }
+        }
+    }
+
+    /**
+     * Collects names of test classes that have stats in the given
+     * directory.
+     */
+    private static void collectClassesWithStats(File statsDir, Set<String> classes) {
+        File[] files = statsDir.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            if (file.isFile()) {
+                classes.add(file.getName());
+            }
+        }
+    }
+
+    private static List<String> findNonAffectedClasses(Config.Context context, Set<String> allClasses,
             Set<String> affectedClasses) {
-        if (!forceCacheUse) {
-            Config.CACHE_SIZES_V = 0;
+        String depsDirName = context.getRootDir();
+        File depsDir = new File(depsDirName);
+
+        if (context.isDependenciesStatic()) {
+            List<String> nonAffectedClasses = StaticDependencyGraph.findNonAffectedClasses(depsDirName,
+                    context.getDependenciesStaticClasses(), context.getDependenciesStaticTestClasses(),
+                    context.createHasher(), allClasses);
+            affectedClasses.addAll(allClasses);
+            affectedClasses.removeAll(nonAffectedClasses);
+            List<String> deferredClasses = new ArrayList<String>();
+            deferOverBudget(context, affectedClasses, Collections.<String, Integer>emptyMap(),
+                    Collections.<String, Long>emptyMap(), deferredClasses);
+            // Save the graph now, unless the build saves it once tests
+            // run (so that tests that fail stay affected); deferred
+            // classes stay affected either way.
+            if (!context.isDependenciesStaticDeferred()) {
+                StaticDependencyGraph.savePending(depsDirName, deferredClasses);
+            }
+            nonAffectedClasses.addAll(deferredClasses);
+            Collections.sort(nonAffectedClasses);
+            return nonAffectedClasses;
         }
         
-        Config.ROOT_DIR_V = depsDirName;
-        File depsDir = new File(Config.ROOT_DIR_V);
-        
         if (checkIfDoesNotExist(depsDir)) {
             return Collections.emptyList();
         }
 
+        // Remove global dependencies if changed (before checking tests).
+        GlobalDependencies globalDependencies = loadGlobalDependencies(context);
+
         // Find affected test classes.
-        includeAffected(allClasses, affectedClasses, getSortedFiles(depsDir));
+        Map<String, Integer> numOfChanged = new HashMap<String, Integer>();
+        Map<String, Long> lastChanged = new HashMap<String, Long>();
+        includeAffected(context, allClasses, affectedClasses, numOfChanged, lastChanged, getSortedFiles(depsDir));
+
+        // Defer affected test classes that do not fit in time budget.
+        List<String> deferredClasses = new ArrayList<String>();
+        deferOverBudget(context, affectedClasses, numOfChanged, lastChanged, deferredClasses);
+
+        // Save order in which affected test classes should run.
+        if (context.isTestsPrioritize()) {
+            RunOrder.save(depsDirName, affectedClasses, numOfChanged, lastChanged);
+        } else {
+            RunOrder.remove(depsDirName);
+        }
+
+        // Compute global dependencies for the next run (if needed).
+        if (!globalDependencies.isComputed() && context.getDependenciesGlobalThreshold() > 0) {
+            globalDependencies.compute(context.createStorer(), context.createHasher(),
+                    context.getDependenciesGlobalThreshold());
+        }
 
         // Find test classes that are not affected.
         List<String> nonAffectedClasses = new ArrayList<String>(new HashSet<String>(allClasses));
         nonAffectedClasses.removeAll(affectedClasses);
+        nonAffectedClasses.addAll(deferredClasses);
         Collections.sort(nonAffectedClasses);
         return nonAffectedClasses;
     }
 
+    /**
+     * Moves affected classes that do not fit in time budget (if any) from
+     * the given set of affected classes to the given list.
+     */
+    private static void deferOverBudget(Config.Context context, Set<String> affectedClasses,
+            Map<String, Integer> numOfChanged, Map<String, Long> lastChanged, List<String> deferredClasses) {
+        if (context.getTestsBudget() <= 0) {
+            TimeBudget.remove(context.getRootDir());
+            return;
+        }
+        List<String> overBudget = TimeBudget.findDeferredClasses(context.getRootDir(), affectedClasses,
+                numOfChanged, lastChanged, context.getTestsBudget() * 1000L);
+        affectedClasses.removeAll(overBudget);
+        deferredClasses.addAll(overBudget);
+        Collections.sort(deferredClasses);
+    }
+
+    private static GlobalDependencies loadGlobalDependencies(Config.Context context) {
+        if (context.getDependenciesGlobalThreshold() <= 0) {
+            // Tests that used global dependencies will be affected.
+            GlobalDependencies.remove(context.getRootDir());
+        }
+        return GlobalDependencies.load(context.getRootDir(), context.createStorer(), context.createHasher());
+    }
+
     private static boolean checkIfDoesNotExist(File coverageDir) {
         return coverageDir == null || !coverageDir.exists();
     }
@@ -218,7 +451,8 @@ public class AffectedChecker {
         File[] files = coverageDir.listFiles(new FilenameFilter() {
             public boolean accept(File dir, String name) {
                 // Exclude tool files.
-                return (!name.contains(Names.VERBOSE_FILE_NAME) && !name.contains(Names.RUN_INFO_FILE_NAME));
+                return (!name.contains(Names.VERBOSE_FILE_NAME) && !name.contains(Names.RUN_INFO_FILE_NAME)
+                        && !Arrays.asList(Names.ALL_FILE_NAMES).contains(name));
             }
         });
         // It can be null when directory still does not exists.
@@ -278,15 +512,21 @@ public class AffectedChecker {
     /**
      * Find all non affected classes.
      */
-    private static void includeAffected(Set<String> allClasses, Set<String> affectedClasses, List<File> sortedFiles) {
-        Storer storer = Config.createStorer();
-        Hasher hasher = Config.createHasher();
-
-        NameBasedCheck classCheck = Config.DEBUG_MODE_V != Config.DebugMode.NONE ?
-            new DebugNameCheck(storer, hasher, DependencyAnalyzer.CLASS_EXT) :
-            new NameBasedCheck(storer, hasher, DependencyAnalyzer.CLASS_EXT);
-        NameBasedCheck covCheck = new NameBasedCheck(storer, hasher, DependencyAnalyzer.COV_EXT);
-        MethodCheck methodCheck = new MethodCheck(storer, hasher);
+    private static void includeAffected(Config.Context context, Set<String> allClasses,
+            Set<String> affectedClasses, Map<String, Integer> numOfChanged, Map<String, Long> lastChanged,
+            List<File> sortedFiles) {
+        Storer storer = context.createStorer();
+        Hasher hasher = context.createHasher();
+        ChangeSet changeSet = context.createChangeSet();
+
+        // Changed dependencies are needed only to prioritize affected classes.
+        boolean countChanged = context.isTestsPrioritize() || context.getTestsBudget() > 0;
+        NameBasedCheck classCheck = context.getDebugMode() != Config.DebugMode.NONE ?
+            new DebugNameCheck(storer, hasher, changeSet, DependencyAnalyzer.CLASS_EXT, countChanged) :
+            new NameBasedCheck(storer, hasher, changeSet, DependencyAnalyzer.CLASS_EXT, countChanged);
+        NameBasedCheck covCheck = new NameBasedCheck(storer, hasher, changeSet, DependencyAnalyzer.COV_EXT,
+                countChanged);
+        MethodCheck methodCheck = new MethodCheck(storer, hasher, changeSet);
         String prevClassName = null;
         for (File file : sortedFiles) {
             String fileName = file.getName();
@@ -305,7 +545,7 @@ public class AffectedChecker {
             // Reset after some time to free space.
             if (prevClassName != null && className != null && !prevClassName.equals(className)) {
                 methodCheck.includeAffected(affectedClasses);
-                methodCheck = new MethodCheck(Config.createStorer(), Config.createHasher());
+                methodCheck = new MethodCheck(context.createStorer(), context.createHasher(), changeSet);
             }
             if (className != null) {
                 allClasses.add(className);
@@ -315,5 +555,7 @@ public class AffectedChecker {
         classCheck.includeAffected(affectedClasses);
         covCheck.includeAffected(affectedClasses);
         methodCheck.includeAffected(affectedClasses);
+        classCheck.includeChanged(numOfChanged, lastChanged);
+        covCheck.includeChanged(numOfChanged, lastChanged);
     }
 }
@@ -18,6 +18,7 @@ package org.ekstazi.check;
 
 import java.util.Set;
 
+import org.ekstazi.change.ChangeSet;
 import org.ekstazi.data.RegData;
 import org.ekstazi.data.Storer;
 import org.ekstazi.hash.Hasher;
@@ -33,8 +34,9 @@ final class DebugNameCheck extends NameBasedCheck {
     /**
      * Constructor.
      */
-    public DebugNameCheck(Storer storer, Hasher hasher, String extension) {
-        super(storer, hasher, extension);
+    public DebugNameCheck(Storer storer, Hasher hasher, ChangeSet changeSet, String extension,
+            boolean countChanged) {
+        super(storer, hasher, changeSet, extension, countChanged);
     }
 
     @Override
@@ -21,6 +21,7 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Set;
 
+import org.ekstazi.change.ChangeSet;
 import org.ekstazi.data.RegData;
 import org.ekstazi.data.Storer;
 import org.ekstazi.hash.Hasher;
@@ -59,8 +60,8 @@ final class MethodCheck extends AbstractCheck {
     /**
      * Constructor.
      */
-    public MethodCheck(Storer storer, Hasher hasher) {
-        super(storer, hasher);
+    public MethodCheck(Storer storer, Hasher hasher, ChangeSet changeSet) {
+        super(storer, hasher, changeSet);
         this.mTests = new ArrayList<TestAbs>();
     }
 
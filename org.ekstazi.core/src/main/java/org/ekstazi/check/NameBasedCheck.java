@@ -16,27 +16,46 @@
 
 package org.ekstazi.check;
 
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
+import org.ekstazi.change.ChangeSet;
+import org.ekstazi.data.RegData;
 import org.ekstazi.data.Storer;
 import org.ekstazi.hash.Hasher;
+import org.ekstazi.util.FileUtil;
 
 class NameBasedCheck extends AbstractCheck {
 
     /** Affected set of classes */
     private final Set<String> mAffected;
 
+    /** Number of changed dependencies for each affected class */
+    private final Map<String, Integer> mNumOfChanged;
+
+    /** Time when a changed dependency was last modified for each affected class */
+    private final Map<String, Long> mLastChanged;
+
     /** Extension for the file that stores dependencies */
     private final String mExtension;
+
+    /** Indicates if changed dependencies should be counted */
+    private final boolean mCountChanged;
     
     /**
      * Constructor.
      */
-    public NameBasedCheck(Storer storer, Hasher hasher, String extension) {
-        super(storer, hasher);
+    public NameBasedCheck(Storer storer, Hasher hasher, ChangeSet changeSet, String extension,
+            boolean countChanged) {
+        super(storer, hasher, changeSet);
         this.mAffected = new HashSet<String>();
+        this.mNumOfChanged = new HashMap<String, Integer>();
+        this.mLastChanged = new HashMap<String, Long>();
         this.mExtension = extension;
+        this.mCountChanged = countChanged;
     }
 
     @Override
@@ -44,6 +63,11 @@ class NameBasedCheck extends AbstractCheck {
         String className = removeExtension(fileName, mExtension);
         if (isAffected(fileDir, className, mExtension)) {
             mAffected.add(className);
+            if (mCountChanged) {
+                List<RegData> changed = findChanged(fileDir, className, mExtension);
+                mNumOfChanged.put(className, changed.size());
+                mLastChanged.put(className, findLastModified(changed));
+            }
         }
         return className;
     }
@@ -53,6 +77,27 @@ class NameBasedCheck extends AbstractCheck {
         affectedClasses.addAll(mAffected);
     }
 
+    /**
+     * Includes the number of changed dependencies, and the time when a
+     * changed dependency was last modified, for affected classes.
+     */
+    public void includeChanged(Map<String, Integer> numOfChanged, Map<String, Long> lastChanged) {
+        numOfChanged.putAll(mNumOfChanged);
+        lastChanged.putAll(mLastChanged);
+    }
+
+    /**
+     * Returns the time when any of the given dependencies was last
+     * modified; removed dependencies are not taken into account.
+     */
+    private static long findLastModified(List<RegData> regData) {
+        long lastModified = 0L;
+        for (RegData el : regData) {
+            lastModified = Math.max(lastModified, FileUtil.getURLLastModified(el.getURLExternalForm()));
+        }
+        return lastModified;
+    }
+
     /**
      * Removes extension (and preceding dot if present) from the given string.
      * 
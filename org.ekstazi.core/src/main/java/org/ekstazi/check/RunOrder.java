@@ -0,0 +1,160 @@
+/*
+ * Copyright 2014-present Milos Gligoric
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ekstazi.check;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.ekstazi.Names;
+import org.ekstazi.data.TestStats;
+import org.ekstazi.log.Log;
+import org.ekstazi.util.FileUtil;
+
+/**
+ * Order in which affected test classes should run, such that the first
+ * failure (if any) is likely to be seen early. Test classes are ordered
+ * by the number of recent failures, then by the number of changed
+ * dependencies, then by how recently a changed dependency was modified
+ * (recent changes first), and finally by duration (short tests first).
+ * The order is kept in a file with one test class per line.
+ */
+public final class RunOrder {
+
+    /**
+     * Computes order for the given affected classes and saves it in the
+     * given Ekstazi directory.
+     *
+     * @param dirName
+     *            Ekstazi directory
+     * @param affectedClasses
+     *            Affected test classes (in binary form)
+     * @param numOfChanged
+     *            Number of changed dependencies for (some) affected classes
+     * @param lastChanged
+     *            Time when a changed dependency was last modified for
+     *            (some) affected classes
+     */
+    public static void save(String dirName, Collection<String> affectedClasses, Map<String, Integer> numOfChanged,
+            Map<String, Long> lastChanged) {
+        StringBuilder sb = new StringBuilder();
+        for (String className : sort(dirName, affectedClasses, numOfChanged, lastChanged)) {
+            sb.append(className).append('\n');
+        }
+        try {
+            FileUtil.writeFile(getFile(dirName), sb.toString().getBytes());
+        } catch (IOException ex) {
+            Log.e("Unable to save run order", ex);
+        }
+    }
+
+    /**
+     * Returns the given affected classes in the order in which they
+     * should run.
+     */
+    public static List<String> sort(String dirName, Collection<String> affectedClasses,
+            final Map<String, Integer> numOfChanged, final Map<String, Long> lastChanged) {
+        final Map<String, TestStats> stats = new HashMap<String, TestStats>();
+        for (String className : affectedClasses) {
+            stats.put(className, TestStats.load(dirName, className));
+        }
+        List<String> order = new ArrayList<String>(affectedClasses);
+        Collections.sort(order, new Comparator<String>() {
+            public int compare(String o1, String o2) {
+                int diff = getNumOfRecentFailures(stats.get(o2)) - getNumOfRecentFailures(stats.get(o1));
+                if (diff != 0) {
+                    return diff;
+                }
+                diff = getNumOfChanged(numOfChanged, o2) - getNumOfChanged(numOfChanged, o1);
+                if (diff != 0) {
+                    return diff;
+                }
+                diff = Long.compare(getLastChanged(lastChanged, o2), getLastChanged(lastChanged, o1));
+                if (diff != 0) {
+                    return diff;
+                }
+                diff = Long.compare(getDuration(stats.get(o1)), getDuration(stats.get(o2)));
+                return diff != 0 ? diff : o1.compareTo(o2);
+            }
+        });
+        return order;
+    }
+
+    /**
+     * Loads order of test classes from the given Ekstazi directory.
+     * Returns an empty list if there is no order.
+     */
+    public static List<String> load(String dirName) {
+        File file = getFile(dirName);
+        if (!file.exists()) {
+            return Collections.emptyList();
+        }
+        try {
+            List<String> order = new ArrayList<String>();
+            for (String line : new String(FileUtil.readFile(file)).split("\n")) {
+                if (!line.equals("")) {
+                    order.add(line);
+                }
+            }
+            return order;
+        } catch (IOException ex) {
+            Log.w("Unable to load run order");
+            return Collections.emptyList();
+        }
+    }
+
+    /**
+     * Removes order (if any) from the given Ekstazi directory.
+     */
+    public static void remove(String dirName) {
+        getFile(dirName).delete();
+    }
+
+    // INTERNAL
+
+    private static int getNumOfRecentFailures(TestStats stats) {
+        return stats == null ? 0 : stats.getNumOfRecentFailures();
+    }
+
+    /**
+     * Returns duration of the latest run; tests that have not been run
+     * (with Ekstazi) are considered short.
+     */
+    private static long getDuration(TestStats stats) {
+        return stats == null ? 0 : stats.getDuration();
+    }
+
+    private static int getNumOfChanged(Map<String, Integer> numOfChanged, String className) {
+        Integer num = numOfChanged.get(className);
+        return num == null ? 0 : num;
+    }
+
+    private static long getLastChanged(Map<String, Long> lastChanged, String className) {
+        Long time = lastChanged.get(className);
+        return time == null ? 0L : time;
+    }
+
+    private static File getFile(String dirName) {
+        return new File(dirName, Names.RUN_ORDER_FILE_NAME);
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2014-present Milos Gligoric
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ekstazi.check;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+import org.ekstazi.data.TestStats;
+import org.ekstazi.log.Log;
+
+/**
+ * Splits affected test classes into shards that take (about) the same
+ * time to run, e.g., to run affected tests on several machines. Classes
+ * are assigned, the longest first, to the shard with the shortest total
+ * duration so far (durations are taken from {@link TestStats}). Classes
+ * without recorded duration are assumed to take average time.
+ *
+ * The split is deterministic: the same classes and the same stats give
+ * the same shards, so each machine can compute its own shard as long as
+ * all machines see the same Ekstazi directory.
+ */
+public final class Shards {
+
+    /**
+     * Returns test classes (in binary form) that belong to the given shard.
+     *
+     * @param dirName
+     *            Ekstazi directory
+     * @param affectedClasses
+     *            Affected test classes (in binary form)
+     * @param index
+     *            Index of the shard (starting from 0)
+     * @param count
+     *            Number of shards
+     */
+    public static List<String> findShardClasses(String dirName, Collection<String> affectedClasses, int index,
+            int count) {
+        if (index < 0 || index >= count) {
+            throw new IllegalArgumentException("Shard index has to be between 0 and " + (count - 1));
+        }
+        final Map<String, Long> durations = TestStats.loadDurations(dirName, affectedClasses);
+        List<String> sorted = new ArrayList<String>(durations.keySet());
+        Collections.sort(sorted, new Comparator<String>() {
+            public int compare(String o1, String o2) {
+                int diff = durations.get(o2).compareTo(durations.get(o1));
+                return diff != 0 ? diff : o1.compareTo(o2);
+            }
+        });
+
+        long[] totals = new long[count];
+        List<String> shardClasses = new ArrayList<String>();
+        for (String className : sorted) {
+            int shard = 0;
+            for (int i = 1; i < count; i++) {
+                if (totals[i] < totals[shard]) {
+                    shard = i;
+                }
+            }
+            totals[shard] += durations.get(className);
+            if (shard == index) {
+                shardClasses.add(className);
+            }
+        }
+        Collections.sort(shardClasses);
+        Log.d("Shard " + index + " duration (estimated)", totals[index]);
+        return shardClasses;
+    }
+}
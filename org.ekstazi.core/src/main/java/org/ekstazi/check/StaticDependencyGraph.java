@@ -0,0 +1,401 @@
+/*
+ * Copyright 2014-present Milos Gligoric
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ekstazi.check;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.ekstazi.Names;
+import org.ekstazi.asm.ClassReader;
+import org.ekstazi.hash.Hasher;
+import org.ekstazi.log.Log;
+import org.ekstazi.util.FileUtil;
+import org.ekstazi.util.Types;
+
+/**
+ * Dependencies among classes of a project extracted from classfiles,
+ * i.e., without running tests. A test class is affected if any class
+ * that the test class (transitively) references changed, was added, or
+ * was removed. References are taken from the constant pool, so they
+ * include classes used in code, signatures, and annotations, as well as
+ * class names in string constants.
+ *
+ * The graph is kept in the Ekstazi directory and updated incrementally:
+ * only classfiles whose hash changed are parsed again. Note that only
+ * classes in the given directories are tracked (not libraries). The graph
+ * updated when tests are selected is kept pending until it is saved (see
+ * {@link #savePending(String, Collection)}), e.g., after tests run.
+ */
+public final class StaticDependencyGraph {
+
+    /** Separator between entries on one line */
+    private static final String SEPARATOR = " ";
+
+    /** Classfile extension */
+    private static final String CLASS_EXT = ".class";
+
+    /** Source file extension (see SourceFile attribute) */
+    private static final String SOURCE_EXT = ".java";
+
+    /** Tags of constant pool entries (see JVM specification) */
+    private static final int CONSTANT_UTF8 = 1;
+    private static final int CONSTANT_CLASS = 7;
+
+    /** Class names in descriptors and signatures */
+    private static final Pattern DESC_PATTERN = Pattern.compile("L([\\w$/]+)[;<]");
+
+    /** Fully qualified class names (e.g., in string constants) */
+    private static final Pattern NAME_PATTERN = Pattern.compile("[\\w$]+(/[\\w$]+)+");
+
+    /** Hash and references (internal names) for each class */
+    private final Map<String, Node> mNodes;
+
+    /**
+     * Class in the graph.
+     */
+    private static final class Node {
+        final String mHash;
+        final Set<String> mRefs;
+
+        Node(String hash, Set<String> refs) {
+            this.mHash = hash;
+            this.mRefs = refs;
+        }
+    }
+
+    /**
+     * Constructor.
+     */
+    private StaticDependencyGraph(Map<String, Node> nodes) {
+        this.mNodes = nodes;
+    }
+
+    /**
+     * Finds test classes (in binary form) that are not affected since the
+     * graph in the given Ekstazi directory was last saved, and keeps the
+     * updated graph pending in that directory. All test classes are
+     * affected if there is no graph yet.
+     *
+     * @param rootDirName
+     *            Ekstazi directory
+     * @param classesDirNames
+     *            Directories with classes (separated by path separator)
+     * @param testClassesDirNames
+     *            Directories with test classes (separated by path
+     *            separator)
+     * @param allClasses
+     *            Set to which all test classes (in binary form) are added
+     */
+    public static List<String> findNonAffectedClasses(String rootDirName, String classesDirNames,
+            String testClassesDirNames, Hasher hasher, Set<String> allClasses) {
+        File graphFile = new File(rootDirName, Names.STATIC_GRAPH_FILE_NAME);
+        StaticDependencyGraph oldGraph = load(graphFile);
+
+        Set<String> testClasses = new HashSet<String>();
+        Map<String, File> classFiles = new HashMap<String, File>();
+        for (String dirName : split(classesDirNames)) {
+            collectClassFiles(new File(dirName), "", classFiles, null);
+        }
+        for (String dirName : split(testClassesDirNames)) {
+            collectClassFiles(new File(dirName), "", classFiles, testClasses);
+        }
+
+        Set<String> changed = new HashSet<String>(oldGraph.mNodes.keySet());
+        StaticDependencyGraph newGraph = oldGraph.update(classFiles, hasher, changed);
+        Set<String> affected = newGraph.findDependents(changed);
+
+        List<String> nonAffectedClasses = new ArrayList<String>();
+        for (String testClass : testClasses) {
+            if (testClass.contains("$")) {
+                continue;
+            }
+            allClasses.add(testClass.replace('/', '.'));
+            if (!affected.contains(testClass)) {
+                nonAffectedClasses.add(testClass.replace('/', '.'));
+            }
+        }
+        Collections.sort(nonAffectedClasses);
+        Log.d("Changed classes (static)", changed.size());
+
+        graphFile.getParentFile().mkdirs();
+        newGraph.save(new File(rootDirName, Names.STATIC_GRAPH_PENDING_FILE_NAME));
+        return nonAffectedClasses;
+    }
+
+    /**
+     * Saves the graph kept pending (if any) in the given Ekstazi
+     * directory. Test classes that did not pass are left out of the
+     * saved graph, so they are affected (as new classes) the next time
+     * tests are selected.
+     *
+     * @param rootDirName
+     *            Ekstazi directory
+     * @param notPassedClasses
+     *            Test classes (in binary form) that did not run or failed
+     * @return True if a pending graph was saved, false otherwise
+     */
+    public static boolean savePending(String rootDirName, Collection<String> notPassedClasses) {
+        File pendingFile = new File(rootDirName, Names.STATIC_GRAPH_PENDING_FILE_NAME);
+        if (!pendingFile.exists()) {
+            return false;
+        }
+        StaticDependencyGraph graph = load(pendingFile);
+        for (String className : notPassedClasses) {
+            graph.mNodes.remove(className.replace('.', '/'));
+        }
+        graph.save(new File(rootDirName, Names.STATIC_GRAPH_FILE_NAME));
+        pendingFile.delete();
+        return true;
+    }
+
+    // INTERNAL
+
+    /**
+     * Returns the graph for the given classfiles. Classfiles with unchanged
+     * hashes reuse references from this graph. On return, the given set
+     * (initially names in this graph) includes names of changed, new, and
+     * removed classes.
+     */
+    private StaticDependencyGraph update(Map<String, File> classFiles, Hasher hasher, Set<String> changed) {
+        Map<String, Node> nodes = new HashMap<String, Node>();
+        for (Entry<String, File> entry : classFiles.entrySet()) {
+            String className = entry.getKey();
+            String hash = hasher.hashURL(toExternalForm(entry.getValue()));
+            Node oldNode = mNodes.get(className);
+            if (oldNode != null && oldNode.mHash.equals(hash)) {
+                nodes.put(className, oldNode);
+                changed.remove(className);
+            } else {
+                nodes.put(className, new Node(hash, extractRefs(entry.getValue())));
+                changed.add(className);
+            }
+        }
+        return new StaticDependencyGraph(nodes);
+    }
+
+    /**
+     * Returns the given classes and all classes that (transitively)
+     * reference any of them.
+     */
+    private Set<String> findDependents(Set<String> classNames) {
+        Map<String, List<String>> reverse = new HashMap<String, List<String>>();
+        for (Entry<String, Node> entry : mNodes.entrySet()) {
+            if (entry.getValue().mRefs == null) {
+                continue;
+            }
+            for (String ref : entry.getValue().mRefs) {
+                List<String> dependents = reverse.get(ref);
+                if (dependents == null) {
+                    dependents = new ArrayList<String>();
+                    reverse.put(ref, dependents);
+                }
+                dependents.add(entry.getKey());
+            }
+        }
+        Set<String> visited = new HashSet<String>(classNames);
+        LinkedList<String> worklist = new LinkedList<String>(classNames);
+        while (!worklist.isEmpty()) {
+            List<String> dependents = reverse.get(worklist.removeFirst());
+            if (dependents == null) {
+                continue;
+            }
+            for (String dependent : dependents) {
+                if (visited.add(dependent)) {
+                    worklist.add(dependent);
+                }
+            }
+        }
+        return visited;
+    }
+
+    /**
+     * Extracts names of classes referenced from the given classfile. Names
+     * of JDK classes are not kept. Returns null if the classfile cannot be
+     * read, i.e., the class is treated as changed in the next run too.
+     */
+    private static Set<String> extractRefs(File classFile) {
+        Set<String> refs = new HashSet<String>();
+        try {
+            ClassReader reader = new ClassReader(FileUtil.readFile(classFile));
+            char[] buffer = new char[reader.getMaxStringLength()];
+            for (int i = 1; i < reader.getItemCount(); i++) {
+                int offset = reader.getItem(i);
+                // Second slot of long/double constants.
+                if (offset == 0) {
+                    continue;
+                }
+                int tag = reader.b[offset - 1];
+                if (tag == CONSTANT_CLASS) {
+                    // Class entry keeps index of its name.
+                    addRef(refs, reader.readUTF8(offset, buffer));
+                } else if (tag == CONSTANT_UTF8) {
+                    int length = reader.readUnsignedShort(offset);
+                    String value = new String(reader.b, offset + 2, length, "UTF-8");
+                    Matcher matcher = DESC_PATTERN.matcher(value);
+                    while (matcher.find()) {
+                        addRef(refs, matcher.group(1));
+                    }
+                    String name = value.replace('.', '/');
+                    if (NAME_PATTERN.matcher(name).matches() && !value.endsWith(SOURCE_EXT)) {
+                        addRef(refs, name);
+                    }
+                }
+            }
+        } catch (Exception ex) {
+            Log.w("Unable to extract references from " + classFile);
+            return null;
+        }
+        return refs;
+    }
+
+    private static void addRef(Set<String> refs, String name) {
+        if (name.startsWith("[")) {
+            Matcher matcher = DESC_PATTERN.matcher(name);
+            while (matcher.find()) {
+                addRef(refs, matcher.group(1));
+            }
+        } else if (!Types.isIgnorableInternalName(name)) {
+            refs.add(name);
+        }
+    }
+
+    /**
+     * Collects classfiles in the given directory. Keys in the map are
+     * internal names of classes. Names of classes are also added to the
+     * given set of test classes (if not null).
+     */
+    private static void collectClassFiles(File dir, String prefix, Map<String, File> classFiles,
+            Set<String> testClasses) {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            String name = file.getName();
+            if (file.isDirectory()) {
+                collectClassFiles(file, prefix + name + "/", classFiles, testClasses);
+            } else if (name.endsWith(CLASS_EXT)) {
+                String className = prefix + name.substring(0, name.length() - CLASS_EXT.length());
+                classFiles.put(className, file);
+                if (testClasses != null) {
+                    testClasses.add(className);
+                }
+            }
+        }
+    }
+
+    private static List<String> split(String dirNames) {
+        List<String> result = new ArrayList<String>();
+        if (dirNames != null) {
+            for (String dirName : dirNames.split(File.pathSeparator)) {
+                if (!dirName.equals("")) {
+                    result.add(dirName);
+                }
+            }
+        }
+        return result;
+    }
+
+    private static String toExternalForm(File file) {
+        try {
+            return file.toURI().toURL().toExternalForm();
+        } catch (MalformedURLException ex) {
+            // Never expected.
+            return file.getAbsolutePath();
+        }
+    }
+
+    // LOAD/SAVE
+
+    /**
+     * Loads graph from the given file. Each line describes one class: name,
+     * hash, and referenced classes (if known).
+     */
+    private static StaticDependencyGraph load(File file) {
+        Map<String, Node> nodes = new HashMap<String, Node>();
+        if (!file.exists()) {
+            return new StaticDependencyGraph(nodes);
+        }
+        BufferedReader br = null;
+        try {
+            br = new BufferedReader(new FileReader(file));
+            String line;
+            while ((line = br.readLine()) != null) {
+                String[] parts = line.split(SEPARATOR);
+                if (parts.length < 2) {
+                    continue;
+                }
+                Set<String> refs = new HashSet<String>();
+                for (int i = 2; i < parts.length; i++) {
+                    refs.add(parts[i]);
+                }
+                nodes.put(parts[0], new Node(parts[1], refs));
+            }
+        } catch (IOException ex) {
+            Log.e("Loading static dependencies not successful", ex);
+            // All tests will be affected.
+            nodes.clear();
+        } finally {
+            FileUtil.closeAndIgnoreExceptions(br);
+        }
+        return new StaticDependencyGraph(nodes);
+    }
+
+    private void save(File file) {
+        BufferedWriter bw = null;
+        try {
+            bw = new BufferedWriter(new FileWriter(file));
+            for (Entry<String, Node> entry : mNodes.entrySet()) {
+                Node node = entry.getValue();
+                // Classes that could not be read are not saved.
+                if (node.mRefs == null) {
+                    continue;
+                }
+                bw.write(entry.getKey());
+                bw.write(SEPARATOR);
+                bw.write(node.mHash);
+                for (String ref : node.mRefs) {
+                    bw.write(SEPARATOR);
+                    bw.write(ref);
+                }
+                bw.newLine();
+            }
+        } catch (IOException ex) {
+            Log.e("Saving static dependencies not successful", ex);
+            file.delete();
+        } finally {
+            FileUtil.closeAndIgnoreExceptions(bw);
+        }
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright 2014-present Milos Gligoric
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ekstazi.check;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.ekstazi.Names;
+import org.ekstazi.data.TestStats;
+import org.ekstazi.log.Log;
+import org.ekstazi.util.FileUtil;
+
+/**
+ * Limits the time spent running affected test classes. Affected classes
+ * are taken in the order given by {@link RunOrder} and are run as long as
+ * their (recorded) durations fit in the budget; remaining classes are
+ * deferred. Deferred classes are kept in a file (one class per line) in
+ * the Ekstazi directory. Note that deferred classes are not run, so they
+ * stay affected until they are run, e.g., by a build without budget.
+ */
+public final class TimeBudget {
+
+    /**
+     * Finds affected classes that do not fit in the given budget and saves
+     * them as deferred in the given Ekstazi directory.
+     *
+     * @param dirName
+     *            Ekstazi directory
+     * @param affectedClasses
+     *            Affected test classes (in binary form)
+     * @param numOfChanged
+     *            Number of changed dependencies for (some) affected classes
+     * @param lastChanged
+     *            Time when a changed dependency was last modified for
+     *            (some) affected classes
+     * @param budget
+     *            Time budget in milliseconds
+     * @return Deferred test classes (in binary form)
+     */
+    public static List<String> findDeferredClasses(String dirName, Collection<String> affectedClasses,
+            Map<String, Integer> numOfChanged, Map<String, Long> lastChanged, long budget) {
+        Map<String, Long> durations = TestStats.loadDurations(dirName, affectedClasses);
+        List<String> deferredClasses = new ArrayList<String>();
+        long total = 0;
+        for (String className : RunOrder.sort(dirName, affectedClasses, numOfChanged, lastChanged)) {
+            long duration = durations.get(className);
+            if (total + duration <= budget) {
+                total += duration;
+            } else {
+                // Shorter classes that follow may still fit.
+                deferredClasses.add(className);
+            }
+        }
+        Collections.sort(deferredClasses);
+        Log.d("Deferred classes", deferredClasses.size());
+        save(dirName, deferredClasses);
+        return deferredClasses;
+    }
+
+    /**
+     * Loads deferred classes from the given Ekstazi directory. Returns an
+     * empty list if no class was deferred.
+     */
+    public static List<String> load(String dirName) {
+        File file = getFile(dirName);
+        if (!file.exists()) {
+            return Collections.emptyList();
+        }
+        try {
+            List<String> deferredClasses = new ArrayList<String>();
+            for (String line : FileUtil.readLines(file)) {
+                if (!line.equals("")) {
+                    deferredClasses.add(line);
+                }
+            }
+            return deferredClasses;
+        } catch (IOException ex) {
+            Log.w("Unable to load deferred classes");
+            return Collections.emptyList();
+        }
+    }
+
+    /**
+     * Removes deferred classes (if any) from the given Ekstazi directory.
+     */
+    public static void remove(String dirName) {
+        getFile(dirName).delete();
+    }
+
+    // INTERNAL
+
+    private static void save(String dirName, List<String> deferredClasses) {
+        if (deferredClasses.isEmpty()) {
+            remove(dirName);
+            return;
+        }
+        try {
+            FileUtil.writeLines(getFile(dirName), deferredClasses);
+        } catch (IOException ex) {
+            Log.e("Unable to save deferred classes", ex);
+        }
+    }
+
+    private static File getFile(String dirName) {
+        return new File(dirName, Names.DEFERRED_FILE_NAME);
+    }
+}
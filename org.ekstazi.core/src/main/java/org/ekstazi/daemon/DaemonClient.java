@@ -0,0 +1,152 @@
+/*
+ * Copyright 2014-present Milos Gligoric
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ekstazi.daemon;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.lang.ProcessBuilder.Redirect;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.ekstazi.Config;
+import org.ekstazi.Names;
+import org.ekstazi.log.Log;
+import org.ekstazi.util.FileUtil;
+import org.ekstazi.util.Types;
+
+/**
+ * Sends requests to {@link SelectionDaemon}. If the daemon is not
+ * running, the client starts the daemon (once per VM) and the request
+ * fails, i.e., tests are selected without the daemon until the daemon
+ * is up. A running daemon of another version stops on request, and the
+ * client starts a daemon of its own version.
+ */
+public final class DaemonClient {
+
+    /** Time (in milliseconds) to wait for connection */
+    private static final int CONNECT_TIMEOUT = 1000;
+
+    /** Time (in milliseconds) to wait for response */
+    private static final int READ_TIMEOUT = 10 * 60 * 1000;
+
+    /** Set once the daemon is started by this VM */
+    private static boolean sStarted;
+
+    /**
+     * Finds non-affected classes (see
+     * {@link org.ekstazi.check.AffectedChecker#findNonAffectedClasses(File, String)})
+     * in the daemon. Returns null if the daemon is not available.
+     */
+    public static List<String> findNonAffectedClasses(File parentDir, String options) {
+        List<String> response = send(SelectionDaemon.SELECT_COMMAND, parentDir.getAbsolutePath(),
+                options == null ? "" : options);
+        if (response == null) {
+            start();
+        }
+        return response;
+    }
+
+    /**
+     * Stops the daemon (if running).
+     */
+    public static void stop() {
+        send(SelectionDaemon.STOP_COMMAND, "", "");
+    }
+
+    // INTERNAL
+
+    /**
+     * Sends request to the daemon and returns lines that follow the
+     * status, or null if the request failed.
+     */
+    private static List<String> send(String command, String parentDirName, String options) {
+        File portFile = new File(Config.getDaemonDir(), SelectionDaemon.PORT_FILE_NAME);
+        if (!portFile.exists()) {
+            return null;
+        }
+        Socket socket = new Socket();
+        try {
+            String[] portAndToken = new String(FileUtil.readFile(portFile)).trim().split(" ");
+            socket.connect(new InetSocketAddress(InetAddress.getLoopbackAddress(), Integer.parseInt(portAndToken[0])),
+                    CONNECT_TIMEOUT);
+            socket.setSoTimeout(READ_TIMEOUT);
+            PrintWriter pw = new PrintWriter(socket.getOutputStream());
+            pw.println(portAndToken[1]);
+            pw.println(Names.TOOL_VERSION);
+            pw.println(command);
+            pw.println(parentDirName);
+            pw.println(options);
+            pw.flush();
+
+            BufferedReader br = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+            String status = br.readLine();
+            if (SelectionDaemon.VERSION_MISMATCH_RESPONSE.equals(status)) {
+                Log.w("Selection daemon of another version is stopped");
+                return null;
+            } else if (!SelectionDaemon.OK_RESPONSE.equals(status)) {
+                Log.w("Selection daemon failed: " + status);
+                return null;
+            }
+            List<String> lines = new ArrayList<String>();
+            String line;
+            while ((line = br.readLine()) != null) {
+                lines.add(line);
+            }
+            return lines;
+        } catch (Exception ex) {
+            // Daemon is not running (or port file is stale).
+            return null;
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException ex) {
+                // Nothing.
+            }
+        }
+    }
+
+    /**
+     * Starts the daemon in the background (unless already started by this
+     * VM). The daemon runs from the jar that contains this class.
+     */
+    private static synchronized void start() {
+        if (sStarted) {
+            return;
+        }
+        sStarted = true;
+        try {
+            URL jarURL = Types.extractJarURL(DaemonClient.class);
+            File daemonDir = Config.getDaemonDir();
+            daemonDir.mkdirs();
+            String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+            ProcessBuilder pb = new ProcessBuilder(java, "-cp", new File(jarURL.toURI()).getAbsolutePath(),
+                    SelectionDaemon.class.getName());
+            pb.redirectErrorStream(true);
+            pb.redirectOutput(Redirect.appendTo(new File(daemonDir, SelectionDaemon.LOG_FILE_NAME)));
+            pb.start();
+        } catch (Exception ex) {
+            Log.w("Unable to start selection daemon");
+        }
+    }
+}
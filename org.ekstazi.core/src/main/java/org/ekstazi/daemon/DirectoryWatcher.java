@@ -0,0 +1,127 @@
+/*
+ * Copyright 2014-present Milos Gligoric
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ekstazi.daemon;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.ekstazi.data.Storer;
+import org.ekstazi.hash.HashSnapshot;
+import org.ekstazi.log.Log;
+
+/**
+ * Watches directories (not recursively) and drops loaded dependencies
+ * and hashes of files that change in those directories. Events arrive
+ * with a delay, so dependencies and hashes are still checked against
+ * file stamps before they are used; watching keeps the daemon from
+ * holding stale entries.
+ */
+final class DirectoryWatcher implements Runnable {
+
+    /** Prefix of external form of local files */
+    private static final String FILE_PROTOCOL = "file:";
+
+    /** Hashes to update */
+    private final HashSnapshot mSnapshot;
+
+    /** Watch service */
+    private final WatchService mWatchService;
+
+    /** Watched directories->watch keys */
+    private final Map<Path, WatchKey> mWatched;
+
+    /**
+     * Constructor.
+     */
+    DirectoryWatcher(HashSnapshot snapshot) throws IOException {
+        this.mSnapshot = snapshot;
+        this.mWatchService = FileSystems.getDefault().newWatchService();
+        this.mWatched = new ConcurrentHashMap<Path, WatchKey>();
+    }
+
+    /**
+     * Starts watching the given directory (if not already watched).
+     */
+    void watch(File dir) {
+        Path path = dir.getAbsoluteFile().toPath();
+        if (mWatched.containsKey(path) || !dir.isDirectory()) {
+            return;
+        }
+        try {
+            mWatched.put(path, path.register(mWatchService, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY));
+        } catch (IOException ex) {
+            Log.w("Unable to watch " + dir);
+        }
+    }
+
+    /**
+     * Starts watching directories that contain local files with the given
+     * external forms.
+     */
+    void watchParents(Collection<String> externalForms) {
+        for (String externalForm : externalForms) {
+            if (externalForm.startsWith(FILE_PROTOCOL)) {
+                try {
+                    watch(new File(new URL(externalForm).toURI()).getParentFile());
+                } catch (Exception ex) {
+                    // Not a local file.
+                }
+            }
+        }
+    }
+
+    public void run() {
+        while (true) {
+            WatchKey key;
+            try {
+                key = mWatchService.take();
+            } catch (InterruptedException ex) {
+                return;
+            }
+            Path dir = (Path) key.watchable();
+            for (WatchEvent<?> event : key.pollEvents()) {
+                if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                    // Changed files are unknown.
+                    mSnapshot.clear();
+                    continue;
+                }
+                File file = dir.resolve((Path) event.context()).toFile();
+                Storer.forgetLoadedData(file);
+                try {
+                    mSnapshot.remove(file.toURI().toURL().toExternalForm());
+                } catch (IOException ex) {
+                    // Never.
+                }
+            }
+            if (!key.reset()) {
+                // Directory is deleted.
+                mWatched.remove(dir);
+            }
+        }
+    }
+}
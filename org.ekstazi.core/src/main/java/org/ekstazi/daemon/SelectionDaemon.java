@@ -0,0 +1,316 @@
+/*
+ * Copyright 2014-present Milos Gligoric
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ekstazi.daemon;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.io.RandomAccessFile;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.nio.channels.FileLock;
+import java.security.SecureRandom;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.ekstazi.Config;
+import org.ekstazi.Names;
+import org.ekstazi.check.AffectedChecker;
+import org.ekstazi.data.Storer;
+import org.ekstazi.hash.HashSnapshot;
+import org.ekstazi.log.Log;
+import org.ekstazi.util.FileUtil;
+
+/**
+ * Long-lived VM that selects tests (see {@link AffectedChecker}) on
+ * request of build plugins/tasks (see {@link DaemonClient}). Dependencies
+ * and hashes stay in memory between requests, and directories with
+ * dependencies and hashed class files are watched to drop entries that
+ * change. Requests are accepted only on the loopback interface and only
+ * with the token from the port file (readable only by the owner).
+ *
+ * Request (one value per line): token, version of the client, command,
+ * parent directory of .ekstazi, options. Response: "OK" followed by
+ * non-affected classes (one per line), or an error message. A daemon
+ * stops if the version of the client differs from its own version, so
+ * that the client can start a daemon of its version.
+ */
+public final class SelectionDaemon {
+
+    /** File (in daemon directory) with port and token */
+    static final String PORT_FILE_NAME = "port";
+
+    /** File (in daemon directory) that is locked while daemon runs */
+    static final String LOCK_FILE_NAME = "lock";
+
+    /** File (in daemon directory) with hashes kept between daemon runs */
+    static final String HASHES_FILE_NAME = "hashes";
+
+    /** File (in daemon directory) with output of the daemon */
+    static final String LOG_FILE_NAME = "log";
+
+    /** Command that selects tests */
+    static final String SELECT_COMMAND = "select";
+
+    /** Command that stops the daemon */
+    static final String STOP_COMMAND = "stop";
+
+    /** Response to a successful request */
+    static final String OK_RESPONSE = "OK";
+
+    /** Response to a request from a client of another version */
+    static final String VERSION_MISMATCH_RESPONSE = "VERSION MISMATCH";
+
+    /** Time (in milliseconds) after which an idle daemon stops */
+    private static final int IDLE_TIMEOUT = 3 * 60 * 60 * 1000;
+
+    /** Time (in milliseconds) to wait for a request after connection */
+    private static final int REQUEST_TIMEOUT = 5000;
+
+    /** Time (in milliseconds) to wait for a daemon that is stopping */
+    private static final int STOPPING_TIMEOUT = 5000;
+
+    /** Directory with daemon files */
+    private final File mDaemonDir;
+
+    /** Token expected in each request */
+    private final String mToken;
+
+    /** Hashes shared by all requests */
+    private final HashSnapshot mSnapshot;
+
+    /** Watches directories with dependencies and class files */
+    private final DirectoryWatcher mWatcher;
+
+    /** Socket that accepts requests */
+    private ServerSocket mServerSocket;
+
+    /** Set once the daemon is stopped */
+    private volatile boolean mStopped;
+
+    /**
+     * Constructor.
+     */
+    private SelectionDaemon(File daemonDir, String token) throws IOException {
+        this.mDaemonDir = daemonDir;
+        this.mToken = token;
+        this.mSnapshot = HashSnapshot.get(new File(daemonDir, HASHES_FILE_NAME));
+        this.mWatcher = new DirectoryWatcher(mSnapshot);
+    }
+
+    /**
+     * Starts the daemon, or stops the running daemon if "stop" is given.
+     */
+    public static void main(String[] args) throws IOException {
+        Config.loadConfig(null, true);
+        if (args.length > 0 && args[0].equals(STOP_COMMAND)) {
+            DaemonClient.stop();
+            return;
+        }
+        File daemonDir = Config.getDaemonDir();
+        daemonDir.mkdirs();
+        // Only one daemon runs at a time; the lock is released on exit.
+        RandomAccessFile lockFile = new RandomAccessFile(new File(daemonDir, LOCK_FILE_NAME), "rw");
+        FileLock lock = tryLock(lockFile);
+        if (lock == null) {
+            lockFile.close();
+            Log.w("Selection daemon is already running");
+            return;
+        }
+        try {
+            new SelectionDaemon(daemonDir, Long.toHexString(new SecureRandom().nextLong())).run();
+        } finally {
+            lock.release();
+            lockFile.close();
+        }
+        System.exit(0);
+    }
+
+    // INTERNAL
+
+    /**
+     * Locks the given file; waits for a while if the lock is held, e.g.,
+     * by a daemon of another version that is stopping. Returns null if
+     * the lock is not obtained.
+     */
+    private static FileLock tryLock(RandomAccessFile lockFile) throws IOException {
+        long end = System.currentTimeMillis() + STOPPING_TIMEOUT;
+        while (true) {
+            FileLock lock = lockFile.getChannel().tryLock();
+            if (lock != null || System.currentTimeMillis() > end) {
+                return lock;
+            }
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return null;
+            }
+        }
+    }
+
+    private void run() throws IOException {
+        Storer.keepLoadedData();
+        Thread watcherThread = new Thread(mWatcher, "ekstazi-watcher");
+        watcherThread.setDaemon(true);
+        watcherThread.start();
+        ServerSocket serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        serverSocket.setSoTimeout(IDLE_TIMEOUT);
+        mServerSocket = serverSocket;
+        File portFile = new File(mDaemonDir, PORT_FILE_NAME);
+        portFile.delete();
+        portFile.createNewFile();
+        portFile.setReadable(false, false);
+        portFile.setReadable(true, true);
+        FileUtil.writeFile(portFile, (serverSocket.getLocalPort() + " " + mToken).getBytes());
+
+        ExecutorService executor = Executors.newCachedThreadPool();
+        try {
+            while (true) {
+                final Socket socket;
+                try {
+                    socket = serverSocket.accept();
+                } catch (SocketException ex) {
+                    // Socket is closed once the daemon is stopped.
+                    if (mStopped) {
+                        break;
+                    }
+                    throw ex;
+                }
+                // Request is read in the task, so that a client that does
+                // not send its request does not block other clients.
+                executor.execute(new Runnable() {
+                    public void run() {
+                        handle(socket);
+                    }
+                });
+            }
+        } catch (SocketTimeoutException ex) {
+            Log.w("Selection daemon stops after being idle");
+        } finally {
+            portFile.delete();
+            serverSocket.close();
+            executor.shutdown();
+            mSnapshot.save();
+        }
+    }
+
+    /**
+     * Stops accepting requests.
+     */
+    private void stop() {
+        mStopped = true;
+        try {
+            mServerSocket.close();
+        } catch (IOException ex) {
+            // Nothing.
+        }
+    }
+
+    /**
+     * Reads request (version, command, parent directory, options) from
+     * the given socket; returns null if the token is incorrect or if the
+     * request is not received in time.
+     */
+    private String[] readRequest(Socket socket) {
+        try {
+            socket.setSoTimeout(REQUEST_TIMEOUT);
+            BufferedReader br = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+            if (!mToken.equals(br.readLine())) {
+                return null;
+            }
+            String[] request = new String[] { br.readLine(), br.readLine(), br.readLine(), br.readLine() };
+            socket.setSoTimeout(0);
+            return request;
+        } catch (IOException ex) {
+            return null;
+        }
+    }
+
+    private void handle(Socket socket) {
+        String[] request = readRequest(socket);
+        if (request == null) {
+            close(socket);
+            return;
+        }
+        if (!Names.TOOL_VERSION.equals(request[0])) {
+            Log.w("Selection daemon stops as client version is " + request[0]);
+            respond(socket, VERSION_MISMATCH_RESPONSE, null);
+            stop();
+            return;
+        }
+        if (STOP_COMMAND.equals(request[1])) {
+            respond(socket, OK_RESPONSE, null);
+            stop();
+            return;
+        }
+        try {
+            if (!SELECT_COMMAND.equals(request[1]) || request[2] == null) {
+                respond(socket, "Unknown command " + request[1], null);
+                return;
+            }
+            File parentDir = new File(request[2]);
+            String options = request[3] == null ? "" : request[3];
+            // Hashes are saved where the client expects them (if anywhere).
+            Config.Context context = Config.Context.load(parentDir, options);
+            String daemonOptions = (options.equals("") ? "" : options + Config.OPTION_SEPARATOR) + Config.DAEMON_N
+                    + "=false" + Config.OPTION_SEPARATOR + Config.HASH_SNAPSHOT_N + "="
+                    + Config.getURIString(new File(mDaemonDir, HASHES_FILE_NAME));
+            List<String> nonAffectedClasses = AffectedChecker.findNonAffectedClasses(parentDir, daemonOptions);
+            if (!context.getHashSnapshot().equals("")) {
+                mSnapshot.save(new File(context.getHashSnapshot()));
+            }
+            mWatcher.watch(new File(context.getRootDir()));
+            mWatcher.watchParents(mSnapshot.getExternalForms());
+            respond(socket, OK_RESPONSE, nonAffectedClasses);
+        } catch (Exception ex) {
+            Log.e("Selection failed", ex);
+            respond(socket, "Selection failed: " + ex, null);
+        }
+    }
+
+    private static void respond(Socket socket, String status, List<String> lines) {
+        try {
+            PrintWriter pw = new PrintWriter(socket.getOutputStream());
+            pw.println(status);
+            if (lines != null) {
+                for (String line : lines) {
+                    pw.println(line);
+                }
+            }
+            pw.flush();
+        } catch (IOException ex) {
+            Log.w("Unable to respond to request");
+        } finally {
+            close(socket);
+        }
+    }
+
+    private static void close(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException ex) {
+            // Nothing.
+        }
+    }
+}
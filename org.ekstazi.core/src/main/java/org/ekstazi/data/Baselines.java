@@ -0,0 +1,251 @@
+/*
+ * Copyright 2014-present Milos Gligoric
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ekstazi.data;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.ekstazi.Names;
+import org.ekstazi.log.Log;
+import org.ekstazi.util.FileUtil;
+
+/**
+ * Bounded history of dependencies (baselines) keyed by revision ids
+ * given by users, e.g., commit ids or branch names. A baseline keeps
+ * dependency files of all test classes as they were when the baseline
+ * was saved; restoring a baseline makes the next selection relative to
+ * that revision. Content of dependency files is kept once (in a blob
+ * named by the SHA-1 of the content) and shared by all baselines, so
+ * baselines of similar revisions take little space.
+ *
+ * Each baseline is a file (in baselines directory) with one line per
+ * dependency file: name of the dependency file and name of the blob.
+ */
+public final class Baselines {
+
+    /** Extension of baseline files */
+    private static final String BASELINE_EXT = ".baseline";
+
+    /** Directory (inside baselines directory) with content of files */
+    private static final String BLOBS_DIR_NAME = "blobs";
+
+    /**
+     * Saves dependencies from the given Ekstazi directory as the baseline
+     * for the given revision (replacing an earlier baseline for the same
+     * revision), and removes the oldest baselines to keep at most the
+     * given number of baselines.
+     *
+     * @param dirName
+     *            Ekstazi directory
+     * @param revision
+     *            Revision id
+     * @param history
+     *            Max number of baselines to keep
+     */
+    public static void save(String dirName, String revision, int history) {
+        File blobsDir = new File(getBaselinesDir(dirName), BLOBS_DIR_NAME);
+        blobsDir.mkdirs();
+        try {
+            List<String> lines = new ArrayList<String>();
+            for (File file : getDependencyFiles(dirName)) {
+                byte[] bytes = FileUtil.readFile(file);
+                String blobName = getBlobName(bytes);
+                File blob = new File(blobsDir, blobName);
+                if (!blob.exists()) {
+                    writeAtomically(blob, bytes);
+                }
+                lines.add(file.getName() + " " + blobName);
+            }
+            StringBuilder sb = new StringBuilder();
+            for (String line : lines) {
+                sb.append(line).append('\n');
+            }
+            writeAtomically(getBaselineFile(dirName, revision), sb.toString().getBytes());
+            Log.d("Saved baseline", revision);
+        } catch (IOException ex) {
+            Log.e("Unable to save baseline " + revision, ex);
+            return;
+        }
+        removeOld(dirName, history);
+    }
+
+    /**
+     * Replaces dependencies in the given Ekstazi directory with the
+     * baseline for the given revision. Returns false (and keeps
+     * dependencies) if there is no baseline for the revision.
+     *
+     * @param dirName
+     *            Ekstazi directory
+     * @param revision
+     *            Revision id
+     * @return true if baseline is restored, false otherwise
+     */
+    public static boolean restore(String dirName, String revision) {
+        File baselineFile = getBaselineFile(dirName, revision);
+        if (!baselineFile.exists()) {
+            return false;
+        }
+        File blobsDir = new File(getBaselinesDir(dirName), BLOBS_DIR_NAME);
+        try {
+            String[] lines = FileUtil.readLines(baselineFile);
+            // Check blobs before any dependency file is changed.
+            for (String line : lines) {
+                if (!new File(blobsDir, line.substring(line.indexOf(' ') + 1)).exists()) {
+                    Log.w("Baseline " + revision + " is incomplete");
+                    return false;
+                }
+            }
+            for (File file : getDependencyFiles(dirName)) {
+                file.delete();
+            }
+            for (String line : lines) {
+                int separator = line.indexOf(' ');
+                FileUtil.copyBytes(new File(blobsDir, line.substring(separator + 1)),
+                        new File(dirName, line.substring(0, separator)));
+            }
+            // Recently used baselines are kept longer.
+            baselineFile.setLastModified(System.currentTimeMillis());
+            Log.d("Restored baseline", revision);
+            return true;
+        } catch (IOException ex) {
+            Log.e("Unable to restore baseline " + revision, ex);
+            return false;
+        }
+    }
+
+    // INTERNAL
+
+    private static File getBaselinesDir(String dirName) {
+        return new File(dirName, Names.BASELINES_DIR_NAME);
+    }
+
+    /**
+     * Returns baseline file for the given revision; revision id is
+     * encoded as it may include characters that are not allowed in file
+     * names (e.g., branch names include '/').
+     */
+    private static File getBaselineFile(String dirName, String revision) {
+        try {
+            return new File(getBaselinesDir(dirName), URLEncoder.encode(revision, "UTF-8") + BASELINE_EXT);
+        } catch (UnsupportedEncodingException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
+    /**
+     * Returns dependency files in the given Ekstazi directory.
+     */
+    private static List<File> getDependencyFiles(String dirName) {
+        List<File> dependencyFiles = new ArrayList<File>();
+        File[] files = new File(dirName).listFiles();
+        if (files == null) {
+            return dependencyFiles;
+        }
+        for (File file : files) {
+            String name = file.getName();
+            if (file.isFile() && (name.endsWith("." + DependencyAnalyzer.CLASS_EXT)
+                    || name.endsWith("." + DependencyAnalyzer.COV_EXT))) {
+                dependencyFiles.add(file);
+            }
+        }
+        return dependencyFiles;
+    }
+
+    private static String getBlobName(byte[] bytes) {
+        try {
+            StringBuilder sb = new StringBuilder();
+            for (byte b : MessageDigest.getInstance("SHA-1").digest(bytes)) {
+                sb.append(String.format("%02x", b));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
+    /**
+     * Writes the given file through a temporary file, so that other
+     * builds never see partially written files.
+     */
+    private static void writeAtomically(File file, byte[] bytes) throws IOException {
+        File tmp = new File(file.getParentFile(), file.getName() + ".tmp");
+        FileUtil.writeFile(tmp, bytes);
+        if (!tmp.renameTo(file)) {
+            file.delete();
+            if (!tmp.renameTo(file)) {
+                throw new IOException("Unable to write " + file);
+            }
+        }
+    }
+
+    /**
+     * Removes the oldest baselines (to keep at most the given number of
+     * baselines) and blobs that no baseline uses.
+     */
+    private static void removeOld(String dirName, int history) {
+        File baselinesDir = getBaselinesDir(dirName);
+        File[] baselineFiles = baselinesDir.listFiles();
+        if (baselineFiles == null) {
+            return;
+        }
+        List<File> baselines = new ArrayList<File>();
+        for (File file : baselineFiles) {
+            if (file.isFile() && file.getName().endsWith(BASELINE_EXT)) {
+                baselines.add(file);
+            }
+        }
+        // Newest first.
+        Collections.sort(baselines, new Comparator<File>() {
+            public int compare(File o1, File o2) {
+                return Long.compare(o2.lastModified(), o1.lastModified());
+            }
+        });
+        Set<String> usedBlobs = new HashSet<String>();
+        for (int i = 0; i < baselines.size(); i++) {
+            File baseline = baselines.get(i);
+            if (i >= Math.max(history, 1)) {
+                baseline.delete();
+                continue;
+            }
+            try {
+                for (String line : FileUtil.readLines(baseline)) {
+                    usedBlobs.add(line.substring(line.indexOf(' ') + 1));
+                }
+            } catch (IOException ex) {
+                // Blobs of unreadable baselines are kept.
+                return;
+            }
+        }
+        File[] blobs = new File(baselinesDir, BLOBS_DIR_NAME).listFiles();
+        for (File blob : blobs == null ? Collections.<File>emptyList() : Arrays.asList(blobs)) {
+            if (!usedBlobs.contains(blob.getName())) {
+                blob.delete();
+            }
+        }
+    }
+}
@@ -21,14 +21,17 @@ import java.io.FileOutputStream;
 import java.io.PrintWriter;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.HashMap;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 import java.util.TreeSet;
 
 import org.ekstazi.Config;
+import org.ekstazi.change.ChangeSet;
 import org.ekstazi.hash.Hasher;
 import org.ekstazi.log.Log;
+import org.ekstazi.log.Metrics;
 import org.ekstazi.monitor.CoverageMonitor;
 import org.ekstazi.research.Research;
 import org.ekstazi.util.LRUMap;
@@ -47,8 +50,45 @@ public final class DependencyAnalyzer {
     /** Cache: file->modified (note that we limit the size); cannot switch to Set */
     private final Map<String, Boolean> mUrlExternalForm2Modified;
 
-    /** Cache of test->run mappings; useful if there are Parameterized tests (note that we limit the size) */
-    private final Map<String, Boolean> mFullTestName2Rerun;
+    /**
+     * Dependencies and outcome of a test, loaded once and kept from the
+     * check (if the test is affected) until dependencies are saved.
+     */
+    private static final class TestSession {
+        /** Dependencies (loaded or the latest saved) */
+        private Set<RegData> mRegData;
+        /** Time when loaded dependencies were saved */
+        private final long mSince;
+        /** Is test affected; null if not checked yet */
+        private Boolean mIsAffected;
+        /** Is test run when it begins again; null if it did not begin */
+        private Boolean mIsRerun;
+
+        public TestSession(Set<RegData> regData, long since) {
+            this.mRegData = regData;
+            this.mSince = since;
+        }
+
+        public Set<RegData> getRegData() { return mRegData; }
+        public long getSince() { return mSince; }
+        public void setRegData(Set<RegData> regData) { mRegData = regData; }
+        public Boolean isAffected() { return mIsAffected; }
+        public void setAffected(boolean b) { mIsAffected = b; }
+        public Boolean isRerun() { return mIsRerun; }
+        public void setRerun(boolean b) { mIsRerun = b; }
+    }
+
+    /**
+     * Cache of test->session mappings; useful if there are Parameterized
+     * tests (note that we limit the size)
+     */
+    private final Map<String, TestSession> mFullTestName2Session;
+
+    /**
+     * Sessions of tests that began and did not end yet (kept even if
+     * evicted from the cache, e.g., if cache.sizes is 0 in watch mode)
+     */
+    private final Map<String, TestSession> mFullTestName2RunningSession;
 
     /** IO Storer */
     private final Storer mStorer;
@@ -68,20 +108,44 @@ public final class DependencyAnalyzer {
     /** dependencies.append */
     private final boolean mDependenciesAppend;
 
+    /** Dependencies shared by all tests; not stored in each file */
+    private final GlobalDependencies mGlobalDependencies;
+
+    /** dependencies.parallel */
+    private final boolean mDependenciesParallel;
+
+    /** Journal of dependencies if hashing is deferred (hash.deferred); null otherwise */
+    private final Journal mJournal;
+
+    /** Context (used to create change set when first needed) */
+    private final Config.Context mContext;
+
+    /** Files changed since dependencies were collected; null if unknown */
+    private ChangeSet mChangeSet;
+
+    /** Is change set created */
+    private boolean mIsChangeSetCreated;
+
     /**
      * Constructor.
      */
-    public DependencyAnalyzer(int cacheSizes, Hasher hasher, Storer storer, String[] excludes, String[] includes) {
+    public DependencyAnalyzer(Config.Context context, Hasher hasher, Storer storer, String[] excludes,
+            String[] includes) {
         this.mStorer = storer;
         this.mHasher = hasher;
         this.mExcludes = excludes;
         this.mIncludes = includes;
 
-        this.mRootDir = Config.ROOT_DIR_V;
-        this.mDependenciesAppend = Config.DEPENDENCIES_APPEND_V;
+        this.mRootDir = context.getRootDir();
+        this.mDependenciesAppend = context.isDependenciesAppend();
+        this.mGlobalDependencies = GlobalDependencies.get(context);
+        this.mDependenciesParallel = context.isDependenciesParallel();
+        this.mJournal = context.isHashDeferred() ? new Journal(mRootDir, Config.getOptions()) : null;
+        this.mContext = context;
 
-        this.mUrlExternalForm2Modified = new LRUMap<String, Boolean>(cacheSizes);
-        this.mFullTestName2Rerun = new LRUMap<String, Boolean>(cacheSizes);
+        this.mUrlExternalForm2Modified = new LRUMap<String, Boolean>(context.getCacheSizes());
+        this.mFullTestName2Session = new LRUMap<String, TestSession>(context.getCacheSizes());
+        this.mFullTestName2RunningSession = new HashMap<String, TestSession>();
     }
 
     public synchronized void beginCoverage(String name) {
@@ -94,8 +158,7 @@ public final class DependencyAnalyzer {
 
     public synchronized boolean isAffected(String name) {
         String fullMethodName = name + "." + COV_EXT;
-        Set<RegData> regData = mStorer.load(mRootDir, name, COV_EXT);
-        boolean isAffected = isAffected(regData);
+        boolean isAffected = isAffected(getSession(name, COV_EXT));
         recordTestAffectedOutcome(fullMethodName, isAffected);
         return isAffected;
     }
@@ -138,17 +201,15 @@ public final class DependencyAnalyzer {
      * @param className
      *            Name of the class.
      * @return True if class if affected, false otherwise.
-     * 
-     * TODO: this method and starting coverage do some duplicate work
      */
     public synchronized boolean isClassAffected(String className) {
         if (isOnMustRunList(className)) {
             return true;
         }
-        boolean isAffected = true;
         String fullMethodName = className + "." + CLASS_EXT;
-        Set<RegData> regData = mStorer.load(mRootDir, className, CLASS_EXT);
-        isAffected = isAffected(regData);
+        // Outcome is kept in the session, so it is not checked again
+        // when coverage begins.
+        boolean isAffected = isAffected(getSession(className, CLASS_EXT));
         recordTestAffectedOutcome(fullMethodName, isAffected);
         return isAffected;
     }
@@ -179,8 +240,13 @@ public final class DependencyAnalyzer {
         // Fully qualified method name.
         String fullMethodName = className + "." + methodName;
 
-        // Clean previously collected coverage.
-        CoverageMonitor.clean();
+        // Clean previously collected coverage (or start collecting
+        // for this thread only if tests run in parallel).
+        if (mDependenciesParallel) {
+            CoverageMonitor.openContext();
+        } else {
+            CoverageMonitor.clean();
+        }
 
         // Check if test is included (note that we do not record info).
         if (!isIncluded(fullMethodName)) {
@@ -200,14 +266,14 @@ public final class DependencyAnalyzer {
         // present in some projects: as part of a test suite and separate).
         // We force the execution as the execution may differ and we union
         // the coverage (load the old one and new one will be appended).
-        if (mFullTestName2Rerun.containsKey(fullMethodName)) {
-            Set<RegData> regData = mStorer.load(mRootDir, className, methodName);
-            CoverageMonitor.addURLs(extractExternalForms(regData));
-            return mFullTestName2Rerun.get(fullMethodName);
+        TestSession session = getSession(className, methodName);
+        mFullTestName2RunningSession.put(fullMethodName, session);
+        if (session.isRerun() != null) {
+            CoverageMonitor.addURLs(extractExternalForms(session.getRegData()));
+            return session.isRerun();
         }
 
-        Set<RegData> regData = mStorer.load(mRootDir, className, methodName);
-        boolean isAffected = isAffected(regData);
+        boolean isAffected = isAffected(session);
         if (isRecordAffectedOutcome) {
             recordTestAffectedOutcome(fullMethodName, isAffected);
         }
@@ -216,13 +282,13 @@ public final class DependencyAnalyzer {
         // some runs give non-deterministic coverage, so we wanted to run the same
         // test several times and do union of coverage.
         if (mDependenciesAppend) {
-            CoverageMonitor.addURLs(extractExternalForms(regData));
+            CoverageMonitor.addURLs(extractExternalForms(session.getRegData()));
             // Force run
             isAffected = true;
         }
 
         // Collect tests that have been affected.
-        mFullTestName2Rerun.put(fullMethodName, isAffected);
+        session.setRerun(isAffected);
         
         return isAffected;
     }
@@ -268,31 +334,95 @@ public final class DependencyAnalyzer {
     }
     
     private void endCoverage(String className, String methodName) {
-        Map<String, String> hashes = mHasher.hashExternalForms(CoverageMonitor.getURLs());
-        Set<RegData> regData = new TreeSet<RegData>(new RegData.RegComparator());
-        for (Entry<String, String> entry : hashes.entrySet()) {
-            regData.add(new RegData(entry.getKey(), entry.getValue()));
+        String[] externalForms = mGlobalDependencies.hoist(CoverageMonitor.getURLs());
+        TestSession session = mFullTestName2RunningSession.remove(className + "." + methodName);
+        if (mJournal != null) {
+            // URLs are hashed (and dependencies saved) by the build.
+            mJournal.append(className, methodName, externalForms);
+        } else {
+            Map<String, String> hashes = mHasher.hashExternalForms(externalForms);
+            if (session != null && isSame(session.getRegData(), hashes)) {
+                // Dependencies (and hashes) did not change, so the file
+                // is not written again.
+                if (mContext.getMetrics() != null) {
+                    mContext.getMetrics().inc(Metrics.Counter.STORER_SAVES_SKIPPED);
+                }
+            } else {
+                Set<RegData> regData = new TreeSet<RegData>(new RegData.RegComparator());
+                for (Entry<String, String> entry : hashes.entrySet()) {
+                    regData.add(new RegData(entry.getKey(), entry.getValue()));
+                }
+                mStorer.save(mRootDir, className, methodName, regData);
+                if (session != null) {
+                    session.setRegData(regData);
+                }
+            }
         }
-        mStorer.save(mRootDir, className, methodName, regData);
         // Clean monitor after the test finished the execution
-        CoverageMonitor.clean();
+        if (mDependenciesParallel) {
+            CoverageMonitor.closeContext();
+        } else {
+            CoverageMonitor.clean();
+        }
+    }
+
+    /**
+     * Returns session of the given test; dependencies are loaded when the
+     * session is created.
+     */
+    private TestSession getSession(String className, String methodName) {
+        String fullMethodName = className + "." + methodName;
+        TestSession session = mFullTestName2Session.get(fullMethodName);
+        if (session == null) {
+            session = new TestSession(mStorer.load(mRootDir, className, methodName),
+                    mStorer.lastModified(mRootDir, className, methodName));
+            mFullTestName2Session.put(fullMethodName, session);
+        }
+        return session;
+    }
+
+    /**
+     * Returns true if test of the given session is affected; the outcome
+     * is checked only once per session.
+     */
+    private boolean isAffected(TestSession session) {
+        if (session.isAffected() == null) {
+            session.setAffected(isAffected(session.getRegData(), session.getSince()));
+        }
+        return session.isAffected();
+    }
+
+    /**
+     * Returns true if the given (loaded) dependencies are the same as the
+     * given URLs and hashes.
+     */
+    static boolean isSame(Set<RegData> regData, Map<String, String> hashes) {
+        if (regData == null || regData.isEmpty() || regData.size() != hashes.size()) {
+            return false;
+        }
+        for (RegData regDatum : regData) {
+            if (!regDatum.getHash().equals(hashes.get(regDatum.getURLExternalForm()))) {
+                return false;
+            }
+        }
+        return true;
     }
 
     /**
      * Returns true if test is affected. Test is affected if hash of any
      * resource does not match old hash.
      */
-    private boolean isAffected(Set<RegData> regData) {
-        return regData == null || regData.size() == 0 || hasHashChanged(regData);
+    private boolean isAffected(Set<RegData> regData, long since) {
+        return regData == null || regData.size() == 0 || hasHashChanged(regData, since);
     }
 
     /**
-     * Hashes files and compares with the old hashes. If any hash is different,
-     * returns true; false otherwise.
+     * Hashes files and compares with the old hashes (saved at the given
+     * time). If any hash is different, returns true; false otherwise.
      */
-    private boolean hasHashChanged(Set<RegData> regData) {
+    private boolean hasHashChanged(Set<RegData> regData, long since) {
         for (RegData el : regData) {
-            if (hasHashChanged(mHasher, el)) {
+            if (hasHashChanged(mHasher, el, since)) {
                 Log.d("CHANGED", el.getURLExternalForm());
                 return true;
             }
@@ -304,12 +434,21 @@ public final class DependencyAnalyzer {
      * Hashes file and compares with the old hash. If hashes are different,
      * return true; false otherwise
      */
-    private boolean hasHashChanged(Hasher hasher, RegData regDatum) {
+    private boolean hasHashChanged(Hasher hasher, RegData regDatum, long since) {
         String urlExternalForm = regDatum.getURLExternalForm();
         Boolean modified = mUrlExternalForm2Modified.get(urlExternalForm);
         if (modified != null) {
             return modified;
         }
+        if (!mIsChangeSetCreated) {
+            mChangeSet = mContext.createChangeSet();
+            mIsChangeSetCreated = true;
+        }
+        // Files that are not in the change set (and were not modified
+        // after dependencies were saved) are not hashed.
+        if (mChangeSet != null && mChangeSet.isUnchanged(urlExternalForm, since)) {
+            return false;
+        }
         // Check hash
         String newHash = hasher.hashURL(urlExternalForm);
         modified = !newHash.equals(regDatum.getHash());
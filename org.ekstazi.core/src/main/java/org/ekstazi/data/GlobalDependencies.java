@@ -0,0 +1,267 @@
+/*
+ * Copyright 2014-present Milos Gligoric
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ekstazi.data;
+
+import java.io.File;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.ekstazi.Config;
+import org.ekstazi.Names;
+import org.ekstazi.hash.Hasher;
+import org.ekstazi.log.Log;
+
+/**
+ * Dependencies shared by (almost) all test classes. These dependencies
+ * are stored once (rather than in each dependency file) and classes
+ * among them are not instrumented.
+ *
+ * Each dependency file saved while global dependencies are in use
+ * includes the file with global dependencies as a regular dependency.
+ * The file is removed as soon as any global dependency changes, which
+ * makes all such test classes affected; the file is computed again
+ * from dependency files during the same selection (an empty result is
+ * saved too, so that dependency files are not scanned again).
+ */
+public final class GlobalDependencies {
+
+    /** Global dependencies used in this VM (per Ekstazi directory) */
+    private static final Map<String, GlobalDependencies> sDirName2Inst = new HashMap<String, GlobalDependencies>();
+
+    /** Ekstazi directory */
+    private final String mDirName;
+
+    /** External form of the file that keeps global dependencies */
+    private final String mFileExternalForm;
+
+    /** External forms of global dependencies */
+    private final Set<String> mURLs;
+
+    /**
+     * External forms of dependencies kept in the file when loaded (even
+     * if changed); dependency files that include the file depend on them
+     */
+    private final Set<String> mHoistedURLs;
+
+    /** Is the file with global dependencies present (and unchanged) */
+    private final boolean mIsComputed;
+
+    /** Simple names of global classes (used to quickly reject a class) */
+    private final Set<String> mSimpleNames;
+
+    /**
+     * Constructor.
+     */
+    private GlobalDependencies(String dirName, Set<RegData> regData, Set<String> hoistedURLs, boolean isComputed) {
+        this.mDirName = dirName;
+        this.mFileExternalForm = toExternalForm(getFile(dirName));
+        this.mHoistedURLs = hoistedURLs;
+        this.mIsComputed = isComputed;
+        this.mURLs = new HashSet<String>();
+        this.mSimpleNames = new HashSet<String>();
+        for (RegData el : regData) {
+            String externalForm = el.getURLExternalForm();
+            mURLs.add(externalForm);
+            if (externalForm.endsWith(".class")) {
+                mSimpleNames.add(externalForm.substring(externalForm.lastIndexOf('/') + 1,
+                        externalForm.length() - ".class".length()));
+            }
+        }
+    }
+
+    /**
+     * Returns global dependencies of the given context (used while tests
+     * run). Global dependencies are loaded (and checked) only once per
+     * Ekstazi directory in this VM, and they are empty if not enabled in
+     * the context.
+     */
+    public static GlobalDependencies get(Config.Context context) {
+        String dirName = context.getRootDir();
+        synchronized (sDirName2Inst) {
+            GlobalDependencies inst = sDirName2Inst.get(dirName);
+            if (inst == null) {
+                if (context.getDependenciesGlobalThreshold() > 0) {
+                    inst = load(dirName, context.createStorer(), context.createHasher());
+                } else {
+                    inst = new GlobalDependencies(dirName, Collections.<RegData>emptySet(),
+                            Collections.<String>emptySet(), false);
+                }
+                sDirName2Inst.put(dirName, inst);
+            }
+            return inst;
+        }
+    }
+
+    /**
+     * Loads global dependencies from the given directory. If any of the
+     * dependencies changed, the file is removed and the returned set is
+     * empty.
+     */
+    public static GlobalDependencies load(String dirName, Storer storer, Hasher hasher) {
+        File file = getFile(dirName);
+        boolean isComputed = file.exists();
+        Set<RegData> regData = storer.load(dirName, Names.GLOBAL_DEPENDENCIES_FILE_NAME);
+        Set<String> hoistedURLs = new HashSet<String>();
+        for (RegData el : regData) {
+            hoistedURLs.add(el.getURLExternalForm());
+        }
+        for (RegData el : regData) {
+            if (!hasher.hashURL(el.getURLExternalForm()).equals(el.getHash())) {
+                Log.d("Global dependency changed", el.getURLExternalForm());
+                file.delete();
+                regData = Collections.<RegData>emptySet();
+                isComputed = false;
+                break;
+            }
+        }
+        return new GlobalDependencies(dirName, regData, hoistedURLs, isComputed);
+    }
+
+    /**
+     * Removes global dependencies (if any) from the given directory.
+     */
+    public static void remove(String dirName) {
+        getFile(dirName).delete();
+    }
+
+    /**
+     * Computes global dependencies from all dependency files (per test
+     * class) in the Ekstazi directory and saves them (even if there are
+     * none). A dependency is global if at least the given share of test
+     * classes depends on it. Dependency files that include the file with
+     * global dependencies (loaded in this instance) are counted as if
+     * they included dependencies kept in that file.
+     */
+    public GlobalDependencies compute(Storer storer, Hasher hasher, double threshold) {
+        String[] fileNames = new File(mDirName).list();
+        if (fileNames == null) {
+            return this;
+        }
+        int numOfTests = 0;
+        Map<String, Integer> url2Count = new HashMap<String, Integer>();
+        for (String fileName : fileNames) {
+            if (!fileName.endsWith("." + DependencyAnalyzer.CLASS_EXT)) {
+                continue;
+            }
+            numOfTests++;
+            Set<String> externalForms = new HashSet<String>();
+            for (RegData el : storer.load(mDirName, fileName)) {
+                if (el.getURLExternalForm().equals(mFileExternalForm)) {
+                    externalForms.addAll(mHoistedURLs);
+                } else {
+                    externalForms.add(el.getURLExternalForm());
+                }
+            }
+            for (String externalForm : externalForms) {
+                Integer count = url2Count.get(externalForm);
+                url2Count.put(externalForm, count == null ? 1 : count + 1);
+            }
+        }
+        if (numOfTests == 0) {
+            return this;
+        }
+
+        Set<RegData> regData = new TreeSet<RegData>(new RegData.RegComparator());
+        Set<String> hoistedURLs = new HashSet<String>();
+        for (Entry<String, Integer> entry : url2Count.entrySet()) {
+            String externalForm = entry.getKey();
+            if (entry.getValue() >= threshold * numOfTests) {
+                regData.add(new RegData(externalForm, hasher.hashURL(externalForm)));
+                hoistedURLs.add(externalForm);
+            }
+        }
+        Log.d("Number of global dependencies", regData.size());
+        storer.save(mDirName, Names.GLOBAL_DEPENDENCIES_FILE_NAME, regData);
+        return new GlobalDependencies(mDirName, regData, hoistedURLs, true);
+    }
+
+    public boolean isEmpty() {
+        return mURLs.isEmpty();
+    }
+
+    /**
+     * Returns true if the file with global dependencies is present and
+     * none of the dependencies changed, i.e., global dependencies do not
+     * have to be computed.
+     */
+    public boolean isComputed() {
+        return mIsComputed;
+    }
+
+    /**
+     * Returns true if the given class (loaded by the given loader) is one
+     * of the global dependencies.
+     *
+     * @param loader
+     *            Class loader that loads the class
+     * @param className
+     *            Class name in the internal form
+     */
+    public boolean isGlobal(ClassLoader loader, String className) {
+        if (mSimpleNames.isEmpty()) {
+            return false;
+        }
+        String simpleName = className.substring(className.lastIndexOf('/') + 1);
+        if (!mSimpleNames.contains(simpleName)) {
+            return false;
+        }
+        URL url = loader.getResource(className + ".class");
+        return url != null && mURLs.contains(url.toExternalForm());
+    }
+
+    /**
+     * Replaces global dependencies in the given array with a single
+     * dependency on the file that keeps global dependencies.
+     */
+    public String[] hoist(String[] externalForms) {
+        if (isEmpty()) {
+            return externalForms;
+        }
+        List<String> hoisted = new ArrayList<String>();
+        for (String externalForm : externalForms) {
+            if (!mURLs.contains(externalForm)) {
+                hoisted.add(externalForm);
+            }
+        }
+        hoisted.add(mFileExternalForm);
+        return hoisted.toArray(new String[hoisted.size()]);
+    }
+
+    // INTERNAL
+
+    private static File getFile(String dirName) {
+        return new File(dirName, Names.GLOBAL_DEPENDENCIES_FILE_NAME);
+    }
+
+    private static String toExternalForm(File file) {
+        try {
+            return file.toURI().toURL().toExternalForm();
+        } catch (MalformedURLException ex) {
+            // Never expected.
+            return file.getAbsolutePath();
+        }
+    }
+}
@@ -0,0 +1,343 @@
+/*
+ * Copyright 2014-present Milos Gligoric
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ekstazi.data;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.ekstazi.Config;
+import org.ekstazi.Names;
+import org.ekstazi.hash.HashSnapshot;
+import org.ekstazi.log.Log;
+import org.ekstazi.log.Metrics;
+import org.ekstazi.util.FileUtil;
+
+/**
+ * Journal of dependencies collected by a VM that runs tests when hashing
+ * is deferred. Rather than hashing dependencies of each test, the VM
+ * appends URLs of dependencies to its journal. The build merges journals
+ * after tests finish: each distinct URL is hashed once (in parallel), and
+ * dependencies of all tests are saved.
+ *
+ * A journal starts with options of the VM. Each URL is written once (with
+ * an id) when first seen, and each test is written as a list of ids.
+ * Dependencies that did not change are not written again.
+ * Journals that are not merged right after tests finish are discarded,
+ * as files could have changed since tests were run; tests in such
+ * journals are then run again.
+ */
+public final class Journal {
+
+    /** Extension of journal files */
+    private static final String JOURNAL_EXT = ".journal";
+
+    /** Prefix of the first line (followed by options) */
+    private static final String OPTIONS_PREFIX = "# ";
+
+    /** Tag of a line that introduces a URL */
+    private static final String URL_TAG = "U";
+
+    /** Tag of a line that lists dependencies of a test */
+    private static final String TEST_TAG = "T";
+
+    /** Separator of parts of a line */
+    private static final char SEPARATOR = '\t';
+
+    /** Minimum number of URLs hashed by one thread */
+    private static final int MIN_URLS_PER_THREAD = 64;
+
+    /** File that keeps this journal */
+    private final File mFile;
+
+    /** Options of this VM (written as the first line) */
+    private final String mOptions;
+
+    /** External form->id of URLs written to this journal */
+    private final Map<String, Integer> mURL2Id;
+
+    /** Writer (opened on the first append) */
+    private Writer mWriter;
+
+    /**
+     * Constructor.
+     *
+     * @param rootDir
+     *            Ekstazi directory
+     * @param options
+     *            Options of this VM, used when the journal is merged
+     */
+    public Journal(String rootDir, String options) {
+        String vmName = ManagementFactory.getRuntimeMXBean().getName().replace('@', '-');
+        this.mFile = new File(getDir(rootDir), vmName + "-" + System.currentTimeMillis() + JOURNAL_EXT);
+        this.mOptions = options == null ? "" : options;
+        this.mURL2Id = new HashMap<String, Integer>();
+    }
+
+    /**
+     * Appends dependencies of the given test. Each test is flushed, so
+     * that tests that finished are in the journal even if VM crashes.
+     */
+    public synchronized void append(String className, String methodName, String[] externalForms) {
+        try {
+            if (mWriter == null) {
+                mFile.getParentFile().mkdirs();
+                mWriter = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(mFile, true)));
+                mWriter.write(OPTIONS_PREFIX + mOptions + "\n");
+            }
+            StringBuilder ids = new StringBuilder();
+            for (String externalForm : externalForms) {
+                Integer id = mURL2Id.get(externalForm);
+                if (id == null) {
+                    id = mURL2Id.size();
+                    mURL2Id.put(externalForm, id);
+                    mWriter.write(URL_TAG + SEPARATOR + id + SEPARATOR + externalForm + "\n");
+                }
+                ids.append(ids.length() == 0 ? "" : " ").append(id);
+            }
+            mWriter.write(TEST_TAG + SEPARATOR + className + SEPARATOR + methodName + SEPARATOR + ids + "\n");
+            mWriter.flush();
+        } catch (IOException ex) {
+            Log.e("Unable to append to journal " + mFile, ex);
+        }
+    }
+
+    /**
+     * Merges journals in the given Ekstazi directory: hashes each distinct
+     * URL once and saves dependencies of all tests in journals. Journals
+     * are removed after merging.
+     *
+     * @return Number of tests whose dependencies are saved
+     */
+    public static int merge(String rootDir) {
+        File[] files = listJournals(rootDir);
+        if (files.length == 0) {
+            return 0;
+        }
+        int numOfTests = 0;
+        // Journals are grouped by options (VMs usually have the same options).
+        for (Entry<String, Map<String, Set<String>>> entry : read(files).entrySet()) {
+            Config.Context context = Config.Context.load(new File(rootDir).getParentFile(), entry.getKey());
+            numOfTests += save(context, rootDir, entry.getValue());
+        }
+        delete(files);
+        return numOfTests;
+    }
+
+    /**
+     * Discards journals in Ekstazi directory of the given context. Tests in
+     * discarded journals have no dependencies afterwards, so they are
+     * affected.
+     *
+     * @return Number of tests in discarded journals
+     */
+    public static int discard(Config.Context context) {
+        File[] files = listJournals(context.getRootDir());
+        if (files.length == 0) {
+            return 0;
+        }
+        Storer storer = context.createStorer();
+        int numOfTests = 0;
+        for (Map<String, Set<String>> tests : read(files).values()) {
+            for (String test : tests.keySet()) {
+                String[] names = splitTest(test);
+                storer.save(context.getRootDir(), names[0], names[1], Collections.<RegData>emptySet());
+                numOfTests++;
+            }
+        }
+        delete(files);
+        Log.w("Discarded journals that were not merged after tests finished; " + numOfTests + " tests are affected");
+        return numOfTests;
+    }
+
+    // INTERNAL
+
+    private static File getDir(String rootDir) {
+        return new File(rootDir, Names.JOURNAL_DIR_NAME);
+    }
+
+    private static File[] listJournals(String rootDir) {
+        File[] files = getDir(rootDir).listFiles();
+        if (files == null) {
+            return new File[0];
+        }
+        List<File> journals = new ArrayList<File>();
+        for (File file : files) {
+            if (file.getName().endsWith(JOURNAL_EXT)) {
+                journals.add(file);
+            }
+        }
+        return journals.toArray(new File[journals.size()]);
+    }
+
+    private static void delete(File[] files) {
+        for (File file : files) {
+            file.delete();
+        }
+    }
+
+    /**
+     * Reads the given journals; returns options->test->external forms.
+     * Dependencies of a test that is in several journals (or several
+     * times in one journal) are merged.
+     */
+    private static Map<String, Map<String, Set<String>>> read(File[] files) {
+        Map<String, Map<String, Set<String>>> options2Tests = new LinkedHashMap<String, Map<String, Set<String>>>();
+        for (File file : files) {
+            String[] lines;
+            try {
+                lines = FileUtil.readLines(file);
+            } catch (IOException ex) {
+                Log.e("Unable to read journal " + file, ex);
+                continue;
+            }
+            if (lines.length == 0 || !lines[0].startsWith(OPTIONS_PREFIX)) {
+                continue;
+            }
+            String options = lines[0].substring(OPTIONS_PREFIX.length());
+            Map<String, Set<String>> tests = options2Tests.get(options);
+            if (tests == null) {
+                tests = new LinkedHashMap<String, Set<String>>();
+                options2Tests.put(options, tests);
+            }
+            read(lines, tests);
+        }
+        return options2Tests;
+    }
+
+    private static void read(String[] lines, Map<String, Set<String>> tests) {
+        Map<String, String> id2URL = new HashMap<String, String>();
+        for (int i = 1; i < lines.length; i++) {
+            String[] parts = lines[i].split(String.valueOf(SEPARATOR), -1);
+            if (parts[0].equals(URL_TAG) && parts.length == 3) {
+                id2URL.put(parts[1], parts[2]);
+            } else if (parts[0].equals(TEST_TAG) && parts.length == 4) {
+                String test = parts[1] + SEPARATOR + parts[2];
+                Set<String> externalForms = tests.get(test);
+                if (externalForms == null) {
+                    externalForms = new TreeSet<String>();
+                    tests.put(test, externalForms);
+                }
+                for (String id : parts[3].split(" ")) {
+                    String externalForm = id2URL.get(id);
+                    if (externalForm != null) {
+                        externalForms.add(externalForm);
+                    }
+                }
+            }
+            // Other lines are incomplete (e.g., VM crashed while writing).
+        }
+    }
+
+    private static String[] splitTest(String test) {
+        int index = test.indexOf(SEPARATOR);
+        return new String[] { test.substring(0, index), test.substring(index + 1) };
+    }
+
+    /**
+     * Hashes all URLs of the given tests and saves dependencies of each
+     * test. Returns number of saved tests.
+     */
+    private static int save(Config.Context context, String rootDir, Map<String, Set<String>> tests) {
+        Set<String> externalForms = new TreeSet<String>();
+        for (Set<String> testExternalForms : tests.values()) {
+            externalForms.addAll(testExternalForms);
+        }
+        Map<String, String> hashes = hash(context, externalForms.toArray(new String[externalForms.size()]));
+        Storer storer = context.createStorer();
+        for (Entry<String, Set<String>> entry : tests.entrySet()) {
+            Map<String, String> testHashes = new HashMap<String, String>();
+            for (String externalForm : entry.getValue()) {
+                String hash = hashes.get(externalForm);
+                if (hash != null) {
+                    testHashes.put(externalForm, hash);
+                }
+            }
+            String[] names = splitTest(entry.getKey());
+            if (DependencyAnalyzer.isSame(storer.load(rootDir, names[0], names[1]), testHashes)) {
+                if (context.getMetrics() != null) {
+                    context.getMetrics().inc(Metrics.Counter.STORER_SAVES_SKIPPED);
+                }
+                continue;
+            }
+            Set<RegData> regData = new TreeSet<RegData>(new RegData.RegComparator());
+            for (Entry<String, String> hashEntry : testHashes.entrySet()) {
+                regData.add(new RegData(hashEntry.getKey(), hashEntry.getValue()));
+            }
+            storer.save(rootDir, names[0], names[1], regData);
+        }
+        // Share hashes with modules built later.
+        if (!context.getHashSnapshot().equals("")) {
+            HashSnapshot.get(new File(context.getHashSnapshot())).save();
+        }
+        return tests.size();
+    }
+
+    /**
+     * Hashes the given (sorted) URLs in parallel; each thread hashes a
+     * range of URLs (so that entries of a jar are likely hashed by the
+     * same thread) with its own hasher.
+     */
+    private static Map<String, String> hash(final Config.Context context, final String[] externalForms) {
+        int numOfThreads = Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(),
+                externalForms.length / MIN_URLS_PER_THREAD));
+        if (numOfThreads == 1) {
+            return context.createHasher().hashExternalForms(externalForms);
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(numOfThreads);
+        try {
+            List<Future<Map<String, String>>> futures = new ArrayList<Future<Map<String, String>>>();
+            for (int i = 0; i < numOfThreads; i++) {
+                final int from = (int) ((long) externalForms.length * i / numOfThreads);
+                final int to = (int) ((long) externalForms.length * (i + 1) / numOfThreads);
+                futures.add(executor.submit(new Callable<Map<String, String>>() {
+                    public Map<String, String> call() {
+                        return context.createHasher().hashExternalForms(Arrays.copyOfRange(externalForms, from, to));
+                    }
+                }));
+            }
+            Map<String, String> hashes = new HashMap<String, String>();
+            for (Future<Map<String, String>> future : futures) {
+                hashes.putAll(future.get());
+            }
+            return hashes;
+        } catch (Exception ex) {
+            Log.e("Unable to hash in parallel", ex);
+            return context.createHasher().hashExternalForms(externalForms);
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
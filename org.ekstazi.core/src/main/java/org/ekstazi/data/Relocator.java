@@ -0,0 +1,104 @@
+/*
+ * Copyright 2014-present Milos Gligoric
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ekstazi.data;
+
+import java.io.File;
+
+/**
+ * Replaces locations of local files in URLs (external form) with symbolic
+ * roots, so that dependencies stay valid when the project (or Maven
+ * repository, or Java) is moved, e.g., when Ekstazi directory is restored
+ * from a CI cache into a workspace with a different path. Roots are:
+ * ${project} (parent of Ekstazi directory), ${m2} (local Maven
+ * repository), and ${java.home}. URLs outside of roots are not changed.
+ */
+final class Relocator {
+
+    /** Prefix of local files */
+    private static final String FILE_PROTOCOL = "file:";
+
+    /** Prefix of entries in jars */
+    private static final String JAR_PROTOCOL = "jar:";
+
+    /** Symbolic roots (checked in order) */
+    private static final String[] SYMBOLS = { "${project}", "${m2}", "${java.home}" };
+
+    /** Locations (as "file:" URLs, with trailing '/') of roots */
+    private final String[] mLocations;
+
+    /**
+     * Constructor.
+     *
+     * @param dirName
+     *            Ekstazi directory
+     * @param localRepository
+     *            Local Maven repository (as set by the build); if empty,
+     *            maven.repo.local (or the default location) is used
+     */
+    Relocator(String dirName, String localRepository) {
+        String m2 = localRepository.equals("") ? System.getProperty("maven.repo.local") : localRepository;
+        if (m2 == null) {
+            m2 = System.getProperty("user.home") + File.separator + ".m2" + File.separator + "repository";
+        }
+        this.mLocations = new String[] {
+            toLocation(new File(dirName).getAbsoluteFile().getParentFile()),
+            toLocation(new File(m2)),
+            toLocation(new File(System.getProperty("java.home"))), };
+    }
+
+    /**
+     * Replaces location of a root (if any) with its symbol.
+     */
+    String relocate(String externalForm) {
+        int start = externalForm.startsWith(JAR_PROTOCOL) ? JAR_PROTOCOL.length() : 0;
+        for (int i = 0; i < SYMBOLS.length; i++) {
+            if (mLocations[i] != null && externalForm.startsWith(mLocations[i], start)) {
+                return externalForm.substring(0, start) + FILE_PROTOCOL + SYMBOLS[i] + "/"
+                        + externalForm.substring(start + mLocations[i].length());
+            }
+        }
+        return externalForm;
+    }
+
+    /**
+     * Replaces symbol of a root (if any) with its current location.
+     */
+    String resolve(String externalForm) {
+        int start = externalForm.startsWith(JAR_PROTOCOL) ? JAR_PROTOCOL.length() : 0;
+        if (!externalForm.startsWith(FILE_PROTOCOL + "${", start)) {
+            return externalForm;
+        }
+        for (int i = 0; i < SYMBOLS.length; i++) {
+            String symbol = FILE_PROTOCOL + SYMBOLS[i] + "/";
+            if (mLocations[i] != null && externalForm.startsWith(symbol, start)) {
+                return externalForm.substring(0, start) + mLocations[i]
+                        + externalForm.substring(start + symbol.length());
+            }
+        }
+        return externalForm;
+    }
+
+    // INTERNAL
+
+    private static String toLocation(File dir) {
+        if (dir == null) {
+            return null;
+        }
+        String path = dir.toURI().getRawPath();
+        return FILE_PROTOCOL + (path.endsWith("/") ? path : path + "/");
+    }
+}
@@ -21,11 +21,16 @@ import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.ekstazi.Config;
 import org.ekstazi.hash.Hasher;
 import org.ekstazi.log.Log;
+import org.ekstazi.log.Metrics;
 
 /**
  * API for storing/reading dependencies. Currently there is no
@@ -86,18 +91,60 @@ public abstract class Storer {
     /** Mode of this storer */
     protected final Mode mMode;
 
+    /** x.dependencies.save (when this storer was created) */
+    private final boolean mDependenciesSave;
+
+    /** dependencies.relocatable */
+    private boolean mRelocatable;
+
+    /** dependencies.relocatable.m2 (empty if not set) */
+    private String mLocalRepository = "";
+
+    /** Metrics of loading and saving; null if not collected */
+    private Metrics mMetrics;
+
+    /**
+     * Regression data loaded in this VM (mode and path->stamp and data);
+     * null if loaded data is not kept
+     */
+    private static volatile Map<String, Object[]> sLoaded;
+
     /**
      * Constructor.
      */
     protected Storer(Mode mode) {
         this.mMode = mode;
+        this.mDependenciesSave = Config.X_DEPENDENCIES_SAVE_V;
+    }
+
+    /**
+     * Sets if URLs of local files are saved relative to symbolic roots
+     * (see {@link Relocator}). URLs are resolved on load in either case.
+     */
+    public void setRelocatable(boolean relocatable) {
+        this.mRelocatable = relocatable;
+    }
+
+    /**
+     * Sets local Maven repository for relocatable URLs; the default
+     * location is used if the given one is empty.
+     */
+    public void setLocalRepository(String localRepository) {
+        this.mLocalRepository = localRepository;
+    }
+
+    /**
+     * Sets metrics that time loading and saving.
+     */
+    public void setMetrics(Metrics metrics) {
+        this.mMetrics = metrics;
     }
 
     /**
      * Loads regression data.
      */
     public final Set<RegData> load(String dirName, String fullName) {
-        return load(openFileRead(dirName, fullName, fullName, null));
+        return load(dirName, fullName, fullName, null);
     }
 
     /**
@@ -105,7 +152,37 @@ public abstract class Storer {
      */
     public final Set<RegData> load(String dirName, String className, String methodName) {
         String fullName = className + '.' + methodName;
-        return load(openFileRead(dirName, fullName, className, methodName));
+        return load(dirName, fullName, className, methodName);
+    }
+
+    /**
+     * Returns the time when regression data was saved, or 0 if unknown.
+     */
+    public final long lastModified(String dirName, String className, String methodName) {
+        return new File(dirName, className + '.' + methodName).lastModified();
+    }
+
+    /**
+     * Keeps regression data loaded by any storer in this VM, so that data
+     * is parsed again only if the file changes (e.g., in a long-lived
+     * VM that selects tests many times).
+     */
+    public static synchronized void keepLoadedData() {
+        if (sLoaded == null) {
+            sLoaded = new ConcurrentHashMap<String, Object[]>();
+        }
+    }
+
+    /**
+     * Forgets regression data loaded from the given file (if kept).
+     */
+    public static void forgetLoadedData(File file) {
+        Map<String, Object[]> loaded = sLoaded;
+        if (loaded != null) {
+            for (Mode mode : Mode.values()) {
+                loaded.remove(mode + " " + file.getAbsolutePath());
+            }
+        }
     }
 
     /**
@@ -113,12 +190,12 @@ public abstract class Storer {
      */
     public final void save(String dirName, String fullName, Set<RegData> hashes) {
         // @Research(if statement).
-        if (!Config.X_DEPENDENCIES_SAVE_V) {
+        if (!mDependenciesSave) {
             return;
         }
         // Ensure that the directory for coverage exists.
         new File(dirName).mkdirs();
-        save(openFileWrite(dirName, fullName, fullName, null), hashes);
+        save(dirName, openFileWrite(dirName, fullName, fullName, null), hashes);
     }
 
     /**
@@ -126,13 +203,13 @@ public abstract class Storer {
      */
     public final void save(String dirName, String className, String methodName, Set<RegData> regData) {
         // @Research(if statement).
-        if (!Config.X_DEPENDENCIES_SAVE_V) {
+        if (!mDependenciesSave) {
             return;
         }
         // Ensure that the directory for coverage exists.
         new File(dirName).mkdir();
         String fullName = className + '.' + methodName;
-        save(openFileWrite(dirName, fullName, className, methodName), regData);
+        save(dirName, openFileWrite(dirName, fullName, className, methodName), regData);
     }
 
     /**
@@ -158,18 +235,86 @@ public abstract class Storer {
 
     // INTERNAL
 
-    private final Set<RegData> load(FileInputStream fis) {
+    private final Set<RegData> load(String dirName, String fullName, String firstPart, String secondPart) {
+        Map<String, Object[]> loaded = sLoaded;
+        if (loaded == null) {
+            return load(dirName, openFileRead(dirName, fullName, firstPart, secondPart));
+        }
+        // Stamp is taken before loading, so that a file modified while
+        // loaded is loaded again next time.
+        File file = new File(dirName, fullName);
+        String key = mMode + " " + file.getAbsolutePath();
+        String stamp = file.lastModified() + ":" + file.length();
+        Object[] stampAndData = loaded.get(key);
+        if (stampAndData != null && stampAndData[0].equals(stamp)) {
+            @SuppressWarnings("unchecked")
+            Set<RegData> regData = (Set<RegData>) stampAndData[1];
+            return regData;
+        }
+        Set<RegData> regData = Collections.unmodifiableSet(load(dirName, openFileRead(dirName, fullName, firstPart,
+                secondPart)));
+        if (file.exists()) {
+            loaded.put(key, new Object[] { stamp, regData });
+        }
+        return regData;
+    }
+
+    private final Set<RegData> load(String dirName, FileInputStream fis) {
         if (fis != null) {
-            return extendedLoad(fis);
+            long start = mMetrics == null ? 0L : mMetrics.start();
+            Set<RegData> regData = resolve(dirName, mLocalRepository, extendedLoad(fis));
+            if (mMetrics != null) {
+                mMetrics.stop(Metrics.Timer.STORER_LOAD, start, dirName);
+            }
+            return regData;
         } else {
             return Collections.emptySet();
         }
     }
 
-    private final void save(FileOutputStream fos, Set<RegData> hashes) {
+    private final void save(String dirName, FileOutputStream fos, Set<RegData> hashes) {
         if (fos != null) {
-            extendedSave(fos, hashes);
+            long start = mMetrics == null ? 0L : mMetrics.start();
+            extendedSave(fos, mRelocatable ? relocate(dirName, mLocalRepository, hashes) : hashes);
+            if (mMetrics != null) {
+                mMetrics.stop(Metrics.Timer.STORER_SAVE, start, dirName);
+            }
+        }
+    }
+
+    /**
+     * Replaces symbolic roots (if any) in the given regression data.
+     */
+    private static Set<RegData> resolve(String dirName, String localRepository, Set<RegData> regData) {
+        boolean isRelocated = false;
+        for (RegData regDatum : regData) {
+            if (regDatum.getURLExternalForm().contains("${")) {
+                isRelocated = true;
+                break;
+            }
+        }
+        // Data is copied only if some URL is relocated.
+        if (!isRelocated) {
+            return regData;
+        }
+        Relocator relocator = new Relocator(dirName, localRepository);
+        Set<RegData> resolved = new HashSet<RegData>();
+        for (RegData regDatum : regData) {
+            resolved.add(new RegData(relocator.resolve(regDatum.getURLExternalForm()), regDatum.getHash()));
+        }
+        return resolved;
+    }
+
+    /**
+     * Replaces locations of symbolic roots in the given regression data.
+     */
+    private static Set<RegData> relocate(String dirName, String localRepository, Set<RegData> regData) {
+        Relocator relocator = new Relocator(dirName, localRepository);
+        Set<RegData> relocated = new TreeSet<RegData>(new RegData.RegComparator());
+        for (RegData regDatum : regData) {
+            relocated.add(new RegData(relocator.relocate(regDatum.getURLExternalForm()), regDatum.getHash()));
         }
+        return relocated;
     }
 
     /**
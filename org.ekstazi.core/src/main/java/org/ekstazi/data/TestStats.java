@@ -0,0 +1,152 @@
+/*
+ * Copyright 2014-present Milos Gligoric
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ekstazi.data;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.ekstazi.Names;
+import org.ekstazi.log.Log;
+import org.ekstazi.util.FileUtil;
+
+/**
+ * Duration and recent outcomes of a test class. Stats are kept in one
+ * file per test class (in test-stats directory) that includes duration
+ * (in milliseconds) of the latest run and outcomes of recent runs (the
+ * latest first; 'F' for failure/error and 'P' otherwise).
+ */
+public final class TestStats {
+
+    /** Number of runs for which outcomes are kept */
+    private static final int HISTORY_LENGTH = 10;
+
+    /** Outcome of a run with at least one failure/error */
+    private static final char FAIL = 'F';
+
+    /** Outcome of a run without any failure/error */
+    private static final char PASS = 'P';
+
+    /** Duration used if no test class has recorded duration */
+    private static final long DEFAULT_DURATION = 1;
+
+    /** Separator between duration and outcomes */
+    private static final String SEPARATOR = " ";
+
+    /** Duration of the latest run (in milliseconds) */
+    private final long mDuration;
+
+    /** Outcomes of recent runs */
+    private final String mHistory;
+
+    /**
+     * Constructor.
+     */
+    private TestStats(long duration, String history) {
+        this.mDuration = duration;
+        this.mHistory = history;
+    }
+
+    /**
+     * Loads stats for the given test class from the given Ekstazi
+     * directory. Returns null if there are no stats.
+     */
+    public static TestStats load(String dirName, String className) {
+        File file = getFile(dirName, className);
+        if (!file.exists()) {
+            return null;
+        }
+        try {
+            String[] parts = new String(FileUtil.readFile(file)).trim().split(SEPARATOR);
+            return new TestStats(Long.parseLong(parts[0]), parts.length > 1 ? parts[1] : "");
+        } catch (Exception ex) {
+            Log.w("Unable to load stats for " + className);
+            return null;
+        }
+    }
+
+    /**
+     * Saves duration and outcome of a run of the given test class.
+     */
+    public static void save(String dirName, String className, long duration, boolean isFailOrError) {
+        TestStats oldStats = load(dirName, className);
+        String history = (isFailOrError ? FAIL : PASS) + (oldStats == null ? "" : oldStats.mHistory);
+        if (history.length() > HISTORY_LENGTH) {
+            history = history.substring(0, HISTORY_LENGTH);
+        }
+        File file = getFile(dirName, className);
+        try {
+            file.getParentFile().mkdirs();
+            FileUtil.writeFile(file, (duration + SEPARATOR + history).getBytes());
+        } catch (IOException ex) {
+            Log.e("Unable to save stats for " + className, ex);
+        }
+    }
+
+    /**
+     * Loads duration (in milliseconds) for each of the given test classes.
+     * Classes without recorded duration are assumed to take average time,
+     * and each class takes at least one millisecond.
+     */
+    public static Map<String, Long> loadDurations(String dirName, Collection<String> classNames) {
+        Map<String, Long> durations = new HashMap<String, Long>();
+        List<String> unknown = new ArrayList<String>();
+        long sum = 0;
+        for (String className : classNames) {
+            TestStats stats = load(dirName, className);
+            if (stats == null) {
+                unknown.add(className);
+            } else {
+                long duration = Math.max(stats.getDuration(), DEFAULT_DURATION);
+                durations.put(className, duration);
+                sum += duration;
+            }
+        }
+        long average = durations.isEmpty() ? DEFAULT_DURATION : sum / durations.size();
+        for (String className : unknown) {
+            durations.put(className, average);
+        }
+        return durations;
+    }
+
+    public long getDuration() {
+        return mDuration;
+    }
+
+    /**
+     * Returns the number of recent runs with at least one failure/error.
+     */
+    public int getNumOfRecentFailures() {
+        int count = 0;
+        for (int i = 0; i < mHistory.length(); i++) {
+            if (mHistory.charAt(i) == FAIL) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    // INTERNAL
+
+    private static File getFile(String dirName, String className) {
+        return new File(new File(dirName, Names.TEST_STATS_DIR_NAME), className);
+    }
+}
@@ -17,35 +17,37 @@
 package org.ekstazi.dynamic;
 
 import java.io.File;
-import java.io.IOException;
 import java.lang.instrument.Instrumentation;
-import java.lang.instrument.UnmodifiableClassException;
 import java.lang.reflect.Method;
 import java.net.URL;
-import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.jar.JarFile;
+import java.util.regex.Pattern;
 
+import org.ekstazi.Config;
 import org.ekstazi.Names;
+import org.ekstazi.agent.AgentLoader;
 import org.ekstazi.agent.EkstaziAgent;
 import org.ekstazi.log.Log;
 import org.ekstazi.monitor.CoverageMonitor;
 import org.ekstazi.research.Research;
-import org.ekstazi.util.FileUtil;
 import org.ekstazi.util.Types;
 
 @Research
 public class DynamicEkstazi {
 
+    /** Monitor resource; used to check if monitor is available to system ClassLoader */
+    private static final String COVERAGE_MONITOR_RESOURCE = Names.COVERAGE_MONITOR_VM.concat(".class");
+
+    /** Number of classes retransformed at once */
+    private static final int RETRANSFORM_BATCH_SIZE = 256;
+
     /**
      * Initializes an agent at runtime and adds it to VM. Returns true if the
      * initialization was successful, false otherwise.
      */
     public static Instrumentation initAgentAtRuntimeAndReportSuccess() {
-        try {
-            setSystemClassLoaderClassPath();
-        } catch (Exception e) {
-            Log.e("Could not set classpath. Tool will be off.", e);
-            return null;
-        }
         try {
             return addClassfileTransformer();
         } catch (Exception e) {
@@ -56,12 +58,19 @@ public class DynamicEkstazi {
 
     private static Instrumentation addClassfileTransformer() throws Exception {
         Log.d("Setting class transformer");
-        // Add classfile transformer.
-        Class<?> instrumentationFactoryClass = ClassLoader.getSystemClassLoader().loadClass(
-                Names.DYNAMIC_AGENT_BIN);
-        Method getInstrumentation = instrumentationFactoryClass.getDeclaredMethod("getInstrumentation");
-        getInstrumentation.setAccessible(true);
-        Instrumentation instrumentation = (Instrumentation) getInstrumentation.invoke(null);
+        // Agent (from the same jar as this class) is attached to this VM;
+        // VM appends the jar to the system class loader search, and
+        // agent adds classfile transformer.
+        URL agentJarURL = Types.extractJarURL(EkstaziAgent.class);
+        Instrumentation instrumentation = getSystemInstrumentation();
+        if (instrumentation == null) {
+            AgentLoader.loadAgent(agentJarURL, EkstaziAgent.DYNAMIC_OPTIONS);
+            instrumentation = getSystemInstrumentation();
+        }
+        if (instrumentation == null) {
+            throw new RuntimeException("Could not obtain Instrumentation.");
+        }
+        setSystemClassLoaderClassPath(instrumentation, agentJarURL);
 
         // Use our instrumentation object for OpenJpa instrumentation too.
         setOpenJpaInstrumentation(instrumentation);
@@ -76,6 +85,20 @@ public class DynamicEkstazi {
         return instrumentation;
     }
 
+    /**
+     * Returns Instrumentation from the agent loaded by system class loader,
+     * or null if agent has not been initialized.
+     */
+    private static Instrumentation getSystemInstrumentation() {
+        try {
+            Class<?> agentClass = ClassLoader.getSystemClassLoader().loadClass(EkstaziAgent.class.getName());
+            Method getInstrumentation = agentClass.getMethod("getInstrumentation");
+            return (Instrumentation) getInstrumentation.invoke(null);
+        } catch (Exception ex) {
+            return null;
+        }
+    }
+
     /**
      * This hack is needed probably in 0.00001% of cases when tests are run with
      * OpenJpa javaagent. If we do not set our instrumentation object for
@@ -97,90 +120,88 @@ public class DynamicEkstazi {
         }
     }
 
+    /**
+     * Retransforms (in batches) all loaded classes that transformer would
+     * instrument.
+     */
     private static void instrumentAllLoadedClasses(Instrumentation instrumentation) {
         Class<?>[] classes = instrumentation.getAllLoadedClasses();
-        Log.d("Number of classes to instrument: ", classes.length);
+        List<Class<?>> toRetransform = new ArrayList<Class<?>>();
         for (Class<?> clz : classes) {
-            if (instrumentation.isModifiableClass(clz) && !Types.isRetransformIgnorable(clz)) {
-                try {
-                    Log.d("Retransforming", clz);
-                    instrumentation.retransformClasses(clz);
-                } catch (UnmodifiableClassException ex) {
-                    ex.printStackTrace();
-                } catch (Throwable t) {
-                    // We encountered "java.lang.InternalError: null"
-                    // when retransforming
-                    // "org.kohsuke.stapler.AptCompiler". Namely, we
-                    // were running Jenkins light build, i.e., "mvn
-                    // -Plight-test install -DfailIfNoTests=false
-                    // -Dtest=LogRecorderTest". The reason for the
-                    // failure seems to be a class
-                    // (com/sun/mirror/apt/AnnotationProcessorFactory)
-                    // that was removed after Java 6 (there is no this
-                    // problem if we run with Java 6); therefore the
-                    // class, clz, could have not been properly
-                    // retransformed. (Note that an exception,
-                    // although different, would happen if we tried to
-                    // instantiate an object from clz.) See
-                    // http://jenkins-ci.361315.n4.nabble.com/Hudson-Issues-JIRA-Created-HUDSON-8942-Build-failure-with-Java-7-td3687415.html
-                    // for more details.
-                    Log.e("Could not retransform class: " + clz);
+            if (isRetransformCandidate(instrumentation, clz)) {
+                toRetransform.add(clz);
+            }
+        }
+        Log.d("Number of classes to instrument: ", toRetransform.size());
+        for (int i = 0; i < toRetransform.size(); i += RETRANSFORM_BATCH_SIZE) {
+            List<Class<?>> batch = toRetransform.subList(i, Math.min(i + RETRANSFORM_BATCH_SIZE, toRetransform.size()));
+            try {
+                instrumentation.retransformClasses(batch.toArray(new Class<?>[batch.size()]));
+            } catch (Throwable t) {
+                // One class failed, so we retransform classes in this
+                // batch one by one.
+                for (Class<?> clz : batch) {
+                    retransformClass(instrumentation, clz);
                 }
             }
         }
     }
 
+    private static void retransformClass(Instrumentation instrumentation, Class<?> clz) {
+        try {
+            Log.d("Retransforming", clz);
+            instrumentation.retransformClasses(clz);
+        } catch (Throwable t) {
+            // We encountered "java.lang.InternalError: null"
+            // when retransforming
+            // "org.kohsuke.stapler.AptCompiler". Namely, we
+            // were running Jenkins light build, i.e., "mvn
+            // -Plight-test install -DfailIfNoTests=false
+            // -Dtest=LogRecorderTest". The reason for the
+            // failure seems to be a class
+            // (com/sun/mirror/apt/AnnotationProcessorFactory)
+            // that was removed after Java 6 (there is no this
+            // problem if we run with Java 6); therefore the
+            // class, clz, could have not been properly
+            // retransformed. (Note that an exception,
+            // although different, would happen if we tried to
+            // instantiate an object from clz.) See
+            // http://jenkins-ci.361315.n4.nabble.com/Hudson-Issues-JIRA-Created-HUDSON-8942-Build-failure-with-Java-7-td3687415.html
+            // for more details.
+            Log.e("Could not retransform class: " + clz);
+        }
+    }
+
     /**
-     * Set paths from the current class loader to the path of system class
-     * loader. This method should be invoked only once.
+     * Checks if class could be instrumented; classes that transformer
+     * would reject anyway are not retransformed.
      */
-    private static void setSystemClassLoaderClassPath() throws Exception {
-        Log.d("Setting classpath");
-        // We use agent class as we do not extract this class in newly created
-        // jar (otherwise we may end up creating one -magic jar from another);
-        // also it will exist even without JUnit classes).
-        URL url = EkstaziAgent.class.getResource(EkstaziAgent.class.getSimpleName() + ".class");
-        String origPath = url.getFile().replace("file:", "").replaceAll(".jar!.*", ".jar");
-        File junitJar = new File(origPath);
-        File xtsJar = new File(origPath.replaceAll(".jar", "-magic.jar"));
-
-        boolean isCreated = false;
-        // If extracted (Tool) jar is newer than junit*.jar, there is no reason
-        // to extract files again, so just return in that case.
-        if (FileUtil.isSecondNewerThanFirst(junitJar, xtsJar)) {
-            // We cannot return here, as we have to include jar on the path.
-            isCreated = true;
-        } else {
-            // Extract new jar as junit.jar is newer.
-            String[] includePrefixes = { Names.EKSTAZI_PACKAGE_BIN };
-            String[] excludePrefixes = { EkstaziAgent.class.getName() };
-            isCreated = JarXtractor.extract(junitJar, xtsJar, includePrefixes, excludePrefixes);
+    private static boolean isRetransformCandidate(Instrumentation instrumentation, Class<?> clz) {
+        if (clz.getClassLoader() == null || !instrumentation.isModifiableClass(clz)
+                || Types.isRetransformIgnorable(clz)) {
+            return false;
         }
-
-        // Add jar to classpath if it was successfully created, otherwise throw
-        // an exception.
-        if (isCreated) {
-            addURL(xtsJar.toURI().toURL());
-        } else {
-            throw new RuntimeException("Could not extract Tool classes in separate jar.");
+        String className = clz.getName();
+        if (className.contains("$Proxy")
+                || (!Config.DEPENDENCIES_INCLUDE_WELLKNOWN_V && className.startsWith(Names.ORG_HAMCREST_BIN, 0))) {
+            return false;
         }
+        Pattern classesInclude = Config.DEPENDENCIES_CLASSES_INSTRUMENT_V;
+        return classesInclude == null || classesInclude.matcher(Types.binToInternalName(className)).find();
     }
 
     /**
-     * Adds URL to system ClassLoader. This is not a nice approach as we use
-     * reflection, but it seems the only available in Java. This will be gone if
-     * we decided to go with javaagent and boot classloader.
-     * 
-     * @param url
-     *            URL to include on classpath.
-     * @throws IOException
-     *             If URL could not be added.
+     * Appends agent jar to the search of system class loader, unless
+     * monitor is already accessible from the system class loader (VM
+     * appends jar of dynamically attached agent).
      */
-    private static void addURL(URL url) throws Exception {
-        URLClassLoader sysloader = (URLClassLoader) ClassLoader.getSystemClassLoader();
-        Class<?> sysclass = URLClassLoader.class;
-        Method method = sysclass.getDeclaredMethod("addURL", new Class[] { URL.class });
-        method.setAccessible(true);
-        method.invoke(sysloader, new Object[] { url });
+    private static void setSystemClassLoaderClassPath(Instrumentation instrumentation, URL agentJarURL)
+            throws Exception {
+        if (ClassLoader.getSystemClassLoader().getResource(COVERAGE_MONITOR_RESOURCE) != null) {
+            return;
+        }
+        Log.d("Setting classpath");
+        File agentJar = new File(agentJarURL.toURI().getSchemeSpecificPart());
+        instrumentation.appendToSystemClassLoaderSearch(new JarFile(agentJar));
     }
 }
@@ -33,7 +33,7 @@ import org.ekstazi.util.FileUtil;
 /**
  * {@link Hasher} that saves cache in file at shutdown. This hasher can be used
  * with projects that spawn VM for each test. NOTE: If project runs VMs in
- * parallel this class is not safe.
+ * parallel this class is not safe; use {@link SharedHashCache} instead.
  */
 public class FileCachingHasher extends Hasher {
 
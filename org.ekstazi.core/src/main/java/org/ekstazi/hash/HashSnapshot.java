@@ -0,0 +1,202 @@
+/*
+ * Copyright 2014-present Milos Gligoric
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ekstazi.hash;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.ekstazi.log.Log;
+import org.ekstazi.util.FileUtil;
+
+/**
+ * Hashes shared by all hashers in a VM and, through a file, by several
+ * VMs (e.g., the Maven VM and VMs forked to run tests). Each hash is
+ * kept with a stamp (kind of hash, and last modified time and length
+ * of the file or jar that contains the resource), and the hash is used
+ * only if the stamp is unchanged. Only resources in local files/jars
+ * are kept. The file has one hash per line: "hash stamp url".
+ */
+public final class HashSnapshot {
+
+    /** Separator between parts of a stamp */
+    private static final char STAMP_SEPARATOR = ':';
+
+    /** Separator between URL of a jar and an entry in the jar */
+    private static final String JAR_SEPARATOR = "!/";
+
+    /** Snapshots loaded in this VM: file path->snapshot */
+    private static final Map<String, HashSnapshot> sSnapshots = new HashMap<String, HashSnapshot>();
+
+    /** File that keeps this snapshot */
+    private final File mFile;
+
+    /** External form->stamp and hash */
+    private final Map<String, String[]> mHashes;
+
+    /**
+     * Constructor.
+     */
+    private HashSnapshot(File file) {
+        this.mFile = file;
+        this.mHashes = new ConcurrentHashMap<String, String[]>();
+    }
+
+    /**
+     * Returns snapshot kept in the given file; the file is loaded (if it
+     * exists) only the first time the snapshot is requested in this VM.
+     */
+    public static HashSnapshot get(File file) {
+        synchronized (sSnapshots) {
+            String path = file.getAbsolutePath();
+            HashSnapshot snapshot = sSnapshots.get(path);
+            if (snapshot == null) {
+                snapshot = new HashSnapshot(file);
+                snapshot.load();
+                sSnapshots.put(path, snapshot);
+            }
+            return snapshot;
+        }
+    }
+
+    /**
+     * Returns stamp of the resource at the given URL computed with the
+     * given kind of hash, or null if the resource is not in a local
+     * file/jar. The stamp should be taken before the resource is hashed.
+     */
+    public String stamp(URL url, String kind) {
+        File file = getContainer(url);
+        if (file == null) {
+            return null;
+        }
+        long lastModified = file.lastModified();
+        if (lastModified == 0) {
+            return null;
+        }
+        return kind + STAMP_SEPARATOR + lastModified + STAMP_SEPARATOR + file.length();
+    }
+
+    /**
+     * Returns hash of the resource with the given external form, or null
+     * if the hash is not known for the given stamp.
+     */
+    public String get(String externalForm, String stamp) {
+        String[] stampAndHash = mHashes.get(externalForm);
+        return stampAndHash != null && stampAndHash[0].equals(stamp) ? stampAndHash[1] : null;
+    }
+
+    public void put(String externalForm, String stamp, String hash) {
+        mHashes.put(externalForm, new String[] { stamp, hash });
+    }
+
+    public void remove(String externalForm) {
+        mHashes.remove(externalForm);
+    }
+
+    public void clear() {
+        mHashes.clear();
+    }
+
+    /**
+     * Returns external forms of all resources with known hashes.
+     */
+    public Set<String> getExternalForms() {
+        return Collections.unmodifiableSet(mHashes.keySet());
+    }
+
+    /**
+     * Saves this snapshot in its file.
+     */
+    public void save() {
+        save(mFile);
+    }
+
+    /**
+     * Saves this snapshot in the given file. The file is replaced (rather
+     * than rewritten), so that VMs that read the file at the same time see
+     * either the old or the new snapshot.
+     */
+    public synchronized void save(File file) {
+        List<String> lines = new ArrayList<String>();
+        for (Entry<String, String[]> en : mHashes.entrySet()) {
+            lines.add(en.getValue()[1] + " " + en.getValue()[0] + " " + en.getKey());
+        }
+        File tmpFile = new File(file.getPath() + ".tmp");
+        try {
+            FileUtil.writeLines(tmpFile, lines);
+            if (!tmpFile.renameTo(file)) {
+                file.delete();
+                if (!tmpFile.renameTo(file)) {
+                    Log.w("Unable to save hash snapshot " + file);
+                }
+            }
+        } catch (IOException ex) {
+            Log.e("Unable to save hash snapshot " + file, ex);
+        }
+    }
+
+    /**
+     * Loads hashes from the file of this snapshot, e.g., hashes saved by
+     * another VM. Hashes that are already known are replaced.
+     */
+    public void load() {
+        if (!mFile.exists()) {
+            return;
+        }
+        try {
+            for (String line : FileUtil.readLines(mFile)) {
+                int hashEnd = line.indexOf(' ');
+                int stampEnd = line.indexOf(' ', hashEnd + 1);
+                if (hashEnd > 0 && stampEnd > 0) {
+                    put(line.substring(stampEnd + 1), line.substring(hashEnd + 1, stampEnd),
+                            line.substring(0, hashEnd));
+                }
+            }
+        } catch (IOException ex) {
+            Log.w("Unable to load hash snapshot " + mFile);
+        }
+    }
+
+    /**
+     * Returns local file or jar that contains resource at the given URL,
+     * or null if the resource is not local.
+     */
+    static File getContainer(URL url) {
+        try {
+            if (url.getProtocol().equals("file")) {
+                return new File(url.toURI());
+            } else if (url.getProtocol().equals("jar")) {
+                String path = url.getPath();
+                int index = path.indexOf(JAR_SEPARATOR);
+                if (index != -1) {
+                    return getContainer(new URL(path.substring(0, index)));
+                }
+            }
+        } catch (Exception ex) {
+            // Not a local resource.
+        }
+        return null;
+    }
+}
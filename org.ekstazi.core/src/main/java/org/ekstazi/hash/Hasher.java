@@ -18,6 +18,7 @@ package org.ekstazi.hash;
 
 import java.io.ByteArrayOutputStream;
 import java.io.DataOutputStream;
+import java.io.File;
 import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URL;
@@ -36,6 +37,7 @@ import java.util.zip.CRC32;
 import java.util.zip.Checksum;
 
 import org.ekstazi.log.Log;
+import org.ekstazi.log.Metrics;
 import org.ekstazi.util.FileUtil;
 import org.ekstazi.util.LRUMap;
 
@@ -60,6 +62,18 @@ public class Hasher {
     /** Flag to indicate that semantic hashing is on */
     protected final boolean mIsSemanticHashing;
 
+    /** Kind of hashes computed by this hasher (used in snapshot stamps) */
+    private final String mKind;
+
+    /** Hashes shared with other hashers; null if not used */
+    private HashSnapshot mSnapshot;
+
+    /** Hashes shared with other VMs at the same time; null if not used */
+    private SharedHashCache mSharedCache;
+
+    /** Metrics of hashing; null if not collected */
+    private Metrics mMetrics;
+
     /**
      * Constructor.
      */
@@ -67,6 +81,7 @@ public class Hasher {
         this.path2Hash = new LRUMap<String, String>(cacheSizes);
         this.mCRC32 = algorithm.equals(Algorithm.CRC32) ? new CRC32() : null;
         this.mIsSemanticHashing = isSemanticHashing;
+        this.mKind = isSemanticHashing ? algorithm.name() : "ADLER32";
 
         MessageDigest md = null;
         if (mCRC32 == null) {
@@ -79,6 +94,29 @@ public class Hasher {
         this.mHashAlgorithm = md;
     }
 
+    /**
+     * Sets snapshot used to share hashes with other hashers (possibly in
+     * other VMs).
+     */
+    public synchronized void setSnapshot(HashSnapshot snapshot) {
+        this.mSnapshot = snapshot;
+    }
+
+    /**
+     * Sets cache used to share hashes with VMs that run at the same time
+     * (e.g., VMs forked to run tests in parallel).
+     */
+    public synchronized void setSharedCache(SharedHashCache sharedCache) {
+        this.mSharedCache = sharedCache;
+    }
+
+    /**
+     * Sets metrics that count hits and misses of this hasher.
+     */
+    public synchronized void setMetrics(Metrics metrics) {
+        this.mMetrics = metrics;
+    }
+
     /**
      * Hashes all resources at the given URLs and returns mapping from file path
      * (for each url) to hash.
@@ -209,13 +247,59 @@ public class Hasher {
 
         String hash = path2Hash.get(externalForm);
         if (hash != null) {
+            if (mMetrics != null) {
+                mMetrics.inc(Metrics.Counter.HASH_CACHE_HITS);
+            }
             return hash;
         }
+        // Stamp is taken before hashing, so that a resource modified
+        // while hashed is hashed again next time.
+        String stamp = mSnapshot == null ? null : mSnapshot.stamp(url, mKind);
+        if (stamp != null) {
+            hash = mSnapshot.get(externalForm, stamp);
+            if (hash != null) {
+                if (mMetrics != null) {
+                    mMetrics.inc(Metrics.Counter.HASH_SNAPSHOT_HITS);
+                }
+                path2Hash.put(externalForm, hash);
+                return hash;
+            }
+        }
+        // Last modified time and length of the file or jar are taken
+        // before hashing (as the stamp).
+        long lastModified = 0;
+        long length = 0;
+        if (mSharedCache != null) {
+            File container = HashSnapshot.getContainer(url);
+            if (container != null) {
+                lastModified = container.lastModified();
+                length = container.length();
+            }
+            if (lastModified != 0) {
+                hash = mSharedCache.get(mKind, externalForm, lastModified, length);
+                if (hash != null) {
+                    if (mMetrics != null) {
+                        mMetrics.inc(Metrics.Counter.HASH_SHARED_CACHE_HITS);
+                    }
+                    if (stamp != null) {
+                        mSnapshot.put(externalForm, stamp, hash);
+                    }
+                    path2Hash.put(externalForm, hash);
+                    return hash;
+                }
+            }
+        }
+        if (mMetrics != null) {
+            mMetrics.inc(Metrics.Counter.HASH_CACHE_MISSES);
+        }
 
         if (mIsSemanticHashing) {
             byte[] bytes = FileUtil.loadBytes(url);
             if (bytes == null) return ERR_HASH;
             // Remove debug info from classfiles.
+            if (mMetrics != null) {
+                mMetrics.add(Metrics.Counter.BYTES_HASHED, bytes.length);
+            }
             bytes = BytecodeCleaner.removeDebugInfo(bytes);
             hash = hashByteArray(bytes);
         } else {
@@ -223,8 +307,17 @@ public class Hasher {
             Checksum cksum = new Adler32();
             byte[] bytes = FileUtil.loadBytes(url, cksum);
             if (bytes == null) return ERR_HASH;
+            if (mMetrics != null) {
+                mMetrics.add(Metrics.Counter.BYTES_HASHED, bytes.length);
+            }
             hash = Long.toString(cksum.getValue());
         }
+        if (stamp != null) {
+            mSnapshot.put(externalForm, stamp, hash);
+        }
+        if (lastModified != 0) {
+            mSharedCache.put(mKind, externalForm, lastModified, length, hash);
+        }
         path2Hash.put(externalForm, hash);
         return hash;
     }
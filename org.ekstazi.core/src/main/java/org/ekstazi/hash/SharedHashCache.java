@@ -0,0 +1,304 @@
+/*
+ * Copyright 2014-present Milos Gligoric
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ekstazi.hash;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.ekstazi.log.Log;
+
+/**
+ * Hashes shared by all VMs that use the same file (e.g., VMs forked to
+ * run tests in parallel), kept in a memory-mapped file. The file is a
+ * table with a fixed number of fixed-size slots (open addressing with
+ * linear probing); a slot is found by hash of kind of hash and URL of a
+ * resource. Each hash is kept with last modified time and length of the
+ * file or jar that contains the resource, and the hash is used only if
+ * these are unchanged (as in {@link HashSnapshot}).
+ *
+ * Reads take no lock: each slot has a checksum, so a slot that is being
+ * written by another VM is seen as missing. Writes lock the slot in the
+ * file. If there is no free slot among probed slots, the first probed
+ * slot is replaced.
+ */
+public final class SharedHashCache {
+
+    /** Magic number at the beginning of the file */
+    private static final int MAGIC = 0x454b4843;
+
+    /** Version of the file format */
+    private static final int VERSION = 1;
+
+    /** Size of the header (magic, version, number of slots) */
+    private static final int HEADER_SIZE = 64;
+
+    /** Size of each slot */
+    private static final int SLOT_SIZE = 128;
+
+    /** Offsets of fields in a slot */
+    private static final int KEY_OFFSET = 0;
+    private static final int CHECK_OFFSET = 8;
+    private static final int HASH_LENGTH_OFFSET = 12;
+    private static final int LAST_MODIFIED_OFFSET = 16;
+    private static final int LENGTH_OFFSET = 24;
+    private static final int CHECKSUM_OFFSET = 32;
+    private static final int HASH_OFFSET = 40;
+
+    /** Maximum length of a hash (longer hashes are not kept) */
+    private static final int MAX_HASH_LENGTH = SLOT_SIZE - HASH_OFFSET;
+
+    /** Number of slots in a new file (the file has 8MB) */
+    private static final int NUM_OF_SLOTS = 1 << 16;
+
+    /** Number of slots probed for a key */
+    private static final int MAX_PROBES = 16;
+
+    /** Caches opened in this VM: file path->cache */
+    private static final Map<String, SharedHashCache> sCaches = new HashMap<String, SharedHashCache>();
+
+    /** Channel of the file (used to lock slots) */
+    private final FileChannel mChannel;
+
+    /** Mapped table */
+    private final MappedByteBuffer mBuffer;
+
+    /** Number of slots */
+    private final int mNumOfSlots;
+
+    /**
+     * Constructor.
+     */
+    private SharedHashCache(FileChannel channel, MappedByteBuffer buffer, int numOfSlots) {
+        this.mChannel = channel;
+        this.mBuffer = buffer;
+        this.mNumOfSlots = numOfSlots;
+    }
+
+    /**
+     * Returns cache kept in the given file; the file is created if it does
+     * not exist. Returns null if the file cannot be used, e.g., if it was
+     * created by another version.
+     */
+    public static SharedHashCache get(File file) {
+        synchronized (sCaches) {
+            String path = file.getAbsolutePath();
+            if (!sCaches.containsKey(path)) {
+                sCaches.put(path, open(file, NUM_OF_SLOTS));
+            }
+            return sCaches.get(path);
+        }
+    }
+
+    /**
+     * Returns hash of the resource with the given external form, or null
+     * if the hash is not known for the given container (last modified
+     * time and length).
+     */
+    public String get(String kind, String externalForm, long lastModified, long length) {
+        long key = key(kind, externalForm);
+        int check = externalForm.hashCode();
+        int slot = index(key);
+        for (int i = 0; i < MAX_PROBES; i++) {
+            int offset = offset(slot);
+            long slotKey = mBuffer.getLong(offset + KEY_OFFSET);
+            if (slotKey == 0) {
+                return null;
+            }
+            if (slotKey == key && mBuffer.getInt(offset + CHECK_OFFSET) == check) {
+                int hashLength = mBuffer.getInt(offset + HASH_LENGTH_OFFSET);
+                if (hashLength <= 0 || hashLength > MAX_HASH_LENGTH) {
+                    return null;
+                }
+                long slotLastModified = mBuffer.getLong(offset + LAST_MODIFIED_OFFSET);
+                long slotLength = mBuffer.getLong(offset + LENGTH_OFFSET);
+                byte[] hash = new byte[hashLength];
+                for (int j = 0; j < hashLength; j++) {
+                    hash[j] = mBuffer.get(offset + HASH_OFFSET + j);
+                }
+                long checksum = mBuffer.getLong(offset + CHECKSUM_OFFSET);
+                // Slot could have been changed while read.
+                if (checksum != checksum(key, check, slotLastModified, slotLength, hash)
+                        || mBuffer.getLong(offset + KEY_OFFSET) != key) {
+                    return null;
+                }
+                if (slotLastModified != lastModified || slotLength != length) {
+                    return null;
+                }
+                return toString(hash);
+            }
+            slot = (slot + 1) % mNumOfSlots;
+        }
+        return null;
+    }
+
+    /**
+     * Keeps hash of the resource with the given external form and its
+     * container (last modified time and length).
+     */
+    public synchronized void put(String kind, String externalForm, long lastModified, long length, String hash) {
+        if (hash.length() > MAX_HASH_LENGTH) {
+            return;
+        }
+        long key = key(kind, externalForm);
+        int check = externalForm.hashCode();
+        int slot = findSlot(key, check);
+        int offset = offset(slot);
+        FileLock lock = null;
+        try {
+            lock = mChannel.lock(offset, SLOT_SIZE, false);
+            byte[] bytes = toBytes(hash);
+            // Key is cleared first and set last, so that readers do not
+            // match the slot while it is written.
+            mBuffer.putLong(offset + KEY_OFFSET, 0);
+            mBuffer.putInt(offset + CHECK_OFFSET, check);
+            mBuffer.putInt(offset + HASH_LENGTH_OFFSET, bytes.length);
+            mBuffer.putLong(offset + LAST_MODIFIED_OFFSET, lastModified);
+            mBuffer.putLong(offset + LENGTH_OFFSET, length);
+            for (int j = 0; j < bytes.length; j++) {
+                mBuffer.put(offset + HASH_OFFSET + j, bytes[j]);
+            }
+            mBuffer.putLong(offset + CHECKSUM_OFFSET, checksum(key, check, lastModified, length, bytes));
+            mBuffer.putLong(offset + KEY_OFFSET, key);
+        } catch (IOException ex) {
+            Log.w("Unable to lock shared hash cache");
+        } catch (OverlappingFileLockException ex) {
+            // Slot is locked by another copy of this class in this VM.
+        } finally {
+            if (lock != null) {
+                try {
+                    lock.release();
+                } catch (IOException ex) {
+                    // Nothing.
+                }
+            }
+        }
+    }
+
+    // INTERNAL
+
+    private static SharedHashCache open(File file, int numOfSlots) {
+        RandomAccessFile raf = null;
+        try {
+            file.getParentFile().mkdirs();
+            raf = new RandomAccessFile(file, "rw");
+            FileChannel channel = raf.getChannel();
+            // Header is written by the VM that creates the file.
+            FileLock lock = channel.lock(0, HEADER_SIZE, false);
+            try {
+                if (raf.length() == 0) {
+                    raf.setLength(HEADER_SIZE + (long) numOfSlots * SLOT_SIZE);
+                    raf.writeInt(MAGIC);
+                    raf.writeInt(VERSION);
+                    raf.writeInt(numOfSlots);
+                }
+                raf.seek(0);
+                int magic = raf.readInt();
+                int version = raf.readInt();
+                numOfSlots = raf.readInt();
+                if (magic != MAGIC || version != VERSION || numOfSlots <= 0
+                        || raf.length() != HEADER_SIZE + (long) numOfSlots * SLOT_SIZE) {
+                    Log.w("Shared hash cache " + file + " is not used (unknown format)");
+                    raf.close();
+                    return null;
+                }
+            } finally {
+                if (lock.isValid()) {
+                    lock.release();
+                }
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, raf.length());
+            return new SharedHashCache(channel, buffer, numOfSlots);
+        } catch (IOException ex) {
+            Log.w("Unable to open shared hash cache " + file);
+            if (raf != null) {
+                try {
+                    raf.close();
+                } catch (IOException ex2) {
+                    // Nothing.
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Returns slot that keeps the given key, or the first empty probed
+     * slot, or the first probed slot if there is no empty slot.
+     */
+    private int findSlot(long key, int check) {
+        int first = index(key);
+        int slot = first;
+        for (int i = 0; i < MAX_PROBES; i++) {
+            int offset = offset(slot);
+            long slotKey = mBuffer.getLong(offset + KEY_OFFSET);
+            if (slotKey == 0 || (slotKey == key && mBuffer.getInt(offset + CHECK_OFFSET) == check)) {
+                return slot;
+            }
+            slot = (slot + 1) % mNumOfSlots;
+        }
+        return first;
+    }
+
+    private int index(long key) {
+        return (int) ((key ^ (key >>> 32)) & 0x7fffffff) % mNumOfSlots;
+    }
+
+    private static int offset(int slot) {
+        return HEADER_SIZE + slot * SLOT_SIZE;
+    }
+
+    /**
+     * Returns key (never 0) for the given kind and external form.
+     */
+    private static long key(String kind, String externalForm) {
+        long key = Hasher.hashString(kind + " " + externalForm);
+        return key == 0 ? 1 : key;
+    }
+
+    private static long checksum(long key, int check, long lastModified, long length, byte[] hash) {
+        long checksum = key * 31 + check;
+        checksum = checksum * 31 + lastModified;
+        checksum = checksum * 31 + length;
+        for (byte b : hash) {
+            checksum = checksum * 31 + b;
+        }
+        return checksum;
+    }
+
+    private static byte[] toBytes(String hash) {
+        byte[] bytes = new byte[hash.length()];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) hash.charAt(i);
+        }
+        return bytes;
+    }
+
+    private static String toString(byte[] bytes) {
+        char[] chars = new char[bytes.length];
+        for (int i = 0; i < bytes.length; i++) {
+            chars[i] = (char) bytes[i];
+        }
+        return new String(chars);
+    }
+}
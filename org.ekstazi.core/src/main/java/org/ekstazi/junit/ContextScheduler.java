@@ -0,0 +1,78 @@
+/*
+ * Copyright 2014-present Milos Gligoric
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ekstazi.junit;
+
+import java.lang.reflect.Field;
+
+import org.ekstazi.log.Log;
+import org.ekstazi.monitor.CoverageMonitor;
+import org.junit.runner.Runner;
+import org.junit.runners.ParentRunner;
+import org.junit.runners.model.RunnerScheduler;
+
+/**
+ * Scheduler that runs children (e.g., test methods) in the coverage
+ * context of the test class. Surefire (parallel=methods) schedules
+ * children on pooled threads that are not started by the test class,
+ * so the context would not be inherited otherwise.
+ */
+final class ContextScheduler implements RunnerScheduler {
+
+    /** Name of the scheduler field in ParentRunner */
+    private static final String SCHEDULER_FIELD = "scheduler";
+
+    /** Scheduler set by the framework (may be null) */
+    private final RunnerScheduler mWrapped;
+
+    /**
+     * Constructor.
+     */
+    private ContextScheduler(RunnerScheduler wrapped) {
+        this.mWrapped = wrapped;
+    }
+
+    /**
+     * Wraps scheduler of the given runner (if the runner schedules its
+     * children). Sequential runners are not modified.
+     */
+    static void propagateContext(Runner runner) {
+        if (!(runner instanceof ParentRunner)) {
+            return;
+        }
+        try {
+            Field field = ParentRunner.class.getDeclaredField(SCHEDULER_FIELD);
+            field.setAccessible(true);
+            RunnerScheduler scheduler = (RunnerScheduler) field.get(runner);
+            // Nothing to do for default (sequential) scheduler.
+            if (scheduler == null || scheduler instanceof ContextScheduler
+                    || scheduler.getClass().getName().startsWith(ParentRunner.class.getName())) {
+                return;
+            }
+            ((ParentRunner<?>) runner).setScheduler(new ContextScheduler(scheduler));
+        } catch (Exception ex) {
+            Log.w("Unable to propagate coverage context to scheduler of " + runner);
+        }
+    }
+
+    public void schedule(Runnable childStatement) {
+        mWrapped.schedule(CoverageMonitor.propagateContext(childStatement));
+    }
+
+    public void finished() {
+        mWrapped.finished();
+    }
+}
@@ -75,16 +75,33 @@ public class CoverageRunner extends Runner implements Filterable, Sortable {
         } else if (isRunWithoutCoverage()) {
             mWrappedRunner.run(notifier);
         } else {
-            Ekstazi.inst().beginClassCoverage(mClz.getName());
-            JUnit4OutcomeListener outcomeListener = new JUnit4OutcomeListener();
-            notifier.addListener(outcomeListener);
-            try {
-                mWrappedRunner.run(notifier);
-            } finally {
-                // Include URLs from constructors.
-                if (mURLs != null) CoverageMonitor.addURLs(mURLs);
-                Ekstazi.inst().endClassCoverage(mClz.getName(), outcomeListener.isFailOrError());
-            }
+            run(mClz, mWrappedRunner, mURLs, notifier);
+        }
+    }
+
+    /**
+     * Runs the given runner and collects coverage for the given class.
+     */
+    static void run(Class<?> clz, Runner wrapped, String[] urls, RunNotifier notifier) {
+        Ekstazi.inst().beginClassCoverage(clz.getName());
+        if (Config.DEPENDENCIES_PARALLEL_V) {
+            ContextScheduler.propagateContext(wrapped);
+        }
+        // Isolated test class may look up classes via context loader.
+        Thread thread = Thread.currentThread();
+        ClassLoader contextLoader = thread.getContextClassLoader();
+        if (clz.getClassLoader() instanceof TestClassLoader) {
+            thread.setContextClassLoader(clz.getClassLoader());
+        }
+        JUnit4OutcomeListener outcomeListener = new JUnit4OutcomeListener();
+        notifier.addListener(outcomeListener);
+        try {
+            wrapped.run(notifier);
+        } finally {
+            thread.setContextClassLoader(contextLoader);
+            // Include URLs from constructors.
+            if (urls != null) CoverageMonitor.addURLs(urls);
+            Ekstazi.inst().endClassCoverage(clz.getName(), outcomeListener.isFailOrError());
         }
     }
 
@@ -16,9 +16,13 @@
 
 package org.ekstazi.junit;
 
+import org.ekstazi.Config;
 import org.ekstazi.monitor.CoverageMonitor;
 import org.junit.runner.Runner;
 import org.junit.runner.RunWith;
+import org.junit.experimental.runners.Enclosed;
+import org.junit.runners.Parameterized;
+import org.junit.runners.ParentRunner;
 import org.junit.runners.Suite;
 import org.junit.runners.model.RunnerBuilder;
 
@@ -48,6 +52,12 @@ public class JUnit4Monitor {
      * JUnit4 support.
      */
     public static Runner runnerForClass0(RunnerBuilder builder, Class<?> testClass) throws Throwable {
+        // Parallel computers (e.g., in Surefire) schedule runners that
+        // they obtain from Computer.getRunner, so we collect coverage at
+        // that level if tests run in parallel.
+        if (Config.DEPENDENCIES_PARALLEL_V && recursiveDepth > 1 && isCalledFromComputer()) {
+            return coverageRunnerForClass(builder, testClass);
+        }
         if (recursiveDepth > 1 ||
             isOnStack(0, CoverageRunner.class.getCanonicalName())) {
             return builder.runnerForClass(testClass);
@@ -57,11 +67,61 @@ public class JUnit4Monitor {
         if (runner != null) {
             return runner;
         }
-        CoverageMonitor.clean();
-        Runner wrapped = builder.runnerForClass(testClass);
-        return new CoverageRunner(testClass, wrapped, CoverageMonitor.getURLs());
+        return coverageRunnerForClass(builder, testClass);
     }
-    
+
+    private static Runner coverageRunnerForClass(RunnerBuilder builder, Class<?> testClass) throws Throwable {
+        // Collect urls used while constructing the runner (in a context
+        // of its own if tests run in parallel).
+        if (Config.DEPENDENCIES_PARALLEL_V) {
+            CoverageMonitor.openContext();
+        } else {
+            CoverageMonitor.clean();
+        }
+        try {
+            if (TestClassLoader.isEnabled()) {
+                testClass = TestClassLoader.isolate(testClass);
+            }
+            Runner wrapped = builder.runnerForClass(testClass);
+            if (wrapped instanceof ParallelCoverageRunner) {
+                // Already wrapped when obtained by a parallel computer.
+                return wrapped;
+            }
+            if (Config.DEPENDENCIES_PARALLEL_V && wrapped instanceof ParentRunner && !isSuite(wrapped)) {
+                return new ParallelCoverageRunner(testClass, (ParentRunner<?>) wrapped, CoverageMonitor.getURLs());
+            }
+            return new CoverageRunner(testClass, wrapped, CoverageMonitor.getURLs());
+        } finally {
+            if (Config.DEPENDENCIES_PARALLEL_V) {
+                CoverageMonitor.closeContext();
+            }
+        }
+    }
+
+    /**
+     * Returns true if the given runner runs several test classes (see
+     * CoverageRunner for runners without coverage).
+     */
+    private static boolean isSuite(Runner runner) {
+        return runner instanceof Suite && !(runner instanceof Parameterized || runner instanceof Enclosed);
+    }
+
+    /**
+     * Checks if this class is invoked from Computer.getRunner.
+     */
+    private static boolean isCalledFromComputer() {
+        StackTraceElement[] stackTrace = Thread.currentThread().getStackTrace();
+        for (StackTraceElement element : stackTrace) {
+            String className = element.getClassName();
+            if (className.equals(Thread.class.getName()) || className.equals(JUnitNames.JUNIT4_MONITOR_BIN)) {
+                continue;
+            }
+            return className.equals(JUnitNames.COMPUTER_BIN)
+                    && element.getMethodName().equals(JUnitNames.GET_RUNNER_METHOD);
+        }
+        return false;
+    }
+
     /**
      * Checks if the given name is on stack more than the given number of times.
      * This method uses startsWith to check if the given name is on stack, so
@@ -69,6 +69,16 @@ public class JUnitCFT implements ClassFileTransformer {
                     JUnitNames.RUNNER_FOR_CLASS_METHOD,
                     "(L" + JUnitNames.RUNNER_BUILDER_VM + ";Ljava/lang/Class;)Lorg/junit/runner/Runner;",
                     false);
+            } else if (name.equals(JUnitNames.ORDER_TEST_CLASSES_METHOD) && desc.equals("(L"
+                    + JUnitNames.TESTS_TO_RUN_VM + ";)L" + JUnitNames.TESTS_TO_RUN_VM + ";")) {
+                // Reorder test classes found by Surefire.
+                mv.visitMethodInsn(opcode, owner, name, desc, itf);
+                mv.visitMethodInsn(Opcodes.INVOKESTATIC,
+                    JUnitNames.RUN_ORDER_MONITOR_VM,
+                    JUnitNames.ORDER_TEST_CLASSES_METHOD,
+                    "(Ljava/lang/Object;)Ljava/lang/Object;",
+                    false);
+                mv.visitTypeInsn(Opcodes.CHECKCAST, JUnitNames.TESTS_TO_RUN_VM);
             } else {
                 mv.visitMethodInsn(opcode, owner, name, desc, itf);
             }
@@ -22,9 +22,16 @@ package org.ekstazi.junit;
 public final class JUnitNames {
     public static final String RUNNER_BUILDER_VM = "org/junit/runners/model/RunnerBuilder";
     public static final String RUNNER_FOR_CLASS_METHOD = "runnerForClass";
+    public static final String COMPUTER_BIN = "org.junit.runner.Computer";
+    public static final String GET_RUNNER_METHOD = "getRunner";
 
     public static final String JUNIT4_MONITOR_BIN = "org.ekstazi.junit.JUnit4Monitor";
     public static final String JUNIT4_MONITOR_VM = "org/ekstazi/junit/JUnit4Monitor";
     public static final String JUNIT3_MONITOR_BIN = "org.ekstazi.junit.JUnit3Monitor";
     public static final String JUNIT3_MONITOR_VM = "org/ekstazi/junit/JUnit3Monitor";
+
+    public static final String TESTS_TO_RUN_BIN = "org.apache.maven.surefire.util.TestsToRun";
+    public static final String TESTS_TO_RUN_VM = "org/apache/maven/surefire/util/TestsToRun";
+    public static final String ORDER_TEST_CLASSES_METHOD = "orderTestClasses";
+    public static final String RUN_ORDER_MONITOR_VM = "org/ekstazi/junit/RunOrderMonitor";
 }
@@ -0,0 +1,102 @@
+/*
+ * Copyright 2014-present Milos Gligoric
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ekstazi.junit;
+
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.runner.Description;
+import org.junit.runner.Runner;
+import org.junit.runner.manipulation.Filter;
+import org.junit.runner.manipulation.NoTestsRemainException;
+import org.junit.runner.manipulation.Sorter;
+import org.junit.runner.notification.RunNotifier;
+import org.junit.runners.ParentRunner;
+import org.junit.runners.model.InitializationError;
+import org.junit.runners.model.RunnerScheduler;
+
+/**
+ * Support for collecting coverage for test class granularity level when
+ * test classes are run by a parallel computer (e.g., Surefire with
+ * parallel parameter). Parallel computers schedule only ParentRunner(s),
+ * so (unlike CoverageRunner) this runner is a ParentRunner; its only
+ * child is the wrapped runner, which also gets the scheduler for its
+ * children (e.g., test methods).
+ */
+public class ParallelCoverageRunner extends ParentRunner<Runner> {
+
+    /** Test class being run */
+    private final Class<?> mClz;
+
+    /** Wrapped runner */
+    private final ParentRunner<?> mWrappedRunner;
+
+    /** Set of urls that is used when test classes were instantiated */
+    private final String[] mURLs;
+
+    /**
+     * Constructor. Note that we do not pass the test class to the parent
+     * constructor, as class level statements (e.g., BeforeClass) are run
+     * by the wrapped runner.
+     */
+    public ParallelCoverageRunner(Class<?> clz, ParentRunner<?> wrapped, String[] urls) throws InitializationError {
+        super((Class<?>) null);
+        this.mClz = clz;
+        this.mWrappedRunner = wrapped;
+        this.mURLs = urls;
+    }
+
+    @Override
+    public Description getDescription() {
+        return mWrappedRunner.getDescription();
+    }
+
+    @Override
+    public void run(RunNotifier notifier) {
+        CoverageRunner.run(mClz, mWrappedRunner, mURLs, notifier);
+    }
+
+    @Override
+    public void setScheduler(RunnerScheduler scheduler) {
+        mWrappedRunner.setScheduler(scheduler);
+    }
+
+    @Override
+    public void filter(Filter filter) throws NoTestsRemainException {
+        mWrappedRunner.filter(filter);
+    }
+
+    @Override
+    public void sort(Sorter sorter) {
+        mWrappedRunner.sort(sorter);
+    }
+
+    @Override
+    protected List<Runner> getChildren() {
+        return Collections.<Runner>singletonList(mWrappedRunner);
+    }
+
+    @Override
+    protected Description describeChild(Runner child) {
+        return child.getDescription();
+    }
+
+    @Override
+    protected void runChild(Runner child, RunNotifier notifier) {
+        child.run(notifier);
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright 2014-present Milos Gligoric
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ekstazi.junit;
+
+import java.lang.reflect.Constructor;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.ekstazi.Config;
+import org.ekstazi.check.RunOrder;
+import org.ekstazi.log.Log;
+
+/**
+ * Reorders test classes found by Surefire (in a forked VM) as specified
+ * in {@link RunOrder}. Test classes that are not in the order keep their
+ * relative order and run after other test classes. Test classes that
+ * Surefire reads lazily are not reordered.
+ */
+public final class RunOrderMonitor {
+
+    /** Method that checks if test classes can be read eagerly */
+    private static final String ALLOW_EAGER_READING_METHOD = "allowEagerReading";
+
+    /**
+     * Invoked after Surefire orders test classes.
+     *
+     * @param testsToRun
+     *            Test classes (TestsToRun) as ordered by Surefire
+     * @return Reordered test classes (TestsToRun), or the given object if
+     *         test classes should not be reordered
+     */
+    public static Object orderTestClasses(Object testsToRun) {
+        if (!Config.TESTS_PRIORITIZE_V || testsToRun == null
+                || !testsToRun.getClass().getName().equals(JUnitNames.TESTS_TO_RUN_BIN)) {
+            return testsToRun;
+        }
+        List<String> order = RunOrder.load(Config.ROOT_DIR_V);
+        if (order.isEmpty()) {
+            return testsToRun;
+        }
+        try {
+            if (!(Boolean) testsToRun.getClass().getMethod(ALLOW_EAGER_READING_METHOD).invoke(testsToRun)) {
+                return testsToRun;
+            }
+            final Map<String, Integer> indexes = new HashMap<String, Integer>();
+            for (int i = 0; i < order.size(); i++) {
+                indexes.put(order.get(i), i);
+            }
+            List<Class<?>> classes = new ArrayList<Class<?>>();
+            for (Object clz : (Iterable<?>) testsToRun) {
+                classes.add((Class<?>) clz);
+            }
+            // Sort is stable, so classes that are not in the order
+            // keep their relative order.
+            Collections.sort(classes, new Comparator<Class<?>>() {
+                public int compare(Class<?> o1, Class<?> o2) {
+                    return getIndex(indexes, o1) - getIndex(indexes, o2);
+                }
+            });
+            return newTestsToRun(testsToRun.getClass(), classes);
+        } catch (Exception ex) {
+            Log.w("Unable to reorder test classes");
+            return testsToRun;
+        }
+    }
+
+    // INTERNAL
+
+    private static int getIndex(Map<String, Integer> indexes, Class<?> clz) {
+        Integer index = indexes.get(clz.getName());
+        return index == null ? Integer.MAX_VALUE : index;
+    }
+
+    /**
+     * Creates TestsToRun; older Surefire versions take a list of classes
+     * and newer versions take a set of classes.
+     */
+    private static Object newTestsToRun(Class<?> clz, List<Class<?>> classes) throws Exception {
+        try {
+            Constructor<?> con = clz.getConstructor(List.class);
+            return con.newInstance(classes);
+        } catch (NoSuchMethodException ex) {
+            Constructor<?> con = clz.getConstructor(Set.class);
+            return con.newInstance(new LinkedHashSet<Class<?>>(classes));
+        }
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright 2014-present Milos Gligoric
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ekstazi.junit;
+
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+
+import org.ekstazi.Config;
+import org.ekstazi.Names;
+import org.ekstazi.log.Log;
+import org.ekstazi.util.Types;
+
+/**
+ * Class loader that loads a test class, and classes from directories on
+ * the classpath (i.e., classes of the project), in isolation from other
+ * test classes. Classes from libraries (jars) are loaded by the parent
+ * and shared by all test classes. A new loader is created for each test
+ * class, so classes loaded by the loader are exactly classes of the
+ * project used by the test class (see dependencies.isolated option).
+ */
+public final class TestClassLoader extends URLClassLoader {
+
+    /** Name of an empty resource; used to find directories on classpath */
+    private static final String ROOT_RESOURCE = "";
+
+    /** Loader for which directories were found */
+    private static ClassLoader sParent;
+
+    /** Directories on the classpath of sParent */
+    private static URL[] sDirs;
+
+    /**
+     * Constructor.
+     */
+    private TestClassLoader(URL[] dirs, ClassLoader parent) {
+        super(dirs, parent);
+    }
+
+    /**
+     * Returns true if test classes should be loaded in isolation.
+     */
+    static boolean isEnabled() {
+        return Config.DEPENDENCIES_ISOLATED_V && Config.MODE_V == Config.AgentMode.JUNIT;
+    }
+
+    /**
+     * Loads the given test class in a new loader. Returns the given class
+     * if the class cannot be isolated (e.g., it is in a jar).
+     */
+    static Class<?> isolate(Class<?> testClass) {
+        ClassLoader parent = testClass.getClassLoader();
+        if (parent == null || parent instanceof TestClassLoader) {
+            return testClass;
+        }
+        TestClassLoader loader = newLoader(parent);
+        try {
+            Class<?> isolated = loader.loadClass(testClass.getName());
+            return isolated.getClassLoader() == loader ? isolated : testClass;
+        } catch (ClassNotFoundException ex) {
+            Log.w("Unable to isolate " + testClass.getName());
+            return testClass;
+        }
+    }
+
+    /**
+     * Returns a new loader for classes in directories on the classpath
+     * of the given loader.
+     */
+    static TestClassLoader newLoader(ClassLoader parent) {
+        return new TestClassLoader(getDirs(parent), parent);
+    }
+
+    @Override
+    protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+        if (isShared(name)) {
+            return super.loadClass(name, resolve);
+        }
+        synchronized (getClassLoadingLock(name)) {
+            Class<?> clz = findLoadedClass(name);
+            if (clz == null) {
+                try {
+                    clz = findClass(name);
+                } catch (ClassNotFoundException ex) {
+                    return super.loadClass(name, resolve);
+                }
+            }
+            if (resolve) {
+                resolveClass(clz);
+            }
+            return clz;
+        }
+    }
+
+    @Override
+    public URL getResource(String name) {
+        URL url = findResource(name);
+        return url != null ? url : super.getResource(name);
+    }
+
+    // INTERNAL
+
+    /**
+     * Returns true if the class with the given name has to be loaded by
+     * the parent even if it is in a directory (e.g., Ekstazi or JUnit).
+     */
+    private static boolean isShared(String name) {
+        return Types.isIgnorableBinName(name) || name.startsWith(Names.ORG_JUNIT_PACKAGE_BIN + ".")
+                || name.startsWith(Names.JUNIT_FRAMEWORK_PACKAGE_BIN + ".");
+    }
+
+    /**
+     * Returns directories on the classpath of the given loader.
+     */
+    private static synchronized URL[] getDirs(ClassLoader parent) {
+        if (sParent != parent) {
+            List<URL> dirs = new ArrayList<URL>();
+            try {
+                for (Enumeration<URL> e = parent.getResources(ROOT_RESOURCE); e.hasMoreElements();) {
+                    URL url = e.nextElement();
+                    if (url.getProtocol().equals("file")) {
+                        dirs.add(url);
+                    }
+                }
+            } catch (IOException ex) {
+                Log.w("Unable to find directories on classpath");
+            }
+            sParent = parent;
+            sDirs = dirs.toArray(new URL[dirs.size()]);
+        }
+        return sDirs;
+    }
+}
@@ -0,0 +1,198 @@
+/*
+ * Copyright 2014-present Milos Gligoric
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ekstazi.junit;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Modifier;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.ekstazi.Config;
+import org.ekstazi.check.AffectedChecker;
+import org.ekstazi.hash.HashSnapshot;
+import org.ekstazi.log.Log;
+import org.ekstazi.util.Types;
+import org.junit.runner.Description;
+import org.junit.runner.JUnitCore;
+import org.junit.runner.Request;
+import org.junit.runner.Result;
+import org.junit.runner.notification.Failure;
+import org.junit.runner.notification.RunListener;
+
+/**
+ * Runs affected test classes every time compiled classes change (watch
+ * mode). Each run loads each test class in a new TestClassLoader, so
+ * that classes of the project are loaded again while libraries stay
+ * loaded. The VM has to run with the agent in junit mode with isolated
+ * test classes (dependencies.isolated), so that classes loaded by these
+ * loaders are collected, and without caches (cache.sizes=0), so that
+ * each run sees current hashes. Dependencies of
+ * test classes that run are saved (as in any other run), so the next
+ * selection uses them.
+ *
+ * Arguments: parent directory of .ekstazi, directory with test classes,
+ * and directories to watch (separated by path separator).
+ */
+public final class WatchRunner {
+
+    /** Time (in milliseconds) without changes before tests run */
+    private static final long QUIET_PERIOD = 2000;
+
+    /** Suffix of the name of a file with a class */
+    private static final String JAVA_EXT = ".java";
+
+    /** Parent directory of .ekstazi */
+    private final File mParentDir;
+
+    /** Directory with test classes */
+    private final File mTestClassesDir;
+
+    /** Watch service for all watched directories */
+    private final WatchService mWatchService;
+
+    /**
+     * Constructor.
+     */
+    private WatchRunner(File parentDir, File testClassesDir) throws IOException {
+        this.mParentDir = parentDir;
+        this.mTestClassesDir = testClassesDir;
+        this.mWatchService = FileSystems.getDefault().newWatchService();
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length != 3) {
+            System.err.println("Arguments: parentDir testClassesDir watchedDirs");
+            System.exit(1);
+        }
+        WatchRunner runner = new WatchRunner(new File(args[0]), new File(args[1]));
+        for (String dir : args[2].split(File.pathSeparator)) {
+            runner.watch(new File(dir));
+        }
+        while (true) {
+            runner.runAffected();
+            System.out.println("Waiting for changes (press Ctrl+C to stop) ...");
+            runner.awaitChanges();
+        }
+    }
+
+    // INTERNAL
+
+    /**
+     * Selects and runs affected test classes.
+     */
+    private void runAffected() {
+        // Select with options of the agent (e.g., root.dir and xargs).
+        List<String> nonAffected = AffectedChecker.findNonAffectedClasses(mParentDir, Config.getOptions());
+        List<String> toRun = AffectedChecker.findClassesToRun(mTestClassesDir, nonAffected);
+        List<Class<?>> testClasses = new ArrayList<Class<?>>();
+        for (String fileName : toRun) {
+            Class<?> clz = loadTestClass(fileName.substring(0, fileName.length() - JAVA_EXT.length()).replace('/', '.'));
+            if (clz != null) {
+                testClasses.add(clz);
+            }
+        }
+        int numOfTests = 0;
+        int numOfFailures = 0;
+        JUnitCore core = new JUnitCore();
+        core.addListener(new FailureListener());
+        for (Class<?> clz : testClasses) {
+            System.out.println("Running " + clz.getName());
+            Result result = core.run(Request.aClass(clz));
+            numOfTests += result.getRunCount();
+            numOfFailures += result.getFailureCount();
+        }
+        System.out.println("Ekstazi ran " + testClasses.size() + " affected test classes (" + numOfTests + " tests, "
+                + numOfFailures + " failures)");
+        if (!Config.HASH_SNAPSHOT_V.equals("")) {
+            HashSnapshot.get(new File(Config.HASH_SNAPSHOT_V)).save();
+        }
+    }
+
+    /**
+     * Loads test class with the given name (without initializing it) in
+     * a new TestClassLoader. Returns null if the class is not a test class (based on names used
+     * by Surefire by default) or cannot be loaded.
+     */
+    private static Class<?> loadTestClass(String className) {
+        if (!Types.isDefaultTestBinName(className)) {
+            return null;
+        }
+        try {
+            ClassLoader loader = TestClassLoader.newLoader(WatchRunner.class.getClassLoader());
+            Class<?> clz = Class.forName(className, false, loader);
+            return Modifier.isAbstract(clz.getModifiers()) ? null : clz;
+        } catch (Throwable ex) {
+            Log.w("Unable to load " + className);
+            return null;
+        }
+    }
+
+    /**
+     * Watches the given directory and all its subdirectories.
+     */
+    private void watch(File dir) throws IOException {
+        if (!dir.isDirectory()) {
+            return;
+        }
+        dir.toPath().register(mWatchService, StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                watch(file);
+            }
+        }
+    }
+
+    /**
+     * Waits for changes in watched directories, and then until there are
+     * no more changes for a while (e.g., until compilation is done).
+     */
+    private void awaitChanges() throws InterruptedException, IOException {
+        WatchKey key = mWatchService.take();
+        while (key != null) {
+            Path dir = (Path) key.watchable();
+            for (WatchEvent<?> event : key.pollEvents()) {
+                if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE) {
+                    // New directories have to be watched too.
+                    watch(dir.resolve((Path) event.context()).toFile());
+                }
+            }
+            key.reset();
+            key = mWatchService.poll(QUIET_PERIOD, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Prints failures as they happen.
+     */
+    private static final class FailureListener extends RunListener {
+        @Override
+        public void testFailure(Failure failure) {
+            Description description = failure.getDescription();
+            System.out.println("FAILED " + description.getDisplayName() + ": " + failure.getMessage());
+        }
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright 2014-present Milos Gligoric
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ekstazi.junit5;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.ekstazi.Config;
+import org.ekstazi.Ekstazi;
+import org.ekstazi.agent.EkstaziAgent;
+import org.junit.platform.engine.FilterResult;
+import org.junit.platform.engine.TestDescriptor;
+import org.junit.platform.engine.TestSource;
+import org.junit.platform.engine.support.descriptor.ClassSource;
+import org.junit.platform.engine.support.descriptor.MethodSource;
+import org.junit.platform.launcher.PostDiscoveryFilter;
+
+/**
+ * Removes tests of non-affected classes from JUnit Platform test plan
+ * (e.g., JUnit Jupiter tests), so that non-affected classes are never
+ * initialized or instantiated. The filter is registered as a service and
+ * does nothing unless the agent runs in junit mode. Tests of JUnit 3/4
+ * (vintage engine) are checked by {@link org.ekstazi.junit.AffectingBuilder}.
+ */
+public class AffectingFilter implements PostDiscoveryFilter {
+
+    /** Prefix of unique ids of tests run by vintage engine */
+    static final String VINTAGE_ENGINE_PREFIX = "[engine:junit-vintage]";
+
+    /** Test classes (top level)->affected */
+    private final Map<String, Boolean> mAffected = new ConcurrentHashMap<String, Boolean>();
+
+    @Override
+    public FilterResult apply(TestDescriptor descriptor) {
+        // Only tests are removed; containers without tests are pruned.
+        if (!isEnabled() || !descriptor.isTest()
+                || descriptor.getUniqueId().toString().startsWith(VINTAGE_ENGINE_PREFIX)) {
+            return FilterResult.included(null);
+        }
+        String className = null;
+        TestDescriptor current = descriptor;
+        while (className == null && current != null) {
+            className = getTestClassName(current.getSource().orElse(null));
+            current = current.getParent().orElse(null);
+        }
+        if (className == null) {
+            return FilterResult.included(null);
+        }
+        Boolean isAffected = mAffected.get(className);
+        if (isAffected == null) {
+            isAffected = Ekstazi.inst().isClassAffected(className);
+            mAffected.put(className, isAffected);
+        }
+        return isAffected ? FilterResult.included("affected") : FilterResult.excluded("not affected");
+    }
+
+    /**
+     * Returns true if the agent runs in junit mode.
+     */
+    static boolean isEnabled() {
+        return Config.X_ENABLED_V && Config.MODE_V == Config.AgentMode.JUNIT
+                && EkstaziAgent.getInstrumentation() != null;
+    }
+
+    /**
+     * Returns name of the top level class of the given source, or null if
+     * source is not a class or a method.
+     */
+    static String getTestClassName(TestSource source) {
+        String className;
+        if (source instanceof ClassSource) {
+            className = ((ClassSource) source).getClassName();
+        } else if (source instanceof MethodSource) {
+            className = ((MethodSource) source).getClassName();
+        } else {
+            return null;
+        }
+        int index = className.indexOf('$');
+        return index < 0 ? className : className.substring(0, index);
+    }
+}
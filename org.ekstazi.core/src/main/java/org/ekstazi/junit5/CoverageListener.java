@@ -0,0 +1,88 @@
+/*
+ * Copyright 2014-present Milos Gligoric
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ekstazi.junit5;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.ekstazi.Ekstazi;
+import org.junit.platform.engine.TestExecutionResult;
+import org.junit.platform.engine.support.descriptor.ClassSource;
+import org.junit.platform.launcher.TestExecutionListener;
+import org.junit.platform.launcher.TestIdentifier;
+
+/**
+ * Collects coverage for each top level test class run on JUnit Platform
+ * (e.g., JUnit Jupiter tests), i.e., between start and finish of the
+ * container of the class. The listener is registered as a service and
+ * does nothing unless the agent runs in junit mode. Tests of JUnit 3/4
+ * (vintage engine) are covered by {@link org.ekstazi.junit.CoverageRunner}.
+ */
+public class CoverageListener implements TestExecutionListener {
+
+    /** Test classes (top level) with at least one failing test */
+    private final Set<String> mFailing = Collections.synchronizedSet(new HashSet<String>());
+
+    @Override
+    public void executionStarted(TestIdentifier testIdentifier) {
+        String className = getCoveredClassName(testIdentifier);
+        if (className != null) {
+            Ekstazi.inst().beginClassCoverage(className);
+        }
+    }
+
+    @Override
+    public void executionFinished(TestIdentifier testIdentifier, TestExecutionResult testExecutionResult) {
+        if (!AffectingFilter.isEnabled() || isVintage(testIdentifier)) {
+            return;
+        }
+        if (testExecutionResult.getStatus() == TestExecutionResult.Status.FAILED) {
+            String className = AffectingFilter.getTestClassName(testIdentifier.getSource().orElse(null));
+            if (className != null) {
+                mFailing.add(className);
+            }
+        }
+        String className = getCoveredClassName(testIdentifier);
+        if (className != null) {
+            Ekstazi.inst().endClassCoverage(className, mFailing.remove(className));
+        }
+    }
+
+    // INTERNAL
+
+    /**
+     * Returns name of the class if the given identifier is the container
+     * of a top level class (and coverage should be collected), or null
+     * otherwise.
+     */
+    private static String getCoveredClassName(TestIdentifier testIdentifier) {
+        if (!AffectingFilter.isEnabled() || isVintage(testIdentifier) || !testIdentifier.isContainer()) {
+            return null;
+        }
+        Object source = testIdentifier.getSource().orElse(null);
+        if (!(source instanceof ClassSource)) {
+            return null;
+        }
+        String className = ((ClassSource) source).getClassName();
+        return className.indexOf('$') < 0 ? className : null;
+    }
+
+    private static boolean isVintage(TestIdentifier testIdentifier) {
+        return testIdentifier.getUniqueId().startsWith(AffectingFilter.VINTAGE_ENGINE_PREFIX);
+    }
+}
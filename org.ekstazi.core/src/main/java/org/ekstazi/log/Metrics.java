@@ -0,0 +1,308 @@
+/*
+ * Copyright 2014-present Milos Gligoric
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ekstazi.log;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.ekstazi.Config;
+import org.ekstazi.Names;
+import org.ekstazi.util.FileUtil;
+
+/**
+ * Counters and timers that show where Ekstazi spends time.  Metrics are
+ * collected only if metrics option is set.  The agent collects metrics
+ * of a VM in {@link #getVMMetrics()} (code on hot paths checks
+ * {@link Config#METRICS_V} before invoking this class), and each
+ * selection collects metrics in the instance of its context (see
+ * {@link Config.Context#getMetrics()}), so that selections of modules
+ * built in parallel do not share counters.  Summary is saved (as JSON)
+ * in metrics directory inside Ekstazi directory (only the latest summaries
+ * are kept).  If JFR is available,
+ * each timed operation is also emitted as a JFR event
+ * (org.ekstazi.Operation), and the summary of the VM is emitted at the
+ * end of each chunk of a recording (org.ekstazi.Summary).
+ */
+public final class Metrics {
+
+    /** Counters */
+    public static enum Counter {
+        CLASSES_INSTRUMENTED("classesInstrumented"),
+        PROBE_CALLS("probeCalls"),
+        SLOW_PATH_HITS("slowPathHits"),
+        LOCK_WAIT_NANOS("lockWaitNanos"),
+        HASH_CACHE_HITS("hashCacheHits"),
+        HASH_SNAPSHOT_HITS("hashSnapshotHits"),
+        HASH_SHARED_CACHE_HITS("hashSharedCacheHits"),
+        HASH_CACHE_MISSES("hashCacheMisses"),
+        BYTES_HASHED("bytesHashed"),
+        STORER_SAVES_SKIPPED("storerSavesSkipped");
+
+        private final String mName;
+
+        Counter(String name) {
+            this.mName = name;
+        }
+
+        public String getName() {
+            return mName;
+        }
+    }
+
+    /** Timers; each timer counts operations and total time */
+    public static enum Timer {
+        TRANSFORM("transform"),
+        STORER_LOAD("storerLoad"),
+        STORER_SAVE("storerSave"),
+        SELECTION("selection");
+
+        private final String mName;
+
+        Timer(String name) {
+            this.mName = name;
+        }
+
+        public String getName() {
+            return mName;
+        }
+    }
+
+    /** Extension of summary files */
+    private static final String JSON_EXT = ".json";
+
+    /** Number of (the latest) summaries kept in metrics directory */
+    private static final int MAX_SUMMARIES = 100;
+
+    /** Metrics of the VM, collected by the agent */
+    private static final Metrics sVMMetrics = new Metrics();
+
+    /** Is JFR checked (and events registered) */
+    private static boolean sIsJfrChecked;
+
+    /** Is JFR available in this VM */
+    private static volatile boolean sIsJfrAvailable;
+
+    private final LongAdder[] mCounters = newAdders(Counter.values().length);
+
+    private final LongAdder[] mTimerCounts = newAdders(Timer.values().length);
+
+    private final LongAdder[] mTimerNanos = newAdders(Timer.values().length);
+
+    /** Ekstazi directory to save summary on exit (null if not set) */
+    private String mDirName;
+
+    /**
+     * Constructor.
+     */
+    public Metrics() {
+        checkJfr();
+    }
+
+    /**
+     * Returns metrics of this VM.
+     */
+    public static Metrics getVMMetrics() {
+        return sVMMetrics;
+    }
+
+    /**
+     * Saves summary in the given Ekstazi directory when the VM exits.
+     */
+    public synchronized void saveOnExit(String dirName) {
+        if (mDirName != null) {
+            return;
+        }
+        mDirName = dirName;
+        Runtime.getRuntime().addShutdownHook(new Thread() {
+            @Override
+            public void run() {
+                save(mDirName, "vm");
+            }
+        });
+    }
+
+    public void inc(Counter counter) {
+        mCounters[counter.ordinal()].increment();
+    }
+
+    public void add(Counter counter, long value) {
+        mCounters[counter.ordinal()].add(value);
+    }
+
+    /**
+     * Returns start time for {@link #stop(Timer, long, String)}.
+     */
+    public long start() {
+        return System.nanoTime();
+    }
+
+    /**
+     * Records operation that started at the given time (obtained from
+     * {@link #start()}).
+     *
+     * @param detail
+     *            Subject of the operation (e.g., class name), used only in
+     *            JFR events
+     */
+    public void stop(Timer timer, long start, String detail) {
+        long nanos = System.nanoTime() - start;
+        mTimerCounts[timer.ordinal()].increment();
+        mTimerNanos[timer.ordinal()].add(nanos);
+        if (sIsJfrAvailable) {
+            MetricsEvents.commitOperation(timer.getName(), detail, nanos);
+        }
+    }
+
+    public long get(Counter counter) {
+        return mCounters[counter.ordinal()].sum();
+    }
+
+    public long getCount(Timer timer) {
+        return mTimerCounts[timer.ordinal()].sum();
+    }
+
+    public long getNanos(Timer timer) {
+        return mTimerNanos[timer.ordinal()].sum();
+    }
+
+    /**
+     * Saves summary (as JSON) in metrics directory inside the given
+     * Ekstazi directory; file is named by kind of the summary and id of
+     * the VM.  The oldest summaries are removed, so that the directory
+     * does not grow with each run.
+     */
+    public void save(String dirName, String kind) {
+        File dir = new File(dirName, Names.METRICS_DIR_NAME);
+        String vmName = ManagementFactory.getRuntimeMXBean().getName();
+        File file = new File(dir, kind + "-" + vmName.replace('@', '-') + "-" + System.nanoTime() + JSON_EXT);
+        try {
+            dir.mkdirs();
+            FileUtil.writeFile(file, toJson(kind, vmName, new File(dirName).getAbsoluteFile().getParent()).getBytes());
+        } catch (IOException ex) {
+            Log.e("Unable to save metrics", ex);
+        }
+        removeOldSummaries(dir);
+    }
+
+    /**
+     * Returns ratio of hashes found in caches (in memory, in snapshot, or
+     * in shared cache).
+     */
+    double getHashCacheHitRatio() {
+        long hits = get(Counter.HASH_CACHE_HITS) + get(Counter.HASH_SNAPSHOT_HITS)
+                + get(Counter.HASH_SHARED_CACHE_HITS);
+        long total = hits + get(Counter.HASH_CACHE_MISSES);
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    // INTERNAL
+
+    /**
+     * Checks (once per VM) if JFR is available and registers events.
+     */
+    private static synchronized void checkJfr() {
+        if (sIsJfrChecked) {
+            return;
+        }
+        sIsJfrChecked = true;
+        sIsJfrAvailable = isJfrAvailable();
+        if (sIsJfrAvailable) {
+            MetricsEvents.register();
+        }
+    }
+
+    /**
+     * Removes the oldest summaries in the given directory, such that at
+     * most MAX_SUMMARIES are kept.  VMs that save summaries at the same
+     * time may remove the same files, which is harmless.
+     */
+    private static void removeOldSummaries(File dir) {
+        File[] files = dir.listFiles();
+        if (files == null || files.length <= MAX_SUMMARIES) {
+            return;
+        }
+        final Map<File, Long> times = new HashMap<File, Long>();
+        for (File file : files) {
+            times.put(file, file.lastModified());
+        }
+        Arrays.sort(files, new Comparator<File>() {
+            public int compare(File o1, File o2) {
+                int diff = Long.compare(times.get(o1), times.get(o2));
+                return diff != 0 ? diff : o1.getName().compareTo(o2.getName());
+            }
+        });
+        for (int i = 0; i < files.length - MAX_SUMMARIES; i++) {
+            files[i].delete();
+        }
+    }
+
+    private String toJson(String kind, String vmName, String projectDir) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("{\n");
+        sb.append("  \"kind\": \"").append(kind).append("\",\n");
+        sb.append("  \"vm\": \"").append(escape(vmName)).append("\",\n");
+        sb.append("  \"dir\": \"").append(escape(projectDir)).append("\",\n");
+        sb.append("  \"mode\": \"").append(Config.MODE_V).append("\",\n");
+        sb.append("  \"counters\": {");
+        for (Counter counter : Counter.values()) {
+            sb.append(counter.ordinal() == 0 ? "\n" : ",\n");
+            sb.append("    \"").append(counter.getName()).append("\": ").append(get(counter));
+        }
+        sb.append("\n  },\n");
+        sb.append("  \"timers\": {");
+        for (Timer timer : Timer.values()) {
+            sb.append(timer.ordinal() == 0 ? "\n" : ",\n");
+            sb.append("    \"").append(timer.getName()).append("\": { \"count\": ").append(getCount(timer))
+                    .append(", \"nanos\": ").append(getNanos(timer)).append(" }");
+        }
+        sb.append("\n  },\n");
+        sb.append("  \"hashCacheHitRatio\": ").append(getHashCacheHitRatio()).append("\n");
+        sb.append("}\n");
+        return sb.toString();
+    }
+
+    private static String escape(String s) {
+        return s == null ? "" : s.replace("\\", "\\\\").replace("\"", "\\\"");
+    }
+
+    private static LongAdder[] newAdders(int n) {
+        LongAdder[] adders = new LongAdder[n];
+        for (int i = 0; i < n; i++) {
+            adders[i] = new LongAdder();
+        }
+        return adders;
+    }
+
+    /**
+     * Checks if JFR API is available (JFR is not available in older
+     * versions of Java 8).
+     */
+    private static boolean isJfrAvailable() {
+        try {
+            Class.forName("jdk.jfr.FlightRecorder");
+            return true;
+        } catch (Throwable ex) {
+            return false;
+        }
+    }
+}
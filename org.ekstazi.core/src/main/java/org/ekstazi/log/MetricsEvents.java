@@ -0,0 +1,134 @@
+/*
+ * Copyright 2014-present Milos Gligoric
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ekstazi.log;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Period;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+import org.ekstazi.log.Metrics.Counter;
+import org.ekstazi.log.Metrics.Timer;
+
+/**
+ * JFR events for {@link Metrics}. This class is used only if JFR is
+ * available.
+ */
+final class MetricsEvents {
+
+    @Name("org.ekstazi.Operation")
+    @Label("Ekstazi Operation")
+    @Category("Ekstazi")
+    @StackTrace(false)
+    static final class OperationEvent extends Event {
+        @Label("Operation")
+        String operation;
+
+        @Label("Detail")
+        String detail;
+
+        @Label("Time")
+        @Timespan(Timespan.NANOSECONDS)
+        long time;
+    }
+
+    @Name("org.ekstazi.Summary")
+    @Label("Ekstazi Summary")
+    @Category("Ekstazi")
+    @StackTrace(false)
+    @Period("endChunk")
+    static final class SummaryEvent extends Event {
+        @Label("Classes Transformed")
+        long classesTransformed;
+
+        @Label("Transform Time")
+        @Timespan(Timespan.NANOSECONDS)
+        long transformTime;
+
+        @Label("Classes Instrumented")
+        long classesInstrumented;
+
+        @Label("Probe Calls")
+        long probeCalls;
+
+        @Label("Slow Path Hits")
+        long slowPathHits;
+
+        @Label("Lock Wait Time")
+        @Timespan(Timespan.NANOSECONDS)
+        long lockWaitTime;
+
+        @Label("Hash Cache Hit Ratio")
+        double hashCacheHitRatio;
+
+        @Label("Bytes Hashed")
+        @DataAmount(DataAmount.BYTES)
+        long bytesHashed;
+
+        @Label("Storer Load Time")
+        @Timespan(Timespan.NANOSECONDS)
+        long storerLoadTime;
+
+        @Label("Storer Save Time")
+        @Timespan(Timespan.NANOSECONDS)
+        long storerSaveTime;
+
+        @Label("Selection Time")
+        @Timespan(Timespan.NANOSECONDS)
+        long selectionTime;
+    }
+
+    /**
+     * Registers summary event of the VM (emitted at the end of each
+     * chunk).
+     */
+    static void register() {
+        FlightRecorder.addPeriodicEvent(SummaryEvent.class, new Runnable() {
+            public void run() {
+                Metrics metrics = Metrics.getVMMetrics();
+                SummaryEvent event = new SummaryEvent();
+                event.classesTransformed = metrics.getCount(Timer.TRANSFORM);
+                event.transformTime = metrics.getNanos(Timer.TRANSFORM);
+                event.classesInstrumented = metrics.get(Counter.CLASSES_INSTRUMENTED);
+                event.probeCalls = metrics.get(Counter.PROBE_CALLS);
+                event.slowPathHits = metrics.get(Counter.SLOW_PATH_HITS);
+                event.lockWaitTime = metrics.get(Counter.LOCK_WAIT_NANOS);
+                event.hashCacheHitRatio = metrics.getHashCacheHitRatio();
+                event.bytesHashed = metrics.get(Counter.BYTES_HASHED);
+                event.storerLoadTime = metrics.getNanos(Timer.STORER_LOAD);
+                event.storerSaveTime = metrics.getNanos(Timer.STORER_SAVE);
+                event.selectionTime = metrics.getNanos(Timer.SELECTION);
+                event.commit();
+            }
+        });
+    }
+
+    static void commitOperation(String operation, String detail, long nanos) {
+        OperationEvent event = new OperationEvent();
+        if (event.shouldCommit()) {
+            event.operation = operation;
+            event.detail = detail;
+            event.time = nanos;
+            event.commit();
+        }
+    }
+}
@@ -35,8 +35,13 @@ public abstract class AbstractMojoInterceptor {
 
     /** Property key used to pass argLine from plugin to interceptor */
     public static final String ARGLINE_INTERNAL_PROP = "ekstazi.argline.internal";
-    /** Property key used to pass excludes list from plugin to interceptor */
+    /** Property key used to pass (path to) excludes list from plugin to interceptor */
     public static final String EXCLUDES_INTERNAL_PROP = "ekstazi.excludes.internal";
+    /** Property key used to pass (path to) includes list from plugin to interceptor */
+    public static final String INCLUDES_INTERNAL_PROP = "ekstazi.includes.internal";
+
+    /** Field in Mojo with project base directory */
+    private static final String BASEDIR_FIELD = "basedir";
 
     /** getLog method in Mojo */
     private static final String GET_LOG_METHOD = "getLog";
@@ -47,16 +52,43 @@ public abstract class AbstractMojoInterceptor {
     protected static final String GET_ARG_LINE = "getArgLine";
     protected static final String ARGLINE_FIELD = "argLine";
     
+    // PROPERTIES
+
+    /**
+     * Sets (or clears if the value is null) the given internal property
+     * for the project in the given directory. Each project (e.g., module
+     * in a build) has its own properties, so that several projects can be
+     * built in parallel in one VM.
+     */
+    public static void setInternalProperty(String key, File basedir, String value) {
+        String projectKey = key + "." + basedir.getAbsolutePath();
+        if (value == null) {
+            System.clearProperty(projectKey);
+        } else {
+            System.setProperty(projectKey, value);
+        }
+    }
+
+    /**
+     * Returns the given internal property for the project of the given
+     * mojo.
+     */
+    protected static String getInternalProperty(String key, Object mojo) throws Exception {
+        File basedir = (File) getField(BASEDIR_FIELD, mojo);
+        return System.getProperty(key + "." + basedir.getAbsolutePath());
+    }
+
     // UPDATES
 
-    protected static String makeArgLine(Object mojo, Config.AgentMode junitMode, String currentArgLine)
-            throws Exception {
+    protected static String makeArgLine(Object mojo, Config.AgentMode junitMode, boolean isParallel,
+            String currentArgLine) throws Exception {
         URL agentJarURL = Types.extractJarURL(EkstaziAgent.class);
         String agentAbsolutePath = new File(agentJarURL.toURI().getSchemeSpecificPart()).getAbsolutePath();
-        String more = "-javaagent:" + agentAbsolutePath + "=mode=" + junitMode + ",";
+        String more = "-javaagent:" + agentAbsolutePath + "=mode=" + junitMode + ","
+                + (isParallel ? Config.DEPENDENCIES_PARALLEL_N + "=true," : "");
 
         // Get argLine as prepared by Ekstazi plugin.
-        String ekstaziArgLine = System.getProperty(ARGLINE_INTERNAL_PROP);
+        String ekstaziArgLine = getInternalProperty(ARGLINE_INTERNAL_PROP, mojo);
         String newArgLine = currentArgLine == null || currentArgLine.equals("") ? ekstaziArgLine : ekstaziArgLine + " "
                 + currentArgLine;
         return more + newArgLine;
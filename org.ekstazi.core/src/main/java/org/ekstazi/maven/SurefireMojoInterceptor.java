@@ -16,12 +16,15 @@
 
 package org.ekstazi.maven;
 
+import java.io.File;
+import java.lang.reflect.Method;
 import java.util.Arrays;
 import java.util.ArrayList;
 import java.util.List;
 
 import org.ekstazi.Config;
 import org.ekstazi.Names;
+import org.ekstazi.util.FileUtil;
 
 /**
  * Monitor invoked before Surefire. The purpose of monitoring is to
@@ -33,10 +36,21 @@ public final class SurefireMojoInterceptor extends AbstractMojoInterceptor {
     // Methods in Surefire Mojo.
     private static final String GET_FORK_COUNT = "getForkCount";
     private static final String IS_REUSE_FORKS = "isReuseForks";
+    private static final String GET_INCLUDES = "getIncludes";
+    private static final String SET_INCLUDES = "setIncludes";
+    private static final String GET_DEFAULT_INCLUDES = "getDefaultIncludes";
     // Fields in Surefire Mojo.
     private static final String EXCLUDES_FIELD = "excludes";
     private static final String PARALLEL_FIELD = "parallel";
     private static final String FORK_MODE_FIELD = "forkMode";
+    private static final String INCLUDES_FILE_FIELD = "includesFile";
+    private static final String TEST_FIELD = "test";
+
+    /** Class used by Surefire to match include/exclude patterns */
+    private static final String SELECTOR_UTILS_BIN = "org.codehaus.plexus.util.SelectorUtils";
+    private static final String MATCH_PATH = "matchPath";
+    private static final String JAVA_EXT = ".java";
+    private static final String CLASS_EXT = ".class";
 
     // Used to check Surefire version (2.7 or higher).
     @SuppressWarnings("unused")
@@ -71,12 +85,12 @@ public final class SurefireMojoInterceptor extends AbstractMojoInterceptor {
         checkSurefireConfiguration(mojo);
 
         try {
-            // Update argLine.
-            updateArgLine(mojo);
-            // Update excludes.
-            updateExcludes(mojo);
-            // Update parallel.
-            updateParallel(mojo);
+            // Update argLine (unless tests run without agent).
+            if (getInternalProperty(ARGLINE_INTERNAL_PROP, mojo) != null) {
+                updateArgLine(mojo);
+            }
+            // Update includes or excludes (whichever is shorter).
+            updateIncludesOrExcludes(mojo);
         } catch (Exception ex) {
             // This exception should not happen in theory.
             throwMojoExecutionException(mojo, "Unsupported surefire version", ex);
@@ -154,16 +168,105 @@ public final class SurefireMojoInterceptor extends AbstractMojoInterceptor {
     private static void updateArgLine(Object mojo) throws Exception {
         Config.AgentMode junitMode = isOneVMPerClass(mojo) ? Config.AgentMode.JUNITFORK : Config.AgentMode.JUNIT;
         String currentArgLine = (String) getField(ARGLINE_FIELD, mojo);
-        String newArgLine = makeArgLine(mojo, junitMode, currentArgLine);
+        String newArgLine = makeArgLine(mojo, junitMode, isParallel(mojo), currentArgLine);
         setField(ARGLINE_FIELD, mojo, newArgLine);
     }
     
-    private static void updateExcludes(Object mojo) throws Exception {
+    /**
+     * Passes selected tests to Surefire. Surefire matches each test class
+     * against each pattern, so we pass tests to run (as includes) if that
+     * list is shorter than the list of tests to skip (excludes). Includes
+     * are used only if the user did not change the way Surefire finds tests
+     * (other than with plain "includes" patterns).
+     */
+    private static void updateIncludesOrExcludes(Object mojo) throws Exception {
+        List<String> ekstaziExcludes = readList(getInternalProperty(EXCLUDES_INTERNAL_PROP, mojo));
+        List<String> ekstaziIncludes = null;
+        try {
+            ekstaziIncludes = findIncludes(mojo, readList(getInternalProperty(INCLUDES_INTERNAL_PROP, mojo)));
+        } catch (Exception ex) {
+            // Unknown surefire version; excludes always work.
+        }
+        if (ekstaziIncludes != null && !ekstaziIncludes.isEmpty() && ekstaziIncludes.size() < ekstaziExcludes.size()) {
+            invokeSetMethod(SET_INCLUDES, mojo, ekstaziIncludes, List.class);
+        } else {
+            updateExcludes(mojo, ekstaziExcludes);
+        }
+    }
+
+    /**
+     * Returns the given classes that match includes of the given mojo, or
+     * null if includes cannot be used.
+     */
+    private static List<String> findIncludes(Object mojo, List<String> classes) throws Exception {
+        String test = getStringField(TEST_FIELD, mojo);
+        if (classes == null || getField(INCLUDES_FILE_FIELD, mojo) != null || (test != null && !test.equals(""))) {
+            return null;
+        }
+        List<String> patterns = invokeAndGetList(GET_INCLUDES, mojo);
+        if (patterns == null || patterns.isEmpty()) {
+            Method method = findMethod(mojo.getClass(), GET_DEFAULT_INCLUDES);
+            method.setAccessible(true);
+            patterns = Arrays.asList((String[]) method.invoke(mojo));
+        }
+        for (String pattern : patterns) {
+            // Only patterns interpreted the same way by all surefire
+            // versions are supported (e.g., no regular expressions).
+            pattern = pattern.trim();
+            if (!pattern.contains("/") || pattern.startsWith("%") || pattern.contains("#")
+                    || !(pattern.endsWith(JAVA_EXT) || pattern.endsWith(CLASS_EXT))) {
+                return null;
+            }
+        }
+        Method matchPath = mojo.getClass().getClassLoader().loadClass(SELECTOR_UTILS_BIN)
+                .getMethod(MATCH_PATH, String.class, String.class);
+        List<String> includes = new ArrayList<String>();
+        for (String className : classes) {
+            for (String pattern : patterns) {
+                pattern = pattern.trim();
+                String path = pattern.endsWith(CLASS_EXT) ? className.substring(0,
+                        className.length() - JAVA_EXT.length()) + CLASS_EXT : className;
+                if ((Boolean) matchPath.invoke(null, pattern, path)) {
+                    includes.add(className);
+                    break;
+                }
+            }
+        }
+        return includes;
+    }
+
+    private static Method findMethod(Class<?> clz, String methodName) throws NoSuchMethodException {
+        for (Class<?> c = clz; c != null; c = c.getSuperclass()) {
+            try {
+                return c.getDeclaredMethod(methodName);
+            } catch (NoSuchMethodException ex) {
+                // Try superclass.
+            }
+        }
+        throw new NoSuchMethodException(methodName);
+    }
+
+    /**
+     * Reads list of classes (one per line) from the given file; returns
+     * null if there is no file.
+     */
+    private static List<String> readList(String fileName) throws Exception {
+        if (fileName == null || !new File(fileName).exists()) {
+            return null;
+        }
+        List<String> list = new ArrayList<String>();
+        for (String line : FileUtil.readLines(new File(fileName))) {
+            if (!line.equals("")) {
+                list.add(line);
+            }
+        }
+        return list;
+    }
+
+    private static void updateExcludes(Object mojo, List<String> ekstaziExcludes) throws Exception {
         // Get excludes set by the user (in pom.xml in Surefire).
         List<String> currentExcludes = getListField(EXCLUDES_FIELD, mojo);
-        List<String> ekstaziExcludes = new ArrayList<String>(Arrays.asList(System.getProperty(EXCLUDES_INTERNAL_PROP)
-                .replace("[", "").replace("]", "").split(",")));
-        List<String> newExcludes = ekstaziExcludes;
+        List<String> newExcludes = ekstaziExcludes == null ? new ArrayList<String>() : ekstaziExcludes;
         if (currentExcludes != null) {
             newExcludes.addAll(currentExcludes);
         } else {
@@ -174,22 +277,19 @@ public final class SurefireMojoInterceptor extends AbstractMojoInterceptor {
     }
 
     /**
-     * Sets parallel parameter to null if the parameter is different from null
-     * and prints a warning.
-     * 
-     * This method is written in Shanghai'14.
+     * Returns true if parallel parameter is set. Tests can run in
+     * parallel, but dependencies have to be attributed to the test
+     * class run by each thread.
      */
-    private static void updateParallel(Object mojo) throws Exception {
+    private static boolean isParallel(Object mojo) throws Exception {
         try {
             String currentParallel = getStringField(PARALLEL_FIELD, mojo);
-            if (currentParallel != null) {
-                warn(mojo, "Ekstazi does not support parallel parameter.  This parameter will be set to null for this run.");
-                setField(PARALLEL_FIELD, mojo, null);
-            }
-        } catch (NoSuchMethodException ex) {
-            // "parallel" was introduced in Surefire 2.2, so methods
+            return currentParallel != null && !currentParallel.equals("");
+        } catch (NoSuchFieldException ex) {
+            // "parallel" was introduced in Surefire 2.2, so field
             // may not exist, but we do not fail because default is
             // sequential execution.
+            return false;
         }
     }
 
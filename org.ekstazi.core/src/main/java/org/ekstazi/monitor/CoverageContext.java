@@ -0,0 +1,96 @@
+/*
+ * Copyright 2014-present Milos Gligoric
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ekstazi.monitor;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Dependencies collected for one test class when test classes (or
+ * test methods) run in parallel. A context is attached to the thread
+ * that runs the test class and inherited by threads started from that
+ * thread.
+ */
+final class CoverageContext {
+
+    /** Probe array (see CoverageMonitor); races are benign */
+    final Class<?>[] mProbes;
+
+    /**
+     * Collected classes; concurrent, as threads of a test class (and
+     * threads without a context) touch classes without a lock
+     */
+    private final Set<Class<?>> mClasses;
+
+    /** Collected urls (concurrent) */
+    private final Set<String> mURLs;
+
+    /** Context used by the thread before this context was open */
+    private final CoverageContext mParent;
+
+    /** Set when test class finished; touches then go to monitor */
+    private volatile boolean mIsClosed;
+
+    /**
+     * Constructor.
+     */
+    CoverageContext(int probeArraySize, CoverageContext parent) {
+        this.mParent = parent;
+        this.mProbes = new Class<?>[probeArraySize];
+        this.mClasses = Collections.newSetFromMap(new ConcurrentHashMap<Class<?>, Boolean>());
+        this.mURLs = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    }
+
+    boolean addClass(Class<?> clz) {
+        return mClasses.add(clz);
+    }
+
+    void addURL(String externalForm) {
+        mURLs.add(externalForm);
+    }
+
+    void addURLs(String[] externalForms) {
+        for (String externalForm : externalForms) {
+            mURLs.add(externalForm);
+        }
+    }
+
+    void clean() {
+        mClasses.clear();
+        mURLs.clear();
+        Arrays.fill(mProbes, null);
+    }
+
+    void copyURLs(Collection<String> result) {
+        result.addAll(mURLs);
+    }
+
+    CoverageContext getParent() {
+        return mParent;
+    }
+
+    boolean isClosed() {
+        return mIsClosed;
+    }
+
+    void close() {
+        mIsClosed = true;
+    }
+}
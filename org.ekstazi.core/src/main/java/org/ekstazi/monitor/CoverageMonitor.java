@@ -32,6 +32,7 @@ import java.util.concurrent.locks.ReentrantLock;
 import org.ekstazi.Config;
 import org.ekstazi.Names;
 import org.ekstazi.log.Log;
+import org.ekstazi.log.Metrics;
 import org.ekstazi.research.Research;
 import org.ekstazi.util.Types;
 
@@ -76,12 +77,23 @@ public final class CoverageMonitor {
     /** Probe array */
     private static final Class<?>[] PROBE_ARRAY = new Class<?>[PROBE_ARRAY_SIZE];
 
+    /** Context of the test class run by the current thread (only used in parallel runs) */
+    private static final InheritableThreadLocal<CoverageContext> sContext = new InheritableThreadLocal<CoverageContext>();
+
+    /** Contexts of test classes that are currently running */
+    private static final Set<CoverageContext> sOpenContexts = new HashSet<CoverageContext>();
+
     // FRAMEWORK AND RUNTIME
 
     /**
      * Clean dynamically collected coverage.
      */
     public static void clean() {
+        CoverageContext context = context();
+        if (context != null) {
+            context.clean();
+            return;
+        }
         try {
             sLock.lock();
             clean0();
@@ -124,6 +136,11 @@ public final class CoverageMonitor {
      * system to preset some values.
      */
     public static void addURLs(String... urls) {
+        CoverageContext context = context();
+        if (context != null) {
+            context.addURLs(urls);
+            return;
+        }
         try {
             sLock.lock();
             addURLs0(urls);
@@ -154,18 +171,23 @@ public final class CoverageMonitor {
      * invoked from other parts of our system to obtain the collected data.
      */
     public static String[] getURLs() {
+        CoverageContext context = context();
         try {
             sLock.lock();
-            return getURLs0();
+            return getURLs0(context);
         } finally {
             sLock.unlock();
         }
     }
 
-    private static String[] getURLs0() {
+    private static String[] getURLs0(CoverageContext context) {
         List<String> result = new ArrayList<String>();
-        for (String url : sURLs) {
-            result.add(url);
+        if (context != null) {
+            context.copyURLs(result);
+        } else {
+            for (String url : sURLs) {
+                result.add(url);
+            }
         }
         for (String url : sUncleanableURLs) {
             result.add(url);
@@ -188,6 +210,9 @@ public final class CoverageMonitor {
      * moment.
      */
     public static void t(Class<?> clz) {
+        if (Config.DEPENDENCIES_PARALLEL_V && tInContexts(clz)) {
+            return;
+        }
         // Must be non null and type of interest.
         if (clz == null || ClassesCache.check(clz) || Types.isIgnorable(clz)) {
             return;
@@ -195,7 +220,15 @@ public final class CoverageMonitor {
 
         // Check and assign id to this class (this must be synchronized).
         try {
-            sLock.lock();
+            if (Config.METRICS_V) {
+                Metrics metrics = Metrics.getVMMetrics();
+                metrics.inc(Metrics.Counter.SLOW_PATH_HITS);
+                long start = System.nanoTime();
+                sLock.lock();
+                metrics.add(Metrics.Counter.LOCK_WAIT_NANOS, System.nanoTime() - start);
+            } else {
+                sLock.lock();
+            }
             if (!sClasses.add(clz)) {
                 return;
             }
@@ -203,6 +236,40 @@ public final class CoverageMonitor {
             sLock.unlock();
         }
 
+        recordClass(null, clz);
+    }
+
+    /**
+     * Touch method used in parallel runs. The class is collected in the
+     * context of the current thread; if the thread has no context (e.g.,
+     * a thread from a pool shared by tests), the class is collected in
+     * each open context. Returns false if no context is open.
+     */
+    private static boolean tInContexts(Class<?> clz) {
+        CoverageContext context = context();
+        if (context != null) {
+            t(context, clz);
+            return true;
+        }
+        CoverageContext[] openContexts = getOpenContexts();
+        for (CoverageContext openContext : openContexts) {
+            t(openContext, clz);
+        }
+        return openContexts.length > 0;
+    }
+
+    /**
+     * Touch method used in parallel runs. Classes are collected in the
+     * given context rather than in (global) caches of this monitor.
+     */
+    private static void t(CoverageContext context, Class<?> clz) {
+        if (clz == null || Types.isIgnorable(clz) || !context.addClass(clz)) {
+            return;
+        }
+        recordClass(context, clz);
+    }
+
+    private static void recordClass(CoverageContext context, Class<?> clz) {
         String className = clz.getName();
         String resourceName = className.substring(className.lastIndexOf(".") + 1).concat(".class");
         URL url = null;
@@ -217,7 +284,7 @@ public final class CoverageMonitor {
         if (url == null) {
             return;
         }
-        recordURL(url.toExternalForm());
+        recordURL(context, url.toExternalForm());
     }
 
     /**
@@ -230,9 +297,22 @@ public final class CoverageMonitor {
      * have to check length as we may have more probes than array allows.
      */
     public static void t(Class<?> clz, int probeId) {
+        if (Config.METRICS_V) {
+            Metrics.getVMMetrics().inc(Metrics.Counter.PROBE_CALLS);
+        }
         if (clz != null) {
             int index = probeId & PROBE_SIZE_MASK;
-            if (PROBE_ARRAY[index] != clz) {
+            if (Config.DEPENDENCIES_PARALLEL_V) {
+                // Probe array of the context; there are no probes for
+                // threads without context (each context checks classes).
+                CoverageContext context = context();
+                if (context == null) {
+                    t(clz);
+                } else if (context.mProbes[index] != clz) {
+                    context.mProbes[index] = clz;
+                    t(context, clz);
+                }
+            } else if (PROBE_ARRAY[index] != clz) {
                 PROBE_ARRAY[index] = clz;
                 t(clz);
             }
@@ -265,6 +345,99 @@ public final class CoverageMonitor {
         }
     }
 
+    // PARALLEL SUPPORT
+
+    /**
+     * Starts collecting dependencies for a test class run by the current
+     * thread; the context is inherited by threads started by the test.
+     * Invoked only if dependencies.parallel is set.
+     */
+    public static void openContext() {
+        CoverageContext context = new CoverageContext(PROBE_ARRAY_SIZE, sContext.get());
+        try {
+            sLock.lock();
+            sOpenContexts.add(context);
+        } finally {
+            sLock.unlock();
+        }
+        sContext.set(context);
+    }
+
+    /**
+     * Stops collecting dependencies for a test class run by the current
+     * thread, and restores the context that was used before (if any).
+     * Threads that still use the context (e.g., started by the test and
+     * never stopped) record dependencies as if there was no context.
+     */
+    public static void closeContext() {
+        CoverageContext context = sContext.get();
+        if (context == null) {
+            return;
+        }
+        context.close();
+        try {
+            sLock.lock();
+            sOpenContexts.remove(context);
+        } finally {
+            sLock.unlock();
+        }
+        CoverageContext parent = context.getParent();
+        if (parent != null && !parent.isClosed()) {
+            sContext.set(parent);
+        } else {
+            sContext.remove();
+        }
+    }
+
+    /**
+     * Returns a runnable that runs the given runnable in the context of
+     * the current thread. This is used to attribute dependencies to the
+     * right test class when the test (method) is run by a thread that
+     * was not started by the test, e.g., from a shared pool.
+     */
+    public static Runnable propagateContext(final Runnable runnable) {
+        final CoverageContext context = sContext.get();
+        if (context == null) {
+            return runnable;
+        }
+        return new Runnable() {
+            public void run() {
+                CoverageContext previous = sContext.get();
+                sContext.set(context);
+                try {
+                    runnable.run();
+                } finally {
+                    if (previous == null) {
+                        sContext.remove();
+                    } else {
+                        sContext.set(previous);
+                    }
+                }
+            }
+        };
+    }
+
+    /**
+     * Returns context of the current thread, or null if dependencies are
+     * collected globally.
+     */
+    private static CoverageContext context() {
+        if (!Config.DEPENDENCIES_PARALLEL_V) {
+            return null;
+        }
+        CoverageContext context = sContext.get();
+        return context == null || context.isClosed() ? null : context;
+    }
+
+    private static CoverageContext[] getOpenContexts() {
+        try {
+            sLock.lock();
+            return sOpenContexts.toArray(new CoverageContext[sOpenContexts.size()]);
+        } finally {
+            sLock.unlock();
+        }
+    }
+
     // IO SUPPORT
 
     static {
@@ -297,6 +470,14 @@ public final class CoverageMonitor {
      * @param externalForm
      */
     protected static void recordURL(String externalForm) {
+        recordURL(null, externalForm);
+    }
+
+    /**
+     * Records the given external form of URL as a dependency in the given
+     * context, or in the context of the current thread if null.
+     */
+    private static void recordURL(CoverageContext context, String externalForm) {
         if (filterURL(externalForm)) {
             return;
         }
@@ -304,10 +485,10 @@ public final class CoverageMonitor {
         if (isWellKnownUrl(externalForm)) {
             // Ignore JUnit classes if specified in configuration.
             if (Config.DEPENDENCIES_INCLUDE_WELLKNOWN_V) {
-                safeRecordURL(externalForm);
+                safeRecordURL(context, externalForm);
             }
         } else {
-            safeRecordURL(externalForm);
+            safeRecordURL(context, externalForm);
         }
     }
 
@@ -316,10 +497,25 @@ public final class CoverageMonitor {
      * 
      * @param externalForm
      */
-    private static void safeRecordURL(String externalForm) {
+    private static void safeRecordURL(CoverageContext context, String externalForm) {
+        if (context == null) {
+            context = context();
+        }
+        if (context != null) {
+            context.addURL(externalForm);
+            return;
+        }
         try {
             sLock.lock();
-            sURLs.add(externalForm);
+            // Urls recorded by threads without context while tests
+            // run in parallel are attributed to all running tests.
+            if (sOpenContexts.isEmpty()) {
+                sURLs.add(externalForm);
+            } else {
+                for (CoverageContext openContext : sOpenContexts) {
+                    openContext.addURL(externalForm);
+                }
+            }
         } finally {
             sLock.unlock();
         }
@@ -63,6 +63,14 @@ public final class Types {
     private static final String ORG_JACOCO_AGENT_VM = "org/jacoco/agent/";
     private static final String ORG_JACOCO_AGENT_BIN = internalToBinName(ORG_JACOCO_AGENT_VM);
 
+    private static final String ORG_JUNIT_VM = Names.ORG_JUNIT_PACKAGE_VM.concat("/");
+
+    private static final String JUNIT_FRAMEWORK_VM = Names.JUNIT_FRAMEWORK_PACKAGE_VM.concat("/");
+
+    private static final String ORG_HAMCREST_VM = Names.ORG_HAMCREST_VM.concat("/");
+
+    private static final String ORG_APACHE_MAVEN_VM = Names.ORG_APACHE_MAVEN_VM.concat("/");
+
     private static final String XTS_VM = Names.EKSTAZI_PACKAGE_VM.concat("/");
     private static final String XTS_BIN = internalToBinName(XTS_VM);
 
@@ -93,6 +101,18 @@ public final class Types {
                 || className.startsWith(ORG_JACOCO_AGENT_VM, 0));
     }
 
+    /**
+     * Checks if (VM) class name is in one of the well-known packages (JUnit,
+     * Hamcrest, Maven) whose classes are not collected as dependencies
+     * unless requested in configuration.
+     */
+    public static boolean isWellKnownInternalName(String className) {
+        return (className.startsWith(ORG_JUNIT_VM, 0)
+                || className.startsWith(JUNIT_FRAMEWORK_VM, 0)
+                || className.startsWith(ORG_HAMCREST_VM, 0)
+                || className.startsWith(ORG_APACHE_MAVEN_VM, 0));
+    }
+
     /**
      * Checks if (binary) class name is in one of the packages that should not
      * be instrumented.
@@ -113,6 +133,18 @@ public final class Types {
                 || className.startsWith(ORG_JACOCO_AGENT_BIN, 0));
     }
 
+    /**
+     * Checks if (binary) class name matches names of test classes that
+     * Surefire runs by default (Test*, *Test, *Tests, and *TestCase).
+     */
+    public static boolean isDefaultTestBinName(String className) {
+        String simpleName = className.substring(className.lastIndexOf('.') + 1);
+        return (simpleName.startsWith("Test")
+                || simpleName.endsWith("Test")
+                || simpleName.endsWith("Tests")
+                || simpleName.endsWith("TestCase"));
+    }
+
     /**
      * Checks if the given class should be instrumented. Returns true if the
      * class should not be instrumented, false otherwise.